@@ -0,0 +1,161 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.microbenchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import org.glowroot.common.model.LazyHistogram;
+import org.glowroot.common.model.LazyHistogram.ScratchBuffer;
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
+
+// compares HdrHistogram (bucketPrecisionBits = 0) against log-linear buckets, including the heap
+// retained per histogram, reported as the bytesPerHistogram secondary result of retainedHeap
+//
+// this doesn't need to be run with -javaagent
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class LazyHistogramBenchmark {
+
+    private static final MemoryMXBean memoryMXBean = ManagementFactory.getMemoryMXBean();
+
+    private static final int RETAINED_HISTOGRAM_COUNT = 100;
+
+    @Param({"0", "5", "7"})
+    private int bucketPrecisionBits;
+
+    // above 1024 values the histogram is no longer tracking raw values
+    @Param({"10000"})
+    private int valueCount;
+
+    private long[] values;
+
+    private LazyHistogram histogram;
+    private LazyHistogram otherHistogram;
+    private Aggregate.Histogram otherHistogramProto;
+
+    private ScratchBuffer scratchBuffer;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(0);
+        values = new long[valueCount];
+        for (int i = 0; i < valueCount; i++) {
+            // roughly log-normal response times centered around 10 milliseconds
+            values[i] = (long) (10000000 * Math.exp(random.nextGaussian()));
+        }
+        histogram = record();
+        otherHistogram = record();
+        scratchBuffer = new ScratchBuffer();
+        otherHistogramProto = otherHistogram.toProto(scratchBuffer);
+    }
+
+    @Benchmark
+    public LazyHistogram record() {
+        LazyHistogram histogram = new LazyHistogram(bucketPrecisionBits);
+        for (long value : values) {
+            histogram.add(value);
+        }
+        return histogram;
+    }
+
+    // this is the agent side merging of per-thread aggregates and the central side rollup merging
+    // of in-memory aggregates
+    @Benchmark
+    public LazyHistogram merge() {
+        LazyHistogram mergedHistogram = new LazyHistogram(bucketPrecisionBits);
+        mergedHistogram.merge(histogram);
+        mergedHistogram.merge(otherHistogram);
+        return mergedHistogram;
+    }
+
+    // this is the central side rollup merging of stored aggregates
+    @Benchmark
+    public LazyHistogram mergeProto() {
+        LazyHistogram mergedHistogram = new LazyHistogram(bucketPrecisionBits);
+        mergedHistogram.merge(histogram);
+        mergedHistogram.merge(otherHistogramProto);
+        return mergedHistogram;
+    }
+
+    @Benchmark
+    public long percentiles() {
+        return histogram.getValueAtPercentile(50) + histogram.getValueAtPercentile(95)
+                + histogram.getValueAtPercentile(99);
+    }
+
+    @Benchmark
+    public Aggregate.Histogram toProto() {
+        return histogram.toProto(scratchBuffer);
+    }
+
+    @Benchmark
+    public int toProtoSerializedSize() {
+        return histogram.toProto(scratchBuffer).getSerializedSize();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void retainedHeap(RetainedHeap retainedHeap) {
+        for (int i = 0; i < RETAINED_HISTOGRAM_COUNT; i++) {
+            retainedHeap.histograms[i] = record();
+        }
+        // measured as the heap released when the histograms are released, which (unlike measuring
+        // the heap growth) is not thrown off by garbage that is still reachable from prior
+        // invocations
+        long heapUsedBefore = getHeapUsedAfterGc();
+        Arrays.fill(retainedHeap.histograms, null);
+        retainedHeap.bytesPerHistogram =
+                (heapUsedBefore - getHeapUsedAfterGc()) / (double) RETAINED_HISTOGRAM_COUNT;
+    }
+
+    private static long getHeapUsedAfterGc() {
+        System.gc();
+        System.gc();
+        return memoryMXBean.getHeapMemoryUsage().getUsed();
+    }
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class RetainedHeap {
+
+        public double bytesPerHistogram;
+
+        private final LazyHistogram /*@Nullable*/ [] histograms =
+                new LazyHistogram[RETAINED_HISTOGRAM_COUNT];
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytesPerHistogram = 0;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.microbenchmarks;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.Lists;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import org.glowroot.common.model.MutableProfile;
+import org.glowroot.wire.api.model.ProfileOuterClass.Profile;
+
+// merges stack trace samples shaped like deep web framework stacks, i.e. a long common prefix
+// (thread pool, servlet container, filter chain, dispatcher) that fans out at a few points into
+// many distinct controller/service/persistence branches
+//
+// this doesn't need to be run with -javaagent
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class MutableProfileBenchmark {
+
+    private static final int SAMPLE_COUNT = 1000;
+
+    @Param({"50", "200"})
+    private int stackDepth;
+
+    // number of distinct branches at each fan out point
+    @Param({"4", "64"})
+    private int fanOut;
+
+    private List<List<StackTraceElement>> samples;
+    private Profile profile;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(0);
+        samples = Lists.newArrayList();
+        for (int i = 0; i < SAMPLE_COUNT; i++) {
+            samples.add(createSample(random));
+        }
+        MutableProfile mutableProfile = new MutableProfile();
+        for (List<StackTraceElement> sample : samples) {
+            mutableProfile.merge(sample, Thread.State.RUNNABLE);
+        }
+        profile = mutableProfile.toProto();
+    }
+
+    // this is the agent side merging of stack trace samples into transaction and aggregate profiles
+    @Benchmark
+    @OperationsPerInvocation(SAMPLE_COUNT)
+    public MutableProfile mergeStackTraces() {
+        MutableProfile mutableProfile = new MutableProfile();
+        for (List<StackTraceElement> sample : samples) {
+            mutableProfile.merge(sample, Thread.State.RUNNABLE);
+        }
+        return mutableProfile;
+    }
+
+    // this is the merging of stored profiles, e.g. central rollups and the UI
+    @Benchmark
+    public MutableProfile mergeProfiles() {
+        MutableProfile mutableProfile = new MutableProfile();
+        for (int i = 0; i < 10; i++) {
+            mutableProfile.merge(profile);
+        }
+        return mutableProfile;
+    }
+
+    @Benchmark
+    public Profile toProto() {
+        MutableProfile mutableProfile = new MutableProfile();
+        mutableProfile.merge(profile);
+        return mutableProfile.toProto();
+    }
+
+    private List<StackTraceElement> createSample(Random random) {
+        // built from the root (thread entry point) outwards, then reversed into leaf first order
+        List<StackTraceElement> frames = Lists.newArrayList();
+        frames.add(new StackTraceElement("java.lang.Thread", "run", "Thread.java", 748));
+        int fanOutPoints = 3;
+        int segmentDepth = (stackDepth - 1) / (fanOutPoints + 1);
+        for (int segment = 0; segment <= fanOutPoints; segment++) {
+            int branch = segment == 0 ? 0 : random.nextInt(fanOut);
+            for (int i = 0; i < segmentDepth; i++) {
+                String packageName = FRAMEWORK_PACKAGES[(segment + i) % FRAMEWORK_PACKAGES.length];
+                String className = "Handler" + segment + "x" + branch + "x" + i;
+                frames.add(new StackTraceElement(packageName + '.' + className,
+                        i % 3 == 0 ? "invoke" : "doFilter" + i, className + ".java",
+                        100 + i));
+            }
+        }
+        // leaf frames vary by line number, like samples landing in different parts of a method
+        frames.add(new StackTraceElement("java.net.SocketInputStream", "socketRead0",
+                "SocketInputStream.java", random.nextInt(20)));
+        return Lists.reverse(frames);
+    }
+
+    private static final String[] FRAMEWORK_PACKAGES = new String[] {
+            "org.apache.catalina.core", "org.apache.tomcat.util.net",
+            "org.springframework.web.servlet", "org.springframework.web.filter",
+            "org.springframework.aop.framework", "org.hibernate.internal",
+            "org.hibernate.loader", "com.example.app.service"};
+}
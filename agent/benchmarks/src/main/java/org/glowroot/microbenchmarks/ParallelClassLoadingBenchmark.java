@@ -0,0 +1,114 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.microbenchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import com.google.common.base.Splitter;
+import com.google.common.base.StandardSystemProperty;
+import com.google.common.collect.Lists;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+// measures class loading (and weaving) from many threads at once, each thread using its own class
+// loaders, similar to an app server starting up many deployments in parallel
+//
+// run with -jvmArgs "-javaagent:path/to/glowroot.jar" and compare agent builds before and after a
+// change to the weaving internals (e.g. AnalyzedWorld) to see contention between the threads,
+// and compare -t 1 against the default thread count to see how well it scales
+//
+// this needs at least as many cores as threads, otherwise the threads are mostly time sliced
+// rather than running in parallel, and contention between them does not show up
+@BenchmarkMode(Mode.SingleShotTime)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+@Threads(8)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class ParallelClassLoadingBenchmark {
+
+    private URL[] classPath;
+    private List<String> classNames;
+
+    @Setup
+    public void setup() throws IOException {
+        List<URL> urls = Lists.newArrayList();
+        classNames = Lists.newArrayList();
+        for (String path : getClassPath()) {
+            urls.add(new File(path).toURI().toURL());
+            if (!path.endsWith(".jar")) {
+                continue;
+            }
+            JarFile jarFile = new JarFile(path);
+            try {
+                Enumeration<JarEntry> e = jarFile.entries();
+                while (e.hasMoreElements()) {
+                    JarEntry jarEntry = e.nextElement();
+                    String name = jarEntry.getName();
+                    if (name.startsWith("org/springframework/") && name.endsWith(".class")) {
+                        name = name.replace('/', '.');
+                        name = name.substring(0, name.length() - ".class".length());
+                        classNames.add(name);
+                    }
+                }
+            } finally {
+                jarFile.close();
+            }
+        }
+        classPath = urls.toArray(new URL[0]);
+    }
+
+    @Benchmark
+    public void execute() throws Exception {
+        // new class loader for each invocation so that every class is loaded (and woven) again
+        URLClassLoader loader =
+                new URLClassLoader(classPath, ClassLoader.getSystemClassLoader().getParent());
+        try {
+            for (String className : classNames) {
+                try {
+                    Class.forName(className, false, loader);
+                } catch (NoClassDefFoundError e) {
+                    // optional dependencies are not transitively included
+                }
+            }
+        } finally {
+            loader.close();
+        }
+    }
+
+    private static List<String> getClassPath() {
+        String classPath = StandardSystemProperty.JAVA_CLASS_PATH.value();
+        return Splitter.on(StandardSystemProperty.PATH_SEPARATOR.value()).splitToList(classPath);
+    }
+}
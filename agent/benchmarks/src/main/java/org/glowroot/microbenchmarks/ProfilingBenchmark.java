@@ -0,0 +1,111 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.microbenchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.glowroot.microbenchmarks.support.ProfilingWorthy;
+
+// compares the overhead that the ThreadMXBean based profiler (StackTraceCollector) and the JFR
+// based profiler (JfrStackTraceCollector) add to CPU bound transactions running concurrently
+//
+// run with -jvmArgs "-javaagent:path/to/glowroot.jar" and with "profilingIntervalMillis": 10 under
+// "transaction" in the glowroot config.json (and again with profiling disabled for the baseline),
+// the JFR based profiler requires java 14+
+//
+// JFR delivers samples in batches roughly once a second, and samples are only attributed to
+// transactions that are still active when the batch is delivered, so each transaction runs for
+// roughly two seconds (on an otherwise idle core), otherwise the JFR based profiler would drop most
+// of its samples and look cheaper than it is
+//
+// the profiler gauges (in particular AttributedSampleCount for the JFR based profiler) are printed
+// at the end of each fork, check that they are non-zero (and for the JFR based profiler, that most
+// of the samples of the benchmark threads were attributed) before comparing the results
+//
+// needs at least as many cores as threads, otherwise the transactions take longer than expected
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 10)
+@State(Scope.Thread)
+@Threads(8)
+public class ProfilingBenchmark {
+
+    @Param({"20000000"})
+    private int iterations;
+
+    private ProfilingWorthy profilingWorthy;
+
+    @Setup
+    public void setup() {
+        profilingWorthy = new ProfilingWorthy();
+    }
+
+    @Benchmark
+    public double threadMXBean() {
+        return profilingWorthy.doSomethingProfilingWorthy(iterations);
+    }
+
+    @Benchmark
+    @Fork(jvmArgsAppend = "-Dglowroot.internal.profiling.jfr=true")
+    public double jfr() {
+        return profilingWorthy.doSomethingProfilingWorthy(iterations);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        printGauges(server, "org.glowroot:type=StackTraceCollector", "CaptureCount",
+                "SampledThreadCount", "CaptureTime");
+        printGauges(server, "org.glowroot:type=JfrStackTraceCollector", "SampleCount",
+                "AttributedSampleCount", "ProcessingTime");
+    }
+
+    private static void printGauges(MBeanServer server, String name, String... attributeNames)
+            throws Exception {
+        ObjectName objectName = new ObjectName(name);
+        if (!server.isRegistered(objectName)) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder(name);
+        for (String attributeName : attributeNames) {
+            sb.append(' ');
+            sb.append(attributeName);
+            sb.append('=');
+            sb.append(server.getAttribute(objectName, attributeName));
+        }
+        System.out.println(sb);
+    }
+}
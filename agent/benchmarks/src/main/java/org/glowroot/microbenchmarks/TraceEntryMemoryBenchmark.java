@@ -0,0 +1,91 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.microbenchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import org.glowroot.microbenchmarks.support.BatchJobWorthy;
+
+// measures the heap retained per trace entry by a transaction with a very large number of trace
+// entries (e.g. a batch job), reported as the bytesPerEntry secondary result
+//
+// run with -jvmArgs "-javaagent:path/to/glowroot.jar" and with "maxTraceEntriesPerTransaction":
+// 100000 under "advanced" in the glowroot config.json (otherwise trace entries beyond the default
+// limit are not retained), and compare the results across agent builds
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class TraceEntryMemoryBenchmark {
+
+    private static final MemoryMXBean memoryMXBean = ManagementFactory.getMemoryMXBean();
+
+    @Param({"100000"})
+    private int entryCount;
+
+    private BatchJobWorthy batchJobWorthy;
+
+    @Setup
+    public void setup() {
+        batchJobWorthy = new BatchJobWorthy();
+    }
+
+    @Benchmark
+    public void execute(final RetainedHeap retainedHeap) {
+        batchJobWorthy.doSomethingBatchJobWorthy(new Runnable() {
+            @Override
+            public void run() {
+                long heapUsedBefore = getHeapUsedAfterGc();
+                for (int i = 0; i < entryCount; i++) {
+                    batchJobWorthy.doSomethingBatchItemWorthy(i);
+                }
+                // the trace entries are still retained by the (active) transaction at this point
+                retainedHeap.bytesPerEntry =
+                        (getHeapUsedAfterGc() - heapUsedBefore) / (double) entryCount;
+            }
+        });
+    }
+
+    private static long getHeapUsedAfterGc() {
+        System.gc();
+        System.gc();
+        return memoryMXBean.getHeapMemoryUsage().getUsed();
+    }
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class RetainedHeap {
+
+        public double bytesPerEntry;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytesPerEntry = 0;
+        }
+    }
+}
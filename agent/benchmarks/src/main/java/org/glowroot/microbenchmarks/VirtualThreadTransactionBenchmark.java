@@ -0,0 +1,89 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.microbenchmarks;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import org.glowroot.microbenchmarks.support.TransactionWorthy;
+
+// measures a transaction that runs on its own (new) thread, which is the typical shape of a
+// thread-per-request app on virtual threads, where each transaction also pays for the thread
+// context holder on a new thread (see ThreadContextThreadLocal)
+//
+// requires java 21+ for the VIRTUAL thread type (accessed via reflection since the benchmarks are
+// compiled against java 8), run with and without -jvmArgs "-javaagent:path/to/glowroot.jar" to see
+// the agent overhead on top of the thread start
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class VirtualThreadTransactionBenchmark {
+
+    @Param
+    private ThreadType threadType;
+
+    private Runnable task;
+
+    private Method startVirtualThreadMethod;
+
+    @Setup
+    public void setup() throws Exception {
+        final TransactionWorthy transactionWorthy = new TransactionWorthy();
+        task = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    transactionWorthy.doSomethingTransactionWorthy();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        if (threadType == ThreadType.VIRTUAL) {
+            startVirtualThreadMethod = Thread.class.getMethod("startVirtualThread", Runnable.class);
+        }
+    }
+
+    @Benchmark
+    public void execute() throws Exception {
+        Thread thread;
+        switch (threadType) {
+            case PLATFORM:
+                thread = new Thread(task);
+                thread.start();
+                break;
+            case VIRTUAL:
+                thread = (Thread) startVirtualThreadMethod.invoke(null, task);
+                break;
+            default:
+                throw new IllegalStateException("Unexpected thread type: " + threadType);
+        }
+        thread.join();
+    }
+
+    public enum ThreadType {
+        PLATFORM, VIRTUAL
+    }
+}
@@ -0,0 +1,28 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.microbenchmarks.support;
+
+public class ProfilingWorthy {
+
+    // long enough (a few milliseconds) to be sampled a few times at short profiling intervals
+    public double doSomethingProfilingWorthy(int iterations) {
+        double value = 0;
+        for (int i = 0; i < iterations; i++) {
+            value += String.valueOf(i * value).hashCode();
+        }
+        return value;
+    }
+}
@@ -44,6 +44,16 @@ public class Bytecode {
         service.enteringPossibleProcrunStartMethod(className, methodName, methodArgs);
     }
 
+    // this call is woven into the end of java.lang.VirtualThread.mount()
+    public static void mountedVirtualThread(Thread virtualThread, Thread carrierThread) {
+        service.mountedVirtualThread(virtualThread, carrierThread);
+    }
+
+    // this call is woven into the beginning of java.lang.VirtualThread.unmount()
+    public static void unmountingVirtualThread(Thread virtualThread, Thread carrierThread) {
+        service.unmountingVirtualThread(virtualThread, carrierThread);
+    }
+
     public static ThreadContextThreadLocal.Holder getCurrentThreadContextHolder() {
         return service.getCurrentThreadContextHolder();
     }
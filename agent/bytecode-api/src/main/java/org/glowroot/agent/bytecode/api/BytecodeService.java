@@ -33,6 +33,10 @@ public interface BytecodeService {
 
     void exitingGetPlatformMBeanServer();
 
+    void mountedVirtualThread(Thread virtualThread, Thread carrierThread);
+
+    void unmountingVirtualThread(Thread virtualThread, Thread carrierThread);
+
     ThreadContextThreadLocal.Holder getCurrentThreadContextHolder();
 
     ThreadContextPlus createOptionalThreadContext(
@@ -26,6 +26,12 @@ import org.checkerframework.checker.nullness.qual.Nullable;
  * slot and avoid the slow path ThreadLocalMap.getEntryAfterMiss().
  * 
  * Important: this thread local will live in ThreadLocalMap forever, so use with care.
+ *
+ * On virtual threads, the holder lives in the virtual thread's own ThreadLocalMap (not in the
+ * carrier thread's), so it is collected together with the virtual thread, and the thread context
+ * never leaks to other virtual threads that are mounted on the same carrier. Thread contexts are
+ * propagated to virtual threads by the executor plugin (as auxiliary thread contexts), not by
+ * inheriting this thread local.
  */
 // NOTE this is same as org.glowroot.agent.plugin.api.util.FastThreadLocal, but not genericized in
 // order to help with stack frame maps
@@ -17,6 +17,7 @@ package org.glowroot.agent.central;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.InetAddress;
 import java.util.List;
@@ -27,6 +28,7 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
 import com.google.common.collect.Lists;
 import com.google.common.io.Closer;
 import io.grpc.stub.StreamObserver;
@@ -36,6 +38,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.glowroot.agent.central.CentralConnection.GrpcCall;
+import org.glowroot.agent.central.CentralSpool.DelimitedStreamObserver;
+import org.glowroot.agent.central.CentralSpool.Payload;
+import org.glowroot.agent.central.UploadLanes.Upload;
 import org.glowroot.agent.collector.Collector;
 import org.glowroot.agent.config.ConfigService;
 import org.glowroot.agent.live.LiveJvmServiceImpl;
@@ -102,11 +107,17 @@ public class CentralCollector implements Collector {
 
     private final SharedQueryTextLimiter sharedQueryTextLimiter = new SharedQueryTextLimiter();
 
+    private final UploadLanes uploadLanes = new UploadLanes(Ticker.systemTicker());
+
+    // null when spooling is not enabled
+    private final @Nullable CentralSpool spool;
+
     private volatile @MonotonicNonNull Environment environment;
     private volatile int nextAggregateDelayMillis;
 
     public CentralCollector(Map<String, String> properties, String collectorAddress,
-            @Nullable String collectorAuthority, List<File> confDirs, boolean configReadOnly,
+            @Nullable String collectorAuthority, List<File> confDirs, File tmpDir,
+            boolean configReadOnly,
             LiveJvmServiceImpl liveJvmService, LiveWeavingServiceImpl liveWeavingService,
             LiveTraceRepositoryImpl liveTraceRepository, AgentConfigUpdater agentConfigUpdater,
             ConfigService configService) throws Exception {
@@ -139,6 +150,13 @@ public class CentralCollector implements Collector {
         downstreamServiceObserver = new DownstreamServiceObserver(centralConnection,
                 agentConfigUpdater, configReadOnly, liveJvmService, liveWeavingService,
                 liveTraceRepository, agentId, inConnectionFailure, sharedQueryTextLimiter);
+        int spoolSizeMb = getSpoolSizeMb(properties);
+        if (spoolSizeMb > 0) {
+            spool = CentralSpool.create(new File(tmpDir, "central-spool.db"), spoolSizeMb * 1024,
+                    centralConnection, collectorServiceStub, inConnectionFailure);
+        } else {
+            spool = null;
+        }
     }
 
     @Override
@@ -202,53 +220,44 @@ public class CentralCollector implements Collector {
         if (!SKIP_DELAY) {
             MILLISECONDS.sleep(nextAggregateDelayMillis);
         }
-        centralConnection
-                .blockingCallWithAFewRetries(new CollectAggregatesGrpcCall(aggregateReader));
+        Upload upload = uploadLanes.startAggregateUpload();
+        CollectAggregatesGrpcCall grpcCall = new CollectAggregatesGrpcCall(aggregateReader, upload);
+        centralConnection.asyncCallWithAFewRetries(grpcCall, grpcCall.onFinish());
     }
 
     @Override
     public void collectGaugeValues(List<GaugeValue> gaugeValues) throws InterruptedException {
-        final GaugeValueMessage gaugeValueMessage = GaugeValueMessage.newBuilder()
+        GaugeValueMessage gaugeValueMessage = GaugeValueMessage.newBuilder()
                 .setAgentId(agentId)
                 .addAllGaugeValue(gaugeValues)
                 .setPostV09(true)
                 .build();
-        centralConnection.blockingCallWithAFewRetries(new GrpcCall<GaugeValueResponseMessage>() {
-            @Override
-            public void call(StreamObserver<GaugeValueResponseMessage> responseObserver) {
-                collectorServiceStub.collectGaugeValues(gaugeValueMessage, responseObserver);
-            }
+        Upload upload = uploadLanes.startGaugeValueUpload();
+        CollectGaugeValuesGrpcCall grpcCall =
+                new CollectGaugeValuesGrpcCall(gaugeValueMessage, upload);
+        centralConnection.asyncCallWithAFewRetries(grpcCall, grpcCall.onFinish());
+    }
+
+    @Override
+    public void collectTrace(final TraceReader traceReader) throws InterruptedException {
+        Upload upload = uploadLanes.startTraceUpload(traceReader.traceId());
+        final CollectTraceGrpcCall grpcCall = new CollectTraceGrpcCall(traceReader, upload);
+        // the complete trace upload must not be overwritten by a (slower) partial trace upload of
+        // the same trace, so this waits for any prior upload of the same trace to finish
+        upload.send(new Runnable() {
             @Override
-            public void doWithResponse(GaugeValueResponseMessage response) {
-                if (response.getResendInit() && environment != null) {
-                    final InitMessage initMessage = InitMessage.newBuilder()
-                            .setAgentId(agentId)
-                            .setEnvironment(environment)
-                            .setAgentConfig(configService.getAgentConfig())
-                            .build();
-                    // only once, since resendInit will continue to be sent back until it succeeds
-                    centralConnection.asyncCallOnce(new GrpcCall<InitResponse>() {
-                        @Override
-                        void call(StreamObserver<InitResponse> responseObserver) {
-                            collectorServiceStub.collectInit(initMessage, responseObserver);
-                        }
-                    });
+            public void run() {
+                if (traceReader.partial()) {
+                    // do not retry partial transactions since they are live and reading from the
+                    // trace reader will not be idempotent, so could lead to confusing results
+                    centralConnection.asyncCallOnce(grpcCall, grpcCall.onFinish());
+                } else {
+                    centralConnection.asyncCallWithAFewRetries(grpcCall, grpcCall.onFinish());
                 }
             }
         });
     }
 
-    @Override
-    public void collectTrace(TraceReader traceReader) throws InterruptedException {
-        if (traceReader.partial()) {
-            // do not retry partial transactions since they are live and reading from the trace
-            // reader will not be idempotent, so could lead to confusing results
-            centralConnection.blockingCallOnce(new CollectTraceGrpcCall(traceReader));
-        } else {
-            centralConnection.blockingCallWithAFewRetries(new CollectTraceGrpcCall(traceReader));
-        }
-    }
-
     @Override
     public void log(LogEvent logEvent) throws InterruptedException {
         if (centralConnection.suppressLogCollector()) {
@@ -263,17 +272,27 @@ public class CentralCollector implements Collector {
                 .setLogEvent(logEvent)
                 .setPostV09(true)
                 .build();
-        centralConnection.blockingCallWithAFewRetries(new GrpcCall<EmptyMessage>() {
+        final Upload upload = uploadLanes.startLogEventUpload();
+        centralConnection.asyncCallWithAFewRetries(new GrpcCall<EmptyMessage>() {
             @Override
             public void call(StreamObserver<EmptyMessage> responseObserver) {
+                upload.startAttempt();
+                upload.addBytes(logMessage.getSerializedSize());
                 collectorServiceStub.log(logMessage, responseObserver);
             }
-        });
+        }, onFinish(upload));
+    }
+
+    public CentralUploadMXBean getUploadMetrics() {
+        return uploadLanes;
     }
 
     @OnlyUsedByTests
-    public void close() throws InterruptedException {
+    public void close() throws Exception {
         downstreamServiceObserver.close();
+        if (spool != null) {
+            spool.close();
+        }
         centralConnection.close();
     }
 
@@ -294,6 +313,28 @@ public class CentralCollector implements Collector {
         return hostname;
     }
 
+    private static Runnable onFinish(final Upload upload) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                upload.finish();
+            }
+        };
+    }
+
+    private static int getSpoolSizeMb(Map<String, String> properties) {
+        String spoolSizeMb = properties.get("glowroot.collector.spoolSizeMb");
+        if (spoolSizeMb == null) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(spoolSizeMb.trim());
+        } catch (NumberFormatException e) {
+            startupLogger.warn("invalid glowroot.collector.spoolSizeMb: {}", spoolSizeMb);
+            return 0;
+        }
+    }
+
     private static String convertFromV09AgentRollupId(String agentRollupId) {
         // old agent rollup id supported spaces around separator
         return agentRollupId.replaceAll(" */ *", "::").trim() + "::";
@@ -380,29 +421,55 @@ public class CentralCollector implements Collector {
         }
     }
 
-    private class CollectAggregatesGrpcCall extends GrpcCall<AggregateResponseMessage> {
+    // if the call does not complete, the data is written to the spool (when enabled) instead of
+    // being dropped
+    private abstract class SpoolableGrpcCall<T extends /*@NonNull*/ Object> extends GrpcCall<T> {
+
+        private final Upload upload;
+
+        private SpoolableGrpcCall(Upload upload) {
+            this.upload = upload;
+        }
+
+        abstract void spool(CentralSpool spool, Runnable onFinish);
+
+        Runnable onFinish() {
+            return new Runnable() {
+                @Override
+                public void run() {
+                    if (spool == null || isCompleted()) {
+                        upload.finish();
+                        return;
+                    }
+                    // the upload is not finished until the data has been spooled, which bounds the
+                    // amount of data waiting to be spooled
+                    spool(spool, CentralCollector.onFinish(upload));
+                }
+            };
+        }
+    }
+
+    private class CollectAggregatesGrpcCall extends SpoolableGrpcCall<AggregateResponseMessage> {
 
         private final AggregateReader aggregateReader;
+        private final Upload upload;
         private final List<String> fullTextSha1s = Lists.newArrayList();
 
-        private CollectAggregatesGrpcCall(AggregateReader aggregateReader) {
+        private CollectAggregatesGrpcCall(AggregateReader aggregateReader, Upload upload) {
+            super(upload);
             this.aggregateReader = aggregateReader;
+            this.upload = upload;
         }
 
         @Override
         public void call(StreamObserver<AggregateResponseMessage> responseObserver) {
+            upload.startAttempt();
             final StreamObserver<AggregateStreamMessage> requestObserver =
-                    collectorServiceStub.collectAggregateStream(responseObserver);
-            requestObserver.onNext(AggregateStreamMessage.newBuilder()
-                    .setStreamHeader(AggregateStreamHeader.newBuilder()
-                            .setAgentId(agentId)
-                            .setCaptureTime(aggregateReader.captureTime())
-                            .setPostV09(true))
-                    .build());
+                    upload.track(collectorServiceStub.collectAggregateStream(responseObserver));
             // need to clear in case this is a retry
             fullTextSha1s.clear();
             try {
-                aggregateReader.accept(new AggregateVisitorImpl(requestObserver));
+                writeMessages(requestObserver, sharedQueryTextLimiter, fullTextSha1s);
             } catch (Throwable t) {
                 logger.error(t.getMessage(), t);
                 requestObserver.onError(t);
@@ -411,6 +478,32 @@ public class CentralCollector implements Collector {
             requestObserver.onCompleted();
         }
 
+        @Override
+        void spool(CentralSpool spool, Runnable onFinish) {
+            spool.spoolAggregates(new Payload() {
+                @Override
+                public void writeTo(OutputStream out) throws Exception {
+                    // using a new limiter so that full query texts are always included, since the
+                    // central collector may no longer have them by the time the spool is replayed
+                    writeMessages(new DelimitedStreamObserver<AggregateStreamMessage>(out),
+                            new SharedQueryTextLimiter(), Lists.<String>newArrayList());
+                }
+            }, onFinish);
+        }
+
+        private void writeMessages(StreamObserver<AggregateStreamMessage> requestObserver,
+                SharedQueryTextLimiter sharedQueryTextLimiter, List<String> fullTextSha1s)
+                throws Exception {
+            requestObserver.onNext(AggregateStreamMessage.newBuilder()
+                    .setStreamHeader(AggregateStreamHeader.newBuilder()
+                            .setAgentId(agentId)
+                            .setCaptureTime(aggregateReader.captureTime())
+                            .setPostV09(true))
+                    .build());
+            aggregateReader.accept(new AggregateVisitorImpl(requestObserver,
+                    sharedQueryTextLimiter, fullTextSha1s));
+        }
+
         @Override
         public void doWithResponse(AggregateResponseMessage response) {
             // Math.min is just for safety
@@ -423,9 +516,14 @@ public class CentralCollector implements Collector {
         private class AggregateVisitorImpl implements AggregateVisitor {
 
             private final StreamObserver<AggregateStreamMessage> requestObserver;
+            private final SharedQueryTextLimiter sharedQueryTextLimiter;
+            private final List<String> fullTextSha1s;
 
-            private AggregateVisitorImpl(StreamObserver<AggregateStreamMessage> requestObserver) {
+            private AggregateVisitorImpl(StreamObserver<AggregateStreamMessage> requestObserver,
+                    SharedQueryTextLimiter sharedQueryTextLimiter, List<String> fullTextSha1s) {
                 this.requestObserver = requestObserver;
+                this.sharedQueryTextLimiter = sharedQueryTextLimiter;
+                this.fullTextSha1s = fullTextSha1s;
             }
 
             @Override
@@ -465,43 +563,115 @@ public class CentralCollector implements Collector {
         }
     }
 
-    private class CollectTraceGrpcCall extends GrpcCall<EmptyMessage> {
+    private class CollectGaugeValuesGrpcCall
+            extends SpoolableGrpcCall<GaugeValueResponseMessage> {
+
+        private final GaugeValueMessage gaugeValueMessage;
+        private final Upload upload;
+
+        private CollectGaugeValuesGrpcCall(GaugeValueMessage gaugeValueMessage, Upload upload) {
+            super(upload);
+            this.gaugeValueMessage = gaugeValueMessage;
+            this.upload = upload;
+        }
+
+        @Override
+        public void call(StreamObserver<GaugeValueResponseMessage> responseObserver) {
+            upload.startAttempt();
+            upload.addBytes(gaugeValueMessage.getSerializedSize());
+            collectorServiceStub.collectGaugeValues(gaugeValueMessage, responseObserver);
+        }
+
+        @Override
+        public void doWithResponse(GaugeValueResponseMessage response) {
+            if (response.getResendInit() && environment != null) {
+                final InitMessage initMessage = InitMessage.newBuilder()
+                        .setAgentId(agentId)
+                        .setEnvironment(environment)
+                        .setAgentConfig(configService.getAgentConfig())
+                        .build();
+                // only once, since resendInit will continue to be sent back until it succeeds
+                centralConnection.asyncCallOnce(new GrpcCall<InitResponse>() {
+                    @Override
+                    void call(StreamObserver<InitResponse> responseObserver) {
+                        collectorServiceStub.collectInit(initMessage, responseObserver);
+                    }
+                });
+            }
+        }
+
+        @Override
+        void spool(CentralSpool spool, Runnable onFinish) {
+            spool.spoolGaugeValues(gaugeValueMessage, onFinish);
+        }
+    }
+
+    private class CollectTraceGrpcCall extends SpoolableGrpcCall<EmptyMessage> {
 
         private final TraceReader traceReader;
+        private final Upload upload;
 
         private final List<String> fullTextSha1s = Lists.newArrayList();
 
-        private CollectTraceGrpcCall(TraceReader traceReader) {
+        private CollectTraceGrpcCall(TraceReader traceReader, Upload upload) {
+            super(upload);
             this.traceReader = traceReader;
+            this.upload = upload;
         }
 
         @Override
         public void call(StreamObserver<EmptyMessage> responseObserver) {
+            upload.startAttempt();
             StreamObserver<TraceStreamMessage> requestObserver =
-                    collectorServiceStub.collectTraceStream(responseObserver);
-            requestObserver.onNext(TraceStreamMessage.newBuilder()
-                    .setStreamHeader(TraceStreamHeader.newBuilder()
-                            .setAgentId(agentId)
-                            .setTraceId(traceReader.traceId())
-                            .setUpdate(traceReader.update())
-                            .setPostV09(true))
-                    .build());
+                    upload.track(collectorServiceStub.collectTraceStream(responseObserver));
             // need to clear in case this is a retry
             fullTextSha1s.clear();
-            TraceVisitorImpl traceVisitor = new TraceVisitorImpl(requestObserver, fullTextSha1s);
             try {
-                traceReader.accept(traceVisitor);
+                writeMessages(requestObserver, sharedQueryTextLimiter, fullTextSha1s);
             } catch (Throwable t) {
                 logger.error(t.getMessage(), t);
                 requestObserver.onError(t);
                 return;
             }
+            requestObserver.onCompleted();
+        }
+
+        @Override
+        void spool(CentralSpool spool, Runnable onFinish) {
+            if (traceReader.partial()) {
+                // partial traces are live, and will be sent again once complete
+                onFinish.run();
+                return;
+            }
+            spool.spoolTrace(new Payload() {
+                @Override
+                public void writeTo(OutputStream out) throws Exception {
+                    // using a new limiter so that full query texts are always included, since the
+                    // central collector may no longer have them by the time the spool is replayed
+                    writeMessages(new DelimitedStreamObserver<TraceStreamMessage>(out),
+                            new SharedQueryTextLimiter(), Lists.<String>newArrayList());
+                }
+            }, onFinish);
+        }
+
+        private void writeMessages(StreamObserver<TraceStreamMessage> requestObserver,
+                SharedQueryTextLimiter sharedQueryTextLimiter, List<String> fullTextSha1s)
+                throws Exception {
+            requestObserver.onNext(TraceStreamMessage.newBuilder()
+                    .setStreamHeader(TraceStreamHeader.newBuilder()
+                            .setAgentId(agentId)
+                            .setTraceId(traceReader.traceId())
+                            .setUpdate(traceReader.update())
+                            .setPostV09(true))
+                    .build());
+            TraceVisitorImpl traceVisitor =
+                    new TraceVisitorImpl(requestObserver, sharedQueryTextLimiter, fullTextSha1s);
+            traceReader.accept(traceVisitor);
             requestObserver.onNext(TraceStreamMessage.newBuilder()
                     .setStreamCounts(TraceStreamCounts.newBuilder()
                             .setEntryCount(traceVisitor.entryCount)
                             .setSharedQueryTextCount(traceVisitor.sharedQueryTextCount))
                     .build());
-            requestObserver.onCompleted();
         }
 
         @Override
@@ -515,14 +685,16 @@ public class CentralCollector implements Collector {
     private class TraceVisitorImpl implements TraceVisitor {
 
         private final StreamObserver<TraceStreamMessage> requestObserver;
+        private final SharedQueryTextLimiter sharedQueryTextLimiter;
         private final List<String> fullTextSha1s;
 
         private int entryCount;
         private int sharedQueryTextCount;
 
         private TraceVisitorImpl(StreamObserver<TraceStreamMessage> requestObserver,
-                List<String> fullTextSha1s) {
+                SharedQueryTextLimiter sharedQueryTextLimiter, List<String> fullTextSha1s) {
             this.requestObserver = requestObserver;
+            this.sharedQueryTextLimiter = sharedQueryTextLimiter;
             this.fullTextSha1s = fullTextSha1s;
         }
 
@@ -18,9 +18,9 @@ package org.glowroot.agent.central;
 import java.io.File;
 import java.util.List;
 import java.util.Random;
-import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -55,6 +55,10 @@ class CentralConnection {
 
     private static final Logger logger = LoggerFactory.getLogger(CentralConnection.class);
 
+    // uploads are pipelined (see UploadLanes), so more than one thread is needed to keep a slow
+    // response callback from holding up the other calls
+    private static final int CHANNEL_EXECUTOR_THREADS = 4;
+
     @SuppressWarnings("nullness:type.argument.type.incompatible")
     private final ThreadLocal<Boolean> suppressLogCollector = new ThreadLocal<Boolean>() {
         @Override
@@ -84,8 +88,8 @@ class CentralConnection {
     CentralConnection(String collectorAddress, @Nullable String collectorAuthority,
             List<File> confDirs, AtomicBoolean inConnectionFailure) throws SSLException {
         ParsedCollectorAddress parsedCollectorAddress = parseCollectorAddress(collectorAddress);
-        channelExecutor =
-                Executors.newFixedThreadPool(1, ThreadFactories.create("Glowroot-GRPC-Executor"));
+        channelExecutor = Executors.newFixedThreadPool(CHANNEL_EXECUTOR_THREADS,
+                ThreadFactories.create("Glowroot-GRPC-Executor-%d"));
         NettyChannelBuilder builder;
         if (parsedCollectorAddress.targets().size() == 1) {
             CollectorTarget target = parsedCollectorAddress.targets().get(0);
@@ -144,42 +148,39 @@ class CentralConnection {
         return channel;
     }
 
-    <T extends /*@NonNull*/ Object> void blockingCallOnce(GrpcCall<T> call)
-            throws InterruptedException {
-        blockingCallWithAFewRetries(-1, call);
+    <T extends /*@NonNull*/ Object> void asyncCallOnce(GrpcCall<T> call) {
+        asyncCall(-1, call, null);
     }
 
-    // important that these calls are idempotent
-    <T extends /*@NonNull*/ Object> void blockingCallWithAFewRetries(GrpcCall<T> call)
-            throws InterruptedException {
-        blockingCallWithAFewRetries(30000, call);
+    // onFinish is run once the call has completed, failed or given up retrying
+    <T extends /*@NonNull*/ Object> void asyncCallOnce(GrpcCall<T> call, Runnable onFinish) {
+        asyncCall(-1, call, onFinish);
     }
 
     // important that these calls are idempotent
-    private <T extends /*@NonNull*/ Object> void blockingCallWithAFewRetries(int maxTotalMillis,
-            GrpcCall<T> call) throws InterruptedException {
-        if (closed) {
-            return;
-        }
-        if (inConnectionFailure.get()) {
-            return;
-        }
-        RetryingStreamObserver<T> responseObserver =
-                new RetryingStreamObserver<T>(call, maxTotalMillis, maxTotalMillis, false);
-        call.call(responseObserver);
-        responseObserver.waitForFinish();
+    //
+    // onFinish is run once the call has completed, failed or given up retrying
+    <T extends /*@NonNull*/ Object> void asyncCallWithAFewRetries(GrpcCall<T> call,
+            Runnable onFinish) {
+        asyncCall(30000, call, onFinish);
     }
 
-    <T extends /*@NonNull*/ Object> void asyncCallOnce(GrpcCall<T> call) {
-        if (closed) {
+    private <T extends /*@NonNull*/ Object> void asyncCall(int maxTotalMillis, GrpcCall<T> call,
+            @Nullable Runnable onFinish) {
+        if (closed || inConnectionFailure.get()) {
+            if (onFinish != null) {
+                onFinish.run();
+            }
             return;
         }
-        if (inConnectionFailure.get()) {
-            return;
+        RetryingStreamObserver<T> responseObserver = new RetryingStreamObserver<T>(call,
+                maxTotalMillis, maxTotalMillis, false, onFinish);
+        try {
+            call.call(responseObserver);
+        } catch (RuntimeException e) {
+            responseObserver.finish();
+            throw e;
         }
-        RetryingStreamObserver<T> responseObserver =
-                new RetryingStreamObserver<T>(call, -1, -1, false);
-        call.call(responseObserver);
     }
 
     // important that these calls are idempotent
@@ -189,7 +190,7 @@ class CentralConnection {
         }
         // important here not to check inConnectionFailure, since need this to succeed if/when
         // connection is re-established
-        call.call(new RetryingStreamObserver<T>(call, 15000, -1, true));
+        call.call(new RetryingStreamObserver<T>(call, 15000, -1, true, null));
     }
 
     void suppressLogCollector(Runnable runnable) {
@@ -292,8 +293,16 @@ class CentralConnection {
     }
 
     abstract static class GrpcCall<T extends /*@NonNull*/ Object> {
+
+        private volatile boolean completed;
+
         abstract void call(StreamObserver<T> responseObserver);
         void doWithResponse(@SuppressWarnings("unused") T response) {}
+
+        // false if the call failed, gave up retrying, or was never made due to connection failure
+        boolean isCompleted() {
+            return completed;
+        }
     }
 
     class RetryingStreamObserver<T extends /*@NonNull*/ Object> implements StreamObserver<T> {
@@ -302,18 +311,18 @@ class CentralConnection {
         private final int maxSingleDelayMillis;
         private final int maxTotalMillis;
         private final boolean init;
+        private final @Nullable Runnable onFinish;
         private final Stopwatch stopwatch = Stopwatch.createStarted();
 
         private volatile long nextDelayMillis = 2000;
 
-        private final CountDownLatch latch = new CountDownLatch(1);
-
         private RetryingStreamObserver(GrpcCall<T> grpcCall, int maxSingleDelayMillis,
-                int maxTotalMillis, boolean init) {
+                int maxTotalMillis, boolean init, @Nullable Runnable onFinish) {
             this.grpcCall = grpcCall;
             this.maxSingleDelayMillis = maxSingleDelayMillis;
             this.maxTotalMillis = maxTotalMillis;
             this.init = init;
+            this.onFinish = onFinish;
         }
 
         @Override
@@ -335,7 +344,8 @@ class CentralConnection {
                 inMaybeInitFailure = false;
                 initCallSucceeded = true;
             }
-            latch.countDown();
+            grpcCall.completed = true;
+            finish();
         }
 
         @Override
@@ -351,13 +361,15 @@ class CentralConnection {
             }
         }
 
-        private void waitForFinish() throws InterruptedException {
-            latch.await();
+        private void finish() {
+            if (onFinish != null) {
+                onFinish.run();
+            }
         }
 
-        private void onErrorInternal(final Throwable t) throws InterruptedException {
+        private void onErrorInternal(final Throwable t) {
             if (closed) {
-                latch.countDown();
+                finish();
                 return;
             }
             if (init && !inMaybeInitFailure) {
@@ -381,7 +393,7 @@ class CentralConnection {
                 });
             }
             if (!init && inConnectionFailure.get()) {
-                latch.countDown();
+                finish();
                 return;
             }
             if (logger.isDebugEnabled()) {
@@ -404,18 +416,37 @@ class CentralConnection {
                         }
                     });
                 }
-                latch.countDown();
+                finish();
                 return;
             }
+            long delayMillis;
             if (init) {
-                MILLISECONDS.sleep(nextDelayMillis);
+                delayMillis = nextDelayMillis;
             } else {
                 // retry delay doubles on average each time, randomized +/- 50%
                 double randomizedDoubling = 0.5 + random.nextDouble();
-                MILLISECONDS.sleep((long) (nextDelayMillis * randomizedDoubling));
+                delayMillis = (long) (nextDelayMillis * randomizedDoubling);
             }
             nextDelayMillis = Math.min(nextDelayMillis * 2, maxSingleDelayMillis);
-            grpcCall.call(RetryingStreamObserver.this);
+            // scheduling the retry instead of sleeping here, since this runs on the grpc executor
+            // and sleeping would hold up the other calls
+            try {
+                retryExecutor.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            grpcCall.call(RetryingStreamObserver.this);
+                        } catch (Throwable t) {
+                            logger.error(t.getMessage(), t);
+                            finish();
+                        }
+                    }
+                }, delayMillis, MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // closed
+                logger.debug(e.getMessage(), e);
+                finish();
+            }
         }
 
         private boolean retryOnError(Throwable t) {
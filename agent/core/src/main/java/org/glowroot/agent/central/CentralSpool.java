@@ -0,0 +1,302 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.central;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.protobuf.MessageLite;
+import com.google.protobuf.Parser;
+import io.grpc.stub.StreamObserver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.glowroot.agent.central.CentralConnection.GrpcCall;
+import org.glowroot.agent.util.ThreadFactories;
+import org.glowroot.common.util.OnlyUsedByTests;
+import org.glowroot.common.util.ScheduledRunnable;
+import org.glowroot.common.util.SizeLimitBypassingParser;
+import org.glowroot.wire.api.model.CollectorServiceGrpc.CollectorServiceStub;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.AggregateResponseMessage;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.AggregateStreamMessage;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.EmptyMessage;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.GaugeValueMessage;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.GaugeValueResponseMessage;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.TraceStreamMessage;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+// aggregates, traces and gauge values that could not be sent to the central collector (because the
+// connection is down or because retries were exhausted) are written to a bounded spool file instead
+// of being dropped, and are then replayed in order, at a limited rate, once the central collector
+// is reachable again
+//
+// this keeps the agent's heap flat during a central collector outage, and once the spool file is
+// full, the oldest data is dropped first
+class CentralSpool {
+
+    private static final Logger logger = LoggerFactory.getLogger(CentralSpool.class);
+
+    private static final int AGGREGATES = 1;
+    private static final int TRACE = 2;
+    private static final int GAUGE_VALUES = 3;
+
+    // limit replay rate so that a large spool does not overwhelm the central collector once it
+    // comes back, since all of the other agents are likely replaying their spools at the same time
+    private static final int REPLAY_BYTES_PER_SECOND = 256 * 1024;
+
+    private static final int REPLAY_INTERVAL_SECONDS = 5;
+
+    private final SpoolFile spoolFile;
+    private final CentralConnection centralConnection;
+    private final CollectorServiceStub collectorServiceStub;
+    private final AtomicBoolean inConnectionFailure;
+
+    // spool writes are performed on a separate thread, so that they never hold up the grpc
+    // executor threads, and so that they are not held up by a replay in progress
+    private final ExecutorService writeExecutor;
+    private final ScheduledExecutorService replayExecutor;
+    private final ReplayRunnable replayRunnable = new ReplayRunnable();
+    private final RateLimiter replayRateLimiter = RateLimiter.create(REPLAY_BYTES_PER_SECOND);
+
+    private volatile boolean closed;
+
+    private CentralSpool(SpoolFile spoolFile, CentralConnection centralConnection,
+            CollectorServiceStub collectorServiceStub, AtomicBoolean inConnectionFailure) {
+        this.spoolFile = spoolFile;
+        this.centralConnection = centralConnection;
+        this.collectorServiceStub = collectorServiceStub;
+        this.inConnectionFailure = inConnectionFailure;
+        writeExecutor = Executors.newSingleThreadExecutor(
+                ThreadFactories.create("Glowroot-Central-Spool-Writer"));
+        replayExecutor = Executors.newSingleThreadScheduledExecutor(
+                ThreadFactories.create("Glowroot-Central-Spool-Replay"));
+    }
+
+    static CentralSpool create(File file, int sizeKb, CentralConnection centralConnection,
+            CollectorServiceStub collectorServiceStub, AtomicBoolean inConnectionFailure)
+            throws IOException {
+        SpoolFile spoolFile = SpoolFile.open(file, sizeKb);
+        CentralSpool centralSpool = new CentralSpool(spoolFile, centralConnection,
+                collectorServiceStub, inConnectionFailure);
+        centralSpool.replayRunnable.scheduleWithFixedDelay(centralSpool.replayExecutor,
+                REPLAY_INTERVAL_SECONDS, REPLAY_INTERVAL_SECONDS, SECONDS);
+        return centralSpool;
+    }
+
+    void spoolAggregates(Payload payload, Runnable onFinish) {
+        spool(AGGREGATES, payload, onFinish);
+    }
+
+    void spoolTrace(Payload payload, Runnable onFinish) {
+        spool(TRACE, payload, onFinish);
+    }
+
+    void spoolGaugeValues(final GaugeValueMessage gaugeValueMessage, Runnable onFinish) {
+        spool(GAUGE_VALUES, new Payload() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                gaugeValueMessage.writeTo(out);
+            }
+        }, onFinish);
+    }
+
+    @OnlyUsedByTests
+    void close() throws Exception {
+        closed = true;
+        replayRunnable.cancel();
+        writeExecutor.shutdown();
+        // shutdownNow() is needed here to interrupt a replay that is waiting on its call
+        replayExecutor.shutdownNow();
+        if (!writeExecutor.awaitTermination(10, SECONDS)) {
+            throw new IllegalStateException("Could not terminate executor");
+        }
+        if (!replayExecutor.awaitTermination(10, SECONDS)) {
+            throw new IllegalStateException("Could not terminate executor");
+        }
+        spoolFile.close();
+    }
+
+    // onFinish is run once the payload has been written to the spool (or has failed to be written)
+    private void spool(final int type, final Payload payload, final Runnable onFinish) {
+        if (closed) {
+            onFinish.run();
+            return;
+        }
+        try {
+            writeExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                        payload.writeTo(baos);
+                        if (!spoolFile.add(type, baos.toByteArray())) {
+                            logger.warn("payload is too large for the spool file: {} bytes",
+                                    baos.size());
+                        }
+                    } catch (Throwable t) {
+                        logger.error(t.getMessage(), t);
+                    } finally {
+                        onFinish.run();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // closed
+            logger.debug(e.getMessage(), e);
+            onFinish.run();
+        }
+    }
+
+    // returns false if the record could not be sent, in which case it will be tried again on the
+    // next run
+    private boolean replay(SpoolFile.Record record) throws Exception {
+        GrpcCall<?> grpcCall;
+        try {
+            grpcCall = createReplayCall(record);
+        } catch (IOException e) {
+            // corrupt record, e.g. from abrupt JVM stop, nothing more can be done with it
+            logger.error(e.getMessage(), e);
+            return true;
+        }
+        final CountDownLatch latch = new CountDownLatch(1);
+        centralConnection.asyncCallWithAFewRetries(grpcCall, new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        });
+        latch.await();
+        return grpcCall.isCompleted();
+    }
+
+    private GrpcCall<?> createReplayCall(SpoolFile.Record record) throws IOException {
+        switch (record.type()) {
+            case AGGREGATES:
+                final List<AggregateStreamMessage> aggregateMessages =
+                        parseDelimited(record.payload(), AggregateStreamMessage.parser());
+                return new GrpcCall<AggregateResponseMessage>() {
+                    @Override
+                    void call(StreamObserver<AggregateResponseMessage> responseObserver) {
+                        StreamObserver<AggregateStreamMessage> requestObserver =
+                                collectorServiceStub.collectAggregateStream(responseObserver);
+                        for (AggregateStreamMessage message : aggregateMessages) {
+                            requestObserver.onNext(message);
+                        }
+                        requestObserver.onCompleted();
+                    }
+                };
+            case TRACE:
+                final List<TraceStreamMessage> traceMessages =
+                        parseDelimited(record.payload(), TraceStreamMessage.parser());
+                return new GrpcCall<EmptyMessage>() {
+                    @Override
+                    void call(StreamObserver<EmptyMessage> responseObserver) {
+                        StreamObserver<TraceStreamMessage> requestObserver =
+                                collectorServiceStub.collectTraceStream(responseObserver);
+                        for (TraceStreamMessage message : traceMessages) {
+                            requestObserver.onNext(message);
+                        }
+                        requestObserver.onCompleted();
+                    }
+                };
+            case GAUGE_VALUES:
+                final GaugeValueMessage gaugeValueMessage =
+                        GaugeValueMessage.parseFrom(record.payload());
+                return new GrpcCall<GaugeValueResponseMessage>() {
+                    @Override
+                    void call(StreamObserver<GaugeValueResponseMessage> responseObserver) {
+                        collectorServiceStub.collectGaugeValues(gaugeValueMessage,
+                                responseObserver);
+                    }
+                };
+            default:
+                throw new IOException("Unexpected spool record type: " + record.type());
+        }
+    }
+
+    private static <T extends /*@NonNull*/ MessageLite> List<T> parseDelimited(byte[] payload,
+            Parser<T> parser) throws IOException {
+        SizeLimitBypassingParser<T> sizeLimitBypassingParser =
+                new SizeLimitBypassingParser<T>(parser);
+        InputStream input = new ByteArrayInputStream(payload);
+        List<T> messages = Lists.newArrayList();
+        T message;
+        while ((message = sizeLimitBypassingParser.parseDelimitedFrom(input)) != null) {
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    interface Payload {
+        void writeTo(OutputStream out) throws Exception;
+    }
+
+    // writes each message as length delimited, so they can be streamed again on replay
+    static class DelimitedStreamObserver<T extends MessageLite> implements StreamObserver<T> {
+
+        private final OutputStream out;
+
+        DelimitedStreamObserver(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void onNext(T value) {
+            try {
+                value.writeDelimitedTo(out);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {}
+
+        @Override
+        public void onCompleted() {}
+    }
+
+    private class ReplayRunnable extends ScheduledRunnable {
+        @Override
+        protected void runInternal() throws Exception {
+            while (!closed && !inConnectionFailure.get()) {
+                SpoolFile.Record record = spoolFile.peek();
+                if (record == null) {
+                    return;
+                }
+                replayRateLimiter.acquire(Math.max(record.payload().length, 1));
+                if (!replay(record)) {
+                    return;
+                }
+                spoolFile.remove(record);
+            }
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.central;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import javax.annotation.concurrent.GuardedBy;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// bounded on-disk FIFO queue of records, using the same capped (circular) file approach as the
+// embedded collector's capped database, except that records are consumed from the head, and the
+// oldest records are dropped when there is not enough room for a new record
+//
+// the header is only updated after a record has been fully written, so a record that is only
+// partially written on abrupt JVM stop is simply never seen, and when the oldest records are
+// dropped to make room, the advanced read index is written to the header before they are
+// overwritten, so the read index never points into overwritten bytes
+//
+// record lengths are still validated when reading, and the spool is reset if one is out of range
+// (e.g. if the file was damaged), since otherwise the spool would be stuck on that record forever
+class SpoolFile {
+
+    private static final Logger logger = LoggerFactory.getLogger(SpoolFile.class);
+
+    // write index (long), read index (long), size kb (int)
+    static final int HEADER_SKIP_BYTES = 20;
+    // payload length (int), record type (byte)
+    static final int RECORD_HEADER_BYTES = 5;
+
+    private final Object lock = new Object();
+
+    @GuardedBy("lock")
+    private final RandomAccessFile file;
+    private final long sizeBytes;
+
+    // writeIndex and readIndex are ever-increasing even over capped boundary
+    @GuardedBy("lock")
+    private long writeIndex;
+    @GuardedBy("lock")
+    private long readIndex;
+    @GuardedBy("lock")
+    private long droppedCount;
+
+    private SpoolFile(RandomAccessFile file, int sizeKb, long writeIndex, long readIndex) {
+        this.file = file;
+        this.sizeBytes = sizeKb * 1024L;
+        this.writeIndex = writeIndex;
+        this.readIndex = readIndex;
+    }
+
+    static SpoolFile open(File path, int sizeKb) throws IOException {
+        boolean newFile = !path.exists() || path.length() < HEADER_SKIP_BYTES;
+        RandomAccessFile file = new RandomAccessFile(path, "rw");
+        long writeIndex = 0;
+        long readIndex = 0;
+        if (!newFile) {
+            writeIndex = file.readLong();
+            readIndex = file.readLong();
+            int existingSizeKb = file.readInt();
+            if (existingSizeKb != sizeKb || readIndex > writeIndex
+                    || writeIndex - readIndex > sizeKb * 1024L) {
+                // records are not remapped on resize, since this is only a spool for data that
+                // could not be sent, so just start over
+                logger.info("discarding spool file {} since its size has changed",
+                        path.getAbsolutePath());
+                writeIndex = 0;
+                readIndex = 0;
+            }
+        }
+        file.setLength(HEADER_SKIP_BYTES + sizeKb * 1024L);
+        SpoolFile spoolFile = new SpoolFile(file, sizeKb, writeIndex, readIndex);
+        synchronized (spoolFile.lock) {
+            spoolFile.writeHeader();
+        }
+        return spoolFile;
+    }
+
+    // returns false if the record is too large to ever fit
+    boolean add(int type, byte[] payload) throws IOException {
+        long recordBytes = RECORD_HEADER_BYTES + (long) payload.length;
+        if (recordBytes > sizeBytes) {
+            return false;
+        }
+        byte[] recordHeader = new byte[RECORD_HEADER_BYTES];
+        writeInt(recordHeader, payload.length);
+        recordHeader[4] = (byte) type;
+        synchronized (lock) {
+            boolean dropped = false;
+            while (writeIndex + recordBytes - readIndex > sizeBytes) {
+                int payloadLength = readPayloadLength(readIndex);
+                if (!isValidPayloadLength(payloadLength)) {
+                    reset();
+                    break;
+                }
+                readIndex += RECORD_HEADER_BYTES + payloadLength;
+                droppedCount++;
+                dropped = true;
+            }
+            if (dropped) {
+                // must be written before the dropped records are overwritten below
+                writeHeader();
+            }
+            write(writeIndex, recordHeader);
+            write(writeIndex + RECORD_HEADER_BYTES, payload);
+            writeIndex += recordBytes;
+            writeHeader();
+        }
+        return true;
+    }
+
+    @Nullable
+    Record peek() throws IOException {
+        synchronized (lock) {
+            if (readIndex == writeIndex) {
+                return null;
+            }
+            byte[] recordHeader = new byte[RECORD_HEADER_BYTES];
+            read(readIndex, recordHeader);
+            int payloadLength = readInt(recordHeader);
+            if (!isValidPayloadLength(payloadLength)) {
+                reset();
+                return null;
+            }
+            byte[] payload = new byte[payloadLength];
+            read(readIndex + RECORD_HEADER_BYTES, payload);
+            return new Record(readIndex, recordHeader[4], payload);
+        }
+    }
+
+    void remove(Record record) throws IOException {
+        synchronized (lock) {
+            if (record.index != readIndex) {
+                // already dropped to make room for newer records
+                return;
+            }
+            readIndex += RECORD_HEADER_BYTES + record.payload.length;
+            writeHeader();
+        }
+    }
+
+    long getSpooledBytes() {
+        synchronized (lock) {
+            return writeIndex - readIndex;
+        }
+    }
+
+    long getDroppedCount() {
+        synchronized (lock) {
+            return droppedCount;
+        }
+    }
+
+    void close() throws IOException {
+        synchronized (lock) {
+            file.close();
+        }
+    }
+
+    // must be called under lock
+    private boolean isValidPayloadLength(int payloadLength) {
+        return payloadLength >= 0
+                && payloadLength <= writeIndex - readIndex - RECORD_HEADER_BYTES;
+    }
+
+    // must be called under lock
+    private void reset() throws IOException {
+        logger.warn("discarding {} bytes from the spool file since it contains a corrupt record",
+                writeIndex - readIndex);
+        readIndex = writeIndex;
+        writeHeader();
+    }
+
+    // must be called under lock
+    private int readPayloadLength(long index) throws IOException {
+        byte[] recordHeader = new byte[RECORD_HEADER_BYTES];
+        read(index, recordHeader);
+        return readInt(recordHeader);
+    }
+
+    // must be called under lock
+    private void write(long index, byte[] bytes) throws IOException {
+        long position = index % sizeBytes;
+        long remaining = sizeBytes - position;
+        file.seek(HEADER_SKIP_BYTES + position);
+        if (bytes.length > remaining) {
+            file.write(bytes, 0, (int) remaining);
+            file.seek(HEADER_SKIP_BYTES);
+            file.write(bytes, (int) remaining, (int) (bytes.length - remaining));
+        } else {
+            file.write(bytes);
+        }
+    }
+
+    // must be called under lock
+    private void read(long index, byte[] bytes) throws IOException {
+        long position = index % sizeBytes;
+        long remaining = sizeBytes - position;
+        file.seek(HEADER_SKIP_BYTES + position);
+        if (bytes.length > remaining) {
+            file.readFully(bytes, 0, (int) remaining);
+            file.seek(HEADER_SKIP_BYTES);
+            file.readFully(bytes, (int) remaining, (int) (bytes.length - remaining));
+        } else {
+            file.readFully(bytes);
+        }
+    }
+
+    // must be called under lock
+    private void writeHeader() throws IOException {
+        file.seek(0);
+        file.writeLong(writeIndex);
+        file.writeLong(readIndex);
+        file.writeInt((int) (sizeBytes / 1024));
+    }
+
+    private static void writeInt(byte[] bytes, int value) {
+        bytes[0] = (byte) (value >>> 24);
+        bytes[1] = (byte) (value >>> 16);
+        bytes[2] = (byte) (value >>> 8);
+        bytes[3] = (byte) value;
+    }
+
+    private static int readInt(byte[] bytes) {
+        return (bytes[0] & 0xff) << 24 | (bytes[1] & 0xff) << 16 | (bytes[2] & 0xff) << 8
+                | bytes[3] & 0xff;
+    }
+
+    static class Record {
+
+        private final long index;
+        private final int type;
+        private final byte[] payload;
+
+        private Record(long index, int type, byte[] payload) {
+            this.index = index;
+            this.type = type;
+            this.payload = payload;
+        }
+
+        int type() {
+            return type;
+        }
+
+        byte[] payload() {
+            return payload;
+        }
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.central;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.protobuf.MessageLite;
+import io.grpc.stub.StreamObserver;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+// allows several uploads to the central collector to be in flight at the same time, so that the
+// threads collecting traces, aggregates, gauge values and log events do not have to wait for each
+// upload to complete before starting the next one (which, when the central collector is 100+ ms
+// away, limits trace uploads to just a few per second and causes traces to be dropped)
+//
+// each kind of data has its own lane with its own limit on concurrent uploads, so that e.g. a
+// backlog of trace uploads cannot hold up aggregate uploads, and the total number of bytes in
+// flight is bounded, except for aggregates which are given priority
+//
+// uploads of the same trace (e.g. a partial trace followed by the complete trace) are still sent
+// one at a time in the order they were started, since the central collector stores whichever
+// upload it receives last
+class UploadLanes implements CentralUploadMXBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(UploadLanes.class);
+
+    // once this many bytes are in flight, new uploads (other than aggregates) wait for some of the
+    // in flight uploads to complete
+    private static final long MAX_IN_FLIGHT_BYTES = 16 * 1024 * 1024;
+
+    private final Lane aggregateLane = new Lane(2);
+    private final Lane traceLane = new Lane(4);
+    private final Lane gaugeValueLane = new Lane(2);
+    private final Lane logEventLane = new Lane(2);
+
+    private final AtomicLong inFlightBytes = new AtomicLong();
+    private final Object inFlightBytesLock = new Object();
+
+    // trace id -> sends that are waiting for the prior upload of the same trace to finish, the
+    // trace id is present while an upload of that trace is being sent
+    //
+    // guarded by itself
+    private final Map<String, Deque<Runnable>> waitingTraceSends = Maps.newHashMap();
+
+    private final Ticker ticker;
+
+    UploadLanes(Ticker ticker) {
+        this.ticker = ticker;
+    }
+
+    // blocks while the lane is full, which provides back pressure to the caller
+    Upload startAggregateUpload() throws InterruptedException {
+        return start(aggregateLane, null, true);
+    }
+
+    Upload startTraceUpload(String traceId) throws InterruptedException {
+        return start(traceLane, traceId, false);
+    }
+
+    Upload startGaugeValueUpload() throws InterruptedException {
+        return start(gaugeValueLane, null, false);
+    }
+
+    Upload startLogEventUpload() throws InterruptedException {
+        return start(logEventLane, null, false);
+    }
+
+    @Override
+    public long getInFlightBytes() {
+        return inFlightBytes.get();
+    }
+
+    @Override
+    public int getInFlightUploadCount() {
+        return aggregateLane.getInFlightCount() + traceLane.getInFlightCount()
+                + gaugeValueLane.getInFlightCount() + logEventLane.getInFlightCount();
+    }
+
+    @Override
+    public long getAggregateUploadLagMillis() {
+        return aggregateLane.getLagMillis();
+    }
+
+    @Override
+    public long getTraceUploadLagMillis() {
+        return traceLane.getLagMillis();
+    }
+
+    @Override
+    public long getGaugeValueUploadLagMillis() {
+        return gaugeValueLane.getLagMillis();
+    }
+
+    @Override
+    public long getLogEventUploadLagMillis() {
+        return logEventLane.getLagMillis();
+    }
+
+    private Upload start(Lane lane, @Nullable String traceId, boolean priority)
+            throws InterruptedException {
+        Upload upload = new Upload(lane, traceId, ticker.read());
+        lane.uploads.add(upload);
+        try {
+            lane.semaphore.acquire();
+        } catch (InterruptedException e) {
+            lane.uploads.remove(upload);
+            throw e;
+        }
+        if (!priority) {
+            try {
+                synchronized (inFlightBytesLock) {
+                    while (inFlightBytes.get() >= MAX_IN_FLIGHT_BYTES) {
+                        inFlightBytesLock.wait();
+                    }
+                }
+            } catch (InterruptedException e) {
+                upload.finish();
+                throw e;
+            }
+        }
+        return upload;
+    }
+
+    private class Lane {
+
+        private final int maxInFlight;
+        private final Semaphore semaphore;
+        // uploads that are waiting to start or waiting to complete
+        private final Set<Upload> uploads = Sets.newConcurrentHashSet();
+
+        private Lane(int maxInFlight) {
+            this.maxInFlight = maxInFlight;
+            semaphore = new Semaphore(maxInFlight);
+        }
+
+        private int getInFlightCount() {
+            return maxInFlight - semaphore.availablePermits();
+        }
+
+        private long getLagMillis() {
+            long currentTick = ticker.read();
+            long lagNanos = 0;
+            for (Upload upload : uploads) {
+                lagNanos = Math.max(lagNanos, currentTick - upload.startTick);
+            }
+            return NANOSECONDS.toMillis(lagNanos);
+        }
+    }
+
+    class Upload {
+
+        private final Lane lane;
+        private final @Nullable String traceId;
+        private final long startTick;
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicBoolean sent = new AtomicBoolean();
+        private final AtomicBoolean finished = new AtomicBoolean();
+
+        private Upload(Lane lane, @Nullable String traceId, long startTick) {
+            this.lane = lane;
+            this.traceId = traceId;
+            this.startTick = startTick;
+        }
+
+        // runs send now, or if a prior upload of the same trace has not finished yet, then runs
+        // send once that upload (and any other prior uploads of the same trace) have finished
+        //
+        // send must make sure that finish() is eventually called
+        void send(Runnable send) {
+            sent.set(true);
+            if (traceId != null) {
+                synchronized (waitingTraceSends) {
+                    Deque<Runnable> waiting = waitingTraceSends.get(traceId);
+                    if (waiting != null) {
+                        waiting.add(send);
+                        return;
+                    }
+                    waitingTraceSends.put(traceId, new ArrayDeque<Runnable>());
+                }
+            }
+            send.run();
+        }
+
+        // needs to be called at the start of each attempt, since a retry re-sends everything
+        void startAttempt() {
+            releaseBytes(bytes.getAndSet(0));
+        }
+
+        void addBytes(long size) {
+            bytes.getAndAdd(size);
+            inFlightBytes.getAndAdd(size);
+        }
+
+        // counts the bytes of each message sent on the stream
+        <T extends MessageLite> StreamObserver<T> track(final StreamObserver<T> requestObserver) {
+            return new StreamObserver<T>() {
+                @Override
+                public void onNext(T value) {
+                    addBytes(value.getSerializedSize());
+                    requestObserver.onNext(value);
+                }
+                @Override
+                public void onError(Throwable t) {
+                    requestObserver.onError(t);
+                }
+                @Override
+                public void onCompleted() {
+                    requestObserver.onCompleted();
+                }
+            };
+        }
+
+        void finish() {
+            if (finished.getAndSet(true)) {
+                return;
+            }
+            releaseBytes(bytes.getAndSet(0));
+            lane.uploads.remove(this);
+            lane.semaphore.release();
+            if (traceId != null && sent.get()) {
+                sendNextOfSameTrace(traceId);
+            }
+        }
+
+        private void sendNextOfSameTrace(String traceId) {
+            Runnable next;
+            synchronized (waitingTraceSends) {
+                Deque<Runnable> waiting = waitingTraceSends.get(traceId);
+                if (waiting == null) {
+                    return;
+                }
+                next = waiting.poll();
+                if (next == null) {
+                    waitingTraceSends.remove(traceId);
+                    return;
+                }
+            }
+            try {
+                next.run();
+            } catch (RuntimeException e) {
+                // the failed upload has already been finished (which sends the one after it), and
+                // the caller of finish() should not be affected
+                logger.error(e.getMessage(), e);
+            }
+        }
+
+        private void releaseBytes(long releasedBytes) {
+            if (releasedBytes == 0) {
+                return;
+            }
+            inFlightBytes.getAndAdd(-releasedBytes);
+            synchronized (inFlightBytesLock) {
+                inFlightBytesLock.notifyAll();
+            }
+        }
+    }
+}
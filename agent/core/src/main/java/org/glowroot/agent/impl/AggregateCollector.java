@@ -55,6 +55,8 @@ import static com.google.common.base.Preconditions.checkNotNull;
 class AggregateCollector {
 
     private final @Nullable String transactionName;
+    private final int maxQueryAggregates;
+    private final int maxServiceCallAggregates;
     // aggregates use double instead of long to avoid (unlikely) 292 year nanosecond rollover
     private double totalDurationNanos;
     private double totalCpuNanos;
@@ -76,14 +78,31 @@ class AggregateCollector {
     private @MonotonicNonNull MutableProfile mainThreadProfile;
     private @MonotonicNonNull MutableProfile auxThreadProfile;
 
-    // lock is primarily for visibility (there is almost no contention since written via a single
-    // thread and flushed afterwards via a different thread, with potential concurrent access by the
-    // UI for "live" data when running the embedded collector)
-    private final Object lock = new Object();
+    // this collector is confined to the single processing thread that owns its shard (see
+    // TransactionProcessor), so it is written without locking, and is then read by the flushing
+    // thread only after the processing thread is done with the interval
+    //
+    // concurrent access by the UI for "live" data (when running the embedded collector) goes
+    // through the snapshot instead, which is never modified after being published
+    //
+    // while the interval is still open, the snapshot is a copy that is only built (by the
+    // processing thread) when a "live" query asks for it, and only if this collector has changed
+    // since its last snapshot, so that the cost of copying is not paid per transaction
+    //
+    // once the processing thread is done with the interval, this collector no longer changes, so
+    // it becomes its own snapshot (see seal())
+    private volatile @Nullable AggregateCollector snapshot;
+    private boolean dirty;
+
+    // reading the lazy histogram can sort its values in place, so concurrent readers of a snapshot
+    // still need to be serialized (this lock is never contended by the processing thread)
+    private final Object histogramLock = new Object();
 
     AggregateCollector(@Nullable String transactionName, int maxQueryAggregates,
             int maxServiceCallAggregates) {
         this.transactionName = transactionName;
+        this.maxQueryAggregates = maxQueryAggregates;
+        this.maxServiceCallAggregates = maxServiceCallAggregates;
 
         int queriesHardLimitMultiplierWhileBuilding = transactionName == null
                 ? AdvancedConfig.OVERALL_AGGREGATE_QUERIES_HARD_LIMIT_MULTIPLIER
@@ -98,157 +117,212 @@ class AggregateCollector {
     }
 
     void mergeDataFrom(Transaction transaction) {
-        synchronized (lock) {
-            long totalDurationNanos = transaction.getDurationNanos();
-            this.totalDurationNanos += totalDurationNanos;
-            transactionCount++;
-            if (transaction.getErrorMessage() != null) {
-                errorCount++;
-            }
-            if (transaction.isAsync()) {
-                asyncTransactions = true;
+        dirty = true;
+        long totalDurationNanos = transaction.getDurationNanos();
+        this.totalDurationNanos += totalDurationNanos;
+        transactionCount++;
+        if (transaction.getErrorMessage() != null) {
+            errorCount++;
+        }
+        if (transaction.isAsync()) {
+            asyncTransactions = true;
+        }
+        mainThreadStats.mergeThreadStats(transaction.getMainThreadStats());
+        mainThreadRootTimers.mergeRootTimer(transaction.getMainThreadRootTimer());
+        if (transaction.hasAuxThreadContexts()) {
+            if (auxThreadRootTimer == null) {
+                auxThreadRootTimer = MutableAggregateTimer.createAuxThreadRootTimer();
             }
-            mainThreadStats.mergeThreadStats(transaction.getMainThreadStats());
-            mainThreadRootTimers.mergeRootTimer(transaction.getMainThreadRootTimer());
-            if (transaction.hasAuxThreadContexts()) {
-                if (auxThreadRootTimer == null) {
-                    auxThreadRootTimer = MutableAggregateTimer.createAuxThreadRootTimer();
-                }
-                transaction.mergeAuxThreadTimersInto(auxThreadRootTimer);
-                if (auxThreadStats == null) {
-                    auxThreadStats = new ThreadStatsCollectorImpl();
-                }
-                transaction.mergeAuxThreadStatsInto(auxThreadStats);
+            transaction.mergeAuxThreadTimersInto(auxThreadRootTimer);
+            if (auxThreadStats == null) {
+                auxThreadStats = new ThreadStatsCollectorImpl();
             }
-            if (transaction.hasAsyncTimers()) {
-                if (asyncTimers == null) {
-                    asyncTimers = new RootTimerCollectorImpl();
-                }
-                transaction.mergeAsyncTimersInto(asyncTimers);
+            transaction.mergeAuxThreadStatsInto(auxThreadStats);
+        }
+        if (transaction.hasAsyncTimers()) {
+            if (asyncTimers == null) {
+                asyncTimers = new RootTimerCollectorImpl();
             }
-            durationNanosHistogram.add(totalDurationNanos);
-            transaction.mergeQueriesInto(queries);
-            transaction.mergeServiceCallsInto(serviceCalls);
-            ThreadProfile toBeMergedMainThreadProfile = transaction.getMainThreadProfile();
-            if (toBeMergedMainThreadProfile != null) {
-                if (mainThreadProfile == null) {
-                    mainThreadProfile = new MutableProfile();
-                }
-                toBeMergedMainThreadProfile.mergeInto(mainThreadProfile);
+            transaction.mergeAsyncTimersInto(asyncTimers);
+        }
+        durationNanosHistogram.add(totalDurationNanos);
+        transaction.mergeQueriesInto(queries);
+        transaction.mergeServiceCallsInto(serviceCalls);
+        ThreadProfile toBeMergedMainThreadProfile = transaction.getMainThreadProfile();
+        if (toBeMergedMainThreadProfile != null) {
+            if (mainThreadProfile == null) {
+                mainThreadProfile = new MutableProfile();
             }
-            ThreadProfile toBeMergedAuxThreadProfile = transaction.getAuxThreadProfile();
-            if (toBeMergedAuxThreadProfile != null) {
-                if (auxThreadProfile == null) {
-                    auxThreadProfile = new MutableProfile();
-                }
-                toBeMergedAuxThreadProfile.mergeInto(auxThreadProfile);
+            toBeMergedMainThreadProfile.mergeInto(mainThreadProfile);
+        }
+        ThreadProfile toBeMergedAuxThreadProfile = transaction.getAuxThreadProfile();
+        if (toBeMergedAuxThreadProfile != null) {
+            if (auxThreadProfile == null) {
+                auxThreadProfile = new MutableProfile();
             }
+            toBeMergedAuxThreadProfile.mergeInto(auxThreadProfile);
         }
     }
 
-    Aggregate build(SharedQueryTextCollection sharedQueryTextCollection,
-            ScratchBuffer scratchBuffer) {
-        synchronized (lock) {
-            Aggregate.Builder builder = Aggregate.newBuilder()
-                    .setTotalDurationNanos(totalDurationNanos)
-                    .setTransactionCount(transactionCount)
-                    .setErrorCount(errorCount)
-                    .setAsyncTransactions(asyncTransactions)
-                    .addAllMainThreadRootTimer(mainThreadRootTimers.toProto())
-                    .setMainThreadStats(mainThreadStats.toProto())
-                    .setDurationNanosHistogram(durationNanosHistogram.toProto(scratchBuffer));
-            if (auxThreadRootTimer != null) {
-                builder.setAuxThreadRootTimer(auxThreadRootTimer.toProto());
-                // aux thread stats is non-null when aux thread root timer is non-null
-                builder.setAuxThreadStats(checkNotNull(auxThreadStats).toProto());
-            }
-            if (asyncTimers != null) {
-                builder.addAllAsyncTimer(asyncTimers.toProto());
+    boolean isDirty() {
+        return dirty;
+    }
+
+    void publishSnapshot() {
+        AggregateCollector snapshot = new AggregateCollector(transactionName,
+                maxQueryAggregates, maxServiceCallAggregates);
+        snapshot.mergeFrom(this);
+        this.snapshot = snapshot;
+        dirty = false;
+    }
+
+    // this is called by the processing thread once it will no longer write to this collector
+    void seal() {
+        snapshot = this;
+        dirty = false;
+    }
+
+    @Nullable
+    AggregateCollector getSnapshot() {
+        return snapshot;
+    }
+
+    // used to combine the per-thread shards of an interval, and to create snapshots
+    void mergeFrom(AggregateCollector collector) {
+        totalDurationNanos += collector.totalDurationNanos;
+        totalCpuNanos += collector.totalCpuNanos;
+        totalAllocatedBytes += collector.totalAllocatedBytes;
+        transactionCount += collector.transactionCount;
+        errorCount += collector.errorCount;
+        if (collector.asyncTransactions) {
+            asyncTransactions = true;
+        }
+        mainThreadStats.mergeFrom(collector.mainThreadStats);
+        mainThreadRootTimers.mergeFrom(collector.mainThreadRootTimers);
+        if (collector.auxThreadRootTimer != null) {
+            if (auxThreadRootTimer == null) {
+                auxThreadRootTimer = MutableAggregateTimer.createAuxThreadRootTimer();
             }
-            if (queries != null) {
-                builder.addAllQuery(queries.toAggregateProto(sharedQueryTextCollection, false));
+            auxThreadRootTimer.merge(collector.auxThreadRootTimer);
+        }
+        if (collector.auxThreadStats != null) {
+            if (auxThreadStats == null) {
+                auxThreadStats = new ThreadStatsCollectorImpl();
             }
-            if (serviceCalls != null) {
-                builder.addAllServiceCall(serviceCalls.toAggregateProto());
+            auxThreadStats.mergeFrom(collector.auxThreadStats);
+        }
+        if (collector.asyncTimers != null) {
+            if (asyncTimers == null) {
+                asyncTimers = new RootTimerCollectorImpl();
             }
-            if (mainThreadProfile != null) {
-                builder.setMainThreadProfile(mainThreadProfile.toProto());
+            asyncTimers.mergeFrom(collector.asyncTimers);
+        }
+        synchronized (collector.histogramLock) {
+            durationNanosHistogram.merge(collector.durationNanosHistogram);
+        }
+        collector.queries.mergeQueriesInto(queries);
+        collector.serviceCalls.mergeServiceCallsInto(serviceCalls);
+        if (collector.mainThreadProfile != null) {
+            if (mainThreadProfile == null) {
+                mainThreadProfile = new MutableProfile();
             }
-            if (auxThreadProfile != null) {
-                builder.setAuxThreadProfile(auxThreadProfile.toProto());
+            mainThreadProfile.merge(collector.mainThreadProfile);
+        }
+        if (collector.auxThreadProfile != null) {
+            if (auxThreadProfile == null) {
+                auxThreadProfile = new MutableProfile();
             }
-            return builder.build();
+            auxThreadProfile.merge(collector.auxThreadProfile);
         }
     }
 
-    void mergeOverallSummaryInto(OverallSummaryCollector collector) {
-        synchronized (lock) {
-            collector.mergeSummary(totalDurationNanos, totalCpuNanos, totalAllocatedBytes, transactionCount, 0);
+    Aggregate build(SharedQueryTextCollection sharedQueryTextCollection,
+            ScratchBuffer scratchBuffer) {
+        Aggregate.Builder builder = Aggregate.newBuilder()
+                .setTotalDurationNanos(totalDurationNanos)
+                .setTransactionCount(transactionCount)
+                .setErrorCount(errorCount)
+                .setAsyncTransactions(asyncTransactions)
+                .addAllMainThreadRootTimer(mainThreadRootTimers.toProto())
+                .setMainThreadStats(mainThreadStats.toProto())
+                .setDurationNanosHistogram(getDurationNanosHistogram(scratchBuffer));
+        if (auxThreadRootTimer != null) {
+            builder.setAuxThreadRootTimer(auxThreadRootTimer.toProto());
+            // aux thread stats is non-null when aux thread root timer is non-null
+            builder.setAuxThreadStats(checkNotNull(auxThreadStats).toProto());
+        }
+        if (asyncTimers != null) {
+            builder.addAllAsyncTimer(asyncTimers.toProto());
+        }
+        if (queries != null) {
+            builder.addAllQuery(queries.toAggregateProto(sharedQueryTextCollection, false));
         }
+        if (serviceCalls != null) {
+            builder.addAllServiceCall(serviceCalls.toAggregateProto());
+        }
+        if (mainThreadProfile != null) {
+            builder.setMainThreadProfile(mainThreadProfile.toProto());
+        }
+        if (auxThreadProfile != null) {
+            builder.setAuxThreadProfile(auxThreadProfile.toProto());
+        }
+        return builder.build();
+    }
+
+    void mergeOverallSummaryInto(OverallSummaryCollector collector) {
+        collector.mergeSummary(totalDurationNanos, totalCpuNanos, totalAllocatedBytes, transactionCount, 0);
     }
 
     void mergeTransactionNameSummariesInto(TransactionNameSummaryCollector collector) {
         checkNotNull(transactionName);
-        synchronized (lock) {
-            collector.collect(transactionName, totalDurationNanos, totalCpuNanos, totalAllocatedBytes, transactionCount, 0);
-        }
+        collector.collect(transactionName, totalDurationNanos, totalCpuNanos, totalAllocatedBytes, transactionCount, 0);
     }
 
     void mergeOverallErrorSummaryInto(OverallErrorSummaryCollector collector) {
-        synchronized (lock) {
-            collector.mergeErrorSummary(errorCount, transactionCount, 0);
-        }
+        collector.mergeErrorSummary(errorCount, transactionCount, 0);
     }
 
     void mergeTransactionNameErrorSummariesInto(TransactionNameErrorSummaryCollector collector) {
         checkNotNull(transactionName);
-        synchronized (lock) {
-            if (errorCount != 0) {
-                collector.collect(transactionName, errorCount, transactionCount, 0);
-            }
+        if (errorCount != 0) {
+            collector.collect(transactionName, errorCount, transactionCount, 0);
         }
     }
 
     OverviewAggregate getOverviewAggregate(long captureTime) {
-        synchronized (lock) {
-            ImmutableOverviewAggregate.Builder builder = ImmutableOverviewAggregate.builder()
-                    .captureTime(captureTime)
-                    .totalDurationNanos(totalDurationNanos)
-                    .transactionCount(transactionCount)
-                    .asyncTransactions(asyncTransactions)
-                    .mainThreadRootTimers(mainThreadRootTimers.toProto())
-                    .mainThreadStats(mainThreadStats.toProto());
-            if (auxThreadRootTimer != null) {
-                builder.auxThreadRootTimer(auxThreadRootTimer.toProto());
-                // aux thread stats is non-null when aux thread root timer is non-null
-                builder.auxThreadStats(checkNotNull(auxThreadStats).toProto());
-            }
-            if (asyncTimers != null) {
-                builder.asyncTimers(asyncTimers.toProto());
-            }
-            return builder.build();
+        ImmutableOverviewAggregate.Builder builder = ImmutableOverviewAggregate.builder()
+                .captureTime(captureTime)
+                .totalDurationNanos(totalDurationNanos)
+                .transactionCount(transactionCount)
+                .asyncTransactions(asyncTransactions)
+                .mainThreadRootTimers(mainThreadRootTimers.toProto())
+                .mainThreadStats(mainThreadStats.toProto());
+        if (auxThreadRootTimer != null) {
+            builder.auxThreadRootTimer(auxThreadRootTimer.toProto());
+            // aux thread stats is non-null when aux thread root timer is non-null
+            builder.auxThreadStats(checkNotNull(auxThreadStats).toProto());
+        }
+        if (asyncTimers != null) {
+            builder.asyncTimers(asyncTimers.toProto());
         }
+        return builder.build();
     }
 
     PercentileAggregate getPercentileAggregate(long captureTime) {
-        synchronized (lock) {
-            return ImmutablePercentileAggregate.builder()
-                    .captureTime(captureTime)
-                    .totalDurationNanos(totalDurationNanos)
-                    .transactionCount(transactionCount)
-                    .durationNanosHistogram(durationNanosHistogram.toProto(new ScratchBuffer()))
-                    .build();
-        }
+        return ImmutablePercentileAggregate.builder()
+                .captureTime(captureTime)
+                .totalDurationNanos(totalDurationNanos)
+                .transactionCount(transactionCount)
+                .durationNanosHistogram(getDurationNanosHistogram(new ScratchBuffer()))
+                .build();
     }
 
     ThroughputAggregate getThroughputAggregate(long captureTime) {
-        synchronized (lock) {
-            return ImmutableThroughputAggregate.builder()
-                    .captureTime(captureTime)
-                    .transactionCount(transactionCount)
-                    .errorCount(errorCount)
-                    .build();
-        }
+        return ImmutableThroughputAggregate.builder()
+                .captureTime(captureTime)
+                .transactionCount(transactionCount)
+                .errorCount(errorCount)
+                .build();
     }
 
     @Nullable
@@ -256,40 +330,36 @@ class AggregateCollector {
         if (queries == null) {
             return null;
         }
-        synchronized (lock) {
-            return queries.getFullQueryText(fullQueryTextSha1);
-        }
+        return queries.getFullQueryText(fullQueryTextSha1);
     }
 
     void mergeQueriesInto(org.glowroot.common.model.QueryCollector collector) {
         if (queries != null) {
-            synchronized (lock) {
-                queries.mergeQueriesInto(collector);
-            }
+            queries.mergeQueriesInto(collector);
         }
     }
 
     void mergeServiceCallsInto(org.glowroot.common.model.ServiceCallCollector collector) {
         if (serviceCalls != null) {
-            synchronized (lock) {
-                serviceCalls.mergeServiceCallsInto(collector);
-            }
+            serviceCalls.mergeServiceCallsInto(collector);
         }
     }
 
     void mergeMainThreadProfilesInto(ProfileCollector collector) {
-        synchronized (lock) {
-            if (mainThreadProfile != null) {
-                collector.mergeProfile(mainThreadProfile.toProto());
-            }
+        if (mainThreadProfile != null) {
+            collector.mergeProfile(mainThreadProfile.toProto());
         }
     }
 
     void mergeAuxThreadProfilesInto(ProfileCollector collector) {
-        synchronized (lock) {
-            if (auxThreadProfile != null) {
-                collector.mergeProfile(auxThreadProfile.toProto());
-            }
+        if (auxThreadProfile != null) {
+            collector.mergeProfile(auxThreadProfile.toProto());
+        }
+    }
+
+    private Aggregate.Histogram getDurationNanosHistogram(ScratchBuffer scratchBuffer) {
+        synchronized (histogramLock) {
+            return durationNanosHistogram.toProto(scratchBuffer);
         }
     }
 
@@ -312,6 +382,25 @@ class AggregateCollector {
             rootMutableTimers.add(rootTimer);
         }
 
+        private void mergeFrom(RootTimerCollectorImpl collector) {
+            for (MutableAggregateTimer toBeMergedRootTimer : collector.rootMutableTimers) {
+                MutableAggregateTimer matchingRootTimer = null;
+                for (MutableAggregateTimer rootTimer : rootMutableTimers) {
+                    if (toBeMergedRootTimer.getName().equals(rootTimer.getName())
+                            && toBeMergedRootTimer.isExtended() == rootTimer.isExtended()) {
+                        matchingRootTimer = rootTimer;
+                        break;
+                    }
+                }
+                if (matchingRootTimer == null) {
+                    matchingRootTimer = new MutableAggregateTimer(toBeMergedRootTimer.getName(),
+                            toBeMergedRootTimer.isExtended());
+                    rootMutableTimers.add(matchingRootTimer);
+                }
+                matchingRootTimer.merge(toBeMergedRootTimer);
+            }
+        }
+
         private List<Aggregate.Timer> toProto() {
             List<Aggregate.Timer> rootTimers = Lists.newArrayList();
             for (MutableAggregateTimer rootMutableTimer : rootMutableTimers) {
@@ -340,6 +429,16 @@ class AggregateCollector {
                     threadStats.getAllocatedBytes());
         }
 
+        private void mergeFrom(ThreadStatsCollectorImpl collector) {
+            totalCpuNanos = NotAvailableAware.add(totalCpuNanos, collector.totalCpuNanos);
+            totalBlockedMillis =
+                    NotAvailableAware.add(totalBlockedMillis, collector.totalBlockedMillis);
+            totalWaitedMillis =
+                    NotAvailableAware.add(totalWaitedMillis, collector.totalWaitedMillis);
+            totalAllocatedBytes =
+                    NotAvailableAware.add(totalAllocatedBytes, collector.totalAllocatedBytes);
+        }
+
         public Aggregate.ThreadStats toProto() {
             return Aggregate.ThreadStats.newBuilder()
                     .setTotalCpuNanos(totalCpuNanos)
@@ -20,8 +20,11 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 import org.glowroot.agent.collector.Collector;
@@ -53,17 +56,33 @@ public class AggregateIntervalCollector {
     private final int maxServiceCallAggregates;
     private final Clock clock;
 
-    private final ConcurrentMap<String, IntervalTypeCollector> typeCollectors =
-            Maps.newConcurrentMap();
+    // one shard per transaction processing thread, each shard is only written to by its own
+    // processing thread, and the shards are only combined when the interval is flushed
+    //
+    // "live" queries read the snapshots that are published by the processing threads on request
+    // (see AggregateCollector)
+    private final ImmutableList<Shard> shards;
 
     AggregateIntervalCollector(long currentTime, long aggregateIntervalMillis,
             int maxTransactionAggregates, int maxQueryAggregates, int maxServiceCallAggregates,
             Clock clock) {
+        this(currentTime, aggregateIntervalMillis, maxTransactionAggregates, maxQueryAggregates,
+                maxServiceCallAggregates, 1, clock);
+    }
+
+    AggregateIntervalCollector(long currentTime, long aggregateIntervalMillis,
+            int maxTransactionAggregates, int maxQueryAggregates, int maxServiceCallAggregates,
+            int shardCount, Clock clock) {
         captureTime = CaptureTimes.getRollup(currentTime, aggregateIntervalMillis);
         this.maxTransactionAggregates = maxTransactionAggregates;
         this.maxQueryAggregates = maxQueryAggregates;
         this.maxServiceCallAggregates = maxServiceCallAggregates;
         this.clock = clock;
+        List<Shard> shards = Lists.newArrayList();
+        for (int i = 0; i < shardCount; i++) {
+            shards.add(new Shard());
+        }
+        this.shards = ImmutableList.copyOf(shards);
     }
 
     public long getCaptureTime() {
@@ -71,54 +90,106 @@ public class AggregateIntervalCollector {
     }
 
     public void add(Transaction transaction) {
-        IntervalTypeCollector typeCollector = typeCollectors.get(transaction.getTransactionType());
+        add(transaction, 0);
+    }
+
+    // this is only called from the processing thread that owns the shard
+    void add(Transaction transaction, int shardIndex) {
+        Shard shard = shards.get(shardIndex);
+        IntervalTypeCollector typeCollector =
+                shard.typeCollectors.get(transaction.getTransactionType());
         if (typeCollector == null) {
             // don't need to worry about race condition here because add() is only called from a
-            // single thread (TransactionProcessorLoop)
-            typeCollector = new IntervalTypeCollector();
-            typeCollectors.put(transaction.getTransactionType(), typeCollector);
+            // single thread for a given shard (TransactionProcessor.ProcessingLoop)
+            typeCollector = new IntervalTypeCollector(shard.dirtyAggregateCollectors);
+            shard.typeCollectors.put(transaction.getTransactionType(), typeCollector);
         }
         typeCollector.add(transaction);
     }
 
+    // this is only called from the processing thread that owns the shard
+    void publishSnapshots(int shardIndex) {
+        List<AggregateCollector> dirtyAggregateCollectors =
+                shards.get(shardIndex).dirtyAggregateCollectors;
+        for (AggregateCollector aggregateCollector : dirtyAggregateCollectors) {
+            aggregateCollector.publishSnapshot();
+        }
+        dirtyAggregateCollectors.clear();
+    }
+
+    // this is only called from the processing thread that owns the shard, once it will no longer
+    // add to this interval, at which point the shard's collectors can be used directly as their
+    // own snapshots (without copying)
+    void sealShard(int shardIndex) {
+        Shard shard = shards.get(shardIndex);
+        for (IntervalTypeCollector typeCollector : shard.typeCollectors.values()) {
+            typeCollector.overallAggregateCollector.seal();
+            for (AggregateCollector aggregateCollector : typeCollector
+                    .transactionAggregateCollectors.values()) {
+                aggregateCollector.seal();
+            }
+        }
+        shard.dirtyAggregateCollectors.clear();
+    }
+
     public void mergeOverallSummaryInto(OverallSummaryCollector collector, String transactionType) {
-        IntervalTypeCollector typeCollector = typeCollectors.get(transactionType);
-        if (typeCollector == null) {
-            return;
+        for (Shard shard : shards) {
+            IntervalTypeCollector typeCollector = shard.typeCollectors.get(transactionType);
+            if (typeCollector == null) {
+                continue;
+            }
+            AggregateCollector snapshot = typeCollector.overallAggregateCollector.getSnapshot();
+            if (snapshot != null) {
+                snapshot.mergeOverallSummaryInto(collector);
+            }
         }
-        typeCollector.overallAggregateCollector.mergeOverallSummaryInto(collector);
     }
 
     public void mergeTransactionNameSummariesInto(TransactionNameSummaryCollector collector,
             String transactionType) {
-        IntervalTypeCollector typeCollector = typeCollectors.get(transactionType);
-        if (typeCollector == null) {
-            return;
-        }
-        for (AggregateCollector aggregateCollector : typeCollector.transactionAggregateCollectors
-                .values()) {
-            aggregateCollector.mergeTransactionNameSummariesInto(collector);
+        for (Shard shard : shards) {
+            IntervalTypeCollector typeCollector = shard.typeCollectors.get(transactionType);
+            if (typeCollector == null) {
+                continue;
+            }
+            for (AggregateCollector aggregateCollector : typeCollector
+                    .transactionAggregateCollectors.values()) {
+                AggregateCollector snapshot = aggregateCollector.getSnapshot();
+                if (snapshot != null) {
+                    snapshot.mergeTransactionNameSummariesInto(collector);
+                }
+            }
         }
     }
 
     public void mergeOverallErrorSummaryInto(OverallErrorSummaryCollector collector,
             String transactionType) {
-        IntervalTypeCollector typeCollector = typeCollectors.get(transactionType);
-        if (typeCollector == null) {
-            return;
+        for (Shard shard : shards) {
+            IntervalTypeCollector typeCollector = shard.typeCollectors.get(transactionType);
+            if (typeCollector == null) {
+                continue;
+            }
+            AggregateCollector snapshot = typeCollector.overallAggregateCollector.getSnapshot();
+            if (snapshot != null) {
+                snapshot.mergeOverallErrorSummaryInto(collector);
+            }
         }
-        typeCollector.overallAggregateCollector.mergeOverallErrorSummaryInto(collector);
     }
 
     public void mergeTransactionNameErrorSummariesInto(
             TransactionNameErrorSummaryCollector collector, String transactionType) {
-        IntervalTypeCollector typeCollector = typeCollectors.get(transactionType);
-        if (typeCollector == null) {
-            return;
-        }
-        for (AggregateCollector aggregateCollector : typeCollector.transactionAggregateCollectors
-                .values()) {
-            aggregateCollector.mergeTransactionNameErrorSummariesInto(collector);
+        for (Shard shard : shards) {
+            IntervalTypeCollector typeCollector = shard.typeCollectors.get(transactionType);
+            if (typeCollector == null) {
+                continue;
+            }
+            for (AggregateCollector aggregateCollector : typeCollector
+                    .transactionAggregateCollectors.values()) {
+                AggregateCollector snapshot = aggregateCollector.getSnapshot();
+                if (snapshot != null) {
+                    snapshot.mergeTransactionNameErrorSummariesInto(collector);
+                }
+            }
         }
     }
 
@@ -156,10 +227,12 @@ public class AggregateIntervalCollector {
     }
 
     public @Nullable String getFullQueryText(String fullQueryTextSha1) {
-        for (IntervalTypeCollector typeCollector : typeCollectors.values()) {
-            String fullQueryText = typeCollector.getFullQueryText(fullQueryTextSha1);
-            if (fullQueryText != null) {
-                return fullQueryText;
+        for (Shard shard : shards) {
+            for (IntervalTypeCollector typeCollector : shard.typeCollectors.values()) {
+                String fullQueryText = typeCollector.getFullQueryText(fullQueryTextSha1);
+                if (fullQueryText != null) {
+                    return fullQueryText;
+                }
             }
         }
         return null;
@@ -208,29 +281,95 @@ public class AggregateIntervalCollector {
     // TODO report checker framework issue that occurs without this suppression
     @SuppressWarnings("return.type.incompatible")
     Set<String> getTransactionTypes() {
-        return typeCollectors.keySet();
+        if (shards.size() == 1) {
+            return shards.get(0).typeCollectors.keySet();
+        }
+        Set<String> transactionTypes = Sets.newHashSet();
+        for (Shard shard : shards) {
+            transactionTypes.addAll(shard.typeCollectors.keySet());
+        }
+        return transactionTypes;
     }
 
+    // this is only called after all processing threads are done adding to this interval
     void flush(Collector collector) throws Exception {
         collector.collectAggregates(new AggregateReaderImpl(captureTime));
     }
 
     void clear() {
-        typeCollectors.clear();
+        for (Shard shard : shards) {
+            shard.typeCollectors.clear();
+        }
     }
 
-    // can be called without lock
+    // returns a snapshot (or a merge of snapshots), so it can be called without lock
     private @Nullable AggregateCollector getAggregateCollector(String transactionType,
             @Nullable String transactionName) {
-        IntervalTypeCollector intervalTypeCollector = typeCollectors.get(transactionType);
+        if (shards.size() == 1) {
+            return getSnapshot(shards.get(0), transactionType, transactionName);
+        }
+        AggregateCollector mergedAggregateCollector = null;
+        for (Shard shard : shards) {
+            AggregateCollector snapshot = getSnapshot(shard, transactionType, transactionName);
+            if (snapshot == null) {
+                continue;
+            }
+            if (mergedAggregateCollector == null) {
+                mergedAggregateCollector = new AggregateCollector(transactionName,
+                        maxQueryAggregates, maxServiceCallAggregates);
+            }
+            mergedAggregateCollector.mergeFrom(snapshot);
+        }
+        return mergedAggregateCollector;
+    }
+
+    // this is only called once all processing threads are done adding to this interval
+    private Map<String, IntervalTypeCollector> getMergedTypeCollectors() {
+        if (shards.size() == 1) {
+            return shards.get(0).typeCollectors;
+        }
+        // the shards are merged into a new map instead of into one of the shards, so that
+        // concurrent "live" queries against the shards do not see partially merged data
+        Map<String, IntervalTypeCollector> mergedTypeCollectors = Maps.newHashMap();
+        for (Shard shard : shards) {
+            for (Map.Entry<String, IntervalTypeCollector> entry : shard.typeCollectors
+                    .entrySet()) {
+                IntervalTypeCollector mergedTypeCollector =
+                        mergedTypeCollectors.get(entry.getKey());
+                if (mergedTypeCollector == null) {
+                    mergedTypeCollector = new IntervalTypeCollector(null);
+                    mergedTypeCollectors.put(entry.getKey(), mergedTypeCollector);
+                }
+                mergedTypeCollector.mergeFrom(entry.getValue());
+            }
+        }
+        return mergedTypeCollectors;
+    }
+
+    private static @Nullable AggregateCollector getSnapshot(Shard shard, String transactionType,
+            @Nullable String transactionName) {
+        IntervalTypeCollector intervalTypeCollector = shard.typeCollectors.get(transactionType);
         if (intervalTypeCollector == null) {
             return null;
         }
+        AggregateCollector aggregateCollector;
         if (transactionName == null) {
-            return intervalTypeCollector.overallAggregateCollector;
+            aggregateCollector = intervalTypeCollector.overallAggregateCollector;
         } else {
-            return intervalTypeCollector.transactionAggregateCollectors.get(transactionName);
+            aggregateCollector =
+                    intervalTypeCollector.transactionAggregateCollectors.get(transactionName);
         }
+        return aggregateCollector == null ? null : aggregateCollector.getSnapshot();
+    }
+
+    private static class Shard {
+
+        private final ConcurrentMap<String, IntervalTypeCollector> typeCollectors =
+                Maps.newConcurrentMap();
+
+        // collectors that have been written to since their last published snapshot, this is only
+        // accessed by the processing thread that owns the shard
+        private final List<AggregateCollector> dirtyAggregateCollectors = Lists.newArrayList();
     }
 
     private class IntervalTypeCollector {
@@ -239,31 +378,50 @@ public class AggregateIntervalCollector {
         private final Map<String, AggregateCollector> transactionAggregateCollectors =
                 Maps.newConcurrentMap();
 
-        private IntervalTypeCollector() {
+        // null when merging shards for flush, since no snapshots are needed at that point
+        private final @Nullable List<AggregateCollector> dirtyAggregateCollectors;
+
+        private IntervalTypeCollector(
+                @Nullable List<AggregateCollector> dirtyAggregateCollectors) {
             overallAggregateCollector =
                     new AggregateCollector(null, maxQueryAggregates, maxServiceCallAggregates);
+            this.dirtyAggregateCollectors = dirtyAggregateCollectors;
         }
 
         private void add(Transaction transaction) {
             merge(transaction, overallAggregateCollector);
+            merge(transaction, getOrCreateTransactionAggregateCollector(
+                    transaction.getTransactionName()));
+        }
+
+        private void mergeFrom(IntervalTypeCollector typeCollector) {
+            overallAggregateCollector.mergeFrom(typeCollector.overallAggregateCollector);
+            for (Map.Entry<String, AggregateCollector> entry : typeCollector
+                    .transactionAggregateCollectors.entrySet()) {
+                getOrCreateTransactionAggregateCollector(entry.getKey())
+                        .mergeFrom(entry.getValue());
+            }
+        }
+
+        private AggregateCollector getOrCreateTransactionAggregateCollector(
+                String transactionName) {
             AggregateCollector transactionAggregateCollector =
-                    transactionAggregateCollectors.get(transaction.getTransactionName());
+                    transactionAggregateCollectors.get(transactionName);
+            if (transactionAggregateCollector != null) {
+                return transactionAggregateCollector;
+            }
+            // don't need to worry about race condition here because this is only called from a
+            // single thread for a given shard (TransactionProcessor.ProcessingLoop)
+            if (transactionAggregateCollectors.size() < maxTransactionAggregates) {
+                return createTransactionAggregateCollector(transactionName);
+            }
+            transactionAggregateCollector =
+                    transactionAggregateCollectors.get(LIMIT_EXCEEDED_BUCKET);
             if (transactionAggregateCollector == null) {
-                // don't need to worry about race condition here because add() is only called from a
-                // single thread (TransactionProcessorLoop)
-                if (transactionAggregateCollectors.size() < maxTransactionAggregates) {
-                    transactionAggregateCollector =
-                            createTransactionAggregateCollector(transaction.getTransactionName());
-                } else {
-                    transactionAggregateCollector =
-                            transactionAggregateCollectors.get(LIMIT_EXCEEDED_BUCKET);
-                    if (transactionAggregateCollector == null) {
-                        transactionAggregateCollector =
-                                createTransactionAggregateCollector(LIMIT_EXCEEDED_BUCKET);
-                    }
-                }
+                transactionAggregateCollector =
+                        createTransactionAggregateCollector(LIMIT_EXCEEDED_BUCKET);
             }
-            merge(transaction, transactionAggregateCollector);
+            return transactionAggregateCollector;
         }
 
         private AggregateCollector createTransactionAggregateCollector(String transactionName) {
@@ -274,28 +432,39 @@ public class AggregateIntervalCollector {
         }
 
         private void merge(Transaction transaction, AggregateCollector aggregateCollector) {
+            if (dirtyAggregateCollectors != null && !aggregateCollector.isDirty()) {
+                dirtyAggregateCollectors.add(aggregateCollector);
+            }
             aggregateCollector.mergeDataFrom(transaction);
         }
 
         private @Nullable String getFullQueryText(String fullQueryTextSha1) {
-            String fullQueryText = overallAggregateCollector.getFullQueryText(fullQueryTextSha1);
+            String fullQueryText = getFullQueryText(overallAggregateCollector, fullQueryTextSha1);
             if (fullQueryText != null) {
                 return fullQueryText;
             }
             for (AggregateCollector aggregateCollector : transactionAggregateCollectors.values()) {
-                fullQueryText = aggregateCollector.getFullQueryText(fullQueryTextSha1);
+                fullQueryText = getFullQueryText(aggregateCollector, fullQueryTextSha1);
                 if (fullQueryText != null) {
                     return fullQueryText;
                 }
             }
             return null;
         }
+
+        private @Nullable String getFullQueryText(AggregateCollector aggregateCollector,
+                String fullQueryTextSha1) {
+            AggregateCollector snapshot = aggregateCollector.getSnapshot();
+            return snapshot == null ? null : snapshot.getFullQueryText(fullQueryTextSha1);
+        }
     }
 
     private class AggregateReaderImpl implements AggregateReader {
 
         private final long captureTime;
 
+        private @MonotonicNonNull Map<String, IntervalTypeCollector> typeCollectors;
+
         private AggregateReaderImpl(long captureTime) {
             this.captureTime = captureTime;
         }
@@ -307,6 +476,10 @@ public class AggregateIntervalCollector {
 
         @Override
         public void accept(AggregateVisitor aggregateVisitor) throws Exception {
+            if (typeCollectors == null) {
+                // shards are combined lazily, on the thread that reads the aggregates
+                typeCollectors = getMergedTypeCollectors();
+            }
             SharedQueryTextCollectionImpl sharedQueryTextCollector =
                     new SharedQueryTextCollectionImpl();
             ScratchBuffer scratchBuffer = new ScratchBuffer();
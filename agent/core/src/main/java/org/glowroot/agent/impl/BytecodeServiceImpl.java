@@ -28,6 +28,7 @@ import org.glowroot.agent.bytecode.api.BytecodeService;
 import org.glowroot.agent.bytecode.api.MessageTemplate;
 import org.glowroot.agent.bytecode.api.ThreadContextPlus;
 import org.glowroot.agent.bytecode.api.ThreadContextThreadLocal;
+import org.glowroot.agent.model.VirtualThreadCarrierStats;
 import org.glowroot.agent.plugin.api.MessageSupplier;
 import org.glowroot.agent.plugin.api.MethodInfo;
 import org.glowroot.agent.plugin.api.TraceEntry;
@@ -105,6 +106,26 @@ public class BytecodeServiceImpl implements BytecodeService {
         }
     }
 
+    @Override
+    public void mountedVirtualThread(Thread virtualThread, Thread carrierThread) {
+        // this is called from inside java.lang.VirtualThread.mount(), so must not throw
+        try {
+            VirtualThreadCarrierStats.mounted(virtualThread, carrierThread);
+        } catch (Throwable t) {
+            logger.error(t.getMessage(), t);
+        }
+    }
+
+    @Override
+    public void unmountingVirtualThread(Thread virtualThread, Thread carrierThread) {
+        // this is called from inside java.lang.VirtualThread.unmount(), so must not throw
+        try {
+            VirtualThreadCarrierStats.unmounting(virtualThread, carrierThread);
+        } catch (Throwable t) {
+            logger.error(t.getMessage(), t);
+        }
+    }
+
     @Override
     public ThreadContextThreadLocal.Holder getCurrentThreadContextHolder() {
         return transactionRegistry.getCurrentThreadContextHolder();
@@ -0,0 +1,527 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.impl;
+
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import javax.annotation.concurrent.GuardedBy;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.glowroot.agent.config.ConfigService;
+import org.glowroot.agent.plugin.api.config.ConfigListener;
+import org.glowroot.common.util.OnlyUsedByTests;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+// alternative to StackTraceCollector that consumes jdk.ExecutionSample and jdk.NativeMethodSample
+// events from a JFR RecordingStream (Java 14+) instead of calling ThreadMXBean.getThreadInfo()
+//
+// JFR samples threads without bringing the JVM to a safepoint, so the profiles are not safepoint
+// biased and the cost does not grow with the number of active transactions, and JFR also samples
+// virtual threads (which ThreadMXBean does not support)
+//
+// JFR samples all threads (a bounded number of threads per sampling period), and delivers the
+// events in batches (roughly once per second), the samples are attributed to the active thread
+// contexts by java thread id when the batch is delivered
+//
+// samples from the last second or so of a transaction are delivered after the transaction has
+// completed, so completed transactions are held here (before being handed to the
+// TransactionProcessor, which captures the trace and aggregate data) until the JFR batches covering
+// their completion have been delivered, and the late samples are added to their main thread
+// profile (late samples from auxiliary threads are still lost, since auxiliary thread contexts can
+// be merged into the transaction by the time they are delivered)
+//
+// while held, completed transactions remain in the transaction registry, the same as they do
+// between completion and processing when not held
+//
+// JFR can fail to sample threads that are running tight loops in C2 compiled code, adding
+// -XX:+UnlockDiagnosticVMOptions -XX:+DebugNonSafepoints to the JVM args fixes this (and also
+// improves the accuracy of line numbers in the captured stack traces)
+//
+// JFR captures at most 64 frames by default (see -XX:FlightRecorderOptions:stackdepth), so deeper
+// stack traces are missing their root frames
+//
+// the JFR classes are accessed via reflection since the agent is compiled against java 8
+public class JfrStackTraceCollector implements JfrStackTraceCollectorMXBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(JfrStackTraceCollector.class);
+
+    private static final String EXECUTION_SAMPLE = "jdk.ExecutionSample";
+    private static final String NATIVE_METHOD_SAMPLE = "jdk.NativeMethodSample";
+
+    // JFR flushes the recorded events to the recording stream once per second, so the first batch
+    // that is delivered at least this long after a transaction completes covers its completion
+    private static final long HOLD_NANOS = SECONDS.toNanos(1);
+
+    // same as the transaction processor backlog limit (per stripe), since held transactions are
+    // all handed to the transaction processor from the processing thread
+    private static final int HELD_TRANSACTION_LIMIT = 1000;
+
+    private final TransactionRegistry transactionRegistry;
+    private final ConfigService configService;
+    private final Jfr jfr;
+
+    // the recording stream is never restarted (since it takes a while to start delivering events),
+    // profiling interval changes are applied to the running stream instead
+    private final Object recordingStream;
+
+    @GuardedBy("this")
+    private int currIntervalMillis;
+
+    private final Thread processingThread;
+    private volatile boolean closed;
+
+    // completed transactions waiting for their late samples, in order of completion
+    private final ConcurrentLinkedQueue<HeldTransaction> heldTransactions =
+            new ConcurrentLinkedQueue<HeldTransaction>();
+    private final AtomicInteger heldTransactionCount = new AtomicInteger();
+
+    // only accessed by the processing thread, reset after each batch of events is delivered
+    private @Nullable Map<Long, ThreadContextImpl> threadContexts;
+    private @Nullable Map<Long, List<Transaction>> heldTransactionsByThreadId;
+
+    // these are only written by the processing thread
+    private volatile long sampleCount;
+    private volatile long attributedSampleCount;
+    private volatile long processingTimeNanos;
+
+    public static @Nullable JfrStackTraceCollector create(TransactionRegistry transactionRegistry,
+            ConfigService configService) {
+        Jfr jfr;
+        try {
+            jfr = new Jfr();
+        } catch (ClassNotFoundException e) {
+            logger.debug(e.getMessage(), e);
+            logger.warn("JFR based profiling requires Java 14+, using the default profiler");
+            return null;
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+            return null;
+        }
+        try {
+            return new JfrStackTraceCollector(transactionRegistry, configService, jfr);
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+            return null;
+        }
+    }
+
+    private JfrStackTraceCollector(TransactionRegistry transactionRegistry,
+            ConfigService configService, final Jfr jfr) throws Exception {
+        this.transactionRegistry = transactionRegistry;
+        this.configService = configService;
+        this.jfr = jfr;
+
+        recordingStream = jfr.newRecordingStream();
+        jfr.setOrdered(recordingStream, false);
+        Consumer<Object> consumer = new Consumer<Object>() {
+            @Override
+            public void accept(Object event) {
+                onSample(event);
+            }
+        };
+        jfr.onEvent(recordingStream, EXECUTION_SAMPLE, consumer);
+        jfr.onEvent(recordingStream, NATIVE_METHOD_SAMPLE, consumer);
+        jfr.onFlush(recordingStream, new Runnable() {
+            @Override
+            public void run() {
+                threadContexts = null;
+                heldTransactionsByThreadId = null;
+                releaseHeldTransactions(System.nanoTime() - HOLD_NANOS);
+            }
+        });
+        updateProfilingInterval();
+
+        // the events are delivered on the thread that starts the recording stream
+        processingThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    // blocks until the recording stream is closed
+                    jfr.start(recordingStream);
+                } catch (Throwable t) {
+                    logger.error(t.getMessage(), t);
+                } finally {
+                    closed = true;
+                    releaseHeldTransactions(Long.MAX_VALUE);
+                }
+            }
+        });
+        processingThread.setDaemon(true);
+        processingThread.setName("Glowroot-JFR-Stack-Trace-Collector");
+        processingThread.start();
+
+        configService.addConfigListener(new ConfigListener() {
+            @Override
+            public void onChange() {
+                try {
+                    updateProfilingInterval();
+                } catch (Exception e) {
+                    logger.error(e.getMessage(), e);
+                }
+            }
+        });
+    }
+
+    @Override
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    @Override
+    public long getAttributedSampleCount() {
+        return attributedSampleCount;
+    }
+
+    @Override
+    public long getProcessingTime() {
+        return processingTimeNanos;
+    }
+
+    // returns false if the transaction is not held, in which case the caller needs to hand it to
+    // the transaction processor
+    boolean holdForLateSamples(Transaction transaction,
+            TransactionProcessor transactionProcessor) {
+        if (closed || configService.getTransactionConfig().profilingIntervalMillis() <= 0) {
+            return false;
+        }
+        if (heldTransactionCount.incrementAndGet() > HELD_TRANSACTION_LIMIT) {
+            heldTransactionCount.decrementAndGet();
+            return false;
+        }
+        heldTransactions.add(
+                new HeldTransaction(transaction, transactionProcessor, System.nanoTime()));
+        if (closed) {
+            // the processing thread may have already released the held transactions
+            releaseHeldTransactions(Long.MAX_VALUE);
+        }
+        return true;
+    }
+
+    @OnlyUsedByTests
+    public void close() throws Exception {
+        closed = true;
+        jfr.close(recordingStream);
+        processingThread.join();
+    }
+
+    @VisibleForTesting
+    static Map<Long, ThreadContextImpl> indexActiveThreadContexts(
+            Iterable<Transaction> transactions) {
+        Map<Long, ThreadContextImpl> threadContexts = Maps.newHashMap();
+        for (Transaction transaction : transactions) {
+            ThreadContextImpl mainThreadContext = transaction.getMainThreadContext();
+            if (mainThreadContext.isActive()) {
+                threadContexts.put(mainThreadContext.getThreadId(), mainThreadContext);
+            }
+            for (ThreadContextImpl auxThreadContext : transaction.getActiveAuxThreadContexts()) {
+                threadContexts.put(auxThreadContext.getThreadId(), auxThreadContext);
+            }
+        }
+        return threadContexts;
+    }
+
+    // the most recently completed transaction is returned first, since thread ids are reused
+    @VisibleForTesting
+    static @Nullable Transaction findHeldTransaction(List<Transaction> transactions,
+            long sampleTime) {
+        for (int i = transactions.size() - 1; i >= 0; i--) {
+            Transaction transaction = transactions.get(i);
+            long startTime = transaction.getStartTime();
+            // rounded up to the next millisecond, since the sample times have millisecond precision
+            long endTime = startTime + NANOSECONDS.toMillis(transaction.getDurationNanos()) + 1;
+            if (sampleTime >= startTime && sampleTime <= endTime) {
+                return transaction;
+            }
+        }
+        return null;
+    }
+
+    private Map<Long, List<Transaction>> indexHeldTransactions() {
+        Map<Long, List<Transaction>> heldTransactionsByThreadId = Maps.newHashMap();
+        for (HeldTransaction heldTransaction : heldTransactions) {
+            Transaction transaction = heldTransaction.transaction;
+            long threadId = transaction.getMainThreadContext().getThreadId();
+            List<Transaction> transactions = heldTransactionsByThreadId.get(threadId);
+            if (transactions == null) {
+                transactions = Lists.newArrayList();
+                heldTransactionsByThreadId.put(threadId, transactions);
+            }
+            transactions.add(transaction);
+        }
+        return heldTransactionsByThreadId;
+    }
+
+    // releases the transactions that were held prior to the given tick (in order of completion)
+    private void releaseHeldTransactions(long heldBeforeTick) {
+        HeldTransaction heldTransaction;
+        while ((heldTransaction = heldTransactions.peek()) != null
+                && (heldBeforeTick == Long.MAX_VALUE
+                        || heldTransaction.heldTick - heldBeforeTick < 0)) {
+            if (heldTransactions.remove(heldTransaction)) {
+                heldTransactionCount.decrementAndGet();
+                heldTransaction.transactionProcessor
+                        .processOnCompletion(heldTransaction.transaction);
+            }
+        }
+    }
+
+    private synchronized void updateProfilingInterval() throws Exception {
+        int intervalMillis = configService.getTransactionConfig().profilingIntervalMillis();
+        if (intervalMillis == currIntervalMillis || closed) {
+            return;
+        }
+        if (intervalMillis <= 0) {
+            jfr.disable(recordingStream, EXECUTION_SAMPLE);
+            jfr.disable(recordingStream, NATIVE_METHOD_SAMPLE);
+        } else {
+            Duration period = Duration.ofMillis(intervalMillis);
+            jfr.enable(recordingStream, EXECUTION_SAMPLE, period);
+            jfr.enable(recordingStream, NATIVE_METHOD_SAMPLE, period);
+        }
+        currIntervalMillis = intervalMillis;
+    }
+
+    private void onSample(Object event) {
+        long startTick = System.nanoTime();
+        try {
+            if (captureStackTrace(event)) {
+                attributedSampleCount++;
+            }
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+            // prevent excessive error logging, since the error is most likely not going to go away
+            closed = true;
+            try {
+                jfr.close(recordingStream);
+            } catch (Exception f) {
+                logger.error(f.getMessage(), f);
+            }
+        }
+        sampleCount++;
+        processingTimeNanos += System.nanoTime() - startTick;
+    }
+
+    private boolean captureStackTrace(Object event) throws Exception {
+        long threadId = jfr.getSampledThreadId(event);
+        if (threadId == -1) {
+            return false;
+        }
+        Map<Long, ThreadContextImpl> threadContexts = this.threadContexts;
+        Map<Long, List<Transaction>> heldTransactionsByThreadId = this.heldTransactionsByThreadId;
+        if (threadContexts == null || heldTransactionsByThreadId == null) {
+            threadContexts = indexActiveThreadContexts(transactionRegistry.getTransactions());
+            heldTransactionsByThreadId = indexHeldTransactions();
+            this.threadContexts = threadContexts;
+            this.heldTransactionsByThreadId = heldTransactionsByThreadId;
+        }
+        long sampleTime = jfr.getStartTime(event);
+        ThreadContextImpl threadContext = threadContexts.get(threadId);
+        // thread ids are reused (e.g. by thread pools), and the events are delivered after a
+        // delay, so the sample may have been taken before this transaction started
+        if (threadContext != null
+                && sampleTime >= threadContext.getTransaction().getStartTime()) {
+            List<StackTraceElement> stackTrace = jfr.getStackTrace(event);
+            if (stackTrace.isEmpty()) {
+                return false;
+            }
+            // both sampled in java and in native code, which ThreadMXBean reports as RUNNABLE
+            threadContext.captureStackTrace(stackTrace, Thread.State.RUNNABLE);
+            return true;
+        }
+        List<Transaction> heldTransactions = heldTransactionsByThreadId.get(threadId);
+        if (heldTransactions == null) {
+            return false;
+        }
+        Transaction heldTransaction = findHeldTransaction(heldTransactions, sampleTime);
+        if (heldTransaction == null) {
+            return false;
+        }
+        List<StackTraceElement> stackTrace = jfr.getStackTrace(event);
+        if (stackTrace.isEmpty()) {
+            return false;
+        }
+        // held transactions are only released by this thread while the recording stream is
+        // running, so this cannot race with the transaction processor capturing the profile
+        heldTransaction.captureLateMainThreadStackTrace(stackTrace, Thread.State.RUNNABLE);
+        return true;
+    }
+
+    private static class HeldTransaction {
+
+        private final Transaction transaction;
+        private final TransactionProcessor transactionProcessor;
+        private final long heldTick;
+
+        private HeldTransaction(Transaction transaction, TransactionProcessor transactionProcessor,
+                long heldTick) {
+            this.transaction = transaction;
+            this.transactionProcessor = transactionProcessor;
+            this.heldTick = heldTick;
+        }
+    }
+
+    private static class Jfr {
+
+        private final Class<?> recordingStreamClass;
+        private final Method enableMethod;
+        private final Method disableMethod;
+        private final Method withPeriodMethod;
+        private final Method setOrderedMethod;
+        private final Method onEventMethod;
+        private final Method onFlushMethod;
+        private final Method startMethod;
+        private final Method closeMethod;
+
+        private final Method getStartTimeMethod;
+        private final Method getThreadMethod;
+        private final Method getStackTraceMethod;
+        private final Method getJavaThreadIdMethod;
+        private final Method getFramesMethod;
+        private final Method isJavaFrameMethod;
+        private final Method getFrameTypeMethod;
+        private final Method getLineNumberMethod;
+        private final Method getMethodMethod;
+        private final Method getMethodNameMethod;
+        private final Method getMethodTypeMethod;
+        private final Method getClassNameMethod;
+
+        private Jfr() throws Exception {
+            recordingStreamClass = Class.forName("jdk.jfr.consumer.RecordingStream");
+            enableMethod = recordingStreamClass.getMethod("enable", String.class);
+            disableMethod = recordingStreamClass.getMethod("disable", String.class);
+            Class<?> eventSettingsClass = Class.forName("jdk.jfr.EventSettings");
+            withPeriodMethod = eventSettingsClass.getMethod("withPeriod", Duration.class);
+            setOrderedMethod = recordingStreamClass.getMethod("setOrdered", boolean.class);
+            onEventMethod =
+                    recordingStreamClass.getMethod("onEvent", String.class, Consumer.class);
+            onFlushMethod = recordingStreamClass.getMethod("onFlush", Runnable.class);
+            startMethod = recordingStreamClass.getMethod("start");
+            closeMethod = recordingStreamClass.getMethod("close");
+
+            Class<?> recordedEventClass = Class.forName("jdk.jfr.consumer.RecordedEvent");
+            getStartTimeMethod = recordedEventClass.getMethod("getStartTime");
+            getThreadMethod = recordedEventClass.getMethod("getThread", String.class);
+            getStackTraceMethod = recordedEventClass.getMethod("getStackTrace");
+            Class<?> recordedThreadClass = Class.forName("jdk.jfr.consumer.RecordedThread");
+            getJavaThreadIdMethod = recordedThreadClass.getMethod("getJavaThreadId");
+            Class<?> recordedStackTraceClass =
+                    Class.forName("jdk.jfr.consumer.RecordedStackTrace");
+            getFramesMethod = recordedStackTraceClass.getMethod("getFrames");
+            Class<?> recordedFrameClass = Class.forName("jdk.jfr.consumer.RecordedFrame");
+            isJavaFrameMethod = recordedFrameClass.getMethod("isJavaFrame");
+            getFrameTypeMethod = recordedFrameClass.getMethod("getType");
+            getLineNumberMethod = recordedFrameClass.getMethod("getLineNumber");
+            getMethodMethod = recordedFrameClass.getMethod("getMethod");
+            Class<?> recordedMethodClass = Class.forName("jdk.jfr.consumer.RecordedMethod");
+            getMethodNameMethod = recordedMethodClass.getMethod("getName");
+            getMethodTypeMethod = recordedMethodClass.getMethod("getType");
+            Class<?> recordedClassClass = Class.forName("jdk.jfr.consumer.RecordedClass");
+            getClassNameMethod = recordedClassClass.getMethod("getName");
+        }
+
+        private Object newRecordingStream() throws Exception {
+            return recordingStreamClass.getConstructor().newInstance();
+        }
+
+        private void enable(Object stream, String eventName, Duration period) throws Exception {
+            Object eventSettings = checkNotNull(enableMethod.invoke(stream, eventName));
+            withPeriodMethod.invoke(eventSettings, period);
+        }
+
+        private void disable(Object stream, String eventName) throws Exception {
+            disableMethod.invoke(stream, eventName);
+        }
+
+        private void setOrdered(Object stream, boolean ordered) throws Exception {
+            setOrderedMethod.invoke(stream, ordered);
+        }
+
+        private void onEvent(Object stream, String eventName, Consumer<Object> consumer)
+                throws Exception {
+            onEventMethod.invoke(stream, eventName, consumer);
+        }
+
+        private void onFlush(Object stream, Runnable runnable) throws Exception {
+            onFlushMethod.invoke(stream, runnable);
+        }
+
+        private void start(Object stream) throws Exception {
+            startMethod.invoke(stream);
+        }
+
+        private void close(Object stream) throws Exception {
+            closeMethod.invoke(stream);
+        }
+
+        private long getStartTime(Object event) throws Exception {
+            return ((Instant) checkNotNull(getStartTimeMethod.invoke(event))).toEpochMilli();
+        }
+
+        private long getSampledThreadId(Object event) throws Exception {
+            Object thread = getThreadMethod.invoke(event, "sampledThread");
+            if (thread == null) {
+                return -1;
+            }
+            // returns -1 for threads that are not java threads
+            return (Long) checkNotNull(getJavaThreadIdMethod.invoke(thread));
+        }
+
+        // top of stack first, same as Thread.getStackTrace()
+        private List<StackTraceElement> getStackTrace(Object event) throws Exception {
+            Object stackTrace = getStackTraceMethod.invoke(event);
+            if (stackTrace == null) {
+                return Lists.newArrayList();
+            }
+            List<?> frames = (List<?>) checkNotNull(getFramesMethod.invoke(stackTrace));
+            List<StackTraceElement> stackTraceElements =
+                    Lists.newArrayListWithCapacity(frames.size());
+            for (Object frame : frames) {
+                if (!(Boolean) checkNotNull(isJavaFrameMethod.invoke(frame))) {
+                    continue;
+                }
+                Object method = checkNotNull(getMethodMethod.invoke(frame));
+                Object type = checkNotNull(getMethodTypeMethod.invoke(method));
+                String className = (String) checkNotNull(getClassNameMethod.invoke(type));
+                String methodName = (String) checkNotNull(getMethodNameMethod.invoke(method));
+                int lineNumber = (Integer) checkNotNull(getLineNumberMethod.invoke(frame));
+                if ("Native".equals(getFrameTypeMethod.invoke(frame))) {
+                    // same as StackTraceElement.isNativeMethod()
+                    lineNumber = -2;
+                }
+                // JFR does not record source file names
+                stackTraceElements.add(
+                        new StackTraceElement(className, methodName, null, lineNumber));
+            }
+            return stackTraceElements;
+        }
+    }
+}
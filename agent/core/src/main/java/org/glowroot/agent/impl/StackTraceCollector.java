@@ -1,5 +1,5 @@
 /*
- * Copyright 2011-2018 the original author or authors.
+ * Copyright 2011-2026 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -17,6 +17,7 @@ package org.glowroot.agent.impl;
 
 import java.lang.management.ManagementFactory;
 import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
 import java.util.List;
 import java.util.Random;
 
@@ -33,10 +34,27 @@ import org.glowroot.common.util.OnlyUsedByTests;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
-public class StackTraceCollector {
+public class StackTraceCollector implements StackTraceCollectorMXBean {
 
     private static final Logger logger = LoggerFactory.getLogger(StackTraceCollector.class);
 
+    // each ThreadMXBean.getThreadInfo() call brings the JVM to a safepoint for the duration of the
+    // call, so stack traces are captured in batches to keep each individual pause short
+    //
+    // the pause grows linearly with the number of threads (roughly 3 to 5 milliseconds per 64
+    // threads with 60 frame stacks), while each additional safepoint adds the time-to-safepoint of
+    // every running application thread, so the batch size trades pause length against safepoint
+    // count (see the CaptureTime and CaptureCount gauges)
+    private static final int BATCH_SIZE =
+            Integer.getInteger("glowroot.internal.profiling.batchSize", 64);
+    // max number of getThreadInfo() calls (and so safepoints) per profiling tick
+    private static final int MAX_BATCHES_PER_TICK =
+            Integer.getInteger("glowroot.internal.profiling.maxBatchesPerTick", 4);
+    // max number of threads whose stack traces are captured per profiling tick, which bounds the
+    // cost of each tick when many threads are in flight (threads that don't fit are picked up on
+    // subsequent ticks, see ThreadContextSelection)
+    private static final int MAX_THREADS_PER_TICK = BATCH_SIZE * MAX_BATCHES_PER_TICK;
+
     private final TransactionRegistry transactionRegistry;
     private final ConfigService configService;
     private final Random random;
@@ -44,6 +62,14 @@ public class StackTraceCollector {
     private final InternalRunnable runnable;
     private final Thread processingThread;
 
+    // these are only written by the processing thread
+    private volatile long sampledThreadCount;
+    private volatile long droppedThreadCount;
+    private volatile long captureTimeNanos;
+    private volatile long captureCount;
+    private volatile int lastTickThreadCount;
+    private volatile long lastTickCaptureTimeNanos;
+
     public StackTraceCollector(TransactionRegistry transactionRegistry,
             final ConfigService configService, Random random) {
         this.transactionRegistry = transactionRegistry;
@@ -71,6 +97,36 @@ public class StackTraceCollector {
         });
     }
 
+    @Override
+    public long getSampledThreadCount() {
+        return sampledThreadCount;
+    }
+
+    @Override
+    public long getDroppedThreadCount() {
+        return droppedThreadCount;
+    }
+
+    @Override
+    public long getCaptureTime() {
+        return captureTimeNanos;
+    }
+
+    @Override
+    public long getCaptureCount() {
+        return captureCount;
+    }
+
+    @Override
+    public int getLastTickThreadCount() {
+        return lastTickThreadCount;
+    }
+
+    @Override
+    public long getLastTickCaptureTime() {
+        return lastTickCaptureTimeNanos;
+    }
+
     @OnlyUsedByTests
     public void close() throws InterruptedException {
         runnable.closed = true;
@@ -78,26 +134,77 @@ public class StackTraceCollector {
         processingThread.join();
     }
 
-    static void captureStackTraces(List<ThreadContextImpl> threadContexts) {
-        if (threadContexts.isEmpty()) {
-            // critical not to call ThreadMXBean.getThreadInfo() with empty id list
-            // see https://bugs.openjdk.java.net/browse/JDK-8074368
-            return;
+    // returns the time spent in ThreadMXBean.getThreadInfo()
+    static long captureStackTraces(List<ThreadContextImpl> threadContexts, int batchSize) {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        long captureTimeNanos = 0;
+        for (int from = 0; from < threadContexts.size(); from += batchSize) {
+            // from < size guarantees that ThreadMXBean.getThreadInfo() is never called with empty
+            // id list, which is critical, see https://bugs.openjdk.java.net/browse/JDK-8074368
+            int to = Math.min(from + batchSize, threadContexts.size());
+            long[] threadIds = new long[to - from];
+            for (int i = from; i < to; i++) {
+                threadIds[i - from] = threadContexts.get(i).getThreadId();
+            }
+            long startTick = System.nanoTime();
+            @Nullable
+            ThreadInfo[] threadInfos = threadBean.getThreadInfo(threadIds, Integer.MAX_VALUE);
+            captureTimeNanos += System.nanoTime() - startTick;
+            for (int i = from; i < to; i++) {
+                ThreadInfo threadInfo = threadInfos[i - from];
+                if (threadInfo != null) {
+                    threadContexts.get(i).captureStackTrace(threadInfo);
+                }
+            }
         }
-        long[] threadIds = new long[threadContexts.size()];
-        for (int i = 0; i < threadContexts.size(); i++) {
-            threadIds[i] = threadContexts.get(i).getThreadId();
+        return captureTimeNanos;
+    }
+
+    // selects up to maxThreads active thread contexts, starting at startIndex and wrapping around
+    //
+    // main thread contexts of all transactions are selected before any auxiliary thread contexts,
+    // so that a transaction with many auxiliary threads cannot starve the others, and when the
+    // budget runs out, the next selection starts with the transaction that didn't fit
+    static ThreadContextSelection selectThreadContexts(List<Transaction> transactions,
+            int startIndex, int maxThreads) {
+        int transactionCount = transactions.size();
+        List<ThreadContextImpl> threadContexts =
+                Lists.newArrayListWithCapacity(Math.min(2 * transactionCount, maxThreads));
+        List<List<ThreadContextImpl>> auxThreadContextsList =
+                Lists.newArrayListWithCapacity(transactionCount);
+        int activeThreadCount = 0;
+        int nextStartIndex = -1;
+        for (int i = 0; i < transactionCount; i++) {
+            int index = (startIndex + i) % transactionCount;
+            Transaction transaction = transactions.get(index);
+            ThreadContextImpl mainThreadContext = transaction.getMainThreadContext();
+            if (mainThreadContext.isActive()) {
+                activeThreadCount++;
+                if (threadContexts.size() < maxThreads) {
+                    threadContexts.add(mainThreadContext);
+                } else if (nextStartIndex == -1) {
+                    nextStartIndex = index;
+                }
+            }
+            List<ThreadContextImpl> auxThreadContexts = transaction.getActiveAuxThreadContexts();
+            activeThreadCount += auxThreadContexts.size();
+            auxThreadContextsList.add(auxThreadContexts);
         }
-        @Nullable
-        ThreadInfo[] threadInfos =
-                ManagementFactory.getThreadMXBean().getThreadInfo(threadIds, Integer.MAX_VALUE);
-        for (int i = 0; i < threadContexts.size(); i++) {
-            ThreadContextImpl threadContext = threadContexts.get(i);
-            ThreadInfo threadInfo = threadInfos[i];
-            if (threadInfo != null) {
-                threadContext.captureStackTrace(threadInfo);
+        for (int i = 0; i < transactionCount; i++) {
+            for (ThreadContextImpl auxThreadContext : auxThreadContextsList.get(i)) {
+                if (threadContexts.size() < maxThreads) {
+                    threadContexts.add(auxThreadContext);
+                } else if (nextStartIndex == -1) {
+                    nextStartIndex = (startIndex + i) % transactionCount;
+                }
             }
         }
+        if (nextStartIndex == -1) {
+            // everything fit, but still rotate so that ordering within the batches is fair
+            nextStartIndex = (startIndex + 1) % transactionCount;
+        }
+        return new ThreadContextSelection(threadContexts,
+                activeThreadCount - threadContexts.size(), nextStartIndex);
     }
 
     private class InternalRunnable implements Runnable {
@@ -105,6 +212,9 @@ public class StackTraceCollector {
         private volatile int currIntervalMillis;
         private volatile boolean closed;
 
+        // round robin position in the list of transactions
+        private int nextTransactionIndex;
+
         @Override
         public void run() {
             // delay for first
@@ -149,17 +259,42 @@ public class StackTraceCollector {
             if (transactions.isEmpty()) {
                 return;
             }
-            List<ThreadContextImpl> activeThreadContexts =
-                    Lists.newArrayListWithCapacity(2 * transactions.size());
-            for (int i = 0; i < transactions.size(); i++) {
-                Transaction transaction = transactions.get(i);
-                ThreadContextImpl mainThreadContext = transaction.getMainThreadContext();
-                if (mainThreadContext.isActive()) {
-                    activeThreadContexts.add(mainThreadContext);
-                }
-                activeThreadContexts.addAll(transaction.getActiveAuxThreadContexts());
-            }
-            captureStackTraces(activeThreadContexts);
+            ThreadContextSelection selection = selectThreadContexts(transactions,
+                    nextTransactionIndex % transactions.size(), MAX_THREADS_PER_TICK);
+            nextTransactionIndex = selection.nextStartIndex;
+            long tickCaptureTimeNanos = captureStackTraces(selection.threadContexts, BATCH_SIZE);
+            sampledThreadCount += selection.threadContexts.size();
+            droppedThreadCount += selection.droppedThreadCount;
+            captureTimeNanos += tickCaptureTimeNanos;
+            captureCount += (selection.threadContexts.size() + BATCH_SIZE - 1) / BATCH_SIZE;
+            lastTickThreadCount = selection.threadContexts.size();
+            lastTickCaptureTimeNanos = tickCaptureTimeNanos;
+        }
+    }
+
+    static class ThreadContextSelection {
+
+        private final List<ThreadContextImpl> threadContexts;
+        private final int droppedThreadCount;
+        private final int nextStartIndex;
+
+        private ThreadContextSelection(List<ThreadContextImpl> threadContexts,
+                int droppedThreadCount, int nextStartIndex) {
+            this.threadContexts = threadContexts;
+            this.droppedThreadCount = droppedThreadCount;
+            this.nextStartIndex = nextStartIndex;
+        }
+
+        List<ThreadContextImpl> getThreadContexts() {
+            return threadContexts;
+        }
+
+        int getDroppedThreadCount() {
+            return droppedThreadCount;
+        }
+
+        int getNextStartIndex() {
+            return nextStartIndex;
         }
     }
 }
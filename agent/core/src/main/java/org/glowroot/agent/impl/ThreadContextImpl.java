@@ -17,13 +17,13 @@ package org.glowroot.agent.impl;
 
 import java.lang.management.ThreadInfo;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import com.google.common.base.Strings;
 import com.google.common.base.Ticker;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ListMultimap;
 import com.google.common.primitives.Ints;
 import org.checkerframework.checker.nullness.qual.EnsuresNonNullIf;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
@@ -59,7 +59,6 @@ import org.glowroot.agent.plugin.api.Timer;
 import org.glowroot.agent.plugin.api.TimerName;
 import org.glowroot.agent.plugin.api.TraceEntry;
 import org.glowroot.agent.util.ThreadAllocatedBytes;
-import org.glowroot.agent.util.Tickers;
 import org.glowroot.common.config.AdvancedConfig;
 import org.glowroot.common.util.NotAvailableAware;
 
@@ -171,6 +170,11 @@ public class ThreadContextImpl implements ThreadContextPlus {
         return transaction;
     }
 
+    @Nullable
+    TraceEntryImpl getParentTraceEntry() {
+        return parentTraceEntry;
+    }
+
     @Nullable
     TraceEntryImpl getParentThreadContextPriorEntry() {
         return parentThreadContextPriorEntry;
@@ -272,7 +276,7 @@ public class ThreadContextImpl implements ThreadContextPlus {
         return threadStatsComponent != null;
     }
 
-    private boolean isCompleted(long captureTick) {
+    boolean isCompleted(long captureTick) {
         if (!traceEntryComponent.isCompleted()) {
             return false;
         }
@@ -428,6 +432,12 @@ public class ThreadContextImpl implements ThreadContextPlus {
         transaction.memoryBarrierRead();
     }
 
+    void captureStackTrace(List<StackTraceElement> stackTrace, Thread.State threadState) {
+        transaction.captureStackTrace(isAuxiliary(), stackTrace, threadState);
+        // memory barrier read ensures timely visibility of detach()
+        transaction.memoryBarrierRead();
+    }
+
     @Override
     public AuxThreadContext createAuxThreadContext() {
         ImmutableList<StackTraceElement> locationStackTrace = null;
@@ -1006,48 +1016,27 @@ public class ThreadContextImpl implements ThreadContextPlus {
         return !traceEntryComponent.isEmpty();
     }
 
-    void populateParentChildMap(ListMultimap<TraceEntryImpl, TraceEntryImpl> parentChildMap,
-            long captureTick,
-            ListMultimap<TraceEntryImpl, ThreadContextImpl> priorEntryAuxThreadContextMap) {
-        if (captureTick < traceEntryComponent.getStartTick()) {
-            return;
-        }
-        boolean completed = isCompleted(captureTick);
-        TraceEntryImpl entry = getRootEntry();
-        boolean entryIsRoot = true;
-        // filter out entries that started after the capture tick
-        // checking completed is short circuit optimization for the common case
-        while (entry != null
-                && (completed || Tickers.lessThanOrEqual(entry.getStartTick(), captureTick))) {
-            TraceEntryImpl parentTraceEntry = entry.getParentTraceEntry();
-            if (parentTraceEntry == null && !entryIsRoot) {
-                logger.error("found non-root trace entry with null parent trace entry"
-                        + "\ntrace entry: {}\ntransaction: {} - {}", entry,
-                        transaction.getTransactionType(), transaction.getTransactionName());
-                entry = entry.getNextTraceEntry();
-                continue;
-            }
-            if (!entryIsRoot) {
-                parentChildMap.put(parentTraceEntry, entry);
-            }
-            for (ThreadContextImpl auxThreadContext : priorEntryAuxThreadContextMap.get(entry)) {
-                TraceEntryImpl auxThreadRootEntry = auxThreadContext.getRootEntry();
-                if (completed || Tickers.lessThanOrEqual(auxThreadRootEntry.getStartTick(),
-                        captureTick)) {
-                    // checkNotNull is safe b/c aux thread contexts have non-null parent trace entry
-                    parentChildMap.put(checkNotNull(auxThreadContext.parentTraceEntry),
-                            auxThreadRootEntry);
-                }
-            }
-            entry = entry.getNextTraceEntry();
-            entryIsRoot = false;
-        }
+    TraceEntryStore getTraceEntryStore() {
+        return traceEntryComponent.getStore();
+    }
+
+    void compactEntryIfPossible(TraceEntryImpl entry) {
+        traceEntryComponent.compactIfPossible(entry);
+    }
+
+    void restoreEntryIfCompacted(TraceEntryImpl entry) {
+        traceEntryComponent.restoreIfCompacted(entry);
+    }
+
+    // this is only non-null for detached auxiliary thread contexts with trace entries, and is
+    // created on demand since it is only needed when visiting the trace entries
+    @Nullable
+    TraceEntryImpl createDetachedEntry() {
         if (detached && !traceEntryComponent.isEmpty()) {
-            TraceEntryImpl rootEntry = getRootEntry();
-            parentChildMap.put(rootEntry,
-                    new TraceEntryImpl(this, rootEntry, DETACHED_MESSAGE_SUPPLIER,
-                            null, 0, transaction.getEndTick(), null, null));
+            return new TraceEntryImpl(this, getRootEntry(), DETACHED_MESSAGE_SUPPLIER, null, 0,
+                    transaction.getEndTick(), null, null);
         }
+        return null;
     }
 
     private boolean isAuxiliary() {
@@ -163,7 +163,8 @@ public class TraceCollector {
         if (!slow && !shouldStoreError(transaction)) {
             return;
         }
-        // don't need to worry about race condition since only ever called from a single thread
+        // this can be called from multiple aggregate processing threads, but the pending limits
+        // are only approximate anyways
         if (transaction.isPartiallyStored()
                 && partialCompletePendingCount.get() >= PENDING_LIMIT) {
             backPressureLogger.warn("not storing a completed (and once partial) trace because of an"
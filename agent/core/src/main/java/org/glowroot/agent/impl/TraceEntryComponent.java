@@ -24,6 +24,8 @@ import org.glowroot.agent.model.ErrorMessage;
 import org.glowroot.agent.model.QueryData;
 import org.glowroot.agent.plugin.api.MessageSupplier;
 
+import static com.google.common.base.Preconditions.checkNotNull;
+
 // this supports updating by a single thread and reading by multiple threads
 class TraceEntryComponent {
 
@@ -43,12 +45,15 @@ class TraceEntryComponent {
 
     private TraceEntryImpl tailEntry;
 
+    private final TraceEntryStore store = new TraceEntryStore();
+
     TraceEntryComponent(ThreadContextImpl threadContext, MessageSupplier messageSupplier,
             TimerImpl timer, long startTick) {
         this.threadContext = threadContext;
         this.startTick = startTick;
         rootEntry = new TraceEntryImpl(threadContext, null, messageSupplier, null, 0, startTick,
                 timer, null);
+        rootEntry.setStoreIndex(store.add(rootEntry, startTick, 0));
         activeEntry = rootEntry;
         tailEntry = rootEntry;
     }
@@ -74,7 +79,7 @@ class TraceEntryComponent {
             long queryExecutionCount) {
         TraceEntryImpl entry = new TraceEntryImpl(threadContext, activeEntry, messageSupplier,
                 queryData, queryExecutionCount, startTick, syncTimer, asyncTimer);
-        tailEntry.setNextTraceEntry(entry);
+        addToStore(entry, startTick);
         tailEntry = entry;
         activeEntry = entry;
         return entry;
@@ -88,6 +93,8 @@ class TraceEntryComponent {
         if (entry == rootEntry) {
             this.endTick = endTick;
             this.completed = true;
+        } else {
+            compactIfPossible(entry);
         }
     }
 
@@ -102,11 +109,31 @@ class TraceEntryComponent {
             @Nullable QueryData queryData, ErrorMessage errorMessage) {
         TraceEntryImpl entry = TraceEntryImpl.createCompletedErrorEntry(threadContext, activeEntry,
                 messageSupplier, queryData, errorMessage, startTick, endTick);
-        tailEntry.setNextTraceEntry(entry);
+        addToStore(entry, startTick);
         tailEntry = entry;
         return entry;
     }
 
+    void compactIfPossible(TraceEntryImpl entry) {
+        if (entry.isCompactable()) {
+            store.compact(entry.getStoreIndex(), entry.getRevisedStartTick(), entry.getEndTick(),
+                    (MessageSupplier) checkNotNull(entry.getMessageSupplier()));
+        }
+    }
+
+    // compacted trace entries need to be restored while they are extended, since they are active
+    // again (and their timing will change)
+    void restoreIfCompacted(TraceEntryImpl entry) {
+        int storeIndex = entry.getStoreIndex();
+        if (store.getEntry(storeIndex) != entry) {
+            store.restore(storeIndex, entry);
+        }
+    }
+
+    TraceEntryStore getStore() {
+        return store;
+    }
+
     TraceEntryImpl getActiveEntry() {
         return activeEntry;
     }
@@ -119,6 +146,11 @@ class TraceEntryComponent {
         return rootEntry == tailEntry;
     }
 
+    private void addToStore(TraceEntryImpl entry, long startTick) {
+        int depth = store.getDepth(activeEntry.getStoreIndex()) + 1;
+        entry.setStoreIndex(store.add(entry, startTick, depth));
+    }
+
     private void popEntrySafe(TraceEntryImpl entry) {
         if (activeEntry != entry) {
             // somehow(?) a pop was missed (or maybe too many pops), this is just damage control
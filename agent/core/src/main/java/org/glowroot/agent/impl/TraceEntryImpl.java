@@ -72,8 +72,8 @@ class TraceEntryImpl extends QueryEntryBase implements AsyncQueryEntry, Timer {
     private long endTick;
     private boolean initialComplete;
 
-    // this is for maintaining linear list of trace entries
-    private @Nullable TraceEntryImpl nextTraceEntry;
+    // index in the thread context's TraceEntryStore
+    private int storeIndex;
 
     // only null for trace entries added using addEntryEntry()
     private final @Nullable TimerImpl syncTimer;
@@ -158,10 +158,7 @@ class TraceEntryImpl extends QueryEntryBase implements AsyncQueryEntry, Timer {
         // async root entry always has empty message and empty detail
 
         if (messageSupplier instanceof MessageSupplier) {
-            ReadableMessage readableMessage =
-                    (ReadableMessage) ((MessageSupplier) messageSupplier).get();
-            builder.setMessage(readableMessage.getText());
-            builder.addAllDetailEntry(DetailMapWriter.toProto(readableMessage.getDetail()));
+            setMessage(builder, (MessageSupplier) messageSupplier);
         } else if (messageSupplier instanceof QueryMessageSupplier) {
             String queryText = checkNotNull(getQueryText());
             int sharedQueryTextIndex = sharedQueryTextCollection.getSharedQueryTextIndex(queryText);
@@ -204,10 +201,41 @@ class TraceEntryImpl extends QueryEntryBase implements AsyncQueryEntry, Timer {
         entryVisitor.visitEntry(builder.build());
     }
 
+    static void setMessage(Trace.Entry.Builder builder, MessageSupplier messageSupplier) {
+        ReadableMessage readableMessage = (ReadableMessage) messageSupplier.get();
+        builder.setMessage(readableMessage.getText());
+        builder.addAllDetailEntry(DetailMapWriter.toProto(readableMessage.getDetail()));
+    }
+
     long getStartTick() {
         return startTick;
     }
 
+    int getStoreIndex() {
+        return storeIndex;
+    }
+
+    void setStoreIndex(int storeIndex) {
+        this.storeIndex = storeIndex;
+    }
+
+    // plain trace entries are compacted in TraceEntryStore once they complete, everything else
+    // either needs to be updated after it completes (e.g. async trace entries, and query entries
+    // which track row navigation), or is rare enough that it is not worth compacting
+    boolean isCompactable() {
+        return messageSupplier instanceof MessageSupplier && syncTimer != null
+                && asyncTimer == null && errorMessage == null && locationStackTrace == null
+                && locationStackTraceThreshold == 0 && isCompleted();
+    }
+
+    long getRevisedStartTick() {
+        return revisedStartTick;
+    }
+
+    long getEndTick() {
+        return endTick;
+    }
+
     @Override
     public void end() {
         if (initialComplete) {
@@ -315,6 +343,7 @@ class TraceEntryImpl extends QueryEntryBase implements AsyncQueryEntry, Timer {
         // entries are not returned from plugin api so no way for extend() to be called when
         // syncTimer is null
         checkNotNull(syncTimer);
+        threadContext.restoreEntryIfCompacted(this);
         long priorDurationNanos = endTick - revisedStartTick;
         revisedStartTick = currTick - priorDurationNanos;
         extendedTimer = syncTimer.extend(currTick, currentTimer);
@@ -367,6 +396,7 @@ class TraceEntryImpl extends QueryEntryBase implements AsyncQueryEntry, Timer {
             setLocationStackTrace(ImmutableList.copyOf(locationStackTrace).subList(index,
                     locationStackTrace.length));
         }
+        threadContext.compactEntryIfPossible(this);
     }
 
     @RequiresNonNull("asyncTimer")
@@ -397,15 +427,6 @@ class TraceEntryImpl extends QueryEntryBase implements AsyncQueryEntry, Timer {
         return parentTraceEntry;
     }
 
-    @Nullable
-    TraceEntryImpl getNextTraceEntry() {
-        return nextTraceEntry;
-    }
-
-    void setNextTraceEntry(TraceEntryImpl nextTraceEntry) {
-        this.nextTraceEntry = nextTraceEntry;
-    }
-
     boolean isAuxThreadRoot() {
         // TODO this is a little hacky depending on timer name
         return syncTimer != null && syncTimer.getName().equals("auxiliary thread");
@@ -472,11 +493,13 @@ class TraceEntryImpl extends QueryEntryBase implements AsyncQueryEntry, Timer {
         if (isAsync()) {
             threadContext.getTransaction().memoryBarrierWrite();
             // already popped in stopSyncTimer()
+            initialComplete = true;
         } else {
             selfNestingLevel--;
+            // set before popping since completed trace entries are compacted when popped
+            initialComplete = true;
             threadContext.popEntry(this, endTick);
         }
-        initialComplete = true;
     }
 
     private String getRowCountSuffix() {
@@ -515,7 +538,6 @@ class TraceEntryImpl extends QueryEntryBase implements AsyncQueryEntry, Timer {
     }
 
     // this is used for logging, in particular in TraceEntryComponent.popEntryBailout()
-    // and in ThreadContextImpl.populateParentChildMap()
     @Override
     public String toString() {
         if (messageSupplier instanceof MessageSupplier) {
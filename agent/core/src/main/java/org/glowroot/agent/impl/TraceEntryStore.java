@@ -0,0 +1,178 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.impl;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import org.glowroot.agent.impl.Transaction.TraceEntryVisitor;
+import org.glowroot.agent.model.SharedQueryTextCollection;
+import org.glowroot.agent.plugin.api.MessageSupplier;
+import org.glowroot.agent.util.Tickers;
+import org.glowroot.wire.api.model.TraceOuterClass.Trace;
+
+// struct-of-arrays storage for the trace entries of a single thread context
+//
+// trace entries are stored in the order they were started, which (since trace entries on a single
+// thread are strictly nested) is a pre-order traversal of the trace entry tree, so the tree can be
+// streamed directly from the nesting depths without any parent/child pointers
+//
+// a trace entry is stored as its TraceEntryImpl while it can still change (e.g. while it is active,
+// or if it is an async entry, query entry, error entry or has a location stack trace), and plain
+// trace entries are compacted down to a few primitive slots once they complete, so that huge
+// transactions (e.g. batch jobs at the trace entry limit) don't retain a full object graph for
+// each trace entry, the message supplier is retained as-is and only resolved when the trace entry
+// is visited
+//
+// this supports updating by a single thread and reading by multiple threads
+//
+// the entry slot is written after the primitive slots using an ordered write (and readers read the
+// entry slot first), so that readers that see the entry slot also see the primitive slots that
+// were written before it
+class TraceEntryStore {
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    // not volatile, so depends on memory barrier in Transaction for visibility
+    //
+    // the columns are replaced (not modified) when growing, and the replacement is a copy which
+    // contains all of the prior trace entries, so readers are safe using a stale instance
+    private Columns columns = new Columns(INITIAL_CAPACITY);
+    // not volatile, so depends on memory barrier in Transaction for visibility
+    private int size;
+
+    // returns the index of the trace entry
+    int add(TraceEntryImpl entry, long startTick, int depth) {
+        Columns columns = this.columns;
+        if (size == columns.entries.length()) {
+            columns = new Columns(columns, size + (size >> 1));
+            this.columns = columns;
+        }
+        int index = size;
+        columns.startTicks[index] = startTick;
+        columns.depths[index] = depth;
+        columns.entries.lazySet(index, entry);
+        size = index + 1;
+        return index;
+    }
+
+    void compact(int index, long revisedStartTick, long endTick, MessageSupplier messageSupplier) {
+        Columns columns = this.columns;
+        columns.endTicks[index] = endTick;
+        columns.durationNanos[index] = endTick - revisedStartTick;
+        // replacing the entry last, since readers use this to check if the trace entry has been
+        // compacted
+        columns.entries.lazySet(index, messageSupplier);
+    }
+
+    // this is needed when a compacted trace entry is extended
+    void restore(int index, TraceEntryImpl entry) {
+        columns.entries.lazySet(index, entry);
+    }
+
+    int size() {
+        return size;
+    }
+
+    int getDepth(int index) {
+        return columns.depths[index];
+    }
+
+    long getStartTick(int index) {
+        return columns.startTicks[index];
+    }
+
+    // returns null if the trace entry has been compacted
+    @Nullable
+    TraceEntryImpl getEntry(int index) {
+        Object entry = columns.entries.get(index);
+        return entry instanceof TraceEntryImpl ? (TraceEntryImpl) entry : null;
+    }
+
+    // returns false if index is beyond what is visible to the current thread
+    boolean isVisible(int index) {
+        Columns columns = this.columns;
+        return index < columns.entries.length() && columns.entries.get(index) != null;
+    }
+
+    void accept(int index, int depth, long transactionStartTick, long captureTick,
+            TraceEntryVisitor entryVisitor, SharedQueryTextCollection sharedQueryTextCollection) {
+        Columns columns = this.columns;
+        // reading the entry first (and only once, since a compacted trace entry can be restored
+        // concurrently), see comment at top of class
+        Object entry = columns.entries.get(index);
+        if (entry instanceof TraceEntryImpl) {
+            ((TraceEntryImpl) entry).accept(depth, transactionStartTick, captureTick, entryVisitor,
+                    sharedQueryTextCollection);
+            return;
+        }
+        long startTick = columns.startTicks[index];
+        long endTick = columns.endTicks[index];
+        long durationNanos;
+        boolean active;
+        if (Tickers.lessThanOrEqual(endTick, captureTick)) {
+            durationNanos = columns.durationNanos[index];
+            active = false;
+        } else {
+            long revisedStartTick = endTick - columns.durationNanos[index];
+            // max with zero to prevent negative value which is possible here under race condition
+            durationNanos = Math.max(captureTick - revisedStartTick, 0);
+            active = true;
+        }
+        Trace.Entry.Builder builder = Trace.Entry.newBuilder()
+                .setDepth(depth)
+                .setStartOffsetNanos(startTick - transactionStartTick)
+                .setDurationNanos(durationNanos)
+                .setActive(active);
+        TraceEntryImpl.setMessage(builder, (MessageSupplier) entry);
+        entryVisitor.visitEntry(builder.build());
+    }
+
+    private static class Columns {
+
+        private final long[] startTicks;
+        // only populated for compacted trace entries
+        private final long[] endTicks;
+        // only populated for compacted trace entries, this is relative to the revised start tick
+        // (see TraceEntryImpl.extend())
+        private final long[] durationNanos;
+        // nesting depth within the thread context, root entry is 0
+        private final int[] depths;
+        // TraceEntryImpl, or the MessageSupplier once the trace entry is compacted
+        private final AtomicReferenceArray</*@Nullable*/ Object> entries;
+
+        private Columns(int capacity) {
+            startTicks = new long[capacity];
+            endTicks = new long[capacity];
+            durationNanos = new long[capacity];
+            depths = new int[capacity];
+            entries = new AtomicReferenceArray</*@Nullable*/ Object>(capacity);
+        }
+
+        private Columns(Columns columns, int capacity) {
+            startTicks = Arrays.copyOf(columns.startTicks, capacity);
+            endTicks = Arrays.copyOf(columns.endTicks, capacity);
+            durationNanos = Arrays.copyOf(columns.durationNanos, capacity);
+            depths = Arrays.copyOf(columns.depths, capacity);
+            entries = new AtomicReferenceArray</*@Nullable*/ Object>(capacity);
+            for (int i = 0; i < columns.entries.length(); i++) {
+                entries.lazySet(i, columns.entries.get(i));
+            }
+        }
+    }
+}
@@ -17,9 +17,11 @@ package org.glowroot.agent.impl;
 
 import java.lang.management.ManagementFactory;
 import java.lang.management.ThreadInfo;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
@@ -43,6 +45,7 @@ import com.google.common.collect.SetMultimap;
 import com.google.common.collect.Sets;
 import com.google.common.collect.TreeMultimap;
 import com.google.common.io.BaseEncoding;
+import com.google.common.primitives.Ints;
 import org.checkerframework.checker.nullness.qual.EnsuresNonNull;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
@@ -70,10 +73,10 @@ import org.glowroot.agent.plugin.api.TimerName;
 import org.glowroot.agent.plugin.api.internal.ReadableMessage;
 import org.glowroot.agent.util.IterableWithSelfRemovableEntries.SelfRemovableEntry;
 import org.glowroot.agent.util.ThreadAllocatedBytes;
+import org.glowroot.agent.util.Tickers;
 import org.glowroot.common.config.AdvancedConfig;
 import org.glowroot.common.util.Cancellable;
 import org.glowroot.common.util.NotAvailableAware;
-import org.glowroot.common.util.Traverser;
 import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
 import org.glowroot.wire.api.model.ProfileOuterClass.Profile;
 import org.glowroot.wire.api.model.TraceOuterClass.Trace;
@@ -107,6 +110,18 @@ public class Transaction {
 
     private static final Random random = new Random();
 
+    private static final Comparator<ThreadContextImpl> PRIOR_ENTRY_ORDERING =
+            new Comparator<ThreadContextImpl>() {
+                @Override
+                public int compare(ThreadContextImpl left, ThreadContextImpl right) {
+                    // checkNotNull is safe b/c only called for aux thread contexts
+                    return Ints.compare(
+                            checkNotNull(left.getParentThreadContextPriorEntry()).getStoreIndex(),
+                            checkNotNull(right.getParentThreadContextPriorEntry())
+                                    .getStoreIndex());
+                }
+            };
+
     private volatile @Nullable String traceId;
 
     private final long startTime;
@@ -510,23 +525,19 @@ public class Transaction {
     private void visitEntriesInternal(long captureTick, TraceEntryVisitor entryVisitor,
             SharedQueryTextCollection sharedQueryTextCollection) {
         memoryBarrierRead();
-        ListMultimap<TraceEntryImpl, ThreadContextImpl> priorEntryChildThreadContextMap =
-                buildPriorEntryChildThreadContextMap();
-        ListMultimap<TraceEntryImpl, TraceEntryImpl> parentChildMap = ArrayListMultimap.create();
-        mainThreadContext.populateParentChildMap(parentChildMap, captureTick,
-                priorEntryChildThreadContextMap);
-        synchronized (mainThreadContext) {
-            if (auxThreadContexts != null) {
-                for (ThreadContextImpl auxThreadContext : getUnmergedAuxThreadContext()) {
-                    auxThreadContext.populateParentChildMap(parentChildMap, captureTick,
-                            priorEntryChildThreadContextMap);
-                }
-            }
+        TraceEntryStreamer streamer = new TraceEntryStreamer(buildChildAuxThreadContextMap(),
+                startTick, captureTick, entryVisitor, sharedQueryTextCollection);
+        ThreadContextImpl singleAuxThreadContext = null;
+        if (async) {
+            singleAuxThreadContext = streamer.getSingleChildAuxThreadContext(mainThreadContext);
+        }
+        // the main thread context root entry is not included (it is represented by the trace
+        // header), and for async transactions, a single "auxiliary thread" child is also removed
+        if (singleAuxThreadContext == null) {
+            streamer.stream(mainThreadContext, -1, false);
+        } else {
+            streamer.stream(singleAuxThreadContext, -1, false);
         }
-        new ParentChildMapTrimmer(mainThreadContext.getRootEntry(), parentChildMap, captureTick)
-                .traverse();
-        addProtobufChildEntries(mainThreadContext.getRootEntry(), parentChildMap, startTick,
-                captureTick, 0, entryVisitor, sharedQueryTextCollection, async);
     }
 
     long getMainThreadProfileSampleCount() {
@@ -783,9 +794,28 @@ public class Transaction {
     }
 
     void captureStackTrace(boolean auxiliary, ThreadInfo threadInfo) {
+        captureStackTrace(auxiliary, Arrays.asList(threadInfo.getStackTrace()),
+                threadInfo.getThreadState());
+    }
+
+    void captureStackTrace(boolean auxiliary, List<StackTraceElement> stackTrace,
+            Thread.State threadState) {
         if (completed) {
             return;
         }
+        addStackTrace(auxiliary, stackTrace, threadState);
+    }
+
+    // this is only called for completed transactions that are being held (prior to being
+    // processed) by JfrStackTraceCollector, in order to add samples that were taken prior to
+    // completion but were delivered afterwards
+    void captureLateMainThreadStackTrace(List<StackTraceElement> stackTrace,
+            Thread.State threadState) {
+        addStackTrace(false, stackTrace, threadState);
+    }
+
+    private void addStackTrace(boolean auxiliary, List<StackTraceElement> stackTrace,
+            Thread.State threadState) {
         ThreadProfile profile;
         if (auxiliary) {
             profile = auxThreadProfile;
@@ -801,7 +831,7 @@ public class Transaction {
             // transaction profile field, so that it is not possible to read a profile that doesn't
             // have at least one stack trace
             profile = new ThreadProfile(maxProfileSamples);
-            profile.addStackTrace(threadInfo);
+            profile.addStackTrace(stackTrace, threadState);
             if (auxiliary) {
                 auxThreadProfile = profile;
             } else {
@@ -809,7 +839,7 @@ public class Transaction {
             }
             return;
         }
-        profile.addStackTrace(threadInfo);
+        profile.addStackTrace(stackTrace, threadState);
     }
 
     void trackResourceAcquired(Object resource, boolean withLocationStackTrace) {
@@ -1015,44 +1045,26 @@ public class Transaction {
         return asyncComponents;
     }
 
-    private static void addProtobufChildEntries(TraceEntryImpl entry,
-            ListMultimap<TraceEntryImpl, TraceEntryImpl> parentChildMap, long transactionStartTick,
-            long captureTick, int depth, TraceEntryVisitor entryVisitor,
-            SharedQueryTextCollection sharedQueryTextCollection, boolean removeSingleAuxEntry) {
-        if (!parentChildMap.containsKey(entry)) {
-            // check containsKey to avoid creating garbage empty list via ListMultimap
-            return;
-        }
-        Collection<TraceEntryImpl> childEntries = parentChildMap.get(entry);
-        for (TraceEntryImpl childEntry : childEntries) {
-            boolean singleAuxEntry = childEntries.size() == 1 && childEntry.isAuxThreadRoot()
-                    && !childEntry.hasLocationStackTrace();
-            if (singleAuxEntry && removeSingleAuxEntry) {
-                addProtobufChildEntries(childEntry, parentChildMap, transactionStartTick,
-                        captureTick, depth, entryVisitor, sharedQueryTextCollection,
-                        removeSingleAuxEntry);
-            } else {
-                childEntry.accept(depth, transactionStartTick, captureTick, entryVisitor,
-                        sharedQueryTextCollection);
-                addProtobufChildEntries(childEntry, parentChildMap, transactionStartTick,
-                        captureTick, depth + 1, entryVisitor, sharedQueryTextCollection, false);
-            }
-        }
-    }
-
-    private ListMultimap<TraceEntryImpl, ThreadContextImpl> buildPriorEntryChildThreadContextMap() {
+    // the child auxiliary thread contexts of each thread context are ordered by their prior entry
+    // (see TraceEntryStreamer)
+    private ListMultimap<ThreadContextImpl, ThreadContextImpl> buildChildAuxThreadContextMap() {
         synchronized (mainThreadContext) {
             if (auxThreadContexts == null) {
                 return ImmutableListMultimap.of();
             }
-            ListMultimap<TraceEntryImpl, ThreadContextImpl> parentChildMap =
+            List<ThreadContextImpl> unmergedAuxThreadContexts =
+                    Lists.newArrayList(getUnmergedAuxThreadContext());
+            // this is a stable sort, so auxiliary thread contexts with the same prior entry are
+            // kept in their original order
+            Collections.sort(unmergedAuxThreadContexts, PRIOR_ENTRY_ORDERING);
+            ListMultimap<ThreadContextImpl, ThreadContextImpl> parentChildMap =
                     ArrayListMultimap.create();
-            for (ThreadContextImpl auxThreadContext : getUnmergedAuxThreadContext()) {
+            for (ThreadContextImpl auxThreadContext : unmergedAuxThreadContexts) {
                 // checkNotNull is safe b/c aux thread contexts have non-null parent thread context
                 // prior entries when they are not limit exceeded aux thread contexts
-                parentChildMap.put(
-                        checkNotNull(auxThreadContext.getParentThreadContextPriorEntry()),
-                        auxThreadContext);
+                TraceEntryImpl priorEntry =
+                        checkNotNull(auxThreadContext.getParentThreadContextPriorEntry());
+                parentChildMap.put(priorEntry.getThreadContext(), auxThreadContext);
             }
             return parentChildMap;
         }
@@ -1147,69 +1159,196 @@ public class Transaction {
         }
     }
 
-    private static class ParentChildMapTrimmer extends Traverser<TraceEntryImpl, RuntimeException> {
+    // streams the trace entries directly from each thread context's TraceEntryStore in pre-order,
+    // splicing in each auxiliary thread context right after its prior entry (the tail entry of the
+    // parent thread context at the time the auxiliary thread context was started), under its
+    // parent trace entry
+    //
+    // while streaming, trace entries that started after the capture tick are filtered out, and
+    // "auxiliary thread" root entries without any children are removed, and consecutive single
+    // "auxiliary thread" root entries are collapsed into one
+    private static class TraceEntryStreamer {
 
-        private final ListMultimap<TraceEntryImpl, TraceEntryImpl> parentChildMap;
+        private final ListMultimap<ThreadContextImpl, ThreadContextImpl> childAuxThreadContexts;
+        private final long transactionStartTick;
         private final long captureTick;
-
-        private ParentChildMapTrimmer(TraceEntryImpl rootNode,
-                ListMultimap<TraceEntryImpl, TraceEntryImpl> parentChildMap,
-                long captureTick) {
-            super(rootNode);
-            this.parentChildMap = parentChildMap;
+        private final TraceEntryVisitor entryVisitor;
+        private final SharedQueryTextCollection sharedQueryTextCollection;
+
+        private TraceEntryStreamer(
+                ListMultimap<ThreadContextImpl, ThreadContextImpl> childAuxThreadContexts,
+                long transactionStartTick, long captureTick, TraceEntryVisitor entryVisitor,
+                SharedQueryTextCollection sharedQueryTextCollection) {
+            this.childAuxThreadContexts = childAuxThreadContexts;
+            this.transactionStartTick = transactionStartTick;
             this.captureTick = captureTick;
+            this.entryVisitor = entryVisitor;
+            this.sharedQueryTextCollection = sharedQueryTextCollection;
         }
 
-        @Override
-        public List<TraceEntryImpl> visit(TraceEntryImpl node, int depth) {
-            if (!parentChildMap.containsKey(node)) {
-                // check containsKey to avoid creating garbage empty list via ListMultimap
-                return ImmutableList.of();
+        // depthOffset is the output depth of the thread context's root entry
+        private void stream(ThreadContextImpl threadContext, int depthOffset,
+                boolean includeRootEntry) {
+            if (!Tickers.lessThanOrEqual(threadContext.getRootEntry().getStartTick(),
+                    captureTick)) {
+                return;
+            }
+            TraceEntryStore store = threadContext.getTraceEntryStore();
+            boolean completed = threadContext.isCompleted(captureTick);
+            List<ThreadContextImpl> auxThreadContexts = getChildAuxThreadContexts(threadContext);
+            int auxIndex = 0;
+            // trace entries that started after the capture tick are skipped along with their
+            // children, this is the depth of the skipped trace entry
+            int skipDepth = Integer.MAX_VALUE;
+            int size = store.size();
+            for (int i = 0; i < size && store.isVisible(i); i++) {
+                int depth = store.getDepth(i);
+                if (depth <= skipDepth) {
+                    skipDepth = Integer.MAX_VALUE;
+                }
+                if (!Tickers.lessThanOrEqual(store.getStartTick(i), captureTick)) {
+                    if (!completed) {
+                        // checking completed is short circuit optimization for the common case
+                        break;
+                    }
+                    skipDepth = Math.min(skipDepth, depth);
+                }
+                if (skipDepth == Integer.MAX_VALUE && (i != 0 || includeRootEntry)) {
+                    accept(store, i, depthOffset + depth);
+                }
+                while (auxIndex < auxThreadContexts.size()
+                        && getPriorEntryIndex(auxThreadContexts.get(auxIndex)) <= i) {
+                    ThreadContextImpl auxThreadContext = auxThreadContexts.get(auxIndex++);
+                    // checkNotNull is safe b/c aux thread contexts have non-null parent trace entry
+                    int parentDepth = store.getDepth(
+                            checkNotNull(auxThreadContext.getParentTraceEntry()).getStoreIndex());
+                    if (parentDepth >= skipDepth) {
+                        continue;
+                    }
+                    ThreadContextImpl resolved = resolve(auxThreadContext);
+                    if (resolved != null) {
+                        stream(resolved, depthOffset + parentDepth + 1, true);
+                    }
+                }
+            }
+            TraceEntryImpl detachedEntry = threadContext.createDetachedEntry();
+            if (detachedEntry != null
+                    && Tickers.lessThanOrEqual(detachedEntry.getStartTick(), captureTick)) {
+                detachedEntry.accept(depthOffset + 1, transactionStartTick, captureTick,
+                        entryVisitor, sharedQueryTextCollection);
             }
-            return parentChildMap.get(node);
         }
 
-        @Override
-        public void revisitAfterChildren(TraceEntryImpl node) {
-            if (!parentChildMap.containsKey(node)) {
-                // check containsKey to avoid creating garbage empty list via ListMultimap
-                return;
+        // returns the single child of the root entry if it is an "auxiliary thread" root entry
+        // without a location stack trace, this is used to remove the single "auxiliary thread"
+        // entry under the root of async transactions
+        private @Nullable ThreadContextImpl getSingleChildAuxThreadContext(
+                ThreadContextImpl threadContext) {
+            if (hasRootChildEntry(threadContext)) {
+                return null;
             }
-            List<TraceEntryImpl> childEntries = parentChildMap.get(node);
-            ListIterator<TraceEntryImpl> i = childEntries.listIterator();
-            while (i.hasNext()) {
-                TraceEntryImpl childEntry = i.next();
-                if (childEntry.getStartTick() > captureTick) {
-                    i.remove();
+            ThreadContextImpl single = null;
+            for (ThreadContextImpl auxThreadContext : getRootChildAuxThreadContexts(
+                    threadContext)) {
+                ThreadContextImpl resolved = resolve(auxThreadContext);
+                if (resolved == null) {
+                    continue;
+                }
+                if (single != null) {
+                    return null;
                 }
+                single = resolved;
             }
-            i = childEntries.listIterator();
-            while (i.hasNext()) {
-                TraceEntryImpl childEntry = i.next();
-                if (!childEntry.isAuxThreadRoot() || childEntry.hasLocationStackTrace()) {
+            if (single == null || single.getRootEntry().hasLocationStackTrace()) {
+                return null;
+            }
+            return single;
+        }
+
+        // returns null if the "auxiliary thread" root entry has no children (in which case it is
+        // removed), or the child auxiliary thread context if its only child is another
+        // "auxiliary thread" root entry (in which case they are collapsed)
+        private @Nullable ThreadContextImpl resolve(ThreadContextImpl auxThreadContext) {
+            TraceEntryImpl rootEntry = auxThreadContext.getRootEntry();
+            if (!Tickers.lessThanOrEqual(rootEntry.getStartTick(), captureTick)) {
+                return null;
+            }
+            if (!rootEntry.isAuxThreadRoot() || rootEntry.hasLocationStackTrace()
+                    || hasRootChildEntry(auxThreadContext)) {
+                return auxThreadContext;
+            }
+            ThreadContextImpl single = null;
+            for (ThreadContextImpl childAuxThreadContext : getRootChildAuxThreadContexts(
+                    auxThreadContext)) {
+                ThreadContextImpl resolved = resolve(childAuxThreadContext);
+                if (resolved == null) {
                     continue;
                 }
-                if (!parentChildMap.containsKey(childEntry)) {
-                    // check containsKey to avoid creating garbage empty list via ListMultimap
-                    //
-                    // remove empty aux thread root
-                    i.remove();
-                    continue;
+                if (single != null) {
+                    return auxThreadContext;
                 }
-                List<TraceEntryImpl> subChildEntries = parentChildMap.get(childEntry);
-                if (subChildEntries.isEmpty()) {
-                    // remove empty aux thread root
-                    i.remove();
+                single = resolved;
+            }
+            return single;
+        }
+
+        // returns true if the root entry has any children other than auxiliary thread contexts
+        private boolean hasRootChildEntry(ThreadContextImpl threadContext) {
+            TraceEntryStore store = threadContext.getTraceEntryStore();
+            boolean completed = threadContext.isCompleted(captureTick);
+            int size = store.size();
+            for (int i = 1; i < size && store.isVisible(i); i++) {
+                if (store.getDepth(i) != 1) {
                     continue;
                 }
-                if (subChildEntries.size() == 1) {
-                    TraceEntryImpl singleSubChildEntry = subChildEntries.get(0);
-                    if (singleSubChildEntry.isAuxThreadRoot()) {
-                        // compact consecutive single aux root entries
-                        i.set(singleSubChildEntry);
-                    }
+                if (Tickers.lessThanOrEqual(store.getStartTick(i), captureTick)) {
+                    return true;
                 }
+                if (!completed) {
+                    break;
+                }
+            }
+            TraceEntryImpl detachedEntry = threadContext.createDetachedEntry();
+            return detachedEntry != null
+                    && Tickers.lessThanOrEqual(detachedEntry.getStartTick(), captureTick);
+        }
+
+        // this is only called when the root entry has no other children, in which case only the
+        // auxiliary thread contexts with the root entry as their prior entry are visible (unless
+        // the thread context is completed, see stream() above)
+        private List<ThreadContextImpl> getRootChildAuxThreadContexts(
+                ThreadContextImpl threadContext) {
+            boolean completed = threadContext.isCompleted(captureTick);
+            TraceEntryImpl rootEntry = threadContext.getRootEntry();
+            List<ThreadContextImpl> rootChildAuxThreadContexts = Lists.newArrayList();
+            for (ThreadContextImpl auxThreadContext : getChildAuxThreadContexts(threadContext)) {
+                if (auxThreadContext.getParentTraceEntry() == rootEntry
+                        && (completed || getPriorEntryIndex(auxThreadContext) == 0)) {
+                    rootChildAuxThreadContexts.add(auxThreadContext);
+                }
+            }
+            return rootChildAuxThreadContexts;
+        }
+
+        private List<ThreadContextImpl> getChildAuxThreadContexts(
+                ThreadContextImpl threadContext) {
+            if (!childAuxThreadContexts.containsKey(threadContext)) {
+                // check containsKey to avoid creating garbage empty list via ListMultimap
+                return ImmutableList.of();
             }
+            return childAuxThreadContexts.get(threadContext);
+        }
+
+        private void accept(TraceEntryStore store, int index, int depth) {
+            store.accept(index, depth, transactionStartTick, captureTick, entryVisitor,
+                    sharedQueryTextCollection);
+        }
+
+        private static int getPriorEntryIndex(ThreadContextImpl auxThreadContext) {
+            // checkNotNull is safe b/c aux thread contexts have non-null parent thread context
+            // prior entries
+            return checkNotNull(auxThreadContext.getParentThreadContextPriorEntry())
+                    .getStoreIndex();
         }
     }
 
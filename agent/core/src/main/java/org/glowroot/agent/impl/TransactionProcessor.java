@@ -15,6 +15,7 @@
  */
 package org.glowroot.agent.impl;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Queues;
@@ -24,33 +25,57 @@ import org.glowroot.agent.collector.Collector;
 import org.glowroot.agent.config.ConfigService;
 import org.glowroot.agent.util.RateLimitedLogger;
 import org.glowroot.agent.util.ThreadFactories;
+import org.glowroot.common.util.CaptureTimes;
 import org.glowroot.common.util.Clock;
 import org.glowroot.common.util.OnlyUsedByTests;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.annotation.concurrent.GuardedBy;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.concurrent.GuardedBy;
 
-import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
 public class TransactionProcessor {
 
     private static final Logger logger = LoggerFactory.getLogger(TransactionProcessor.class);
 
-    // back pressure on transaction collection
+    // completing transactions are spread across stripes (by thread) to reduce contention between
+    // application threads
+    private static final int STRIPE_COUNT =
+            Integer.getInteger("glowroot.internal.transactionProcessor.stripes",
+                    Math.min(Runtime.getRuntime().availableProcessors(), 16));
+    // each processing thread aggregates into its own shard of each interval, and the shards are
+    // merged when the interval is flushed
+    private static final int PROCESSING_THREAD_COUNT =
+            Integer.getInteger("glowroot.internal.transactionProcessor.threads", 1);
+
+    // back pressure on transaction collection (per stripe)
     private static final int TRANSACTION_PENDING_LIMIT = 1000;
     // back pressure on writing captured data to disk/network
     private static final int AGGREGATE_PENDING_LIMIT = 5;
 
-    final Object monitor = new Object();
+    // max time that "live" queries wait for the processing threads to publish up-to-date snapshots
+    // before falling back to the most recently published snapshots
+    private static final long SNAPSHOT_REQUEST_TIMEOUT_MILLIS = 1000;
 
-    private volatile AggregateIntervalCollector activeIntervalCollector;
+    // interval collectors that processing threads may still be adding to, keyed by capture time
+    private final ConcurrentNavigableMap<Long, AggregateIntervalCollector> activeIntervalCollectors;
 
     // need to guarantee these are processed in order (at least when running embedded collector
     // due to rollups relying on not seeing old data after newer data has been seen)
@@ -66,14 +91,14 @@ public class TransactionProcessor {
 
     private final long aggregateIntervalMillis;
 
-    // all structural changes to the transaction queue are made under queueLock for simplicity
-    // TODO implement lock free structure
-    private final PendingTransaction head = new PendingTransaction(null);
-    @GuardedBy("queueLock")
-    private PendingTransaction tail = head;
-    @GuardedBy("queueLock")
-    private int queueLength;
-    private final Object queueLock = new Object();
+    private final ImmutableList<Stripe> stripes;
+    private final ImmutableList<ProcessingLoop> processingLoops;
+
+    // this lock is only used to move interval collectors from active to pending in order
+    private final Object completeIntervalLock = new Object();
+    // capture time of the most recent interval that has been moved to pending
+    @GuardedBy("completeIntervalLock")
+    private long lastCompletedCaptureTime;
 
     private final RateLimitedLogger backPressureLogger =
             new RateLimitedLogger(TransactionProcessor.class);
@@ -82,27 +107,52 @@ public class TransactionProcessor {
 
     public TransactionProcessor(Collector collector, TraceCollector traceCollector,
                                 ConfigService configService, long aggregateIntervalMillis, Clock clock) {
+        this(collector, traceCollector, configService, aggregateIntervalMillis, clock,
+                Math.max(STRIPE_COUNT, PROCESSING_THREAD_COUNT), PROCESSING_THREAD_COUNT);
+    }
+
+    @VisibleForTesting
+    TransactionProcessor(Collector collector, TraceCollector traceCollector,
+            ConfigService configService, long aggregateIntervalMillis, Clock clock,
+            int stripeCount, int processingThreadCount) {
         this.collector = collector;
         this.traceCollector = traceCollector;
         this.configService = configService;
         this.clock = clock;
         this.aggregateIntervalMillis = aggregateIntervalMillis;
-        processingExecutor = Executors
-                .newFixedThreadPool(1, ThreadFactories.create("Glowroot-Aggregate-Processing"));
+        lastCompletedCaptureTime =
+                CaptureTimes.getRollup(clock.currentTimeMillis(), aggregateIntervalMillis)
+                        - aggregateIntervalMillis;
+        activeIntervalCollectors = new ConcurrentSkipListMap<Long, AggregateIntervalCollector>();
+        List<Stripe> stripes = Lists.newArrayList();
+        for (int i = 0; i < stripeCount; i++) {
+            stripes.add(new Stripe());
+        }
+        this.stripes = ImmutableList.copyOf(stripes);
+        List<ProcessingLoop> processingLoops = Lists.newArrayList();
+        for (int i = 0; i < processingThreadCount; i++) {
+            List<Stripe> ownedStripes = Lists.newArrayList();
+            for (int j = i; j < stripeCount; j += processingThreadCount) {
+                ownedStripes.add(stripes.get(j));
+            }
+            processingLoops.add(new ProcessingLoop(i, ownedStripes));
+        }
+        this.processingLoops = ImmutableList.copyOf(processingLoops);
+        processingExecutor = Executors.newFixedThreadPool(processingThreadCount,
+                ThreadFactories.create("Glowroot-Aggregate-Processing"));
         flushingExecutor = Executors
                 .newFixedThreadPool(1, ThreadFactories.create("Glowroot-Aggregate-Flushing"));
-        activeIntervalCollector =
-                new AggregateIntervalCollector(clock.currentTimeMillis(), aggregateIntervalMillis,
-                        configService.getAdvancedConfig().maxTransactionAggregates(),
-                        configService.getAdvancedConfig().maxQueryAggregates(),
-                        configService.getAdvancedConfig().maxServiceCallAggregates(), clock);
-        processingExecutor.execute(new TransactionProcessorLoop());
+        for (ProcessingLoop processingLoop : processingLoops) {
+            processingExecutor.execute(processingLoop);
+        }
         flushingExecutor.execute(new AggregateFlushingLoop());
     }
 
     public Set<String> getTransactionTypes() {
         Set<String> transactionTypes = Sets.newHashSet();
-        transactionTypes.addAll(activeIntervalCollector.getTransactionTypes());
+        for (AggregateIntervalCollector intervalCollector : activeIntervalCollectors.values()) {
+            transactionTypes.addAll(intervalCollector.getTransactionTypes());
+        }
         for (AggregateIntervalCollector intervalCollector : pendingIntervalCollectors) {
             transactionTypes.addAll(intervalCollector.getTransactionTypes());
         }
@@ -112,6 +162,7 @@ public class TransactionProcessor {
     // from is non-inclusive
     public List<AggregateIntervalCollector> getOrderedIntervalCollectorsInRange(long from,
                                                                                 long to) {
+        awaitSnapshots();
         List<AggregateIntervalCollector> intervalCollectors = Lists.newArrayList();
         for (AggregateIntervalCollector intervalCollector : getOrderedAllIntervalCollectors()) {
             long captureTime = intervalCollector.getCaptureTime();
@@ -123,60 +174,136 @@ public class TransactionProcessor {
     }
 
     public void clearInMemoryData() {
-        activeIntervalCollector.clear();
+        for (AggregateIntervalCollector intervalCollector : activeIntervalCollectors.values()) {
+            intervalCollector.clear();
+        }
         synchronized (pendingIntervalCollectors) {
             pendingIntervalCollectors.clear();
         }
     }
 
     void processOnCompletion(Transaction transaction) {
-        // this synchronized block is to ensure traces are placed into processing queue in the
-        // order of captureTime (so that queue reader can assume if captureTime indicates time to
-        // flush, then no new traces will come in with prior captureTime)
-        PendingTransaction newTail = new PendingTransaction(transaction);
-        boolean exceededLimit = false;
-        synchronized (queueLock) {
-            if (queueLength < TRANSACTION_PENDING_LIMIT) {
-                newTail.captureTime = clock.currentTimeMillis();
-                tail.next = newTail;
-                tail = newTail;
-                queueLength++;
-                synchronized (monitor) {
-                    monitor.notifyAll();
-                }
-            } else {
-                exceededLimit = true;
-            }
-        }
-        if (exceededLimit) {
+        Stripe stripe =
+                stripes.get((int) (Thread.currentThread().getId() % stripes.size()));
+        if (stripe.queueLength.incrementAndGet() > TRANSACTION_PENDING_LIMIT) {
+            stripe.queueLength.decrementAndGet();
             backPressureLogger.warn("not capturing a transaction because of an excessive backlog of"
                     + " {} transactions already waiting to be captured", TRANSACTION_PENDING_LIMIT);
             transaction.setCaptureTime(clock.currentTimeMillis());
             transaction.removeFromActiveTransactions();
+            return;
+        }
+        stripe.append(new PendingTransaction(transaction), clock);
+        stripe.processingLoop.wakeUp();
+    }
+
+    // snapshots are only built when "live" data is requested, so that the processing threads do not
+    // pay the cost of copying the (growing) aggregates for every transaction
+    private void awaitSnapshots() {
+        long[] requests = new long[processingLoops.size()];
+        for (int i = 0; i < requests.length; i++) {
+            requests[i] = processingLoops.get(i).requestSnapshots();
+        }
+        long deadlineNanos =
+                System.nanoTime() + MILLISECONDS.toNanos(SNAPSHOT_REQUEST_TIMEOUT_MILLIS);
+        try {
+            for (int i = 0; i < requests.length; i++) {
+                processingLoops.get(i).awaitSnapshots(requests[i], deadlineNanos);
+            }
+        } catch (InterruptedException e) {
+            // fall back to the most recently published snapshots
+            Thread.currentThread().interrupt();
         }
     }
 
     private List<AggregateIntervalCollector> getOrderedAllIntervalCollectors() {
         // grab active first then pending (and de-dup) to make sure one is not missed between states
-        AggregateIntervalCollector activeIntervalCollector = this.activeIntervalCollector;
+        List<AggregateIntervalCollector> activeIntervalCollectors =
+                Lists.newArrayList(this.activeIntervalCollectors.values());
         List<AggregateIntervalCollector> intervalCollectors =
                 Lists.newArrayList(pendingIntervalCollectors);
         if (intervalCollectors.isEmpty()) {
             // common case
-            return ImmutableList.of(activeIntervalCollector);
-        } else if (!intervalCollectors.contains(activeIntervalCollector)) {
-            intervalCollectors.add(activeIntervalCollector);
-            return intervalCollectors;
-        } else {
-            return intervalCollectors;
+            return activeIntervalCollectors;
+        }
+        for (AggregateIntervalCollector activeIntervalCollector : activeIntervalCollectors) {
+            if (!intervalCollectors.contains(activeIntervalCollector)) {
+                intervalCollectors.add(activeIntervalCollector);
+            }
+        }
+        return intervalCollectors;
+    }
+
+    private AggregateIntervalCollector getOrCreateActiveIntervalCollector(long captureTime) {
+        long intervalCaptureTime = CaptureTimes.getRollup(captureTime, aggregateIntervalMillis);
+        AggregateIntervalCollector intervalCollector =
+                activeIntervalCollectors.get(intervalCaptureTime);
+        if (intervalCollector != null) {
+            return intervalCollector;
+        }
+        intervalCollector = createIntervalCollector(captureTime);
+        AggregateIntervalCollector existingIntervalCollector =
+                activeIntervalCollectors.putIfAbsent(intervalCaptureTime, intervalCollector);
+        return existingIntervalCollector == null ? intervalCollector : existingIntervalCollector;
+    }
+
+    private AggregateIntervalCollector createIntervalCollector(long captureTime) {
+        return new AggregateIntervalCollector(captureTime, aggregateIntervalMillis,
+                configService.getAdvancedConfig().maxTransactionAggregates(),
+                configService.getAdvancedConfig().maxQueryAggregates(),
+                configService.getAdvancedConfig().maxServiceCallAggregates(),
+                processingLoops.size(), clock);
+    }
+
+    // interval collectors are moved to pending (in order) once every processing thread has moved
+    // past them
+    private void completeIntervalCollectors() {
+        synchronized (completeIntervalLock) {
+            long completedThrough = Long.MAX_VALUE;
+            for (ProcessingLoop processingLoop : processingLoops) {
+                completedThrough = Math.min(completedThrough, processingLoop.completedThrough);
+            }
+            Map.Entry<Long, AggregateIntervalCollector> entry;
+            while ((entry = activeIntervalCollectors.firstEntry()) != null
+                    && entry.getKey() <= completedThrough) {
+                flushIntervalCollector(entry.getValue());
+                // removed after adding to pending so that it is always visible to the UI
+                activeIntervalCollectors.remove(entry.getKey());
+                lastCompletedCaptureTime = Math.max(lastCompletedCaptureTime, entry.getKey());
+            }
+            // interval collectors are only created once a transaction lands in them, so an empty
+            // interval collector is flushed for an interval without any transactions, since the
+            // collector relies on receiving every interval (e.g. embedded rollups are triggered by
+            // storing aggregates)
+            long lastIntervalCaptureTime =
+                    completedThrough - completedThrough % aggregateIntervalMillis;
+            if (lastIntervalCaptureTime > lastCompletedCaptureTime) {
+                flushIntervalCollector(createIntervalCollector(lastIntervalCaptureTime));
+                lastCompletedCaptureTime = lastIntervalCaptureTime;
+            }
+        }
+    }
+
+    private void flushIntervalCollector(AggregateIntervalCollector intervalCollector) {
+        boolean accepted;
+        synchronized (pendingIntervalCollectors) {
+            accepted = pendingIntervalCollectors.offer(intervalCollector);
+            if (accepted) {
+                pendingIntervalCollectors.notifyAll();
+            }
+        }
+        if (!accepted) {
+            // don't log under synchronized lock
+            logger.warn("not storing an aggregate because of an excessive backlog of {}"
+                    + " aggregates already waiting to be stored", AGGREGATE_PENDING_LIMIT);
         }
     }
 
     @OnlyUsedByTests
     public void close() throws InterruptedException {
         closed = true;
-        synchronized (monitor) {
-            monitor.notifyAll();
+        for (ProcessingLoop processingLoop : processingLoops) {
+            processingLoop.wakeUp();
         }
         processingExecutor.shutdown();
         if (!processingExecutor.awaitTermination(10, SECONDS)) {
@@ -189,17 +316,49 @@ public class TransactionProcessor {
         }
     }
 
-    private class TransactionProcessorLoop implements Runnable {
+    private class ProcessingLoop implements Runnable {
+
+        private final int shardIndex;
+        private final ImmutableList<Stripe> ownedStripes;
+
+        // all intervals with capture time less than or equal to this value will not receive any
+        // more transactions from this processing thread
+        private volatile long completedThrough = -1;
+
+        private volatile @Nullable Thread thread;
+        private volatile boolean waiting;
+
+        // incremented by "live" queries that need up-to-date snapshots
+        private final AtomicLong snapshotRequests = new AtomicLong();
+        // the snapshot request count covered by the most recently published snapshots
+        private volatile long snapshotsPublishedThrough;
+        private final Object snapshotLock = new Object();
+
+        // only accessed by this processing thread
+        private @Nullable AggregateIntervalCollector lastIntervalCollector;
+        // interval collectors that this processing thread has added to, and that have not yet been
+        // sealed (see AggregateIntervalCollector.sealShard())
+        private final List<AggregateIntervalCollector> openIntervalCollectors =
+                Lists.newArrayList();
+
+        private ProcessingLoop(int shardIndex, List<Stripe> ownedStripes) {
+            this.shardIndex = shardIndex;
+            this.ownedStripes = ImmutableList.copyOf(ownedStripes);
+            for (Stripe stripe : ownedStripes) {
+                stripe.processingLoop = this;
+            }
+        }
 
         @Override
         public void run() {
+            thread = Thread.currentThread();
             while (!closed) {
                 try {
-                    boolean hasNext = processOne();
-                    if (!hasNext) {
-                        synchronized (monitor) {
-                            monitor.wait(Math.min(100, aggregateIntervalMillis));
-                        }
+                    boolean processed = processAll();
+                    publishSnapshotsIfRequested();
+                    updateCompletedThrough();
+                    if (!processed) {
+                        waitForMore();
                     }
                 } catch (Throwable e) {
                     // log and continue processing
@@ -208,19 +367,40 @@ public class TransactionProcessor {
             }
         }
 
-        private boolean processOne() {
-            PendingTransaction pendingTransaction = head.next;
-            if (pendingTransaction == null) {
-                if (clock.currentTimeMillis() > activeIntervalCollector.getCaptureTime()) {
-                    maybeEndOfInterval();
+        private boolean processAll() {
+            boolean processed = false;
+            for (Stripe stripe : ownedStripes) {
+                PendingTransaction pendingTransaction;
+                while ((pendingTransaction = stripe.head.next) != null) {
+                    stripe.head = pendingTransaction;
+                    // guard against the clock going backwards, since intervals prior to the
+                    // watermark may have already been flushed
+                    long captureTime = Math.max(pendingTransaction.captureTime, stripe.watermark);
+                    stripe.watermark = captureTime;
+                    processed = true;
+                    Transaction transaction = pendingTransaction.transaction;
+                    if (transaction == null) {
+                        // end of interval marker
+                        stripe.markerPending = false;
+                        continue;
+                    }
+                    // release reference since this node may be retained as the stripe head
+                    pendingTransaction.transaction = null;
+                    stripe.queueLength.decrementAndGet();
+                    process(transaction, captureTime);
+                    // checked after each transaction so that "live" queries are not held up by a
+                    // large backlog
+                    publishSnapshotsIfRequested();
                 }
-                return false;
             }
+            return processed;
+        }
+
+        private void process(Transaction transaction, long captureTime) {
             // remove transaction from list of active transactions
             // used to do this at the very end of Transaction.end(), but moved to here to remove the
             // (minor) cost from the transaction main path
-            Transaction transaction = checkNotNull(pendingTransaction.transaction);
-            transaction.setCaptureTime(pendingTransaction.captureTime);
+            transaction.setCaptureTime(captureTime);
 
             // send to the trace collector before removing from transaction registry so that the
             // trace collector can cover the gap (via TraceCollector.getPendingTransactions())
@@ -229,66 +409,122 @@ public class TransactionProcessor {
 
             transaction.removeFromActiveTransactions();
 
-            boolean hasNext = false;
-            // remove head
-            synchronized (queueLock) {
-                PendingTransaction next = pendingTransaction.next;
-                head.next = next;
-                if (next == null) {
-                    tail = head;
-                } else {
-                    hasNext = true;
-                }
-                queueLength--;
+            AggregateIntervalCollector intervalCollector = lastIntervalCollector;
+            if (intervalCollector == null || captureTime > intervalCollector.getCaptureTime()
+                    || captureTime <= intervalCollector.getCaptureTime()
+                            - aggregateIntervalMillis) {
+                intervalCollector = getOrCreateActiveIntervalCollector(captureTime);
+                lastIntervalCollector = intervalCollector;
             }
-            if (pendingTransaction.captureTime > activeIntervalCollector.getCaptureTime()) {
-                flushAndResetActiveIntervalCollector(pendingTransaction.captureTime);
+            intervalCollector.add(transaction, shardIndex);
+            if (!openIntervalCollectors.contains(intervalCollector)) {
+                openIntervalCollectors.add(intervalCollector);
             }
-            activeIntervalCollector.add(transaction);
-            return hasNext;
-        }
-
-        private void maybeEndOfInterval() {
-            long currentTime;
-            boolean safeToFlush;
-            synchronized (queueLock) {
-                if (head.next != null) {
-                    // something just crept into the queue, possibly still something from active
-                    // interval, it will get picked up right away and if it is in next interval it
-                    // will force active aggregate to be flushed anyways
-                    return;
+        }
+
+        // this is called by "live" queries
+        private long requestSnapshots() {
+            long request = snapshotRequests.incrementAndGet();
+            Thread thread = this.thread;
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
+            return request;
+        }
+
+        // this is called by "live" queries
+        private void awaitSnapshots(long request, long deadlineNanos)
+                throws InterruptedException {
+            synchronized (snapshotLock) {
+                while (snapshotsPublishedThrough < request) {
+                    long remainingNanos = deadlineNanos - System.nanoTime();
+                    if (remainingNanos <= 0) {
+                        return;
+                    }
+                    NANOSECONDS.timedWait(snapshotLock, remainingNanos);
                 }
-                currentTime = clock.currentTimeMillis();
-                safeToFlush = currentTime > activeIntervalCollector.getCaptureTime();
             }
-            if (safeToFlush) {
-                // safe to flush, no other pending transactions can enter queue with later time
-                // (since the check above was done under same lock used to add to queue)
-                flushAndResetActiveIntervalCollector(currentTime);
+        }
+
+        private void publishSnapshotsIfRequested() {
+            // the request count is read prior to building the snapshots, so the snapshots include
+            // everything processed prior to each of the requests being covered
+            long request = snapshotRequests.get();
+            if (request == snapshotsPublishedThrough) {
+                return;
+            }
+            // only the collectors that have changed since their last snapshot are copied
+            for (AggregateIntervalCollector intervalCollector : openIntervalCollectors) {
+                intervalCollector.publishSnapshots(shardIndex);
+            }
+            synchronized (snapshotLock) {
+                snapshotsPublishedThrough = request;
+                snapshotLock.notifyAll();
+            }
+        }
+
+        private void sealIntervalCollectors(long completedThrough) {
+            Iterator<AggregateIntervalCollector> i = openIntervalCollectors.iterator();
+            while (i.hasNext()) {
+                AggregateIntervalCollector intervalCollector = i.next();
+                if (intervalCollector.getCaptureTime() <= completedThrough) {
+                    intervalCollector.sealShard(shardIndex);
+                    i.remove();
+                }
             }
         }
 
-        private void flushAndResetActiveIntervalCollector(long currentTime) {
-            flushActiveIntervalCollector();
-            activeIntervalCollector =
-                    new AggregateIntervalCollector(currentTime, aggregateIntervalMillis,
-                            configService.getAdvancedConfig().maxTransactionAggregates(),
-                            configService.getAdvancedConfig().maxQueryAggregates(),
-                            configService.getAdvancedConfig().maxServiceCallAggregates(), clock);
+        private void updateCompletedThrough() {
+            long currentTime = clock.currentTimeMillis();
+            long minWatermark = Long.MAX_VALUE;
+            for (Stripe stripe : ownedStripes) {
+                if (stripe.head.next == null && !stripe.markerPending && CaptureTimes
+                        .getRollup(stripe.watermark, aggregateIntervalMillis) < currentTime) {
+                    // the stripe is idle, so append a marker in order to find out when no more
+                    // transactions can arrive on this stripe for the interval that was last seen
+                    stripe.append(new PendingTransaction(null), clock);
+                    stripe.markerPending = true;
+                }
+                minWatermark = Math.min(minWatermark, stripe.watermark);
+            }
+            // capture times are non-decreasing along each stripe, so no more transactions can
+            // arrive with capture time less than the min watermark, which means no more
+            // transactions can arrive for any interval with capture time less than it
+            if (minWatermark - 1 > completedThrough) {
+                // seal before handing off, since the flushing thread reads this shard directly
+                sealIntervalCollectors(minWatermark - 1);
+                completedThrough = minWatermark - 1;
+                completeIntervalCollectors();
+            }
         }
 
-        private void flushActiveIntervalCollector() {
-            boolean accepted;
-            synchronized (pendingIntervalCollectors) {
-                accepted = pendingIntervalCollectors.offer(activeIntervalCollector);
-                if (accepted) {
-                    pendingIntervalCollectors.notifyAll();
+        private void waitForMore() {
+            waiting = true;
+            try {
+                for (Stripe stripe : ownedStripes) {
+                    if (stripe.head.next != null) {
+                        return;
+                    }
+                }
+                if (!closed) {
+                    LockSupport.parkNanos(this,
+                            MILLISECONDS.toNanos(Math.min(100, aggregateIntervalMillis)));
                 }
+            } finally {
+                waiting = false;
             }
-            if (!accepted) {
-                // don't log under synchronized lock
-                logger.warn("not storing an aggregate because of an excessive backlog of {}"
-                        + " aggregates already waiting to be stored", AGGREGATE_PENDING_LIMIT);
+        }
+
+        private void wakeUp() {
+            // the volatile write of the pending transaction (in Stripe.append) followed by the
+            // volatile read of waiting here, combined with the volatile write of waiting followed
+            // by volatile read of the stripes in waitForMore() guarantees that wake ups are not
+            // missed
+            if (waiting) {
+                Thread thread = this.thread;
+                if (thread != null) {
+                    LockSupport.unpark(thread);
+                }
             }
         }
     }
@@ -318,14 +554,64 @@ public class TransactionProcessor {
         }
     }
 
+    // multi-producer single-consumer linked queue
+    private static class Stripe {
+
+        // only accessed by the owning processing thread
+        private PendingTransaction head = new PendingTransaction(null);
+        // this is only a hint, the actual tail is found by following next from here
+        private volatile PendingTransaction tail = head;
+
+        private final AtomicInteger queueLength = new AtomicInteger();
+
+        // capture time of the last transaction (or marker) processed from this stripe, only
+        // accessed by the owning processing thread
+        private long watermark;
+        private boolean markerPending;
+
+        @SuppressWarnings("initialization.fields.uninitialized")
+        private ProcessingLoop processingLoop;
+
+        private void append(PendingTransaction pendingTransaction, Clock clock) {
+            PendingTransaction last = tail;
+            while (true) {
+                PendingTransaction next = last.next;
+                if (next != null) {
+                    last = next;
+                    continue;
+                }
+                // capture time is read after observing the last node and before linking after it,
+                // which guarantees that capture times are non-decreasing along the stripe (so that
+                // the processing thread can assume that once a capture time has been seen, no new
+                // transactions will come in on this stripe with a prior capture time)
+                pendingTransaction.captureTime = clock.currentTimeMillis();
+                if (last.compareAndSetNext(pendingTransaction)) {
+                    tail = pendingTransaction;
+                    return;
+                }
+            }
+        }
+    }
+
     private static class PendingTransaction {
 
-        private final @Nullable Transaction transaction; // only null for head
-        private volatile long captureTime;
+        // the updater needs to be created from inside this class since next is private
+        private static final AtomicReferenceFieldUpdater<PendingTransaction,
+                PendingTransaction> nextUpdater = AtomicReferenceFieldUpdater.newUpdater(
+                        PendingTransaction.class, PendingTransaction.class, "next");
+
+        // only null for head and for end of interval markers
+        private @Nullable Transaction transaction;
+        // written before the node is linked (and read after), so does not need to be volatile
+        private long captureTime;
         private volatile @Nullable PendingTransaction next;
 
         private PendingTransaction(@Nullable Transaction transaction) {
             this.transaction = transaction;
         }
+
+        private boolean compareAndSetNext(PendingTransaction next) {
+            return nextUpdater.compareAndSet(this, null, next);
+        }
     }
 }
@@ -61,6 +61,8 @@ public class TransactionService implements ConfigListener {
     private @MonotonicNonNull TransactionProcessor transactionProcessor;
     // intentionally not volatile for small optimization
     private @Nullable ThreadAllocatedBytes threadAllocatedBytes;
+    // intentionally not volatile for small optimization
+    private @Nullable JfrStackTraceCollector jfrStackTraceCollector;
 
     public static TransactionService create(TransactionRegistry transactionRegistry,
             ConfigService configService, TimerNameCache timerNameCache, Ticker ticker,
@@ -89,6 +91,10 @@ public class TransactionService implements ConfigListener {
         this.threadAllocatedBytes = threadAllocatedBytes;
     }
 
+    public void setJfrStackTraceCollector(JfrStackTraceCollector jfrStackTraceCollector) {
+        this.jfrStackTraceCollector = jfrStackTraceCollector;
+    }
+
     TraceEntryImpl startTransaction(String transactionType, String transactionName,
             MessageSupplier messageSupplier, TimerName timerName,
             ThreadContextThreadLocal.Holder threadContextHolder, int rootNestingGroupId,
@@ -143,7 +149,8 @@ public class TransactionService implements ConfigListener {
                 } else {
                     logger.warn("not processing startup transaction because already 100 pending");
                 }
-            } else {
+            } else if (jfrStackTraceCollector == null || !jfrStackTraceCollector
+                    .holdForLateSamples(transaction, transactionProcessor)) {
                 transactionProcessor.processOnCompletion(transaction);
             }
         }
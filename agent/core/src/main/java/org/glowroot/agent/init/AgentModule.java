@@ -47,6 +47,7 @@ import org.glowroot.agent.impl.GlowrootServiceImpl;
 import org.glowroot.agent.impl.PluginServiceImpl;
 import org.glowroot.agent.impl.PluginServiceImpl.ConfigServiceFactory;
 import org.glowroot.agent.impl.PreloadSomeSuperTypesCache;
+import org.glowroot.agent.impl.JfrStackTraceCollector;
 import org.glowroot.agent.impl.StackTraceCollector;
 import org.glowroot.agent.impl.TimerNameCache;
 import org.glowroot.agent.impl.TraceCollector;
@@ -114,6 +115,7 @@ public class AgentModule {
 
     private volatile @MonotonicNonNull GaugeCollector gaugeCollector;
     private volatile @MonotonicNonNull StackTraceCollector stackTraceCollector;
+    private volatile @MonotonicNonNull JfrStackTraceCollector jfrStackTraceCollector;
 
     private volatile @MonotonicNonNull ImmediateTraceStoreWatcher immedateTraceStoreWatcher;
 
@@ -209,6 +211,9 @@ public class AgentModule {
             logAnyImportantClassLoadedPriorToWeavingInit(initialLoadedClasses, glowrootJarFile,
                     false);
             instrumentation.retransformClasses(ClassLoader.class);
+            if (jvmRetransformClassesSupported) {
+                VirtualThreadHackClassFileTransformer.install(instrumentation);
+            }
         }
 
         ManagementFactory.getThreadMXBean().setThreadCpuTimeEnabled(true);
@@ -234,7 +239,22 @@ public class AgentModule {
         initPlugins(pluginCache.pluginDescriptors());
 
         // init stack trace collector early for profiling other agents
-        stackTraceCollector = new StackTraceCollector(transactionRegistry, configService, random);
+        //
+        // -Dglowroot.internal.profiling.jfr=true opts in to the JFR based profiler (java 14+),
+        // which holds completed transactions for a second or so before they are processed, in
+        // order to receive the JFR samples that are delivered after completion (see
+        // JfrStackTraceCollector)
+        if (Boolean.getBoolean("glowroot.internal.profiling.jfr")) {
+            jfrStackTraceCollector = JfrStackTraceCollector.create(transactionRegistry,
+                    configService);
+            if (jfrStackTraceCollector != null) {
+                transactionService.setJfrStackTraceCollector(jfrStackTraceCollector);
+            }
+        }
+        if (jfrStackTraceCollector == null) {
+            stackTraceCollector =
+                    new StackTraceCollector(transactionRegistry, configService, random);
+        }
     }
 
     public void setOnEnteringMain(OnEnteringMain onEnteringMain) {
@@ -280,6 +300,15 @@ public class AgentModule {
                         "org.glowroot:type=FileSystem,name=" + name);
             }
         }
+        if (stackTraceCollector != null) {
+            lazyPlatformMBeanServer.lazyRegisterMBean(stackTraceCollector,
+                    "org.glowroot:type=StackTraceCollector");
+        }
+        if (jfrStackTraceCollector != null) {
+            lazyPlatformMBeanServer.lazyRegisterMBean(jfrStackTraceCollector,
+                    "org.glowroot:type=JfrStackTraceCollector");
+        }
+        lazyPlatformMBeanServer.lazyRegisterMBean(weaver, "org.glowroot:type=Weaving");
         gaugeCollector = new GaugeCollector(configService, collector, lazyPlatformMBeanServer,
                 instrumentation, clock, ticker);
         // using fixed rate to keep gauge collections close to on the second mark
@@ -447,6 +476,9 @@ public class AgentModule {
         if (stackTraceCollector != null) {
             stackTraceCollector.close();
         }
+        if (jfrStackTraceCollector != null) {
+            jfrStackTraceCollector.close();
+        }
         if (gaugeCollector != null) {
             gaugeCollector.close();
         }
@@ -76,8 +76,9 @@ public class NonEmbeddedGlowrootAgentInit implements GlowrootAgentInit {
     }
 
     @Override
-    public void init(@Nullable File pluginsDir, final List<File> confDirs, File logDir, File tmpDir,
-            final @Nullable File glowrootJarFile, final Map<String, String> properties,
+    public void init(@Nullable File pluginsDir, final List<File> confDirs, File logDir,
+            final File tmpDir, final @Nullable File glowrootJarFile,
+            final Map<String, String> properties,
             final @Nullable Instrumentation instrumentation,
             @Nullable PreCheckClassFileTransformer preCheckClassFileTransformer,
             final String glowrootVersion, Closeable agentDirLockCloseable) throws Exception {
@@ -131,10 +132,12 @@ public class NonEmbeddedGlowrootAgentInit implements GlowrootAgentInit {
                 } else {
                     centralCollector = new CentralCollector(properties,
                             checkNotNull(collectorAddress), collectorAuthority, confDirs,
-                            configReadOnly, agentModule.getLiveJvmService(),
+                            tmpDir, configReadOnly, agentModule.getLiveJvmService(),
                             agentModule.getLiveWeavingService(),
                             agentModule.getLiveTraceRepository(), agentConfigUpdater,
                             configService);
+                    agentModule.getLazyPlatformMBeanServer().lazyRegisterMBean(
+                            centralCollector.getUploadMetrics(), "org.glowroot:type=CentralUpload");
                     if (collectorProxyConstructor == null) {
                         collector = centralCollector;
                     } else {
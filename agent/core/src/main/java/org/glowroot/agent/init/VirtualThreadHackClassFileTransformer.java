@@ -0,0 +1,203 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.init;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.security.ProtectionDomain;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.AdviceAdapter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.glowroot.agent.bytecode.api.Bytecode;
+import org.glowroot.agent.model.VirtualThreadCarrierStats;
+import org.glowroot.agent.util.JavaVersion;
+
+import static org.objectweb.asm.Opcodes.ASM9;
+
+// weaves hooks into java.lang.VirtualThread.mount() and unmount() so that cpu time and allocated
+// bytes of the carrier threads can be attributed to the virtual thread (see
+// VirtualThreadCarrierStats)
+//
+// java.lang.VirtualThread is loaded before the agent starts, so the hooks are applied via
+// retransformation (which only changes method bodies, which is all that is needed here)
+class VirtualThreadHackClassFileTransformer implements ClassFileTransformer {
+
+    private static final Logger logger =
+            LoggerFactory.getLogger(VirtualThreadHackClassFileTransformer.class);
+
+    private static final boolean DISABLED =
+            Boolean.getBoolean("glowroot.internal.virtualThreadStats.disabled");
+
+    // the hooks run on every mount/unmount and depend on java.lang.VirtualThread internals which
+    // change between releases, so they are only applied to the java versions they were verified
+    // against (19 and 20 are excluded since virtual threads were still a preview feature)
+    private static final int MIN_JAVA_VERSION = 21;
+    private static final int MAX_JAVA_VERSION =
+            Integer.getInteger("glowroot.internal.virtualThreadStats.maxJavaVersion", 25);
+
+    private static final String CARRIER_THREAD_FIELD_NAME = "carrierThread";
+    private static final String THREAD_DESCRIPTOR = "Ljava/lang/Thread;";
+
+    private volatile boolean woven;
+
+    static void install(Instrumentation instrumentation) {
+        if (DISABLED) {
+            return;
+        }
+        int javaVersion = JavaVersion.getMajorVersion();
+        if (javaVersion < MIN_JAVA_VERSION || javaVersion > MAX_JAVA_VERSION) {
+            logger.debug("virtual thread stats are not captured on java {}", javaVersion);
+            return;
+        }
+        Class<?> virtualThreadClass;
+        try {
+            virtualThreadClass = Class.forName("java.lang.VirtualThread");
+        } catch (ClassNotFoundException e) {
+            // virtual threads were introduced in Java 19 (as preview)
+            logger.debug(e.getMessage(), e);
+            return;
+        }
+        try {
+            VirtualThreadHackClassFileTransformer transformer =
+                    new VirtualThreadHackClassFileTransformer();
+            instrumentation.addTransformer(transformer, true);
+            instrumentation.retransformClasses(virtualThreadClass);
+            // don't remove transformer in case the class is retransformed later
+            if (transformer.woven) {
+                VirtualThreadCarrierStats.enable(virtualThreadClass);
+            } else {
+                logger.debug("java.lang.VirtualThread does not have the expected mount() and"
+                        + " unmount() methods, virtual thread stats will not be captured");
+            }
+        } catch (Throwable t) {
+            logger.warn("unable to capture virtual thread stats: {}", t.getMessage(), t);
+        }
+    }
+
+    @Override
+    public byte /*@Nullable*/ [] transform(@Nullable ClassLoader loader, @Nullable String className,
+            @Nullable Class<?> classBeingRedefined, @Nullable ProtectionDomain protectionDomain,
+            byte[] bytes) {
+        try {
+            if ("java/lang/VirtualThread".equals(className)) {
+                ClassWriter cw = new ClassWriter(0);
+                VirtualThreadHackClassVisitor cv = new VirtualThreadHackClassVisitor(cw);
+                ClassReader cr = new ClassReader(bytes);
+                cr.accept(cv, ClassReader.EXPAND_FRAMES);
+                if (cv.mountWoven && cv.unmountWoven) {
+                    woven = true;
+                    return cw.toByteArray();
+                }
+            }
+        } catch (Throwable t) {
+            logger.error(t.getMessage(), t);
+        }
+        return null;
+    }
+
+    private static class VirtualThreadHackClassVisitor extends ClassVisitor {
+
+        private final ClassWriter cw;
+
+        private boolean hasCarrierThreadField;
+        private boolean mountWoven;
+        private boolean unmountWoven;
+
+        private VirtualThreadHackClassVisitor(ClassWriter cw) {
+            super(ASM9, cw);
+            this.cw = cw;
+        }
+
+        @Override
+        public @Nullable FieldVisitor visitField(int access, String name, String descriptor,
+                @Nullable String signature, @Nullable Object value) {
+            if (name.equals(CARRIER_THREAD_FIELD_NAME) && descriptor.equals(THREAD_DESCRIPTOR)) {
+                // fields are visited before methods
+                hasCarrierThreadField = true;
+            }
+            return cw.visitField(access, name, descriptor, signature, value);
+        }
+
+        @Override
+        public @Nullable MethodVisitor visitMethod(int access, String name, String descriptor,
+                @Nullable String signature, String /*@Nullable*/ [] exceptions) {
+            MethodVisitor mv = cw.visitMethod(access, name, descriptor, signature, exceptions);
+            if (!hasCarrierThreadField || !descriptor.equals("()V")) {
+                return mv;
+            }
+            if (name.equals("mount")) {
+                mountWoven = true;
+                return new VirtualThreadHackMethodVisitor(mv, access, name, descriptor, true);
+            } else if (name.equals("unmount")) {
+                unmountWoven = true;
+                return new VirtualThreadHackMethodVisitor(mv, access, name, descriptor, false);
+            } else {
+                return mv;
+            }
+        }
+    }
+
+    private static class VirtualThreadHackMethodVisitor extends AdviceAdapter {
+
+        private final boolean mount;
+
+        private VirtualThreadHackMethodVisitor(MethodVisitor mv, int access, String name,
+                String descriptor, boolean mount) {
+            super(ASM9, mv, access, name, descriptor);
+            this.mount = mount;
+        }
+
+        @Override
+        protected void onMethodEnter() {
+            if (!mount) {
+                // while still mounted
+                invokeHook("unmountingVirtualThread");
+            }
+        }
+
+        @Override
+        protected void onMethodExit(int opcode) {
+            if (mount && opcode != ATHROW) {
+                // once mounted
+                invokeHook("mountedVirtualThread");
+            }
+        }
+
+        @Override
+        public void visitMaxs(int maxStack, int maxLocals) {
+            // the hook needs two stack slots
+            super.visitMaxs(Math.max(maxStack, 2), maxLocals);
+        }
+
+        private void invokeHook(String methodName) {
+            loadThis();
+            loadThis();
+            visitFieldInsn(GETFIELD, "java/lang/VirtualThread", CARRIER_THREAD_FIELD_NAME,
+                    THREAD_DESCRIPTOR);
+            visitMethodInsn(INVOKESTATIC, Type.getType(Bytecode.class).getInternalName(),
+                    methodName, "(" + THREAD_DESCRIPTOR + THREAD_DESCRIPTOR + ")V", false);
+        }
+    }
+}
@@ -46,6 +46,9 @@ public class ThreadStatsComponent {
 
     private final @Nullable ThreadAllocatedBytes threadAllocatedBytes;
 
+    // non-null for virtual threads when carrier thread stats are available
+    private final @Nullable VirtualThreadCarrierStats virtualThreadCarrierStats;
+
     @GuardedBy("lock")
     private volatile @MonotonicNonNull ThreadStats completedThreadStats;
 
@@ -74,12 +77,20 @@ public class ThreadStatsComponent {
             startingAllocatedBytes = -1;
         }
         this.threadAllocatedBytes = threadAllocatedBytes;
+        if (isVirtualThread) {
+            virtualThreadCarrierStats = VirtualThreadCarrierStats.register(threadAllocatedBytes);
+        } else {
+            virtualThreadCarrierStats = null;
+        }
     }
 
     // must be called from transaction thread
     public void onComplete() {
         synchronized (lock) {
             completedThreadStats = getThreadStats();
+            if (virtualThreadCarrierStats != null) {
+                virtualThreadCarrierStats.unregister();
+            }
         }
     }
 
@@ -104,7 +115,9 @@ public class ThreadStatsComponent {
                 // transaction thread is still alive (and cannot terminate in the middle of this
                 // method because of above lock), so safe to capture ThreadMXBean.getThreadCpuTime()
                 // for the transaction thread
-                if (IS_THREAD_CPU_TIME_SUPPORTED) {
+                if (virtualThreadCarrierStats != null) {
+                    return virtualThreadCarrierStats.getCpuNanos();
+                } else if (IS_THREAD_CPU_TIME_SUPPORTED) {
                     return getCpuNanosInternal();
                 } else {
                     return -1;
@@ -116,6 +129,14 @@ public class ThreadStatsComponent {
     }
 
     private ThreadStats getThreadStatsInternal() {
+        if (virtualThreadCarrierStats != null) {
+            // blocked time is not available for virtual threads since blocking on a monitor either
+            // unmounts the virtual thread (and so is included in waited time) or pins the carrier
+            // thread
+            return new ThreadStats(virtualThreadCarrierStats.getCpuNanos(), -1,
+                    virtualThreadCarrierStats.getWaitedMillis(),
+                    virtualThreadCarrierStats.getAllocatedBytes());
+        }
         long cpuNanos;
         if (IS_THREAD_CPU_TIME_SUPPORTED) {
             cpuNanos = getCpuNanosInternal();
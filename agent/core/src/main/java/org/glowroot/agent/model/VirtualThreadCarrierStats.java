@@ -0,0 +1,261 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.model;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Field;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Maps;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.glowroot.agent.util.ThreadAllocatedBytes;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+// ThreadMXBean does not support virtual threads (cpu time and allocated bytes are -1, and thread
+// info is null), so for virtual threads these stats are instead accumulated from the carrier
+// threads, only for the time periods while the virtual thread is mounted on them
+//
+// this relies on mount/unmount hooks that are woven into java.lang.VirtualThread (see
+// VirtualThreadHackClassFileTransformer), and the time that the virtual thread spends unmounted
+// (e.g. parked waiting on I/O or a lock) is reported as waited time
+//
+// only virtual threads with an active transaction are registered, so the hooks cost one map lookup
+// for other virtual threads (and nothing beyond an isEmpty() check when there are none)
+public class VirtualThreadCarrierStats {
+
+    private static final Logger logger = LoggerFactory.getLogger(VirtualThreadCarrierStats.class);
+
+    private static final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+    private static final ConcurrentMap<Thread, VirtualThreadCarrierStats> registered =
+            Maps.newConcurrentMap();
+
+    private static volatile @Nullable Field carrierThreadField;
+
+    private final @Nullable Thread virtualThread;
+    private final @Nullable ThreadAllocatedBytes threadAllocatedBytes;
+
+    // only updated by the virtual thread itself (registration and the mount/unmount hooks all run
+    // on it), and replaced (not modified) on each update, so the hooks don't need to take a lock
+    // and readers on other threads see a consistent snapshot
+    private volatile State state;
+
+    public static boolean isEnabled() {
+        return carrierThreadField != null;
+    }
+
+    // called once the mount/unmount hooks have been woven into java.lang.VirtualThread
+    public static void enable(Class<?> virtualThreadClass) throws Exception {
+        Field field = virtualThreadClass.getDeclaredField("carrierThread");
+        field.setAccessible(true);
+        carrierThreadField = field;
+    }
+
+    // must be called from the virtual thread
+    public static @Nullable VirtualThreadCarrierStats register(
+            @Nullable ThreadAllocatedBytes threadAllocatedBytes) {
+        Field field = carrierThreadField;
+        if (field == null) {
+            return null;
+        }
+        Thread virtualThread = Thread.currentThread();
+        Thread carrierThread;
+        try {
+            carrierThread = (Thread) field.get(virtualThread);
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+            carrierThreadField = null;
+            return null;
+        }
+        if (carrierThread == null) {
+            // not a virtual thread after all
+            return null;
+        }
+        VirtualThreadCarrierStats stats =
+                new VirtualThreadCarrierStats(virtualThread, threadAllocatedBytes);
+        stats.register(virtualThread, carrierThread);
+        return stats;
+    }
+
+    @VisibleForTesting
+    void register(Thread virtualThread, Thread carrierThread) {
+        // the time prior to registration is not counted as waited time
+        state = state.mount(carrierThread, getCarrierCpuNanos(carrierThread),
+                getCarrierAllocatedBytes(carrierThread), 0);
+        registered.put(virtualThread, this);
+    }
+
+    public void unregister() {
+        if (virtualThread != null) {
+            registered.remove(virtualThread, this);
+        }
+    }
+
+    public static void mounted(Thread virtualThread, Thread carrierThread) {
+        if (registered.isEmpty()) {
+            return;
+        }
+        VirtualThreadCarrierStats stats = registered.get(virtualThread);
+        if (stats != null) {
+            stats.onMounted(carrierThread, System.nanoTime());
+        }
+    }
+
+    public static void unmounting(Thread virtualThread, Thread carrierThread) {
+        if (registered.isEmpty()) {
+            return;
+        }
+        VirtualThreadCarrierStats stats = registered.get(virtualThread);
+        if (stats != null) {
+            stats.onUnmounting(carrierThread, System.nanoTime());
+        }
+    }
+
+    @VisibleForTesting
+    VirtualThreadCarrierStats(@Nullable Thread virtualThread,
+            @Nullable ThreadAllocatedBytes threadAllocatedBytes) {
+        this.virtualThread = virtualThread;
+        this.threadAllocatedBytes = threadAllocatedBytes;
+        state = new State(null, 0, 0, 0, 0, threadAllocatedBytes == null ? -1 : 0, 0);
+    }
+
+    // safe to be called from another thread
+    //
+    // if the virtual thread unmounts concurrently, the carrier thread's value may include a small
+    // amount of time from whatever runs on the carrier thread next
+    public long getCpuNanos() {
+        State state = this.state;
+        Thread carrierThread = state.carrierThread;
+        if (carrierThread == null || state.cpuNanos == -1) {
+            return state.cpuNanos;
+        }
+        return add(state.cpuNanos,
+                subtract(getCarrierCpuNanos(carrierThread), state.mountedCpuNanos));
+    }
+
+    // safe to be called from another thread (see comment above)
+    public long getAllocatedBytes() {
+        State state = this.state;
+        Thread carrierThread = state.carrierThread;
+        if (carrierThread == null || state.allocatedBytes == -1) {
+            return state.allocatedBytes;
+        }
+        return add(state.allocatedBytes,
+                subtract(getCarrierAllocatedBytes(carrierThread), state.mountedAllocatedBytes));
+    }
+
+    // safe to be called from another thread
+    public long getWaitedMillis() {
+        State state = this.state;
+        long nanos = state.waitedNanos;
+        if (state.carrierThread == null) {
+            nanos += System.nanoTime() - state.unmountedTick;
+        }
+        return NANOSECONDS.toMillis(nanos);
+    }
+
+    // must be called from the virtual thread
+    @VisibleForTesting
+    void onMounted(Thread carrierThread, long currentTick) {
+        // read the carrier thread's counters before touching the state, the state is only written
+        // by this thread, so no lock is needed around the read-modify-write
+        long mountedCpuNanos = getCarrierCpuNanos(carrierThread);
+        long mountedAllocatedBytes = getCarrierAllocatedBytes(carrierThread);
+        State state = this.state;
+        this.state = state.mount(carrierThread, mountedCpuNanos, mountedAllocatedBytes,
+                currentTick - state.unmountedTick);
+    }
+
+    // must be called from the virtual thread
+    @VisibleForTesting
+    void onUnmounting(Thread carrierThread, long currentTick) {
+        State state = this.state;
+        long cpuNanos = state.cpuNanos;
+        if (cpuNanos != -1) {
+            cpuNanos = add(cpuNanos,
+                    subtract(getCarrierCpuNanos(carrierThread), state.mountedCpuNanos));
+        }
+        long allocatedBytes = state.allocatedBytes;
+        if (allocatedBytes != -1) {
+            allocatedBytes = add(allocatedBytes, subtract(getCarrierAllocatedBytes(carrierThread),
+                    state.mountedAllocatedBytes));
+        }
+        this.state = new State(null, 0, 0, currentTick, cpuNanos, allocatedBytes,
+                state.waitedNanos);
+    }
+
+    @VisibleForTesting
+    long getCarrierCpuNanos(Thread carrierThread) {
+        // getThreadCpuTime() returns -1 if CPU time measurement is disabled (which is different
+        // than whether or not it is supported)
+        return threadMXBean.getThreadCpuTime(carrierThread.getId());
+    }
+
+    @VisibleForTesting
+    long getCarrierAllocatedBytes(Thread carrierThread) {
+        if (threadAllocatedBytes == null) {
+            return -1;
+        }
+        return threadAllocatedBytes.getThreadAllocatedBytesSafely(carrierThread.getId());
+    }
+
+    private static long add(long total, long delta) {
+        return delta == -1 ? -1 : total + delta;
+    }
+
+    private static long subtract(long current, long start) {
+        return current == -1 || start == -1 ? -1 : current - start;
+    }
+
+    private static class State {
+
+        // carrier thread that the virtual thread is currently mounted on
+        private final @Nullable Thread carrierThread;
+        private final long mountedCpuNanos;
+        private final long mountedAllocatedBytes;
+        private final long unmountedTick;
+
+        // accumulated over the completed mounted (or for waited, unmounted) time periods, -1 once
+        // any of the underlying values is not available
+        private final long cpuNanos;
+        private final long allocatedBytes;
+        private final long waitedNanos;
+
+        private State(@Nullable Thread carrierThread, long mountedCpuNanos,
+                long mountedAllocatedBytes, long unmountedTick, long cpuNanos, long allocatedBytes,
+                long waitedNanos) {
+            this.carrierThread = carrierThread;
+            this.mountedCpuNanos = mountedCpuNanos;
+            this.mountedAllocatedBytes = mountedAllocatedBytes;
+            this.unmountedTick = unmountedTick;
+            this.cpuNanos = cpuNanos;
+            this.allocatedBytes = allocatedBytes;
+            this.waitedNanos = waitedNanos;
+        }
+
+        private State mount(Thread carrierThread, long mountedCpuNanos, long mountedAllocatedBytes,
+                long unmountedNanos) {
+            return new State(carrierThread, mountedCpuNanos, mountedAllocatedBytes, unmountedTick,
+                    cpuNanos, allocatedBytes, waitedNanos + unmountedNanos);
+        }
+    }
+}
@@ -27,6 +27,7 @@ public class JavaVersion {
     private static final boolean IS_GREATER_THAN_OR_EQUAL_TO_JAVA_8;
     private static final boolean IS_GREATER_THAN_OR_EQUAL_TO_JAVA_9;
     private static final boolean IS_GREATER_THAN_OR_EQUAL_TO_JAVA_10;
+    private static final int MAJOR_VERSION;
 
     private static final boolean J9_JVM;
     private static final boolean JROCKIT_JVM;
@@ -39,6 +40,7 @@ public class JavaVersion {
         IS_GREATER_THAN_OR_EQUAL_TO_JAVA_8 = parseIsGreaterThanOrEqualToJava8(javaVersion);
         IS_GREATER_THAN_OR_EQUAL_TO_JAVA_9 = parseIsGreaterThanOrEqualToJava9(javaVersion);
         IS_GREATER_THAN_OR_EQUAL_TO_JAVA_10 = parseIsGreaterThanOrEqualToJava10(javaVersion);
+        MAJOR_VERSION = parseMajorVersion(javaVersion);
 
         String javaVmName = System.getProperty("java.vm.name");
         J9_JVM = "IBM J9 VM".equals(javaVmName) || "Eclipse OpenJ9 VM".equals(javaVmName);
@@ -73,6 +75,11 @@ public class JavaVersion {
         return IS_GREATER_THAN_OR_EQUAL_TO_JAVA_10;
     }
 
+    // returns 0 if the java version could not be parsed
+    public static int getMajorVersion() {
+        return MAJOR_VERSION;
+    }
+
     public static boolean isJ9Jvm() {
         return J9_JVM;
     }
@@ -106,4 +113,26 @@ public class JavaVersion {
         return javaVersion != null && !javaVersion.startsWith("1.")
                 && !javaVersion.startsWith("9.");
     }
+
+    @VisibleForTesting
+    static int parseMajorVersion(@Nullable String javaVersion) {
+        if (javaVersion == null) {
+            return 0;
+        }
+        String version = javaVersion;
+        if (version.startsWith("1.")) {
+            // e.g. 1.8.0_45
+            version = version.substring(2);
+        }
+        int majorVersion = 0;
+        for (int i = 0; i < version.length(); i++) {
+            char c = version.charAt(i);
+            if (c < '0' || c > '9') {
+                // e.g. 17.0.9, 21-ea
+                break;
+            }
+            majorVersion = majorVersion * 10 + c - '0';
+        }
+        return majorVersion;
+    }
 }
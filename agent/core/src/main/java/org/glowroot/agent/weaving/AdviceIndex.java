@@ -0,0 +1,222 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.weaving;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+// pre-filter over the class level part of the pointcuts (class name, class annotation and super
+// type restriction), so that most classes are rejected with one or two hash lookups instead of
+// evaluating the patterns of every advice
+//
+// each advice is indexed under a single dimension, in order of preference: exact class names,
+// literal class name prefixes (e.g. "org.apache.catalina.*"), exact class annotations and exact
+// super types, and advice that cannot be indexed (e.g. full regex class names) is always a
+// candidate
+//
+// this is only a pre-filter, the candidates are still fully matched by AdviceMatcher
+class AdviceIndex {
+
+    // class name dimension is preferred since the class name is the cheapest to look up
+    private static final int CLASS_NAME = 0;
+    private static final int CLASS_ANNOTATION = 1;
+    private static final int SUPER_TYPE = 2;
+
+    private static final AtomicLong classCount = new AtomicLong();
+    private static final AtomicLong rejectedClassCount = new AtomicLong();
+    private static final AtomicLong skippedAdviceCount = new AtomicLong();
+
+    private static volatile @Nullable AdviceIndex lastAdviceIndex;
+
+    private final List<Advice> advisors;
+
+    private final Map<String, BitSet> classNames = Maps.newHashMap();
+    private final Map<String, BitSet> classNamePrefixes = Maps.newHashMap();
+    private final int[] classNamePrefixLengths;
+    private final Map<String, BitSet> classAnnotations = Maps.newHashMap();
+    private final Map<String, BitSet> superTypes = Maps.newHashMap();
+    private final BitSet unindexed = new BitSet();
+
+    private AdviceIndex(List<Advice> advisors) {
+        this.advisors = advisors;
+        Set<Integer> classNamePrefixLengths = new TreeSet<Integer>();
+        for (int i = 0; i < advisors.size(); i++) {
+            Advice advice = advisors.get(i);
+            if (indexClassName(advice, i, classNamePrefixLengths)) {
+                continue;
+            }
+            List<String> classAnnotations = getExactNames(advice.pointcut().classAnnotation());
+            if (classAnnotations != null) {
+                put(this.classAnnotations, classAnnotations, i);
+                continue;
+            }
+            List<String> superTypes = getExactNames(advice.pointcut().superTypeRestriction());
+            if (superTypes != null) {
+                put(this.superTypes, superTypes, i);
+                continue;
+            }
+            unindexed.set(i);
+        }
+        this.classNamePrefixLengths = new int[classNamePrefixLengths.size()];
+        int j = 0;
+        for (int classNamePrefixLength : classNamePrefixLengths) {
+            this.classNamePrefixLengths[j++] = classNamePrefixLength;
+        }
+    }
+
+    // the advisors list is only replaced on re-weaving (or for the rare class with @Instrumentation
+    // annotations), so the index is rebuilt only when the list instance changes
+    static AdviceIndex get(List<Advice> advisors) {
+        AdviceIndex adviceIndex = lastAdviceIndex;
+        if (adviceIndex != null && adviceIndex.advisors == advisors) {
+            return adviceIndex;
+        }
+        adviceIndex = new AdviceIndex(advisors);
+        lastAdviceIndex = adviceIndex;
+        return adviceIndex;
+    }
+
+    static long getClassCount() {
+        return classCount.get();
+    }
+
+    static long getRejectedClassCount() {
+        return rejectedClassCount.get();
+    }
+
+    static long getSkippedAdviceCount() {
+        return skippedAdviceCount.get();
+    }
+
+    // returns the advisors (in their original order) that can possibly match the class
+    List<Advice> getCandidates(String className, List<String> classAnnotations,
+            Collection<String> superClassNames) {
+        BitSet candidates = (BitSet) unindexed.clone();
+        or(candidates, classNames.get(className));
+        for (int classNamePrefixLength : classNamePrefixLengths) {
+            if (classNamePrefixLength > className.length()) {
+                break;
+            }
+            or(candidates, classNamePrefixes.get(className.substring(0, classNamePrefixLength)));
+        }
+        if (!this.classAnnotations.isEmpty()) {
+            for (String classAnnotation : classAnnotations) {
+                // same conversion as AdviceMatcher.isAnnotationMatch()
+                or(candidates, this.classAnnotations.get(classAnnotation.replace('/', '.')
+                        .substring(1, classAnnotation.length() - 1)));
+            }
+        }
+        if (!superTypes.isEmpty()) {
+            for (String superClassName : superClassNames) {
+                or(candidates, superTypes.get(superClassName));
+            }
+        }
+        int candidateCount = candidates.cardinality();
+        classCount.getAndIncrement();
+        skippedAdviceCount.getAndAdd(advisors.size() - candidateCount);
+        if (candidateCount == 0) {
+            rejectedClassCount.getAndIncrement();
+            return ImmutableList.of();
+        }
+        List<Advice> candidateAdvisors = Lists.newArrayListWithCapacity(candidateCount);
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            candidateAdvisors.add(advisors.get(i));
+        }
+        return candidateAdvisors;
+    }
+
+    private boolean indexClassName(Advice advice, int i, Set<Integer> classNamePrefixLengths) {
+        String className = advice.pointcut().className();
+        if (className.isEmpty() || isFullRegex(className)) {
+            return false;
+        }
+        List<String> parts = split(className);
+        for (String part : parts) {
+            if (part.startsWith("*")) {
+                // no literal prefix
+                return false;
+            }
+        }
+        for (String part : parts) {
+            int index = part.indexOf('*');
+            if (index == -1) {
+                put(classNames, part, i);
+            } else {
+                String prefix = part.substring(0, index);
+                put(classNamePrefixes, prefix, i);
+                classNamePrefixLengths.add(prefix.length());
+            }
+        }
+        return true;
+    }
+
+    // returns null if the value is empty or contains wildcards
+    private static @Nullable List<String> getExactNames(String value) {
+        if (value.isEmpty() || isFullRegex(value)) {
+            return null;
+        }
+        List<String> parts = split(value);
+        for (String part : parts) {
+            if (part.contains("*")) {
+                return null;
+            }
+        }
+        return parts;
+    }
+
+    // see MaybePatterns.buildPattern()
+    private static boolean isFullRegex(String value) {
+        return value.startsWith("/") && value.endsWith("/");
+    }
+
+    private static List<String> split(String value) {
+        if (value.contains("|")) {
+            return ImmutableList.copyOf(value.split("\\|"));
+        }
+        return ImmutableList.of(value);
+    }
+
+    private static void put(Map<String, BitSet> map, List<String> keys, int i) {
+        for (String key : keys) {
+            put(map, key, i);
+        }
+    }
+
+    private static void put(Map<String, BitSet> map, String key, int i) {
+        BitSet bitSet = map.get(key);
+        if (bitSet == null) {
+            bitSet = new BitSet();
+            map.put(key, bitSet);
+        }
+        bitSet.set(i);
+    }
+
+    private static void or(BitSet candidates, @Nullable BitSet bitSet) {
+        if (bitSet != null) {
+            candidates.or(bitSet);
+        }
+    }
+}
@@ -41,7 +41,8 @@ abstract class AdviceMatcher {
             List<String> classAnnotations, Collection<String> superClassNames,
             List<Advice> advisors) {
         List<AdviceMatcher> adviceMatchers = Lists.newArrayList();
-        for (Advice advice : advisors) {
+        for (Advice advice : AdviceIndex.get(advisors).getCandidates(className, classAnnotations,
+                superClassNames)) {
             if (isClassMatch(className, classAnnotations, superClassNames, advice)) {
                 adviceMatchers.add(ImmutableAdviceMatcher.of(advice));
             }
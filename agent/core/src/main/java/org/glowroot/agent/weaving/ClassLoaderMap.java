@@ -0,0 +1,132 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.weaving;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.collect.ImmutableList;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+// concurrent map with weak identity keys, used instead of a synchronized WeakHashMap so that
+// parallel class loading (e.g. app servers with many deployments) doesn't serialize on a single
+// monitor
+//
+// not using guava MapMaker/CacheBuilder weak keys since they use many additional classes that must
+// then be pre-initialized since this is called from inside ClassFileTransformer.transform() (see
+// PreInitializeWeavingClasses)
+class ClassLoaderMap<V> {
+
+    private final ConcurrentMap<Object, V> map = new ConcurrentHashMap<Object, V>();
+
+    private final ReferenceQueue<ClassLoader> queue = new ReferenceQueue<ClassLoader>();
+
+    @Nullable V get(ClassLoader loader) {
+        expungeStaleEntries();
+        return map.get(new LookupKey(loader));
+    }
+
+    // returns the existing value if there is one, otherwise the passed in value
+    V putIfAbsent(ClassLoader loader, V value) {
+        expungeStaleEntries();
+        V existingValue = map.putIfAbsent(new WeakKey(loader, queue), value);
+        return existingValue == null ? value : existingValue;
+    }
+
+    ImmutableList<ClassLoader> keys() {
+        expungeStaleEntries();
+        ImmutableList.Builder<ClassLoader> keys = ImmutableList.builder();
+        for (Object key : map.keySet()) {
+            ClassLoader loader = ((WeakKey) key).get();
+            if (loader != null) {
+                keys.add(loader);
+            }
+        }
+        return keys.build();
+    }
+
+    List<V> values() {
+        expungeStaleEntries();
+        return ImmutableList.copyOf(map.values());
+    }
+
+    private void expungeStaleEntries() {
+        // ReferenceQueue.poll() returns without locking when the queue is empty
+        Reference<? extends ClassLoader> ref;
+        while ((ref = queue.poll()) != null) {
+            map.remove(ref);
+        }
+    }
+
+    // the weak reference points directly to the class loader (see comment in AnalyzedWorld)
+    private static class WeakKey extends WeakReference<ClassLoader> {
+
+        private final int hashCode;
+
+        private WeakKey(ClassLoader loader, ReferenceQueue<ClassLoader> queue) {
+            super(loader, queue);
+            hashCode = System.identityHashCode(loader);
+        }
+
+        @Override
+        public boolean equals(@Nullable Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (obj instanceof LookupKey) {
+                return ((LookupKey) obj).loader == get();
+            }
+            if (obj instanceof WeakKey) {
+                // cleared keys are only equal to themselves
+                ClassLoader loader = get();
+                return loader != null && loader == ((WeakKey) obj).get();
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    // used for lookups so that a weak reference isn't created for every get()
+    private static class LookupKey {
+
+        private final ClassLoader loader;
+
+        private LookupKey(ClassLoader loader) {
+            this.loader = loader;
+        }
+
+        @Override
+        public boolean equals(@Nullable Object obj) {
+            if (obj instanceof WeakKey) {
+                return ((WeakKey) obj).get() == loader;
+            }
+            return obj instanceof LookupKey && ((LookupKey) obj).loader == loader;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(loader);
+        }
+    }
+}
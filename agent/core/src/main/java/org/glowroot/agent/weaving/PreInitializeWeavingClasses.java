@@ -280,6 +280,7 @@ public class PreInitializeWeavingClasses {
         types.add("org.glowroot.agent.weaving.AdviceAdapter");
         types.add("org.glowroot.agent.weaving.AdviceBuilder");
         types.add("org.glowroot.agent.weaving.AdviceBuilder$AdviceConstructionException");
+        types.add("org.glowroot.agent.weaving.AdviceIndex");
         types.add("org.glowroot.agent.weaving.AdviceMatcher");
         types.add("org.glowroot.agent.weaving.AnalyzedClass");
         types.add("org.glowroot.agent.weaving.AnalyzedMethod");
@@ -297,6 +298,9 @@ public class PreInitializeWeavingClasses {
         types.add("org.glowroot.agent.weaving.ClassAnalyzer$MatchedMixinTypes");
         types.add("org.glowroot.agent.weaving.ClassAnalyzer$NonAbstractMethodClassVisitor");
         types.add("org.glowroot.agent.weaving.ClassInfoImpl");
+        types.add("org.glowroot.agent.weaving.ClassLoaderMap");
+        types.add("org.glowroot.agent.weaving.ClassLoaderMap$LookupKey");
+        types.add("org.glowroot.agent.weaving.ClassLoaderMap$WeakKey");
         types.add("org.glowroot.agent.weaving.ClassLoaders");
         types.add("org.glowroot.agent.weaving.ClassLoaders$LazyDefinedClass");
         types.add("org.glowroot.agent.weaving.ClassNames");
@@ -383,6 +387,7 @@ public class PreInitializeWeavingClasses {
         types.add("org.glowroot.agent.weaving.WeavingClassVisitor");
         types.add("org.glowroot.agent.weaving.WeavingClassVisitor$InitMixins");
         types.add("org.glowroot.agent.weaving.WeavingClassVisitor$MethodMetaGroup");
+        types.add("org.glowroot.agent.weaving.WeavingMXBean");
         types.add("org.glowroot.agent.weaving.WeavingMethodVisitor");
         types.add("org.glowroot.agent.weaving.WeavingMethodVisitor$CatchHandler");
         types.add("org.glowroot.common.config.ImmutableInstrumentationConfig");
@@ -520,6 +525,7 @@ public class PreInitializeWeavingClasses {
         types.add("org.glowroot.agent.weaving.BootstrapMetaHolders$1");
         types.add("org.glowroot.agent.weaving.ClassAnalyzer$1");
         types.add("org.glowroot.agent.weaving.ClassAnalyzer$BridgeMethodClassVisitor$1");
+        types.add("org.glowroot.agent.weaving.ClassLoaderMap$1");
         types.add("org.glowroot.agent.weaving.ImmutablePointcutClass$1");
         types.add("org.glowroot.agent.weaving.ImmutablePointcutMethod$1");
         types.add("org.glowroot.agent.weaving.ImmutableAnalyzedClass$1");
@@ -26,6 +26,7 @@ import java.security.CodeSource;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.google.common.base.StandardSystemProperty;
 import com.google.common.base.Supplier;
@@ -64,7 +65,7 @@ import static org.objectweb.asm.Opcodes.ASM9;
 import static org.objectweb.asm.Opcodes.INVOKESTATIC;
 import static org.objectweb.asm.Opcodes.V1_6;
 
-public class Weaver {
+public class Weaver implements WeavingMXBean {
 
     private static final Logger logger = LoggerFactory.getLogger(Weaver.class);
 
@@ -94,6 +95,9 @@ public class Weaver {
 
     private volatile boolean weavingDisabledForLoggingDeadlock;
 
+    private final AtomicLong weavingTime = new AtomicLong();
+    private final AtomicLong wovenClassCount = new AtomicLong();
+
     private final IterableWithSelfRemovableEntries<ActiveWeaving> activeWeavings =
             new IterableWithSelfRemovableEntries<ActiveWeaving>();
 
@@ -156,7 +160,43 @@ public class Weaver {
             if (weavingTimer != null) {
                 weavingTimer.stop();
             }
+            weavingTime.getAndAdd(ticker.read() - startTick);
+            wovenClassCount.getAndIncrement();
+        }
+    }
+
+    @Override
+    public long getWeavingTime() {
+        return weavingTime.get();
+    }
+
+    @Override
+    public long getWovenClassCount() {
+        return wovenClassCount.get();
+    }
+
+    @Override
+    public long getAdviceIndexClassCount() {
+        return AdviceIndex.getClassCount();
+    }
+
+    @Override
+    public long getAdviceIndexRejectedClassCount() {
+        return AdviceIndex.getRejectedClassCount();
+    }
+
+    @Override
+    public double getAdviceIndexRejectedClassPercentage() {
+        long classCount = AdviceIndex.getClassCount();
+        if (classCount == 0) {
+            return 0;
         }
+        return 100.0 * AdviceIndex.getRejectedClassCount() / classCount;
+    }
+
+    @Override
+    public long getAdviceIndexSkippedAdviceCount() {
+        return AdviceIndex.getSkippedAdviceCount();
     }
 
     private @Nullable TimerImpl startWeavingTimer(long startTick) {
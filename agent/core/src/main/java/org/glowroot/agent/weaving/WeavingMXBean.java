@@ -0,0 +1,31 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.weaving;
+
+// exposed as gauges under org.glowroot:type=Weaving
+public interface WeavingMXBean {
+
+    // nanoseconds spent weaving, this is the same time that is captured by the weaving timer, but
+    // for all classes, not only for those loaded inside of a transaction
+    long getWeavingTime();
+    long getWovenClassCount();
+    long getAdviceIndexClassCount();
+    // classes that the advice index found no candidate advice for
+    long getAdviceIndexRejectedClassCount();
+    double getAdviceIndexRejectedClassPercentage();
+    // class level advice matches that did not need to be evaluated thanks to the advice index
+    long getAdviceIndexSkippedAdviceCount();
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.central;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SpoolFileTest {
+
+    private File file;
+    private SpoolFile spoolFile;
+
+    @BeforeEach
+    public void beforeEach() throws Exception {
+        file = File.createTempFile("glowroot-test-", ".spool.db");
+        spoolFile = SpoolFile.open(file, 1);
+    }
+
+    @AfterEach
+    public void afterEach() throws Exception {
+        spoolFile.close();
+        file.delete();
+    }
+
+    @Test
+    public void shouldReadInOrder() throws Exception {
+        // given
+        spoolFile.add(1, bytes(100, 'a'));
+        spoolFile.add(2, bytes(200, 'b'));
+        // when
+        SpoolFile.Record first = spoolFile.peek();
+        spoolFile.remove(first);
+        SpoolFile.Record second = spoolFile.peek();
+        spoolFile.remove(second);
+        // then
+        assertThat(first.type()).isEqualTo(1);
+        assertThat(first.payload()).isEqualTo(bytes(100, 'a'));
+        assertThat(second.type()).isEqualTo(2);
+        assertThat(second.payload()).isEqualTo(bytes(200, 'b'));
+        assertThat(spoolFile.peek()).isNull();
+        assertThat(spoolFile.getSpooledBytes()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldWrapAround() throws Exception {
+        // when
+        for (int i = 0; i < 20; i++) {
+            spoolFile.add(1, bytes(300, (char) ('a' + i)));
+            SpoolFile.Record record = spoolFile.peek();
+            // then
+            assertThat(record.payload()).isEqualTo(bytes(300, (char) ('a' + i)));
+            spoolFile.remove(record);
+        }
+        assertThat(spoolFile.getDroppedCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldDropOldestWhenFull() throws Exception {
+        // when
+        for (int i = 0; i < 5; i++) {
+            spoolFile.add(1, bytes(300, (char) ('a' + i)));
+        }
+        // then
+        assertThat(spoolFile.getDroppedCount()).isEqualTo(2);
+        assertThat(spoolFile.peek().payload()).isEqualTo(bytes(300, 'c'));
+        assertThat(spoolFile.getSpooledBytes()).isEqualTo(3 * 305);
+    }
+
+    @Test
+    public void shouldNotRemoveRecordThatWasAlreadyDropped() throws Exception {
+        // given
+        spoolFile.add(1, bytes(300, 'a'));
+        SpoolFile.Record record = spoolFile.peek();
+        for (int i = 0; i < 3; i++) {
+            spoolFile.add(1, bytes(300, 'b'));
+        }
+        // when
+        spoolFile.remove(record);
+        // then
+        assertThat(spoolFile.getSpooledBytes()).isEqualTo(3 * 305);
+    }
+
+    @Test
+    public void shouldRejectRecordLargerThanFile() throws Exception {
+        assertThat(spoolFile.add(1, bytes(1024, 'a'))).isFalse();
+        assertThat(spoolFile.peek()).isNull();
+    }
+
+    @Test
+    public void shouldSurviveReopen() throws Exception {
+        // given
+        spoolFile.add(1, bytes(300, 'a'));
+        spoolFile.add(1, bytes(300, 'b'));
+        spoolFile.remove(spoolFile.peek());
+        spoolFile.close();
+        // when
+        spoolFile = SpoolFile.open(file, 1);
+        // then
+        assertThat(spoolFile.peek().payload()).isEqualTo(bytes(300, 'b'));
+        assertThat(spoolFile.getSpooledBytes()).isEqualTo(305);
+    }
+
+    @Test
+    public void shouldDiscardOnResize() throws Exception {
+        // given
+        spoolFile.add(1, bytes(300, 'a'));
+        spoolFile.close();
+        // when
+        spoolFile = SpoolFile.open(file, 2);
+        // then
+        assertThat(spoolFile.peek()).isNull();
+    }
+
+    @Test
+    public void shouldResetOnCorruptRecordHeader() throws Exception {
+        // given
+        spoolFile.add(1, bytes(300, 'a'));
+        spoolFile.add(1, bytes(300, 'b'));
+        spoolFile.close();
+        corruptPayloadLength(0, -1);
+        // when
+        spoolFile = SpoolFile.open(file, 1);
+        // then
+        assertThat(spoolFile.peek()).isNull();
+        assertThat(spoolFile.getSpooledBytes()).isEqualTo(0);
+        spoolFile.add(1, bytes(300, 'c'));
+        assertThat(spoolFile.peek().payload()).isEqualTo(bytes(300, 'c'));
+    }
+
+    @Test
+    public void shouldResetOnCorruptRecordHeaderWhenDropping() throws Exception {
+        // given
+        spoolFile.add(1, bytes(300, 'a'));
+        spoolFile.add(1, bytes(300, 'b'));
+        spoolFile.add(1, bytes(300, 'c'));
+        spoolFile.close();
+        corruptPayloadLength(0, 100000);
+        spoolFile = SpoolFile.open(file, 1);
+        // when
+        spoolFile.add(1, bytes(300, 'd'));
+        // then
+        assertThat(spoolFile.peek().payload()).isEqualTo(bytes(300, 'd'));
+        assertThat(spoolFile.getSpooledBytes()).isEqualTo(305);
+    }
+
+    private void corruptPayloadLength(long position, int payloadLength) throws Exception {
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            out.seek(SpoolFile.HEADER_SKIP_BYTES + position);
+            out.writeInt(payloadLength);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static byte[] bytes(int length, char c) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (c + i % 7);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.central;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.base.Ticker;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.glowroot.agent.central.UploadLanes.Upload;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class UploadLanesTest {
+
+    private FakeTicker ticker;
+    private UploadLanes uploadLanes;
+    private ExecutorService executor;
+
+    @BeforeEach
+    public void beforeEach() {
+        ticker = new FakeTicker();
+        uploadLanes = new UploadLanes(ticker);
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @AfterEach
+    public void afterEach() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void shouldBlockWhenLaneIsFull() throws Exception {
+        // given
+        Upload first = uploadLanes.startTraceUpload("first");
+        for (int i = 0; i < 3; i++) {
+            uploadLanes.startTraceUpload("trace" + i);
+        }
+        // when
+        Future<Upload> future = executor.submit(new Callable<Upload>() {
+            @Override
+            public Upload call() throws Exception {
+                return uploadLanes.startTraceUpload("last");
+            }
+        });
+        // then
+        Thread.sleep(100);
+        assertThat(future.isDone()).isFalse();
+        // other lanes are not held up
+        uploadLanes.startAggregateUpload();
+        first.finish();
+        future.get(10, SECONDS);
+        assertThat(uploadLanes.getInFlightUploadCount()).isEqualTo(5);
+    }
+
+    @Test
+    public void shouldGiveAggregatesPriorityWhenOverByteBudget() throws Exception {
+        // given
+        Upload trace = uploadLanes.startTraceUpload("trace");
+        trace.addBytes(16 * 1024 * 1024);
+        // when
+        Future<Upload> future = executor.submit(new Callable<Upload>() {
+            @Override
+            public Upload call() throws Exception {
+                return uploadLanes.startGaugeValueUpload();
+            }
+        });
+        // then
+        uploadLanes.startAggregateUpload();
+        Thread.sleep(100);
+        assertThat(future.isDone()).isFalse();
+        trace.finish();
+        future.get(10, SECONDS);
+        assertThat(uploadLanes.getInFlightBytes()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldReleaseBytesOnRetry() throws Exception {
+        // given
+        Upload upload = uploadLanes.startLogEventUpload();
+        upload.startAttempt();
+        upload.addBytes(100);
+        // when
+        upload.startAttempt();
+        upload.addBytes(80);
+        // then
+        assertThat(uploadLanes.getInFlightBytes()).isEqualTo(80);
+        upload.finish();
+        upload.finish();
+        assertThat(uploadLanes.getInFlightBytes()).isEqualTo(0);
+        assertThat(uploadLanes.getInFlightUploadCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldReportUploadLag() throws Exception {
+        // given
+        Upload first = uploadLanes.startAggregateUpload();
+        ticker.advance(MILLISECONDS.toNanos(500));
+        Upload second = uploadLanes.startAggregateUpload();
+        ticker.advance(MILLISECONDS.toNanos(500));
+        // then
+        assertThat(uploadLanes.getAggregateUploadLagMillis()).isEqualTo(1000);
+        assertThat(uploadLanes.getTraceUploadLagMillis()).isEqualTo(0);
+        first.finish();
+        assertThat(uploadLanes.getAggregateUploadLagMillis()).isEqualTo(500);
+        second.finish();
+        assertThat(uploadLanes.getAggregateUploadLagMillis()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldSendUploadsOfSameTraceInOrder() throws Exception {
+        // given
+        final List<String> sent = new CopyOnWriteArrayList<String>();
+        Upload partial = uploadLanes.startTraceUpload("abc");
+        partial.send(recordSend(sent, "partial"));
+        Upload complete = uploadLanes.startTraceUpload("abc");
+        // when
+        complete.send(recordSend(sent, "complete"));
+        Upload other = uploadLanes.startTraceUpload("xyz");
+        other.send(recordSend(sent, "other"));
+        // then
+        // the complete upload waits for the partial upload, other traces are not held up
+        assertThat(sent).containsExactly("partial", "other");
+        // the partial call completes after the complete call was made
+        partial.finish();
+        assertThat(sent).containsExactly("partial", "other", "complete");
+        complete.finish();
+        other.finish();
+        // and once all uploads of the trace have finished, the next one is sent right away
+        Upload next = uploadLanes.startTraceUpload("abc");
+        next.send(recordSend(sent, "next"));
+        assertThat(sent).containsExactly("partial", "other", "complete", "next");
+        next.finish();
+        assertThat(uploadLanes.getInFlightUploadCount()).isEqualTo(0);
+    }
+
+    private static Runnable recordSend(final List<String> sent, final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                sent.add(name);
+            }
+        };
+    }
+
+    private static class FakeTicker extends Ticker {
+
+        private volatile long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        private void advance(long deltaNanos) {
+            nanos += deltaNanos;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.impl;
+
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.jupiter.api.Test;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class JfrStackTraceCollectorTest {
+
+    @Test
+    public void shouldIndexActiveThreadContextsByThreadId() {
+        // given
+        ThreadContextImpl mainThreadContext1 = mockThreadContext(1, true);
+        ThreadContextImpl auxThreadContext1 = mockThreadContext(2, true);
+        ThreadContextImpl mainThreadContext2 = mockThreadContext(3, true);
+        ThreadContextImpl auxThreadContext2 = mockThreadContext(4, true);
+        List<Transaction> transactions = ImmutableList.of(
+                mockTransaction(mainThreadContext1, auxThreadContext1),
+                mockTransaction(mainThreadContext2, auxThreadContext2));
+        // when
+        Map<Long, ThreadContextImpl> threadContexts =
+                JfrStackTraceCollector.indexActiveThreadContexts(transactions);
+        // then
+        assertThat(threadContexts).hasSize(4);
+        assertThat(threadContexts.get(1L)).isSameAs(mainThreadContext1);
+        assertThat(threadContexts.get(2L)).isSameAs(auxThreadContext1);
+        assertThat(threadContexts.get(3L)).isSameAs(mainThreadContext2);
+        assertThat(threadContexts.get(4L)).isSameAs(auxThreadContext2);
+    }
+
+    @Test
+    public void shouldNotIndexInactiveMainThreadContext() {
+        // given
+        ThreadContextImpl mainThreadContext = mockThreadContext(1, false);
+        ThreadContextImpl auxThreadContext = mockThreadContext(2, true);
+        List<Transaction> transactions =
+                ImmutableList.of(mockTransaction(mainThreadContext, auxThreadContext));
+        // when
+        Map<Long, ThreadContextImpl> threadContexts =
+                JfrStackTraceCollector.indexActiveThreadContexts(transactions);
+        // then
+        assertThat(threadContexts).hasSize(1);
+        assertThat(threadContexts.get(2L)).isSameAs(auxThreadContext);
+    }
+
+    @Test
+    public void shouldFindMostRecentlyCompletedHeldTransaction() {
+        // given
+        Transaction transaction1 = mockCompletedTransaction(1000, 20);
+        Transaction transaction2 = mockCompletedTransaction(1020, 30);
+        List<Transaction> transactions = ImmutableList.of(transaction1, transaction2);
+        // when
+        Transaction heldTransaction1 = JfrStackTraceCollector.findHeldTransaction(transactions,
+                1010);
+        Transaction heldTransaction2 = JfrStackTraceCollector.findHeldTransaction(transactions,
+                1020);
+        // then
+        assertThat(heldTransaction1).isSameAs(transaction1);
+        assertThat(heldTransaction2).isSameAs(transaction2);
+    }
+
+    @Test
+    public void shouldNotFindHeldTransactionOutsideOfItsDuration() {
+        // given
+        List<Transaction> transactions = ImmutableList.of(mockCompletedTransaction(1000, 20));
+        // when
+        Transaction heldTransaction1 = JfrStackTraceCollector.findHeldTransaction(transactions,
+                999);
+        Transaction heldTransaction2 = JfrStackTraceCollector.findHeldTransaction(transactions,
+                1022);
+        // then
+        assertThat(heldTransaction1).isNull();
+        assertThat(heldTransaction2).isNull();
+    }
+
+    private static ThreadContextImpl mockThreadContext(long threadId, boolean active) {
+        ThreadContextImpl threadContext = mock(ThreadContextImpl.class);
+        when(threadContext.getThreadId()).thenReturn(threadId);
+        when(threadContext.isActive()).thenReturn(active);
+        return threadContext;
+    }
+
+    private static Transaction mockTransaction(ThreadContextImpl mainThreadContext,
+            ThreadContextImpl auxThreadContext) {
+        Transaction transaction = mock(Transaction.class);
+        when(transaction.getMainThreadContext()).thenReturn(mainThreadContext);
+        when(transaction.getActiveAuxThreadContexts())
+                .thenReturn(ImmutableList.of(auxThreadContext));
+        return transaction;
+    }
+
+    private static Transaction mockCompletedTransaction(long startTime, long durationMillis) {
+        Transaction transaction = mock(Transaction.class);
+        when(transaction.getStartTime()).thenReturn(startTime);
+        when(transaction.getDurationNanos()).thenReturn(MILLISECONDS.toNanos(durationMillis));
+        return transaction;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.impl;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.junit.jupiter.api.Test;
+
+import org.glowroot.agent.impl.StackTraceCollector.ThreadContextSelection;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class StackTraceCollectorTest {
+
+    @Test
+    public void shouldSelectAllWhenUnderBudget() {
+        // given
+        List<Transaction> transactions = Lists.newArrayList();
+        for (int i = 0; i < 3; i++) {
+            transactions.add(mockTransaction(2));
+        }
+        // when
+        ThreadContextSelection selection =
+                StackTraceCollector.selectThreadContexts(transactions, 0, 100);
+        // then
+        assertThat(selection.getThreadContexts()).hasSize(9);
+        assertThat(selection.getDroppedThreadCount()).isZero();
+        assertThat(selection.getNextStartIndex()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldSelectMainThreadsBeforeAuxThreads() {
+        // given
+        List<Transaction> transactions = Lists.newArrayList();
+        transactions.add(mockTransaction(10));
+        transactions.add(mockTransaction(0));
+        transactions.add(mockTransaction(0));
+        // when
+        ThreadContextSelection selection =
+                StackTraceCollector.selectThreadContexts(transactions, 0, 5);
+        // then
+        assertThat(selection.getThreadContexts()).hasSize(5);
+        assertThat(selection.getThreadContexts().subList(0, 3)).containsExactly(
+                transactions.get(0).getMainThreadContext(),
+                transactions.get(1).getMainThreadContext(),
+                transactions.get(2).getMainThreadContext());
+        assertThat(selection.getDroppedThreadCount()).isEqualTo(8);
+        assertThat(selection.getNextStartIndex()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldRoundRobinWhenOverBudget() {
+        // given
+        List<Transaction> transactions = Lists.newArrayList();
+        for (int i = 0; i < 10; i++) {
+            transactions.add(mockTransaction(0));
+        }
+        List<ThreadContextImpl> sampled = Lists.newArrayList();
+        // when
+        int startIndex = 0;
+        for (int i = 0; i < 5; i++) {
+            ThreadContextSelection selection =
+                    StackTraceCollector.selectThreadContexts(transactions, startIndex, 4);
+            assertThat(selection.getDroppedThreadCount()).isEqualTo(6);
+            sampled.addAll(selection.getThreadContexts());
+            startIndex = selection.getNextStartIndex();
+        }
+        // then
+        // 5 ticks of 4 threads covers each of the 10 transactions exactly twice
+        for (Transaction transaction : transactions) {
+            int count = 0;
+            for (ThreadContextImpl threadContext : sampled) {
+                if (threadContext == transaction.getMainThreadContext()) {
+                    count++;
+                }
+            }
+            assertThat(count).isEqualTo(2);
+        }
+    }
+
+    private static Transaction mockTransaction(int auxThreadCount) {
+        Transaction transaction = mock(Transaction.class);
+        ThreadContextImpl mainThreadContext = mock(ThreadContextImpl.class);
+        when(mainThreadContext.isActive()).thenReturn(true);
+        when(transaction.getMainThreadContext()).thenReturn(mainThreadContext);
+        List<ThreadContextImpl> auxThreadContexts = Lists.newArrayList();
+        for (int i = 0; i < auxThreadCount; i++) {
+            auxThreadContexts.add(mock(ThreadContextImpl.class));
+        }
+        when(transaction.getActiveAuxThreadContexts())
+                .thenReturn(ImmutableList.copyOf(auxThreadContexts));
+        return transaction;
+    }
+}
@@ -15,10 +15,18 @@
  */
 package org.glowroot.agent.impl;
 
+import java.util.List;
+
+import com.google.common.collect.Lists;
 import org.junit.jupiter.api.Test;
 
+import org.glowroot.agent.impl.Transaction.TraceEntryVisitor;
+import org.glowroot.agent.model.QueryData;
+import org.glowroot.agent.model.SharedQueryTextCollection;
 import org.glowroot.agent.plugin.api.Message;
 import org.glowroot.agent.plugin.api.MessageSupplier;
+import org.glowroot.agent.plugin.api.QueryMessageSupplier;
+import org.glowroot.wire.api.model.TraceOuterClass.Trace;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.mock;
@@ -78,4 +86,89 @@ public class TraceEntryComponentTest {
         // then
         assertThat(traceEntryComponent.isCompleted()).isFalse();
     }
+
+    @Test
+    public void testCompactCompletedEntry() {
+        // given
+        ThreadContextImpl threadContext = mock(ThreadContextImpl.class);
+        MessageSupplier messageSupplier1 = mock(MessageSupplier.class);
+        MessageSupplier messageSupplier2 = mock(MessageSupplier.class);
+        when(messageSupplier1.get()).thenReturn(Message.create("abc"));
+        when(messageSupplier2.get()).thenReturn(Message.create("xyz"));
+        TimerImpl timer1 = mock(TimerImpl.class);
+        TimerImpl timer2 = mock(TimerImpl.class);
+        TraceEntryComponent traceEntryComponent =
+                new TraceEntryComponent(threadContext, messageSupplier1, timer1, 0);
+        TraceEntryImpl entry =
+                traceEntryComponent.pushEntry(10, messageSupplier2, timer2, null, null, 0);
+        // when
+        entry.end();
+        traceEntryComponent.popEntry(entry, entry.getEndTick());
+        // then
+        TraceEntryStore store = traceEntryComponent.getStore();
+        assertThat(store.size()).isEqualTo(2);
+        assertThat(store.getEntry(0)).isSameAs(traceEntryComponent.getRootEntry());
+        assertThat(store.getEntry(1)).isNull();
+        assertThat(store.getDepth(1)).isEqualTo(1);
+        List<Trace.Entry> entries = visit(store, 1, entry.getEndTick());
+        assertThat(entries).hasSize(1);
+        assertThat(entries.get(0).getMessage()).isEqualTo("xyz");
+        assertThat(entries.get(0).getStartOffsetNanos()).isEqualTo(10);
+        assertThat(entries.get(0).getDurationNanos()).isEqualTo(entry.getEndTick() - 10);
+        assertThat(entries.get(0).getActive()).isFalse();
+        // and when captured before the entry completed
+        entries = visit(store, 1, entry.getEndTick() - 1);
+        assertThat(entries.get(0).getActive()).isTrue();
+    }
+
+    @Test
+    public void testRestoreCompactedEntry() {
+        // given
+        ThreadContextImpl threadContext = mock(ThreadContextImpl.class);
+        MessageSupplier messageSupplier1 = mock(MessageSupplier.class);
+        MessageSupplier messageSupplier2 = mock(MessageSupplier.class);
+        TimerImpl timer1 = mock(TimerImpl.class);
+        TimerImpl timer2 = mock(TimerImpl.class);
+        TraceEntryComponent traceEntryComponent =
+                new TraceEntryComponent(threadContext, messageSupplier1, timer1, 0);
+        TraceEntryImpl entry =
+                traceEntryComponent.pushEntry(0, messageSupplier2, timer2, null, null, 0);
+        entry.end();
+        traceEntryComponent.popEntry(entry, entry.getEndTick());
+        // when
+        traceEntryComponent.restoreIfCompacted(entry);
+        // then
+        assertThat(traceEntryComponent.getStore().getEntry(1)).isSameAs(entry);
+    }
+
+    @Test
+    public void testNotCompactQueryEntry() {
+        // given
+        ThreadContextImpl threadContext = mock(ThreadContextImpl.class);
+        MessageSupplier messageSupplier1 = mock(MessageSupplier.class);
+        MessageSupplier messageSupplier2 = mock(MessageSupplier.class);
+        TimerImpl timer1 = mock(TimerImpl.class);
+        TimerImpl timer2 = mock(TimerImpl.class);
+        TraceEntryComponent traceEntryComponent =
+                new TraceEntryComponent(threadContext, messageSupplier1, timer1, 0);
+        TraceEntryImpl entry = traceEntryComponent.pushEntry(0,
+                mock(QueryMessageSupplier.class), timer2, null,
+                mock(QueryData.class), 1);
+        // when
+        entry.end();
+        traceEntryComponent.popEntry(entry, entry.getEndTick());
+        // then
+        assertThat(traceEntryComponent.getStore().getEntry(1)).isSameAs(entry);
+    }
+
+    private static List<Trace.Entry> visit(TraceEntryStore store, int index, long captureTick) {
+        final List<Trace.Entry> entries = Lists.newArrayList();
+        store.accept(index, 0, 0, captureTick, new TraceEntryVisitor() {
+            @Override
+            public void visitEntry(Trace.Entry entry) {
+                entries.add(entry);
+            }
+        }, mock(SharedQueryTextCollection.class));
+        return entries;
+    }
 }
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.impl;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.glowroot.agent.collector.Collector;
+import org.glowroot.agent.config.ConfigService;
+import org.glowroot.agent.model.QueryCollector;
+import org.glowroot.agent.model.ThreadStats;
+import org.glowroot.common.config.ImmutableAdvancedConfig;
+import org.glowroot.common.util.Clock;
+
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+// measures the per-transaction processing cost as the aggregate for the current interval grows
+// (in transaction count, histogram values and distinct queries)
+//
+// transactions are submitted one at a time, waiting for each to be processed (plus a short pause),
+// which is the "moderate load" case where the processing thread drains its queue after every
+// transaction, and the cost is measured as the cpu time of the processing thread
+//
+// the per-transaction cost should stay flat across windows, as long as nothing is reading "live"
+// aggregate data
+public class TransactionProcessorPerformanceMain {
+
+    private static final Logger logger =
+            LoggerFactory.getLogger(TransactionProcessorPerformanceMain.class);
+
+    private static final int WINDOW_COUNT = 5;
+    private static final int TRANSACTIONS_PER_WINDOW = 10000;
+    private static final int DISTINCT_QUERY_COUNT = 2000;
+    private static final long PAUSE_NANOS = MICROSECONDS.toNanos(20);
+
+    private TransactionProcessorPerformanceMain() {}
+
+    public static void main(String[] args) throws Exception {
+        ConfigService configService = mock(ConfigService.class);
+        when(configService.getAdvancedConfig()).thenReturn(ImmutableAdvancedConfig.builder()
+                .maxQueryAggregates(DISTINCT_QUERY_COUNT)
+                .build());
+        TraceCollector traceCollector = mock(TraceCollector.class);
+        // large aggregate interval so that all transactions end up in the same interval
+        TransactionProcessor transactionProcessor = new TransactionProcessor(
+                mock(Collector.class), traceCollector, configService, DAYS.toMillis(1),
+                Clock.systemClock(), 1, 1);
+        AtomicLong processedCount = new AtomicLong();
+        Transaction transaction = mockTransaction(processedCount);
+
+        // this also warms up
+        run(transactionProcessor, transaction, processedCount);
+        long processingThreadId = getProcessingThreadId();
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+        for (int i = 0; i < WINDOW_COUNT; i++) {
+            long startCpuNanos = threadBean.getThreadCpuTime(processingThreadId);
+            run(transactionProcessor, transaction, processedCount);
+            long cpuNanos = threadBean.getThreadCpuTime(processingThreadId) - startCpuNanos;
+            logger.info("transactions {} - {}: {} cpu nanos per transaction",
+                    (i + 1) * TRANSACTIONS_PER_WINDOW, (i + 2) * TRANSACTIONS_PER_WINDOW,
+                    cpuNanos / TRANSACTIONS_PER_WINDOW);
+        }
+        transactionProcessor.close();
+    }
+
+    private static void run(TransactionProcessor transactionProcessor, Transaction transaction,
+            AtomicLong processedCount) {
+        for (int i = 0; i < TRANSACTIONS_PER_WINDOW; i++) {
+            long expected = processedCount.get() + 1;
+            transactionProcessor.processOnCompletion(transaction);
+            while (processedCount.get() < expected) {
+                Thread.yield();
+            }
+            // give the processing thread time to finish with the transaction and drain its queue
+            long pauseUntilTick = System.nanoTime() + PAUSE_NANOS;
+            while (System.nanoTime() < pauseUntilTick) {
+                Thread.yield();
+            }
+        }
+    }
+
+    private static long getProcessingThreadId() {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("Glowroot-Aggregate-Processing")) {
+                return thread.getId();
+            }
+        }
+        throw new IllegalStateException("Could not find processing thread");
+    }
+
+    private static Transaction mockTransaction(final AtomicLong processedCount) {
+        Transaction transaction = mock(Transaction.class);
+        when(transaction.getTransactionType()).thenReturn("Web");
+        when(transaction.getTransactionName()).thenReturn("/abc");
+        when(transaction.getMainThreadStats()).thenReturn(ThreadStats.NA);
+        when(transaction.getDurationNanos()).thenAnswer(new Answer<Long>() {
+            private long durationNanos;
+            @Override
+            public Long answer(InvocationOnMock invocation) {
+                // spread out the histogram values
+                return (++durationNanos % 100000) * 1000;
+            }
+        });
+        TimerImpl rootTimer = mock(TimerImpl.class);
+        when(rootTimer.getName()).thenReturn("http request");
+        when(transaction.getMainThreadRootTimer()).thenReturn(rootTimer);
+        doAnswer(new Answer</*@Nullable*/ Void>() {
+            private long queryNum;
+            @Override
+            public /*@Nullable*/ Void answer(InvocationOnMock invocation) {
+                QueryCollector queryCollector = invocation.getArgument(0);
+                queryCollector.mergeQuery("SQL", "select " + (queryNum++ % DISTINCT_QUERY_COUNT),
+                        1000, 1, false, 0, false);
+                return null;
+            }
+        }).when(transaction).mergeQueriesInto(any(QueryCollector.class));
+        doAnswer(new Answer</*@Nullable*/ Void>() {
+            @Override
+            public /*@Nullable*/ Void answer(InvocationOnMock invocation) {
+                processedCount.incrementAndGet();
+                return null;
+            }
+        }).when(transaction).removeFromActiveTransactions();
+        return transaction;
+    }
+}
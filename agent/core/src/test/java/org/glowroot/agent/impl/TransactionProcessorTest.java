@@ -0,0 +1,209 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.impl;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Lists;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import org.glowroot.agent.collector.Collector;
+import org.glowroot.agent.collector.Collector.AggregateReader;
+import org.glowroot.agent.collector.Collector.AggregateVisitor;
+import org.glowroot.agent.config.ConfigService;
+import org.glowroot.agent.model.ThreadStats;
+import org.glowroot.common.config.ImmutableAdvancedConfig;
+import org.glowroot.common.model.OverallSummaryCollector;
+import org.glowroot.common.util.Clock;
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TransactionProcessorTest {
+
+    private static final int THREAD_COUNT = 8;
+    private static final int TRANSACTIONS_PER_THREAD = 100;
+
+    @Test
+    public void shouldMergeShardsFromMultipleProcessingThreads() throws Exception {
+        // given
+        Collector collector = mock(Collector.class);
+        ConfigService configService = mock(ConfigService.class);
+        when(configService.getAdvancedConfig())
+                .thenReturn(ImmutableAdvancedConfig.builder().build());
+        TraceCollector traceCollector = mock(TraceCollector.class);
+        Clock clock = mock(Clock.class);
+        when(clock.currentTimeMillis()).thenReturn(30000L);
+        final TransactionProcessor transactionProcessor = new TransactionProcessor(collector,
+                traceCollector, configService, 60000, clock, 4, 2);
+        List<Thread> threads = Lists.newArrayList();
+        for (int i = 0; i < THREAD_COUNT; i++) {
+            final List<Transaction> transactions = Lists.newArrayList();
+            for (int j = 0; j < TRANSACTIONS_PER_THREAD; j++) {
+                transactions.add(mockTransaction("/" + (j % 10)));
+            }
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (Transaction transaction : transactions) {
+                        transactionProcessor.processOnCompletion(transaction);
+                    }
+                }
+            }));
+        }
+
+        // when
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        when(clock.currentTimeMillis()).thenReturn(90000L);
+
+        // then
+        ArgumentCaptor<AggregateReader> captor = ArgumentCaptor.forClass(AggregateReader.class);
+        verify(collector, timeout(10000)).collectAggregates(captor.capture());
+        AggregateReader aggregateReader = captor.getValue();
+        assertThat(aggregateReader.captureTime()).isEqualTo(60000);
+        final AtomicLong overallTransactionCount = new AtomicLong();
+        final AtomicLong transactionCount = new AtomicLong();
+        final List<String> transactionNames = Lists.newArrayList();
+        aggregateReader.accept(new AggregateVisitor() {
+            @Override
+            public void visitOverallAggregate(String transactionType,
+                    List<String> sharedQueryTexts, Aggregate overallAggregate) {
+                overallTransactionCount.addAndGet(overallAggregate.getTransactionCount());
+            }
+            @Override
+            public void visitTransactionAggregate(String transactionType,
+                    String transactionName, List<String> sharedQueryTexts,
+                    Aggregate transactionAggregate) {
+                transactionCount.addAndGet(transactionAggregate.getTransactionCount());
+                transactionNames.add(transactionName);
+            }
+        });
+        assertThat(overallTransactionCount.get())
+                .isEqualTo(THREAD_COUNT * TRANSACTIONS_PER_THREAD);
+        assertThat(transactionCount.get()).isEqualTo(THREAD_COUNT * TRANSACTIONS_PER_THREAD);
+        assertThat(transactionNames).hasSize(10);
+        assertThat(transactionProcessor.getOrderedIntervalCollectorsInRange(0, Long.MAX_VALUE))
+                .isEmpty();
+
+        transactionProcessor.close();
+    }
+
+    @Test
+    public void shouldPublishLiveDataFromMultipleProcessingThreads() throws Exception {
+        // given
+        Collector collector = mock(Collector.class);
+        ConfigService configService = mock(ConfigService.class);
+        when(configService.getAdvancedConfig())
+                .thenReturn(ImmutableAdvancedConfig.builder().build());
+        TraceCollector traceCollector = mock(TraceCollector.class);
+        Clock clock = mock(Clock.class);
+        when(clock.currentTimeMillis()).thenReturn(30000L);
+        TransactionProcessor transactionProcessor = new TransactionProcessor(collector,
+                traceCollector, configService, 60000, clock, 4, 2);
+
+        // when
+        for (int i = 0; i < TRANSACTIONS_PER_THREAD; i++) {
+            transactionProcessor.processOnCompletion(mockTransaction("/" + (i % 10)));
+        }
+
+        // then
+        long transactionCount = 0;
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        while (stopwatch.elapsed(SECONDS) < 10) {
+            OverallSummaryCollector summaryCollector = new OverallSummaryCollector();
+            for (AggregateIntervalCollector intervalCollector : transactionProcessor
+                    .getOrderedIntervalCollectorsInRange(0, Long.MAX_VALUE)) {
+                intervalCollector.mergeOverallSummaryInto(summaryCollector, "Web");
+            }
+            transactionCount = summaryCollector.getOverallSummary().transactionCount();
+            if (transactionCount == TRANSACTIONS_PER_THREAD) {
+                break;
+            }
+            MILLISECONDS.sleep(10);
+        }
+        assertThat(transactionCount).isEqualTo(TRANSACTIONS_PER_THREAD);
+
+        transactionProcessor.close();
+    }
+
+    @Test
+    public void shouldFlushIdleInterval() throws Exception {
+        // given
+        Collector collector = mock(Collector.class);
+        ConfigService configService = mock(ConfigService.class);
+        when(configService.getAdvancedConfig())
+                .thenReturn(ImmutableAdvancedConfig.builder().build());
+        TraceCollector traceCollector = mock(TraceCollector.class);
+        Clock clock = mock(Clock.class);
+        when(clock.currentTimeMillis()).thenReturn(30000L);
+        TransactionProcessor transactionProcessor = new TransactionProcessor(collector,
+                traceCollector, configService, 60000, clock, 4, 2);
+        transactionProcessor.processOnCompletion(mockTransaction("/abc"));
+        when(clock.currentTimeMillis()).thenReturn(90000L);
+        ArgumentCaptor<AggregateReader> captor = ArgumentCaptor.forClass(AggregateReader.class);
+        verify(collector, timeout(10000)).collectAggregates(captor.capture());
+
+        // when
+        when(clock.currentTimeMillis()).thenReturn(150000L);
+
+        // then
+        verify(collector, timeout(10000).times(2)).collectAggregates(captor.capture());
+        List<AggregateReader> aggregateReaders = captor.getAllValues();
+        assertThat(aggregateReaders.get(0).captureTime()).isEqualTo(60000);
+        AggregateReader aggregateReader = aggregateReaders.get(aggregateReaders.size() - 1);
+        assertThat(aggregateReader.captureTime()).isEqualTo(120000);
+        final AtomicLong overallTransactionCount = new AtomicLong();
+        aggregateReader.accept(new AggregateVisitor() {
+            @Override
+            public void visitOverallAggregate(String transactionType,
+                    List<String> sharedQueryTexts, Aggregate overallAggregate) {
+                overallTransactionCount.addAndGet(overallAggregate.getTransactionCount());
+            }
+            @Override
+            public void visitTransactionAggregate(String transactionType,
+                    String transactionName, List<String> sharedQueryTexts,
+                    Aggregate transactionAggregate) {}
+        });
+        assertThat(overallTransactionCount.get()).isZero();
+
+        transactionProcessor.close();
+    }
+
+    private static Transaction mockTransaction(String transactionName) {
+        Transaction transaction = mock(Transaction.class);
+        when(transaction.getTransactionType()).thenReturn("Web");
+        when(transaction.getTransactionName()).thenReturn(transactionName);
+        when(transaction.getMainThreadStats()).thenReturn(ThreadStats.NA);
+        TimerImpl rootTimer = mock(TimerImpl.class);
+        when(rootTimer.getName()).thenReturn("http request");
+        when(transaction.getMainThreadRootTimer()).thenReturn(rootTimer);
+        return transaction;
+    }
+}
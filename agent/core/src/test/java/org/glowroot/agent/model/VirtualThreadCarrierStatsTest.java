@@ -0,0 +1,126 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.model;
+
+import java.util.Map;
+
+import com.google.common.collect.Maps;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.junit.jupiter.api.Test;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class VirtualThreadCarrierStatsTest {
+
+    private final Thread carrier1 = new Thread();
+    private final Thread carrier2 = new Thread();
+
+    @Test
+    public void shouldOnlyCountCarrierCpuWhileMounted() {
+        // given
+        FakeVirtualThreadCarrierStats stats = new FakeVirtualThreadCarrierStats();
+        stats.cpuNanos.put(carrier1, 100L);
+        stats.onMounted(carrier1, 0);
+        stats.cpuNanos.put(carrier1, 150L);
+        stats.onUnmounting(carrier1, MILLISECONDS.toNanos(10));
+        // carrier cpu while unmounted belongs to other virtual threads
+        stats.cpuNanos.put(carrier1, 500L);
+        stats.cpuNanos.put(carrier2, 1000L);
+        // when
+        stats.onMounted(carrier2, MILLISECONDS.toNanos(30));
+        stats.cpuNanos.put(carrier2, 1100L);
+        // then
+        assertThat(stats.getCpuNanos()).isEqualTo(150);
+        stats.onUnmounting(carrier2, MILLISECONDS.toNanos(40));
+        stats.cpuNanos.put(carrier2, 2000L);
+        assertThat(stats.getCpuNanos()).isEqualTo(150);
+    }
+
+    @Test
+    public void shouldCountUnmountedTimeAsWaited() {
+        // given
+        FakeVirtualThreadCarrierStats stats = new FakeVirtualThreadCarrierStats();
+        stats.onMounted(carrier1, 0);
+        stats.onUnmounting(carrier1, MILLISECONDS.toNanos(10));
+        // when
+        stats.onMounted(carrier2, MILLISECONDS.toNanos(30));
+        // then
+        assertThat(stats.getWaitedMillis()).isEqualTo(20);
+    }
+
+    @Test
+    public void shouldCountUnmountedTimeAsWaitedThroughHooks() throws Exception {
+        // given
+        Thread virtualThread = new Thread();
+        FakeVirtualThreadCarrierStats stats = new FakeVirtualThreadCarrierStats(virtualThread);
+        stats.register(virtualThread, carrier1);
+        try {
+            VirtualThreadCarrierStats.unmounting(virtualThread, carrier1);
+            MILLISECONDS.sleep(50);
+            // when
+            VirtualThreadCarrierStats.mounted(virtualThread, carrier2);
+            // then
+            assertThat(stats.getWaitedMillis()).isGreaterThanOrEqualTo(50);
+        } finally {
+            stats.unregister();
+        }
+    }
+
+    @Test
+    public void shouldReturnNotAvailableOnceCarrierCpuIsNotAvailable() {
+        // given
+        FakeVirtualThreadCarrierStats stats = new FakeVirtualThreadCarrierStats();
+        stats.cpuNanos.put(carrier1, 100L);
+        stats.onMounted(carrier1, 0);
+        stats.cpuNanos.put(carrier1, -1L);
+        stats.onUnmounting(carrier1, MILLISECONDS.toNanos(10));
+        stats.cpuNanos.put(carrier2, 1000L);
+        // when
+        stats.onMounted(carrier2, MILLISECONDS.toNanos(30));
+        // then
+        assertThat(stats.getCpuNanos()).isEqualTo(-1);
+    }
+
+    @Test
+    public void shouldReturnNotAvailableAllocatedBytes() {
+        // given
+        FakeVirtualThreadCarrierStats stats = new FakeVirtualThreadCarrierStats();
+        // when
+        stats.onMounted(carrier1, 0);
+        // then
+        assertThat(stats.getAllocatedBytes()).isEqualTo(-1);
+    }
+
+    private static class FakeVirtualThreadCarrierStats extends VirtualThreadCarrierStats {
+
+        private final Map<Thread, Long> cpuNanos = Maps.newHashMap();
+
+        private FakeVirtualThreadCarrierStats() {
+            this(null);
+        }
+
+        private FakeVirtualThreadCarrierStats(@Nullable Thread virtualThread) {
+            super(virtualThread, null);
+        }
+
+        @Override
+        long getCarrierCpuNanos(Thread carrierThread) {
+            Long value = cpuNanos.get(carrierThread);
+            return value == null ? 0 : value;
+        }
+    }
+}
@@ -40,4 +40,15 @@ public class JavaVersionTest {
         assertThat(JavaVersion.parseIsJava6("1.7.0")).isFalse();
         assertThat(JavaVersion.parseIsJava6("1.8.0")).isFalse();
     }
+
+    @Test
+    public void testMajorVersion() {
+        assertThat(JavaVersion.parseMajorVersion(null)).isEqualTo(0);
+        assertThat(JavaVersion.parseMajorVersion("1.6.0_45")).isEqualTo(6);
+        assertThat(JavaVersion.parseMajorVersion("1.8.0_292")).isEqualTo(8);
+        assertThat(JavaVersion.parseMajorVersion("9")).isEqualTo(9);
+        assertThat(JavaVersion.parseMajorVersion("17.0.9")).isEqualTo(17);
+        assertThat(JavaVersion.parseMajorVersion("21-ea")).isEqualTo(21);
+        assertThat(JavaVersion.parseMajorVersion("25")).isEqualTo(25);
+    }
 }
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.weaving;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import org.glowroot.agent.weaving.SomeAspect.AnotherAnnotationBasedAdvice;
+import org.glowroot.agent.weaving.SomeAspect.BasicAdvice;
+import org.glowroot.agent.weaving.SomeAspect.BasicAnnotationBasedAdvice;
+import org.glowroot.agent.weaving.SomeAspect.ClassNamePatternAdvice;
+import org.glowroot.agent.weaving.SomeAspect.SuperBasicAdvice;
+import org.glowroot.agent.weaving.SomeAspect.SuperTypeRestrictionAdvice;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AdviceIndexTest {
+
+    private static Advice basicAdvice;
+    private static Advice superBasicAdvice;
+    private static Advice basicAnnotationBasedAdvice;
+    private static Advice anotherAnnotationBasedAdvice;
+    private static List<Advice> advisors;
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        basicAdvice = newAdvice(BasicAdvice.class);
+        superBasicAdvice = newAdvice(SuperBasicAdvice.class);
+        basicAnnotationBasedAdvice = newAdvice(BasicAnnotationBasedAdvice.class);
+        anotherAnnotationBasedAdvice = newAdvice(AnotherAnnotationBasedAdvice.class);
+        advisors = ImmutableList.of(basicAdvice, superBasicAdvice, basicAnnotationBasedAdvice,
+                anotherAnnotationBasedAdvice);
+    }
+
+    @Test
+    public void shouldRejectUnrelatedClass() {
+        // when
+        List<Advice> candidates = AdviceIndex.get(advisors).getCandidates("com.example.Foo",
+                ImmutableList.<String>of(), ImmutableList.of("java.lang.Object"));
+        // then
+        assertThat(candidates).isEmpty();
+    }
+
+    @Test
+    public void shouldMatchClassName() {
+        // when
+        List<Advice> candidates = AdviceIndex.get(advisors).getCandidates(
+                "org.glowroot.agent.weaving.targets.Misc", ImmutableList.<String>of(),
+                ImmutableList.<String>of());
+        // then
+        assertThat(candidates).containsExactly(basicAdvice);
+    }
+
+    @Test
+    public void shouldMatchClassAnnotation() {
+        // when
+        List<Advice> candidates = AdviceIndex.get(advisors).getCandidates("com.example.Foo",
+                ImmutableList.of("Lorg/glowroot/agent/weaving/SomeAspect$SomeClass;"),
+                ImmutableList.<String>of());
+        // then
+        assertThat(candidates).containsExactly(basicAnnotationBasedAdvice);
+    }
+
+    @Test
+    public void shouldMatchSuperTypeInOriginalOrder() {
+        // when
+        List<Advice> candidates = AdviceIndex.get(advisors).getCandidates(
+                "org.glowroot.agent.weaving.targets.Misc", ImmutableList.<String>of(),
+                ImmutableList.of("org.glowroot.agent.weaving.targets.SuperBasicMisc"));
+        // then
+        assertThat(candidates).containsExactly(basicAdvice, anotherAnnotationBasedAdvice);
+    }
+
+    @Test
+    public void shouldMatchClassNamePrefix() throws Exception {
+        // given
+        Advice advice = newAdvice(ClassNamePatternAdvice.class);
+        List<Advice> advisors = ImmutableList.of(advice);
+        // when
+        List<Advice> candidates = AdviceIndex.get(advisors).getCandidates(
+                "org.glowroot.agent.weaving.targets.MiscImpl", ImmutableList.<String>of(),
+                ImmutableList.<String>of());
+        List<Advice> otherCandidates = AdviceIndex.get(advisors).getCandidates(
+                "org.glowroot.agent.weaving.targets.BasicMisc", ImmutableList.<String>of(),
+                ImmutableList.<String>of());
+        // then
+        assertThat(candidates).containsExactly(advice);
+        assertThat(otherCandidates).isEmpty();
+    }
+
+    @Test
+    public void shouldFallBackToSuperTypeForLeadingWildcard() throws Exception {
+        // given
+        Advice advice = newAdvice(SuperTypeRestrictionAdvice.class);
+        List<Advice> advisors = ImmutableList.of(basicAdvice, advice);
+        // when
+        List<Advice> candidates = AdviceIndex.get(advisors).getCandidates(
+                "com.example.BasicMisc", ImmutableList.<String>of(),
+                ImmutableList.of("org.glowroot.agent.weaving.targets.Misc"));
+        List<Advice> otherCandidates = AdviceIndex.get(advisors).getCandidates(
+                "com.example.BasicMisc", ImmutableList.<String>of(),
+                ImmutableList.<String>of());
+        // then
+        assertThat(candidates).containsExactly(advice);
+        assertThat(otherCandidates).isEmpty();
+    }
+
+    private static Advice newAdvice(Class<?> adviceClass) throws Exception {
+        return new AdviceBuilder(PluginDetailBuilder.buildAdviceClass(adviceClass)).build();
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.weaving;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ClassLoaderMapTest {
+
+    @Test
+    public void shouldKeepFirstValue() {
+        // given
+        ClassLoaderMap<String> map = new ClassLoaderMap<String>();
+        ClassLoader loader = new URLClassLoader(new URL[0]);
+        // when
+        String first = map.putIfAbsent(loader, "a");
+        String second = map.putIfAbsent(loader, "b");
+        // then
+        assertThat(first).isEqualTo("a");
+        assertThat(second).isEqualTo("a");
+        assertThat(map.get(loader)).isEqualTo("a");
+        assertThat(map.keys()).containsExactly(loader);
+        assertThat(map.values()).containsExactly("a");
+    }
+
+    @Test
+    public void shouldUseIdentityOfClassLoader() {
+        // given
+        ClassLoaderMap<String> map = new ClassLoaderMap<String>();
+        ClassLoader loader1 = new URLClassLoader(new URL[0]);
+        ClassLoader loader2 = new URLClassLoader(new URL[0]);
+        // when
+        map.putIfAbsent(loader1, "a");
+        map.putIfAbsent(loader2, "b");
+        // then
+        assertThat(map.get(loader1)).isEqualTo("a");
+        assertThat(map.get(loader2)).isEqualTo("b");
+        assertThat(map.get(new URLClassLoader(new URL[0]))).isNull();
+        assertThat(map.keys()).containsOnly(loader1, loader2);
+    }
+}
@@ -63,6 +63,7 @@ import org.glowroot.common2.repo.ActiveAgentRepository;
 import org.glowroot.common2.repo.ImmutableAgentRollup;
 import org.glowroot.common2.repo.ImmutableTopLevelAgentRollup;
 import org.glowroot.ui.CreateUiModuleBuilder;
+import org.glowroot.ui.HttpHandlerMetricsMXBean;
 import org.glowroot.ui.SessionMapFactory;
 import org.glowroot.ui.UiModule;
 import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig;
@@ -264,8 +265,17 @@ class EmbeddedAgentModule {
                     })
                     .httpClient(simpleRepoModule.getHttpClient())
                     .numWorkerThreads(2)
+                    .numHandlerThreads(10)
+                    .maxConcurrentExpensiveRequests(2)
                     .version(version)
                     .build();
+            HttpHandlerMetricsMXBean httpHandlerMetrics = uiModule.getHttpHandlerMetrics();
+            if (httpHandlerMetrics != null) {
+                agentModule.getLazyPlatformMBeanServer().lazyRegisterMBean(httpHandlerMetrics,
+                        "org.glowroot:type=HttpHandler");
+            }
+            agentModule.getLazyPlatformMBeanServer().lazyRegisterMBean(
+                    uiModule.getAggregateCacheMetrics(), "org.glowroot:type=AggregateCache");
         } else {
             checkNotNull(offlineViewerAgentModule);
             uiModule = new CreateUiModuleBuilder()
@@ -305,6 +315,8 @@ class EmbeddedAgentModule {
                     })
                     .httpClient(simpleRepoModule.getHttpClient())
                     .numWorkerThreads(10)
+                    .numHandlerThreads(10)
+                    .maxConcurrentExpensiveRequests(2)
                     .version(version)
                     .build();
         }
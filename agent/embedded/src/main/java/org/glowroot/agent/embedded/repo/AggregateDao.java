@@ -37,6 +37,8 @@ import org.immutables.value.Value;
 import org.glowroot.agent.collector.Collector.AggregateReader;
 import org.glowroot.agent.collector.Collector.AggregateVisitor;
 import org.glowroot.agent.embedded.repo.proto.Stored;
+import org.glowroot.agent.embedded.util.BucketedTable;
+import org.glowroot.agent.embedded.util.BucketedTable.BucketWriter;
 import org.glowroot.agent.embedded.util.CappedDatabase;
 import org.glowroot.agent.embedded.util.DataSource;
 import org.glowroot.agent.embedded.util.DataSource.JdbcQuery;
@@ -67,6 +69,7 @@ import org.glowroot.common.model.TransactionNameErrorSummaryCollector;
 import org.glowroot.common.model.TransactionNameErrorSummaryCollector.ErrorSummarySortOrder;
 import org.glowroot.common.model.TransactionNameSummaryCollector;
 import org.glowroot.common.model.TransactionNameSummaryCollector.SummarySortOrder;
+import org.glowroot.common.util.Clock;
 import org.glowroot.common.util.NotAvailableAware;
 import org.glowroot.common.util.Styles;
 import org.glowroot.common2.repo.AggregateRepository;
@@ -159,13 +162,16 @@ public class AggregateDao implements AggregateRepository {
     private final TransactionTypeDao transactionTypeDao;
     private final FullQueryTextDao fullQueryTextDao;
 
+    private final ImmutableList<BucketedTable> overallTables;
+    private final ImmutableList<BucketedTable> transactionTables;
+
     private final AtomicLongArray lastRollupTimes;
 
     private final Object rollupLock = new Object();
 
     AggregateDao(DataSource dataSource, List<CappedDatabase> rollupCappedDatabases,
             ConfigRepositoryImpl configRepository, TransactionTypeDao transactionTypeDao,
-            FullQueryTextDao fullQueryTextDao) throws Exception {
+            FullQueryTextDao fullQueryTextDao, Clock clock) throws Exception {
         this.dataSource = dataSource;
         this.rollupCappedDatabases = rollupCappedDatabases;
         this.configRepository = configRepository;
@@ -173,16 +179,27 @@ public class AggregateDao implements AggregateRepository {
         this.fullQueryTextDao = fullQueryTextDao;
 
         List<RollupConfig> rollupConfigs = configRepository.getRollupConfigs();
+        long currentTime = clock.currentTimeMillis();
+        List<BucketedTable> overallTables = Lists.newArrayList();
+        List<BucketedTable> transactionTables = Lists.newArrayList();
         for (int i = 0; i < rollupConfigs.size(); i++) {
+            long bucketMillis =
+                    BucketedTable.getBucketMillis(rollupConfigs.get(i).intervalMillis());
             String overallTableName = "aggregate_tt_rollup_" + castUntainted(i);
-            dataSource.syncTable(overallTableName, overallAggregatePointColumns);
-            dataSource.syncIndexes(overallTableName, ImmutableList.<Index>of(
-                    ImmutableIndex.of(overallTableName + "_idx", overallAggregateIndexColumns)));
+            overallTables.add(new BucketedTable(dataSource, overallTableName,
+                    overallAggregatePointColumns,
+                    ImmutableList.<Index>of(ImmutableIndex.of(overallTableName + "_idx",
+                            overallAggregateIndexColumns)),
+                    bucketMillis, currentTime));
             String transactionTableName = "aggregate_tn_rollup_" + castUntainted(i);
-            dataSource.syncTable(transactionTableName, transactionAggregateColumns);
-            dataSource.syncIndexes(transactionTableName, ImmutableList.<Index>of(ImmutableIndex
-                    .of(transactionTableName + "_idx", transactionAggregateIndexColumns)));
+            transactionTables.add(new BucketedTable(dataSource, transactionTableName,
+                    transactionAggregateColumns,
+                    ImmutableList.<Index>of(ImmutableIndex.of(transactionTableName + "_idx",
+                            transactionAggregateIndexColumns)),
+                    bucketMillis, currentTime));
         }
+        this.overallTables = ImmutableList.copyOf(overallTables);
+        this.transactionTables = ImmutableList.copyOf(transactionTables);
 
         // don't need last_rollup_times table like in GaugeValueDao since there is already index
         // on capture_time so these queries are relatively fast
@@ -197,7 +214,38 @@ public class AggregateDao implements AggregateRepository {
         // TODO initial rollup in case store is not called in a reasonable time
     }
 
-    public void store(AggregateReader aggregateReader) throws Exception {
+    public void store(final AggregateReader aggregateReader) throws Exception {
+        final long captureTime = aggregateReader.captureTime();
+        // the bucket tables are held (not dropped) until the aggregates are written
+        overallTables.get(0).write(captureTime, new BucketWriter() {
+            @Override
+            public void write(final @Untainted String overallTableName) throws Exception {
+                transactionTables.get(0).write(captureTime, new BucketWriter() {
+                    @Override
+                    public void write(@Untainted String transactionTableName)
+                            throws Exception {
+                        store(aggregateReader, overallTableName, transactionTableName);
+                    }
+                });
+            }
+        });
+        synchronized (rollupLock) {
+            List<RollupConfig> rollupConfigs = configRepository.getRollupConfigs();
+            for (int i = 1; i < rollupConfigs.size(); i++) {
+                RollupConfig rollupConfig = rollupConfigs.get(i);
+                long safeRollupTime = RollupLevelService.getSafeRollupTime(captureTime,
+                        rollupConfig.intervalMillis());
+                long lastRollupTime = lastRollupTimes.get(i);
+                if (safeRollupTime > lastRollupTime) {
+                    rollup(lastRollupTime, safeRollupTime, rollupConfig.intervalMillis(), i, i - 1);
+                    lastRollupTimes.set(i, safeRollupTime);
+                }
+            }
+        }
+    }
+
+    private void store(AggregateReader aggregateReader, final @Untainted String overallTableName,
+            final @Untainted String transactionTableName) throws Exception {
         final long captureTime = aggregateReader.captureTime();
         // intentionally not using batch update as that could cause memory spike while preparing a
         // large batch
@@ -208,8 +256,8 @@ public class AggregateDao implements AggregateRepository {
             public void visitOverallAggregate(String transactionType, List<String> sharedQueryTexts,
                     Aggregate overallAggregate) throws Exception {
                 addToTruncatedQueryTexts(sharedQueryTexts);
-                dataSource.update(new AggregateInsert(transactionType, null, captureTime,
-                        overallAggregate, truncatedQueryTexts, 0, cappedDatabase));
+                dataSource.update(new AggregateInsert(overallTableName, transactionType, null,
+                        captureTime, overallAggregate, truncatedQueryTexts, cappedDatabase));
                 transactionTypeDao.updateLastCaptureTime(transactionType, captureTime);
             }
             @Override
@@ -217,8 +265,9 @@ public class AggregateDao implements AggregateRepository {
                     List<String> sharedQueryTexts, Aggregate transactionAggregate)
                     throws Exception {
                 addToTruncatedQueryTexts(sharedQueryTexts);
-                dataSource.update(new AggregateInsert(transactionType, transactionName, captureTime,
-                        transactionAggregate, truncatedQueryTexts, 0, cappedDatabase));
+                dataSource.update(new AggregateInsert(transactionTableName, transactionType,
+                        transactionName, captureTime, transactionAggregate, truncatedQueryTexts,
+                        cappedDatabase));
             }
             private void addToTruncatedQueryTexts(List<String> sharedQueryTexts)
                     throws SQLException {
@@ -239,19 +288,6 @@ public class AggregateDao implements AggregateRepository {
                 }
             }
         });
-        synchronized (rollupLock) {
-            List<RollupConfig> rollupConfigs = configRepository.getRollupConfigs();
-            for (int i = 1; i < rollupConfigs.size(); i++) {
-                RollupConfig rollupConfig = rollupConfigs.get(i);
-                long safeRollupTime = RollupLevelService.getSafeRollupTime(captureTime,
-                        rollupConfig.intervalMillis());
-                long lastRollupTime = lastRollupTimes.get(i);
-                if (safeRollupTime > lastRollupTime) {
-                    rollup(lastRollupTime, safeRollupTime, rollupConfig.intervalMillis(), i, i - 1);
-                    lastRollupTimes.set(i, safeRollupTime);
-                }
-            }
-        }
     }
 
     // query.from() is non-inclusive
@@ -475,19 +511,32 @@ public class AggregateDao implements AggregateRepository {
     }
 
     void deleteBefore(long captureTime, int rollupLevel) throws SQLException {
-        dataSource.deleteBefore("aggregate_tt_rollup_" + castUntainted(rollupLevel), captureTime);
-        dataSource.deleteBefore("aggregate_tn_rollup_" + castUntainted(rollupLevel), captureTime);
+        overallTables.get(rollupLevel).deleteBefore(captureTime);
+        transactionTables.get(rollupLevel).deleteBefore(captureTime);
     }
 
-    private void rollup(long lastRollupTime, long curentRollupTime, long fixedIntervalMillis,
-            int toRollupLevel, int fromRollupLevel) throws Exception {
+    private void rollup(long lastRollupTime, long curentRollupTime,
+            final long fixedIntervalMillis, final int toRollupLevel, final int fromRollupLevel)
+            throws Exception {
         List<Long> rollupTimes = dataSource.query(new RollupTimeRowMapper(fromRollupLevel,
                 fixedIntervalMillis, lastRollupTime, curentRollupTime));
-        for (Long rollupTime : rollupTimes) {
-            dataSource.query(new RollupOverallAggregates(rollupTime, fixedIntervalMillis,
-                    fromRollupLevel, toRollupLevel));
-            dataSource.query(new RollupTransactionAggregates(rollupTime, fixedIntervalMillis,
-                    fromRollupLevel, toRollupLevel));
+        for (final Long rollupTime : rollupTimes) {
+            // the bucket tables are resolved outside of (not inside of) the queries since they may
+            // need to create the bucket table
+            overallTables.get(toRollupLevel).write(rollupTime, new BucketWriter() {
+                @Override
+                public void write(@Untainted String bucketTableName) throws Exception {
+                    dataSource.query(new RollupOverallAggregates(bucketTableName, rollupTime,
+                            fixedIntervalMillis, fromRollupLevel, toRollupLevel));
+                }
+            });
+            transactionTables.get(toRollupLevel).write(rollupTime, new BucketWriter() {
+                @Override
+                public void write(@Untainted String bucketTableName) throws Exception {
+                    dataSource.query(new RollupTransactionAggregates(bucketTableName, rollupTime,
+                            fixedIntervalMillis, fromRollupLevel, toRollupLevel));
+                }
+            });
         }
     }
 
@@ -1095,14 +1144,17 @@ public class AggregateDao implements AggregateRepository {
 
     private class RollupOverallAggregates implements JdbcQuery</*@Nullable*/ Void> {
 
+        private final @Untainted String toTableName;
         private final long rollupCaptureTime;
         private final long fixedIntervalMillis;
         private final int fromRollupLevel;
         private final int toRollupLevel;
         private final ScratchBuffer scratchBuffer = new ScratchBuffer();
 
-        private RollupOverallAggregates(long rollupCaptureTime, long fixedIntervalMillis,
-                int fromRollupLevel, int toRollupLevel) {
+        private RollupOverallAggregates(@Untainted String toTableName,
+                long rollupCaptureTime, long fixedIntervalMillis, int fromRollupLevel,
+                int toRollupLevel) {
+            this.toTableName = toTableName;
             this.rollupCaptureTime = rollupCaptureTime;
             this.fixedIntervalMillis = fixedIntervalMillis;
             this.fromRollupLevel = fromRollupLevel;
@@ -1140,8 +1192,8 @@ public class AggregateDao implements AggregateRepository {
                 String transactionType = checkNotNull(resultSet.getString(1));
                 if (curr == null || !transactionType.equals(curr.transactionType())) {
                     if (curr != null) {
-                        dataSource.update(new AggregateInsert(curr.transactionType(), null,
-                                rollupCaptureTime, curr.aggregate(), toRollupLevel,
+                        dataSource.update(new AggregateInsert(toTableName,
+                                curr.transactionType(), null, rollupCaptureTime, curr.aggregate(),
                                 cappedDatabase, scratchBuffer));
                     }
                     curr = ImmutableMutableOverallAggregate.of(transactionType,
@@ -1150,9 +1202,8 @@ public class AggregateDao implements AggregateRepository {
                 merge(curr.aggregate(), resultSet, 2, fromRollupLevel);
             }
             if (curr != null) {
-                dataSource.update(new AggregateInsert(curr.transactionType(), null,
-                        rollupCaptureTime, curr.aggregate(), toRollupLevel, cappedDatabase,
-                        scratchBuffer));
+                dataSource.update(new AggregateInsert(toTableName, curr.transactionType(), null,
+                        rollupCaptureTime, curr.aggregate(), cappedDatabase, scratchBuffer));
             }
             return null;
         }
@@ -1165,13 +1216,16 @@ public class AggregateDao implements AggregateRepository {
 
     private class RollupTransactionAggregates implements JdbcQuery</*@Nullable*/ Void> {
 
+        private final @Untainted String toTableName;
         private final long rollupCaptureTime;
         private final long fixedIntervalMillis;
         private final int fromRollupLevel;
         private final int toRollupLevel;
 
-        private RollupTransactionAggregates(long rollupCaptureTime, long fixedIntervalMillis,
-                int fromRollupLevel, int toRollupLevel) {
+        private RollupTransactionAggregates(@Untainted String toTableName,
+                long rollupCaptureTime, long fixedIntervalMillis, int fromRollupLevel,
+                int toRollupLevel) {
+            this.toTableName = toTableName;
             this.rollupCaptureTime = rollupCaptureTime;
             this.fixedIntervalMillis = fixedIntervalMillis;
             this.fromRollupLevel = fromRollupLevel;
@@ -1214,9 +1268,9 @@ public class AggregateDao implements AggregateRepository {
                 if (curr == null || !transactionType.equals(curr.transactionType())
                         || !transactionName.equals(curr.transactionName())) {
                     if (curr != null) {
-                        dataSource.update(new AggregateInsert(curr.transactionType(),
-                                curr.transactionName(), rollupCaptureTime, curr.aggregate(),
-                                toRollupLevel, cappedDatabase, scratchBuffer));
+                        dataSource.update(new AggregateInsert(toTableName,
+                                curr.transactionType(), curr.transactionName(), rollupCaptureTime,
+                                curr.aggregate(), cappedDatabase, scratchBuffer));
                     }
                     curr = ImmutableMutableTransactionAggregate.of(transactionType, transactionName,
                             new MutableAggregate(maxQueryAggregates, maxServiceCallAggregates));
@@ -1224,8 +1278,8 @@ public class AggregateDao implements AggregateRepository {
                 merge(curr.aggregate(), resultSet, i++, fromRollupLevel);
             }
             if (curr != null) {
-                dataSource.update(new AggregateInsert(curr.transactionType(),
-                        curr.transactionName(), rollupCaptureTime, curr.aggregate(), toRollupLevel,
+                dataSource.update(new AggregateInsert(toTableName, curr.transactionType(),
+                        curr.transactionName(), rollupCaptureTime, curr.aggregate(),
                         cappedDatabase, scratchBuffer));
             }
             return null;
@@ -51,6 +51,7 @@ import static org.glowroot.agent.util.Checkers.castUntainted;
 
 class AggregateInsert implements JdbcUpdate {
 
+    private final @Untainted String tableName;
     private final String transactionType;
     private final @Nullable String transactionName;
     private final long captureTime;
@@ -75,15 +76,13 @@ class AggregateInsert implements JdbcUpdate {
     private final byte /*@Nullable*/ [] asyncTimers;
     private final byte[] durationNanosHistogramBytes;
 
-    private final int rollupLevel;
-
-    AggregateInsert(String transactionType, @Nullable String transactionName,
-            long captureTime, Aggregate aggregate, List<TruncatedQueryText> truncatedQueryTexts,
-            int rollupLevel, CappedDatabase cappedDatabase) throws IOException {
+    AggregateInsert(@Untainted String tableName, String transactionType,
+            @Nullable String transactionName, long captureTime, Aggregate aggregate,
+            List<TruncatedQueryText> truncatedQueryTexts, CappedDatabase cappedDatabase) throws IOException {
+        this.tableName = tableName;
         this.transactionType = transactionType;
         this.transactionName = transactionName;
         this.captureTime = captureTime;
-        this.rollupLevel = rollupLevel;
         totalDurationNanos = aggregate.getTotalDurationNanos();
         transactionCount = aggregate.getTransactionCount();
         errorCount = aggregate.getErrorCount();
@@ -131,13 +130,13 @@ class AggregateInsert implements JdbcUpdate {
         durationNanosHistogramBytes = aggregate.getDurationNanosHistogram().toByteArray();
     }
 
-    AggregateInsert(String transactionType, @Nullable String transactionName,
-            long captureTime, MutableAggregate aggregate, int rollupLevel,
+    AggregateInsert(@Untainted String tableName, String transactionType,
+            @Nullable String transactionName, long captureTime, MutableAggregate aggregate,
             CappedDatabase cappedDatabase, ScratchBuffer scratchBuffer) throws IOException {
+        this.tableName = tableName;
         this.transactionType = transactionType;
         this.transactionName = transactionName;
         this.captureTime = captureTime;
-        this.rollupLevel = rollupLevel;
         totalDurationNanos = aggregate.getTotalDurationNanos();
         transactionCount = aggregate.getTransactionCount();
         errorCount = aggregate.getErrorCount();
@@ -180,14 +179,8 @@ class AggregateInsert implements JdbcUpdate {
     @Override
     public @Untainted String getSql() {
         StringBuilder sb = new StringBuilder();
-        sb.append("merge into aggregate_");
-        if (transactionName != null) {
-            sb.append("tn_");
-        } else {
-            sb.append("tt_");
-        }
-        sb.append("rollup_");
-        sb.append(castUntainted(rollupLevel));
+        sb.append("merge into ");
+        sb.append(tableName);
         sb.append(" (transaction_type,");
         if (transactionName != null) {
             sb.append(" transaction_name,");
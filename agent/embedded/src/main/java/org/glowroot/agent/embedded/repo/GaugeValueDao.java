@@ -32,6 +32,8 @@ import com.google.common.collect.Maps;
 import com.google.common.primitives.Longs;
 import org.checkerframework.checker.tainting.qual.Untainted;
 
+import org.glowroot.agent.embedded.util.BucketedTable;
+import org.glowroot.agent.embedded.util.BucketedTable.BucketWriter;
 import org.glowroot.agent.embedded.util.DataSource;
 import org.glowroot.agent.embedded.util.DataSource.JdbcQuery;
 import org.glowroot.agent.embedded.util.DataSource.JdbcRowQuery;
@@ -68,6 +70,7 @@ public class GaugeValueDao implements GaugeValueRepository {
     private final DataSource dataSource;
     private final Clock clock;
     private final ImmutableList<RollupConfig> rollupConfigs;
+    private final ImmutableList<BucketedTable> tables;
 
     // AtomicLongArray used for visibility
     private final AtomicLongArray lastRollupTimes;
@@ -82,9 +85,14 @@ public class GaugeValueDao implements GaugeValueRepository {
         this.clock = clock;
         this.rollupConfigs = ImmutableList.copyOf(RollupConfig.buildRollupConfigs());
 
+        long currentTime = clock.currentTimeMillis();
+        List<BucketedTable> tables = Lists.newArrayList();
         for (int i = 0; i <= rollupConfigs.size(); i++) {
-            dataSource.syncTable("gauge_value_rollup_" + castUntainted(i), columns);
-            dataSource.syncIndexes("gauge_value_rollup_" + castUntainted(i),
+            // gauge values at rollup level 0 have the same expiration as rollup level 1
+            long bucketMillis = BucketedTable
+                    .getBucketMillis(rollupConfigs.get(Math.max(0, i - 1)).intervalMillis());
+            tables.add(new BucketedTable(dataSource, "gauge_value_rollup_" + castUntainted(i),
+                    columns,
                     ImmutableList.<Index>of(
                             ImmutableIndex.of(
                                     "gauge_value_rollup_" + castUntainted(i) + "_idx",
@@ -95,8 +103,10 @@ public class GaugeValueDao implements GaugeValueRepository {
                                     "gauge_value_rollup_" + castUntainted(i)
                                             + "_by_capture_time_idx",
                                     ImmutableList.of("capture_time", "gauge_id", "value",
-                                            "weight"))));
+                                            "weight"))),
+                    bucketMillis, currentTime));
         }
+        this.tables = ImmutableList.copyOf(tables);
         List<Column> columns = Lists.newArrayList();
         for (int i = 1; i <= rollupConfigs.size(); i++) {
             columns.add(ImmutableColumn.of("last_rollup_" + i + "_time", ColumnType.BIGINT));
@@ -142,7 +152,27 @@ public class GaugeValueDao implements GaugeValueRepository {
             gaugeNameDao.insert(gaugeValue.getCaptureTime(), gaugeValue.getGaugeName());
             gaugeValueIdMap.put(gaugeValue, gaugeId);
         }
-        dataSource.batchUpdate(new GaugeValuesBinder(gaugeValueIdMap));
+        // gauge values from a single collection normally share the same bucket table
+        Map<Long, Map<GaugeValue, Long>> gaugeValueIdMaps = Maps.newHashMap();
+        BucketedTable table = tables.get(0);
+        for (Map.Entry<GaugeValue, Long> entry : gaugeValueIdMap.entrySet()) {
+            long bucketEnd = table.getBucketEnd(entry.getKey().getCaptureTime());
+            Map<GaugeValue, Long> map = gaugeValueIdMaps.get(bucketEnd);
+            if (map == null) {
+                map = Maps.newLinkedHashMap();
+                gaugeValueIdMaps.put(bucketEnd, map);
+            }
+            map.put(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<Long, Map<GaugeValue, Long>> entry : gaugeValueIdMaps.entrySet()) {
+            final Map<GaugeValue, Long> map = entry.getValue();
+            table.write(entry.getKey(), new BucketWriter() {
+                @Override
+                public void write(@Untainted String bucketTableName) throws Exception {
+                    dataSource.batchUpdate(new GaugeValuesBinder(bucketTableName, map));
+                }
+            });
+        }
         synchronized (rollupLock) {
             // clock can never go backwards and future gauge captures will wait until this method
             // completes since ScheduledExecutorService.scheduleAtFixedRate() guarantees that future
@@ -200,7 +230,7 @@ public class GaugeValueDao implements GaugeValueRepository {
     }
 
     void deleteBefore(long captureTime, int rollupLevel) throws SQLException {
-        dataSource.deleteBefore("gauge_value_rollup_" + castUntainted(rollupLevel), captureTime);
+        tables.get(rollupLevel).deleteBefore(captureTime);
     }
 
     void reinitAfterDeletingDatabase() throws Exception {
@@ -210,18 +240,47 @@ public class GaugeValueDao implements GaugeValueRepository {
         }
     }
 
-    private void rollup(long lastRollupTime, long safeRollupTime, long fixedIntervalMillis,
-            int toRollupLevel, int fromRollupLevel) throws Exception {
+    private void rollup(long lastRollupTime, long safeRollupTime, final long fixedIntervalMillis,
+            int toRollupLevel, final int fromRollupLevel) throws Exception {
+        Long minCaptureTime = dataSource.queryForOptionalLong("select min(capture_time) from"
+                + " gauge_value_rollup_" + castUntainted(fromRollupLevel)
+                + " where capture_time > ? and capture_time <= ?", lastRollupTime, safeRollupTime);
+        if (minCaptureTime == null) {
+            return;
+        }
+        // skip over any (potentially long) period of time with no data, staying aligned to the
+        // rollup interval
+        long from = Math.max(lastRollupTime,
+                (minCaptureTime - 1) / fixedIntervalMillis * fixedIntervalMillis);
+        BucketedTable toTable = tables.get(toRollupLevel);
+        // merge cannot target the view, so merge separately into each target bucket table
+        while (from < safeRollupTime) {
+            long to = Math.min(safeRollupTime, toTable.getBucketEnd(from + 1));
+            final long rollupFrom = from;
+            final long rollupTo = to;
+            toTable.write(to, new BucketWriter() {
+                @Override
+                public void write(@Untainted String bucketTableName) throws Exception {
+                    rollup(rollupFrom, rollupTo, fixedIntervalMillis, bucketTableName,
+                            fromRollupLevel);
+                }
+            });
+            from = to;
+        }
+    }
+
+    private void rollup(long from, long to, long fixedIntervalMillis,
+            @Untainted String toTableName, int fromRollupLevel) throws Exception {
         // need ".0" to force double result
         String captureTimeSql = castUntainted(
                 "ceil(capture_time / " + fixedIntervalMillis + ".0) * " + fixedIntervalMillis);
-        dataSource.update("merge into gauge_value_rollup_" + castUntainted(toRollupLevel)
+        dataSource.update("merge into " + toTableName
                 + " (gauge_id, capture_time, value, weight) key (gauge_id, capture_time)"
                 + " select gauge_id, " + captureTimeSql + " ceil_capture_time,"
                 + " sum(value * weight) / sum(weight), sum(weight) from gauge_value_rollup_"
                 + castUntainted(fromRollupLevel) + " gp where gp.capture_time > ?"
                 + " and gp.capture_time <= ? group by gp.gauge_id, ceil_capture_time",
-                lastRollupTime, safeRollupTime);
+                from, to);
     }
 
     private static AtomicLongArray initData(ImmutableList<RollupConfig> rollupConfigs,
@@ -246,15 +305,18 @@ public class GaugeValueDao implements GaugeValueRepository {
 
     private static class GaugeValuesBinder implements JdbcUpdate {
 
+        private final @Untainted String tableName;
         private final Map<GaugeValue, Long> gaugeValueIdMap;
 
-        private GaugeValuesBinder(Map<GaugeValue, Long> gaugeValueIdMap) {
+        private GaugeValuesBinder(@Untainted String tableName,
+                Map<GaugeValue, Long> gaugeValueIdMap) {
+            this.tableName = tableName;
             this.gaugeValueIdMap = gaugeValueIdMap;
         }
 
         @Override
         public @Untainted String getSql() {
-            return "insert into gauge_value_rollup_0 (gauge_id, capture_time, value, weight)"
+            return "insert into " + tableName + " (gauge_id, capture_time, value, weight)"
                     + " values (?, ?, ?, ?)";
         }
 
@@ -0,0 +1,291 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.embedded.util;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.checkerframework.checker.tainting.qual.Untainted;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.glowroot.agent.embedded.util.Schemas.Column;
+import org.glowroot.agent.embedded.util.Schemas.Index;
+
+import static java.util.concurrent.TimeUnit.DAYS;
+import static org.glowroot.agent.util.Checkers.castUntainted;
+
+// a table whose rows are split across one physical table per time bucket (based on capture_time)
+// so that expiring old data is done by dropping whole tables instead of deleting rows, which is
+// much faster, does not hold the data source lock for long periods of time, and does not leave
+// behind free pages that bloat the h2 file
+//
+// the logical table name is a view over all of the bucket tables, so queries can continue to use
+// the logical table name, but inserts and merges (which cannot target a union view) must go
+// through write()
+//
+// since whole buckets are dropped at a time, rows are retained up to one bucket past their
+// expiration, see getBucketMillis() for the bound
+public class BucketedTable {
+
+    private static final Logger logger = LoggerFactory.getLogger(BucketedTable.class);
+
+    private static final long MAX_BUCKET_MILLIS = DAYS.toMillis(7);
+
+    private final DataSource dataSource;
+    private final @Untainted String tableName;
+    private final ImmutableList<Column> columns;
+    private final ImmutableList<Index> indexes;
+    private final long bucketMillis;
+
+    private final NavigableSet<Long> buckets = new ConcurrentSkipListSet<Long>();
+
+    // writes hold the read lock (from resolving the bucket table through the end of the write), and
+    // dropping bucket tables holds the write lock, so that a bucket table cannot be dropped out from
+    // under a write that is in progress
+    private final ReadWriteLock dropLock = new ReentrantReadWriteLock();
+
+    // guarded by dropLock, rows with capture time before this have been (or are about to be)
+    // dropped, so writes for those rows are refused instead of re-creating their bucket table
+    private long expirationTime;
+
+    // table left over from prior to the table being bucketed, this is expired using row-by-row
+    // deletes until it is empty, at which point it is dropped
+    private volatile boolean hasLegacyTable;
+
+    // indexes are defined using the logical table name as a prefix for the index name, and this
+    // prefix is replaced with the bucket table name for each bucket table
+    public BucketedTable(DataSource dataSource, @Untainted String tableName, List<Column> columns,
+            List<Index> indexes, long bucketMillis, long currentTime) throws SQLException {
+        this.dataSource = dataSource;
+        this.tableName = tableName;
+        this.columns = ImmutableList.copyOf(columns);
+        this.indexes = ImmutableList.copyOf(indexes);
+        this.bucketMillis = bucketMillis;
+
+        @Untainted
+        String legacyTableName = getLegacyTableName();
+        if (!dataSource.viewExists(tableName) && dataSource.tableExists(tableName)) {
+            dataSource.syncTable(tableName, columns);
+            dataSource.renameTable(tableName, legacyTableName);
+        }
+        if (dataSource.tableExists(legacyTableName)) {
+            dataSource.syncTable(legacyTableName, columns);
+            // index names are not changed when renaming a table
+            dataSource.syncIndexes(legacyTableName, this.indexes);
+            hasLegacyTable = true;
+        }
+        String bucketTableNamePrefix = getBucketTableNamePrefix();
+        for (String existingTableName : dataSource.getTableNames(bucketTableNamePrefix)) {
+            String suffix = existingTableName.substring(bucketTableNamePrefix.length());
+            long bucket;
+            try {
+                bucket = Long.parseLong(suffix);
+            } catch (NumberFormatException e) {
+                logger.warn("unexpected table name: {}", existingTableName);
+                continue;
+            }
+            syncBucketTable(bucket);
+            buckets.add(bucket);
+        }
+        if (buckets.isEmpty()) {
+            // the view needs at least one table
+            long bucket = getBucket(currentTime);
+            syncBucketTable(bucket);
+            buckets.add(bucket);
+        }
+        syncView();
+    }
+
+    // each bucket table holds 360 rollup intervals (e.g. 6 hours of 1 minute rollups), capped at 7
+    // days, which keeps the number of tables behind each view small for typical expiration settings,
+    // while bounding how long data is retained past its expiration (since whole buckets are dropped
+    // at a time)
+    //
+    // the overrun is at most one bucket, which with the default rollup intervals is 6 hours, 30
+    // hours, 7 days and 7 days for rollup levels 0 through 3 (gauge value tables use the bucket size
+    // of the rollup level whose expiration they share), and with the default expiration settings
+    // this is less than 10% of the configured retention at each rollup level
+    public static long getBucketMillis(long rollupIntervalMillis) {
+        long bucketMillis = rollupIntervalMillis * 360;
+        if (bucketMillis <= MAX_BUCKET_MILLIS) {
+            return bucketMillis;
+        }
+        // bucket end must stay aligned to the rollup interval
+        return Math.max(MAX_BUCKET_MILLIS / rollupIntervalMillis, 1) * rollupIntervalMillis;
+    }
+
+    // all rows with capture_time in the range (bucket end - bucket millis, bucket end] are stored in
+    // the same bucket table, which matches up with rollup capture times being the (inclusive) end of
+    // their interval
+    public long getBucketEnd(long captureTime) {
+        return (getBucket(captureTime) + 1) * bucketMillis;
+    }
+
+    // passes the physical table that rows with the given capture time must be inserted into to the
+    // writer, creating the table if needed, and the table is not dropped until the writer returns
+    //
+    // returns false without calling the writer if rows with the given capture time have already
+    // expired, since their bucket table has already been (or is about to be) dropped
+    //
+    // this must not be called while inside of a data source query callback since it may need to
+    // obtain the data source lock in order to create the table
+    public boolean write(long captureTime, BucketWriter writer) throws Exception {
+        long bucket = getBucket(captureTime);
+        dropLock.readLock().lock();
+        try {
+            if (isExpired(bucket, expirationTime)) {
+                return false;
+            }
+            if (!buckets.contains(bucket)) {
+                synchronized (this) {
+                    if (!buckets.contains(bucket)) {
+                        syncBucketTable(bucket);
+                        buckets.add(bucket);
+                        syncView();
+                    }
+                }
+            }
+            writer.write(getTableNameForBucket(bucket));
+            return true;
+        } finally {
+            dropLock.readLock().unlock();
+        }
+    }
+
+    // deletes all rows with capture_time < the given capture time, except that rows that share a
+    // bucket table with rows that are not yet expired are retained until the whole bucket expires
+    public void deleteBefore(long captureTime) throws SQLException {
+        boolean dropLegacyTable = false;
+        if (hasLegacyTable) {
+            // the legacy table is never written to, so this does not need to hold the drop lock
+            // (which would block writes while the row-by-row deletes are performed)
+            @Untainted
+            String legacyTableName = getLegacyTableName();
+            dataSource.deleteBefore(legacyTableName, captureTime);
+            dropLegacyTable = dataSource.queryForOptionalLong(
+                    "select top 1 capture_time from " + legacyTableName) == null;
+        }
+        dropLock.writeLock().lock();
+        try {
+            expirationTime = Math.max(expirationTime, captureTime);
+            List<Long> expiredBuckets = Lists.newArrayList();
+            for (long bucket : buckets) {
+                if (isExpired(bucket, captureTime)) {
+                    expiredBuckets.add(bucket);
+                }
+            }
+            if (expiredBuckets.isEmpty() && !dropLegacyTable) {
+                return;
+            }
+            buckets.removeAll(expiredBuckets);
+            if (dropLegacyTable) {
+                hasLegacyTable = false;
+            }
+            if (buckets.isEmpty()) {
+                // the view needs at least one table, and no bucket older than capture time will
+                // ever be needed again
+                long bucket = getBucket(captureTime);
+                syncBucketTable(bucket);
+                buckets.add(bucket);
+            }
+            // the view must be updated prior to dropping the tables that it references
+            syncView();
+            for (long bucket : expiredBuckets) {
+                dataSource.dropTable(getTableNameForBucket(bucket));
+            }
+            if (dropLegacyTable) {
+                dataSource.dropTable(getLegacyTableName());
+            }
+        } finally {
+            dropLock.writeLock().unlock();
+        }
+    }
+
+    private void syncBucketTable(long bucket) throws SQLException {
+        @Untainted
+        String bucketTableName = getTableNameForBucket(bucket);
+        dataSource.syncTable(bucketTableName, columns);
+        List<Index> bucketIndexes = Lists.newArrayList();
+        for (Index index : indexes) {
+            String indexName = index.name();
+            if (indexName.startsWith(tableName)) {
+                indexName = bucketTableName + indexName.substring(tableName.length());
+            } else {
+                indexName = bucketTableName + "_" + indexName;
+            }
+            bucketIndexes.add(ImmutableIndex.of(castUntainted(indexName), index.columns()));
+        }
+        dataSource.syncIndexes(bucketTableName, ImmutableList.copyOf(bucketIndexes));
+    }
+
+    private void syncView() throws SQLException {
+        StringBuilder columnList = new StringBuilder();
+        for (int i = 0; i < columns.size(); i++) {
+            if (i > 0) {
+                columnList.append(", ");
+            }
+            columnList.append(columns.get(i).name());
+        }
+        List<String> selects = Lists.newArrayList();
+        // explicit column list since the legacy table may have its columns in a different order
+        if (hasLegacyTable) {
+            selects.add("select " + columnList + " from " + getLegacyTableName());
+        }
+        for (long bucket : buckets) {
+            selects.add("select " + columnList + " from " + getTableNameForBucket(bucket));
+        }
+        StringBuilder sql = new StringBuilder();
+        for (int i = 0; i < selects.size(); i++) {
+            if (i > 0) {
+                sql.append(" union all ");
+            }
+            sql.append(selects.get(i));
+        }
+        dataSource.syncView(tableName, castUntainted(sql.toString()));
+    }
+
+    // bucket end is inclusive
+    private boolean isExpired(long bucket, long expirationTime) {
+        return (bucket + 1) * bucketMillis < expirationTime;
+    }
+
+    private long getBucket(long captureTime) {
+        return Math.max(0, captureTime - 1) / bucketMillis;
+    }
+
+    private @Untainted String getBucketTableNamePrefix() {
+        return castUntainted(tableName + "_b");
+    }
+
+    private @Untainted String getTableNameForBucket(long bucket) {
+        return castUntainted(getBucketTableNamePrefix() + bucket);
+    }
+
+    private @Untainted String getLegacyTableName() {
+        return castUntainted(tableName + "_legacy");
+    }
+
+    public interface BucketWriter {
+        void write(@Untainted String bucketTableName) throws Exception;
+    }
+}
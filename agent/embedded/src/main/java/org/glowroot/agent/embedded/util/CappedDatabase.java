@@ -1,5 +1,5 @@
 /*
- * Copyright 2012-2023 the original author or authors.
+ * Copyright 2012-2026 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -16,17 +16,23 @@
 package org.glowroot.agent.embedded.util;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.File;
-import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.RandomAccessFile;
 import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
@@ -73,12 +79,18 @@ public class CappedDatabase {
     }
 
     private final File file;
+    // writers only hold this lock while copying the already compressed block into the file
     private final Object lock = new Object();
     @GuardedBy("lock")
     private final CappedDatabaseOutputStream out;
     private final Thread shutdownHookThread;
-    @GuardedBy("lock")
-    private RandomAccessFile inFile;
+
+    // readers do not take the writer lock, they use positional reads, and validate after each read
+    // that the data they read was not overwritten in the meantime (see CappedBlockInputStream)
+    //
+    // readers only need to be excluded from resize() and close(), which replace the read channel
+    private final ReadWriteLock readChannelLock = new ReentrantReadWriteLock();
+    private volatile FileChannel inChannel;
     private volatile boolean closed = false;
 
     private final Ticker ticker;
@@ -90,7 +102,7 @@ public class CappedDatabase {
         this.file = file;
         this.ticker = ticker;
         out = CappedDatabaseOutputStream.create(file, requestedSizeKb, scheduledExecutor, ticker);
-        inFile = new RandomAccessFile(file, "r");
+        inChannel = openReadChannel(file);
         shutdownHookThread = new ShutdownHookThread();
         Runtime.getRuntime().addShutdownHook(shutdownHookThread);
     }
@@ -135,27 +147,32 @@ public class CappedDatabase {
     }
 
     private long write(String type, Copier copier) throws IOException {
+        if (closed) {
+            return -1;
+        }
+        // compression is performed outside of the lock, so that concurrent writers are only
+        // serialized while copying the compressed block into the file
+        long startTick = ticker.read();
+        CompressedBlock compressedBlock = new CompressedBlock();
+        CountingOutputStream countingStreamBeforeCompression =
+                new CountingOutputStream(newLZFOutputStream(compressedBlock));
+        copier.copyTo(countingStreamBeforeCompression);
+        countingStreamBeforeCompression.close();
+        long endTick = ticker.read();
         long blockStartIndex;
         synchronized (lock) {
             if (closed) {
                 return -1;
             }
-            long startTick = ticker.read();
-            out.startBlock();
-            NonClosingCountingOutputStream countingStreamAfterCompression =
-                    new NonClosingCountingOutputStream(out);
-            CountingOutputStream countingStreamBeforeCompression =
-                    new CountingOutputStream(newLZFOutputStream(countingStreamAfterCompression));
-            copier.copyTo(countingStreamBeforeCompression);
-            countingStreamBeforeCompression.close();
-            long endTick = ticker.read();
             CappedDatabaseStats stats = statsByType.get(type);
             if (stats == null) {
                 stats = new CappedDatabaseStats();
                 statsByType.put(type, stats);
             }
-            stats.record(countingStreamBeforeCompression.getCount(),
-                    countingStreamAfterCompression.getCount(), endTick - startTick);
+            stats.record(countingStreamBeforeCompression.getCount(), compressedBlock.size(),
+                    endTick - startTick);
+            out.startBlock();
+            compressedBlock.writeTo(out);
             blockStartIndex = out.endBlock();
         }
         // fsync (if really needed here) does not need to be done under lock
@@ -177,7 +194,7 @@ public class CappedDatabase {
             return null;
         }
         // it's important to wrap CappedBlockInputStream in a BufferedInputStream to prevent
-        // lots of small reads from the underlying RandomAccessFile
+        // lots of small reads from the underlying FileChannel
         final int bufferSize = 32768;
 
         try (InputStream input = newLZFInputStream(
@@ -205,7 +222,7 @@ public class CappedDatabase {
             return ImmutableList.of();
         }
         // it's important to wrap CappedBlockInputStream in a BufferedInputStream to prevent
-        // lots of small reads from the underlying RandomAccessFile
+        // lots of small reads from the underlying FileChannel
         final int bufferSize = 32768;
         try (InputStream input = newLZFInputStream(
                 new BufferedInputStream(new CappedBlockInputStream(cappedId), bufferSize))) {
@@ -246,20 +263,50 @@ public class CappedDatabase {
             if (closed) {
                 return;
             }
-            inFile.close();
-            out.resize(newSizeKb);
-            inFile = new RandomAccessFile(file, "r");
+            readChannelLock.writeLock().lock();
+            try {
+                inChannel.close();
+                out.resize(newSizeKb);
+                inChannel = openReadChannel(file);
+            } finally {
+                readChannelLock.writeLock().unlock();
+            }
         }
     }
 
     @OnlyUsedByTests
     public void close() throws IOException {
+        closeInternal();
+        Runtime.getRuntime().removeShutdownHook(shutdownHookThread);
+    }
+
+    private void closeInternal() throws IOException {
         synchronized (lock) {
             closed = true;
             out.close();
-            inFile.close();
+            readChannelLock.writeLock().lock();
+            try {
+                inChannel.close();
+            } finally {
+                readChannelLock.writeLock().unlock();
+            }
         }
-        Runtime.getRuntime().removeShutdownHook(shutdownHookThread);
+    }
+
+    // the shared read channel is closed by the JVM if a thread is interrupted while reading from
+    // it, in which case a new read channel is opened so that other readers are not affected
+    //
+    // this must be called while holding the read channel read lock
+    private void reopenReadChannelIfClosed(FileChannel closedChannel) throws IOException {
+        synchronized (readChannelLock) {
+            if (!closed && inChannel == closedChannel) {
+                inChannel = openReadChannel(file);
+            }
+        }
+    }
+
+    private static FileChannel openReadChannel(File file) throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.READ);
     }
 
     private static LZFOutputStream newLZFOutputStream(OutputStream outputStream) {
@@ -290,7 +337,7 @@ public class CappedDatabase {
         @Override
         public Reader openStream() throws IOException {
             // it's important to wrap CappedBlockInputStream in a BufferedInputStream to prevent
-            // lots of small reads from the underlying RandomAccessFile
+            // lots of small reads from the underlying FileChannel
             final int bufferSize = 32768;
             return new InputStreamReader(newLZFInputStream(
                     new BufferedInputStream(new CappedBlockInputStream(cappedId), bufferSize)),
@@ -313,24 +360,53 @@ public class CappedDatabase {
             if (blockIndex == blockLength) {
                 return -1;
             }
-            synchronized (lock) {
-                if (out.isOverwritten(cappedId)) {
-                    throw new CappedBlockRolledOverMidReadException("Block rolled over mid-read");
+            readChannelLock.readLock().lock();
+            try {
+                if (closed) {
+                    throw new IOException("Capped database is closed");
                 }
-                if (blockLength == -1) {
-                    long filePosition = out.convertToFilePosition(cappedId);
-                    inFile.seek(CappedDatabaseOutputStream.HEADER_SKIP_BYTES + filePosition);
-                    blockLength = inFile.readLong();
+                FileChannel channel = inChannel;
+                try {
+                    return readInternal(channel, bytes, off, len);
+                } catch (ClosedChannelException e) {
+                    reopenReadChannelIfClosed(channel);
+                    throw e;
                 }
-                long filePosition = out.convertToFilePosition(
-                        cappedId + CappedDatabaseOutputStream.BLOCK_HEADER_SKIP_BYTES + blockIndex);
-                inFile.seek(CappedDatabaseOutputStream.HEADER_SKIP_BYTES + filePosition);
-                long blockRemaining = blockLength - blockIndex;
-                long fileRemaining = out.getSizeKb() * 1024L - filePosition;
-                int numToRead = (int) Longs.min(len, blockRemaining, fileRemaining);
-                inFile.readFully(bytes, off, numToRead);
-                blockIndex += numToRead;
-                return numToRead;
+            } finally {
+                readChannelLock.readLock().unlock();
+            }
+        }
+
+        private int readInternal(FileChannel channel, byte[] bytes, int off, int len)
+                throws IOException {
+            checkNotOverwritten();
+            long newBlockLength = blockLength;
+            if (newBlockLength == -1) {
+                long filePosition = out.convertToFilePosition(cappedId);
+                ByteBuffer buffer = ByteBuffer.allocate(8);
+                readFully(channel, buffer,
+                        CappedDatabaseOutputStream.HEADER_SKIP_BYTES + filePosition);
+                newBlockLength = buffer.getLong(0);
+            }
+            long filePosition = out.convertToFilePosition(
+                    cappedId + CappedDatabaseOutputStream.BLOCK_HEADER_SKIP_BYTES + blockIndex);
+            long blockRemaining = newBlockLength - blockIndex;
+            long fileRemaining = out.getSizeKb() * 1024L - filePosition;
+            int numToRead = (int) Longs.min(len, blockRemaining, fileRemaining);
+            readFully(channel, ByteBuffer.wrap(bytes, off, numToRead),
+                    CappedDatabaseOutputStream.HEADER_SKIP_BYTES + filePosition);
+            // writers publish the range they are about to overwrite before overwriting it (see
+            // CappedDatabaseOutputStream.write()), so checking again after reading guarantees that
+            // the data read (including the block length) was not partially overwritten
+            checkNotOverwritten();
+            blockLength = newBlockLength;
+            blockIndex += numToRead;
+            return numToRead;
+        }
+
+        private void checkNotOverwritten() throws CappedBlockRolledOverMidReadException {
+            if (out.isOverwritten(cappedId)) {
+                throw new CappedBlockRolledOverMidReadException("Block rolled over mid-read");
             }
         }
 
@@ -356,10 +432,7 @@ public class CappedDatabase {
                 // waiting on the lock (once the flag is set, any threads in the backlog that
                 // haven't acquired the lock will abort quickly once they do obtain the lock)
                 closed = true;
-                synchronized (lock) {
-                    out.close();
-                    inFile.close();
-                }
+                closeInternal();
             } catch (IOException e) {
                 logger.warn(e.getMessage(), e);
             }
@@ -377,31 +450,27 @@ public class CappedDatabase {
         }
     }
 
-    private static class NonClosingCountingOutputStream extends FilterOutputStream {
-
-        private long count;
+    // exposes the internal buffer in order to avoid copying it
+    private static class CompressedBlock extends ByteArrayOutputStream {
 
-        private NonClosingCountingOutputStream(OutputStream out) {
-            super(out);
+        private CompressedBlock() {
+            super(8192);
         }
 
-        @Override
-        public void write(byte[] b, int off, int len) throws IOException {
-            out.write(b, off, len);
-            count += len;
+        private void writeTo(CappedDatabaseOutputStream out) throws IOException {
+            out.write(buf, 0, count);
         }
+    }
 
-        @Override
-        public void write(int b) throws IOException {
-            out.write(b);
-            count++;
-        }
-
-        @Override
-        public void close() {}
-
-        private long getCount() {
-            return count;
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        long currPosition = position;
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, currPosition);
+            if (n == -1) {
+                throw new EOFException();
+            }
+            currPosition += n;
         }
     }
 }
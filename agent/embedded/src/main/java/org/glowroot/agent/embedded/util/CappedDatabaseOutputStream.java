@@ -1,5 +1,5 @@
 /*
- * Copyright 2012-2018 the original author or authors.
+ * Copyright 2012-2026 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -33,6 +33,10 @@ import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
 // Needs to be externally synchronized around startBlock()/write()/endBlock().
+//
+// Readers are not synchronized with writers, instead smallestNonOverwrittenId is always advanced
+// before the corresponding bytes are overwritten, so that readers can check isOverwritten() after
+// reading in order to validate that what they read was not (even partially) overwritten.
 class CappedDatabaseOutputStream extends OutputStream {
 
     static final int HEADER_SKIP_BYTES = 20;
@@ -156,6 +160,8 @@ class CappedDatabaseOutputStream extends OutputStream {
         return sizeKb;
     }
 
+    // this is ok to call outside of external synchronization as long as it is not concurrent with
+    // resize()
     long convertToFilePosition(long index) {
         return (index - lastResizeBaseIndex) % sizeBytes;
     }
@@ -226,6 +232,9 @@ class CappedDatabaseOutputStream extends OutputStream {
             throw new IOException(
                     "A single block cannot have more bytes than size of the capped database");
         }
+        // publish the range that is about to be overwritten before overwriting it
+        smallestNonOverwrittenId =
+                calculateSmallestNonOverwrittenId(lastResizeBaseIndex, currIndex + len, sizeBytes);
         long currPosition = (currIndex - lastResizeBaseIndex) % sizeBytes;
         out.seek(HEADER_SKIP_BYTES + currPosition);
         long remaining = sizeBytes - currPosition;
@@ -240,7 +249,6 @@ class CappedDatabaseOutputStream extends OutputStream {
         currIndex += len;
         out.seek(HEADER_CURR_INDEX_POS);
         out.writeLong(currIndex);
-        updateSmallestNonOverwrittenId();
     }
 
     private void fsyncIfNeeded() throws IOException {
@@ -21,10 +21,14 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.concurrent.GuardedBy;
 
@@ -52,6 +56,7 @@ import org.glowroot.common2.repo.RepoAdmin.H2Table;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.glowroot.agent.util.Checkers.castUntainted;
 
 public class DataSource {
@@ -64,6 +69,11 @@ public class DataSource {
     private static final int QUERY_TIMEOUT_SECONDS =
             Integer.getInteger("glowroot.internal.h2.queryTimeout", 60);
 
+    // number of additional (MVCC) connections used for queries so that reads do not block on the
+    // single writer connection, zero means all statements share the single connection
+    private static final int READ_CONNECTIONS =
+            Integer.getInteger("glowroot.internal.h2.readConnections", 0);
+
     // null means use memDb
     private final @Nullable File dbFile;
     private final Thread shutdownHookThread;
@@ -72,6 +82,16 @@ public class DataSource {
     private JdbcConnection connection;
     private volatile boolean closed;
 
+    // empty when not using separate read connections
+    private final ImmutableList<ReadConnection> allReadConnections;
+    private final @Nullable BlockingQueue<ReadConnection> availableReadConnections;
+
+    private final ThreadLocal</*@Nullable*/ ReadConnection> currentReadConnection =
+            new ThreadLocal</*@Nullable*/ ReadConnection>();
+
+    private final WaitStats writeLockWaitStats = new WaitStats();
+    private final WaitStats readConnectionWaitStats = new WaitStats();
+
     @SuppressWarnings("nullness:type.argument.type.incompatible")
     private final ThreadLocal<Boolean> suppressQueryTimeout = new ThreadLocal<Boolean>() {
         @Override
@@ -84,6 +104,8 @@ public class DataSource {
             Maps.newConcurrentMap();
     private final Map</*@Untainted*/ String, ImmutableList<Index>> indexes =
             Maps.newConcurrentMap();
+    private final Map</*@Untainted*/ String, /*@Untainted*/ String> views =
+            Maps.newConcurrentMap();
 
     private final LoadingCache</*@Untainted*/ String, PreparedStatement> preparedStatementCache =
             CacheBuilder.newBuilder().weakValues()
@@ -98,52 +120,66 @@ public class DataSource {
     // creates an in-memory database
     public DataSource() throws SQLException {
         dbFile = null;
-        connection = createConnection(null);
+        connection = createConnection(null, false);
+        // each connection to an unnamed in-memory database gets its own private database, so
+        // separate read connections are not possible
+        allReadConnections = ImmutableList.of();
+        availableReadConnections = null;
         shutdownHookThread = new ShutdownHookThread();
         Runtime.getRuntime().addShutdownHook(shutdownHookThread);
     }
 
     public DataSource(File dbFile) throws SQLException {
+        this(dbFile, READ_CONNECTIONS);
+    }
+
+    @VisibleForTesting
+    DataSource(File dbFile, int readConnectionCount) throws SQLException {
         this.dbFile = dbFile;
-        connection = createConnection(dbFile);
+        // all connections to the same database must agree on mvcc
+        boolean mvcc = readConnectionCount > 0;
+        connection = createConnection(dbFile, mvcc);
+        if (readConnectionCount > 0) {
+            List<ReadConnection> readConnections = Lists.newArrayList();
+            for (int i = 0; i < readConnectionCount; i++) {
+                readConnections.add(new ReadConnection(createConnection(dbFile, mvcc)));
+            }
+            allReadConnections = ImmutableList.copyOf(readConnections);
+            availableReadConnections =
+                    new ArrayBlockingQueue<ReadConnection>(readConnectionCount, false,
+                            allReadConnections);
+        } else {
+            allReadConnections = ImmutableList.of();
+            availableReadConnections = null;
+        }
         shutdownHookThread = new ShutdownHookThread();
         Runtime.getRuntime().addShutdownHook(shutdownHookThread);
     }
 
     public void defrag() throws SQLException {
-        if (dbFile == null) {
-            return;
-        }
-        synchronized (lock) {
-            if (closed) {
-                return;
-            }
-            checkConnectionUnderLock();
-            execute("shutdown defrag");
-            connection = createConnection(dbFile);
-            preparedStatementCache.invalidateAll();
-        }
+        shutdownAndReconnect("shutdown defrag");
     }
 
     public void compact() throws SQLException {
-        if (dbFile == null) {
-            return;
-        }
-        synchronized (lock) {
-            if (closed) {
-                return;
-            }
-            checkConnectionUnderLock();
-            execute("shutdown compact");
-            connection = createConnection(dbFile);
-            preparedStatementCache.invalidateAll();
-        }
+        shutdownAndReconnect("shutdown compact");
     }
 
     public long getH2DataFileSize() {
         return dbFile == null ? 0 : dbFile.length();
     }
 
+    public int getReadConnectionCount() {
+        return allReadConnections.size();
+    }
+
+    public WaitStats getWriteLockWaitStats() {
+        return writeLockWaitStats;
+    }
+
+    public WaitStats getReadConnectionWaitStats() {
+        return readConnectionWaitStats;
+    }
+
     public List<H2Table> analyzeH2DiskSpace() throws Exception {
         return suppressQueryTimeout(new Callable<List<H2Table>>() {
             @Override
@@ -157,36 +193,20 @@ public class DataSource {
         if (dbFile == null) {
             return;
         }
-        synchronized (lock) {
-            if (closed) {
-                return;
-            }
-            checkConnectionUnderLock();
-            List<String> schemaVersionRows =
-                    queryForStringList("select schema_version from schema_version");
-            connection.close();
-            if (!dbFile.delete()) {
-                throw new SQLException("Could not delete file: " + dbFile.getAbsolutePath());
-            }
-            connection = createConnection(dbFile);
-            preparedStatementCache.invalidateAll();
-            for (Map.Entry</*@Untainted*/ String, ImmutableList<Column>> entry : tables
-                    .entrySet()) {
-                syncTable(entry.getKey(), entry.getValue());
-            }
-            for (Map.Entry</*@Untainted*/ String, ImmutableList<Index>> entry : indexes
-                    .entrySet()) {
-                syncIndexes(entry.getKey(), entry.getValue());
-            }
-            for (String schemaVersionRow : schemaVersionRows) {
-                update("insert into schema_version (schema_version) values (?)", schemaVersionRow);
-            }
+        // read connections must be closed before the database file can be deleted
+        List<ReadConnection> readConnections = takeAllReadConnections();
+        try {
+            deleteAllUnderReadConnectionsTaken(dbFile, readConnections);
+        } finally {
+            reconnectAndReleaseReadConnections(readConnections);
         }
     }
 
     public void execute(@Untainted String sql) throws SQLException {
         debug(sql);
+        long startTick = System.nanoTime();
         synchronized (lock) {
+            writeLockWaitStats.record(startTick);
             if (closed) {
                 return;
             }
@@ -208,53 +228,41 @@ public class DataSource {
     // warning: this method returns 0 when data source is closed
     public long queryForLong(final @Untainted String sql, Object... args) throws SQLException {
         debug(sql, args);
-        synchronized (lock) {
-            if (closed) {
-                return 0;
-            }
-            checkConnectionUnderLock();
-            return queryUnderLock(sql, args, new ResultSetExtractor<Long>() {
-                @Override
-                public Long extractData(ResultSet resultSet) throws SQLException {
-                    if (!resultSet.next()) {
-                        return 0L;
-                    }
-                    long val = resultSet.getLong(1);
-                    if (resultSet.wasNull()) {
-                        logger.warn("no rows returned: {}", sql);
-                    }
-                    if (resultSet.next()) {
-                        logger.warn("more than one row returned: {}", sql);
-                    }
-                    return val;
+        return query(sql, args, 0L, new ResultSetExtractor<Long>() {
+            @Override
+            public Long extractData(ResultSet resultSet) throws SQLException {
+                if (!resultSet.next()) {
+                    return 0L;
                 }
-            });
-        }
+                long val = resultSet.getLong(1);
+                if (resultSet.wasNull()) {
+                    logger.warn("no rows returned: {}", sql);
+                }
+                if (resultSet.next()) {
+                    logger.warn("more than one row returned: {}", sql);
+                }
+                return val;
+            }
+        });
     }
 
     public @Nullable Long queryForOptionalLong(final @Untainted String sql, Object... args)
             throws SQLException {
         debug(sql, args);
-        synchronized (lock) {
-            if (closed) {
-                return null;
-            }
-            checkConnectionUnderLock();
-            return queryUnderLock(sql, args, new ResultSetExtractor</*@Nullable*/ Long>() {
-                @Override
-                public @Nullable Long extractData(ResultSet resultSet) throws SQLException {
-                    if (!resultSet.next()) {
-                        return null;
-                    }
-                    long val = resultSet.getLong(1);
-                    Long value = resultSet.wasNull() ? null : val;
-                    if (resultSet.next()) {
-                        logger.warn("more than one row returned: {}", sql);
-                    }
-                    return value;
+        return query(sql, args, null, new ResultSetExtractor</*@Nullable*/ Long>() {
+            @Override
+            public @Nullable Long extractData(ResultSet resultSet) throws SQLException {
+                if (!resultSet.next()) {
+                    return null;
                 }
-            });
-        }
+                long val = resultSet.getLong(1);
+                Long value = resultSet.wasNull() ? null : val;
+                if (resultSet.next()) {
+                    logger.warn("more than one row returned: {}", sql);
+                }
+                return value;
+            }
+        });
     }
 
     public List<String> queryForStringList(final @Untainted String sql) throws SQLException {
@@ -273,23 +281,31 @@ public class DataSource {
     }
 
     public <T> T query(JdbcQuery<T> jdbcQuery) throws Exception {
+        ReadConnection readConnection = acquireReadConnection();
+        if (readConnection != null) {
+            try {
+                if (closed) {
+                    return jdbcQuery.valueIfDataSourceClosed();
+                }
+                PreparedStatement preparedStatement =
+                        readConnection.prepareStatement(jdbcQuery.getSql(), getQueryTimeout());
+                return executeQuery(preparedStatement, jdbcQuery);
+                // don't need to close statement since they are all cached and the read connection
+                // is only used by one thread at a time
+            } finally {
+                releaseReadConnection(readConnection);
+            }
+        }
+        long startTick = System.nanoTime();
         synchronized (lock) {
+            writeLockWaitStats.record(startTick);
             if (closed) {
                 return jdbcQuery.valueIfDataSourceClosed();
             }
             checkConnectionUnderLock();
             PreparedStatement preparedStatement =
                     prepareStatementUnderLock(jdbcQuery.getSql(), QUERY_TIMEOUT_SECONDS);
-            jdbcQuery.bind(preparedStatement);
-            ResultSet resultSet = preparedStatement.executeQuery();
-            ResultSetCloser closer = new ResultSetCloser(resultSet);
-            try {
-                return jdbcQuery.processResultSet(resultSet);
-            } catch (Throwable t) {
-                throw closer.rethrow(t);
-            } finally {
-                closer.close();
-            }
+            return executeQuery(preparedStatement, jdbcQuery);
             // don't need to close statement since they are all cached and used under lock
         }
     }
@@ -308,27 +324,31 @@ public class DataSource {
 
     public <T extends /*@NonNull*/ Object> List<T> query(JdbcRowQuery<T> jdbcQuery)
             throws SQLException {
+        ReadConnection readConnection = acquireReadConnection();
+        if (readConnection != null) {
+            try {
+                if (closed) {
+                    return ImmutableList.of();
+                }
+                PreparedStatement preparedStatement =
+                        readConnection.prepareStatement(jdbcQuery.getSql(), getQueryTimeout());
+                return executeQuery(preparedStatement, jdbcQuery);
+                // don't need to close statement since they are all cached and the read connection
+                // is only used by one thread at a time
+            } finally {
+                releaseReadConnection(readConnection);
+            }
+        }
+        long startTick = System.nanoTime();
         synchronized (lock) {
+            writeLockWaitStats.record(startTick);
             if (closed) {
                 return ImmutableList.of();
             }
             checkConnectionUnderLock();
             PreparedStatement preparedStatement =
                     prepareStatementUnderLock(jdbcQuery.getSql(), QUERY_TIMEOUT_SECONDS);
-            jdbcQuery.bind(preparedStatement);
-            ResultSet resultSet = preparedStatement.executeQuery();
-            ResultSetCloser closer = new ResultSetCloser(resultSet);
-            try {
-                List<T> mappedRows = Lists.newArrayList();
-                while (resultSet.next()) {
-                    mappedRows.add(jdbcQuery.mapRow(resultSet));
-                }
-                return ImmutableList.copyOf(mappedRows);
-            } catch (Throwable t) {
-                throw closer.rethrow(t);
-            } finally {
-                closer.close();
-            }
+            return executeQuery(preparedStatement, jdbcQuery);
             // don't need to close statement since they are all cached and used under lock
         }
     }
@@ -356,7 +376,9 @@ public class DataSource {
             // ends up generating warning messages from TraceCollector)
             return 0;
         }
+        long startTick = System.nanoTime();
         synchronized (lock) {
+            writeLockWaitStats.record(startTick);
             if (closed) {
                 return 0;
             }
@@ -375,7 +397,9 @@ public class DataSource {
             // ends up generating warning messages from TraceCollector)
             return new int[0];
         }
+        long startTick = System.nanoTime();
         synchronized (lock) {
+            writeLockWaitStats.record(startTick);
             if (closed) {
                 return new int[0];
             }
@@ -439,6 +463,30 @@ public class DataSource {
         }
     }
 
+    public void syncView(@Untainted String viewName, @Untainted String selectSql)
+            throws SQLException {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            checkConnectionUnderLock();
+            execute("create or replace view " + viewName + " as " + selectSql);
+            views.put(viewName, selectSql);
+        }
+    }
+
+    public void dropTable(@Untainted String tableName) throws SQLException {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            checkConnectionUnderLock();
+            execute("drop table if exists " + tableName);
+            tables.remove(tableName);
+            indexes.remove(tableName);
+        }
+    }
+
     long getDbFileSize() {
         return dbFile == null ? 0 : dbFile.length();
     }
@@ -454,6 +502,29 @@ public class DataSource {
         }
     }
 
+    public boolean viewExists(String viewName) throws SQLException {
+        synchronized (lock) {
+            if (closed) {
+                return false;
+            }
+            checkConnectionUnderLock();
+            return Schemas.viewExists(viewName, connection);
+        }
+    }
+
+    // returns lower case table names
+    public List</*@Untainted*/ String> getTableNames(String prefix) throws SQLException {
+        String lowerCasePrefix = prefix.toLowerCase(Locale.ENGLISH);
+        List</*@Untainted*/ String> tableNames = Lists.newArrayList();
+        for (String tableName : getAllTableNames()) {
+            String lowerCaseTableName = tableName.toLowerCase(Locale.ENGLISH);
+            if (lowerCaseTableName.startsWith(lowerCasePrefix)) {
+                tableNames.add(castUntainted(lowerCaseTableName));
+            }
+        }
+        return tableNames;
+    }
+
     // helpful for upgrading schema
     public boolean columnExists(String tableName, String columnName) throws SQLException {
         synchronized (lock) {
@@ -512,16 +583,187 @@ public class DataSource {
                 return;
             }
             closed = true;
+            for (ReadConnection readConnection : allReadConnections) {
+                readConnection.close();
+            }
             connection.close();
         }
         Runtime.getRuntime().removeShutdownHook(shutdownHookThread);
     }
 
+    private void deleteAllUnderReadConnectionsTaken(File dbFile,
+            List<ReadConnection> readConnections) throws SQLException {
+        long startTick = System.nanoTime();
+        synchronized (lock) {
+            writeLockWaitStats.record(startTick);
+            if (closed) {
+                return;
+            }
+            checkConnectionUnderLock();
+            List<String> schemaVersionRows =
+                    queryForStringList("select schema_version from schema_version");
+            for (ReadConnection readConnection : readConnections) {
+                readConnection.close();
+            }
+            connection.close();
+            if (!dbFile.delete()) {
+                throw new SQLException("Could not delete file: " + dbFile.getAbsolutePath());
+            }
+            connection = createConnection(dbFile, !allReadConnections.isEmpty());
+            preparedStatementCache.invalidateAll();
+            for (Map.Entry</*@Untainted*/ String, ImmutableList<Column>> entry : tables
+                    .entrySet()) {
+                syncTable(entry.getKey(), entry.getValue());
+            }
+            for (Map.Entry</*@Untainted*/ String, ImmutableList<Index>> entry : indexes
+                    .entrySet()) {
+                syncIndexes(entry.getKey(), entry.getValue());
+            }
+            for (Map.Entry</*@Untainted*/ String, /*@Untainted*/ String> entry : views
+                    .entrySet()) {
+                syncView(entry.getKey(), entry.getValue());
+            }
+            for (String schemaVersionRow : schemaVersionRows) {
+                update("insert into schema_version (schema_version) values (?)", schemaVersionRow);
+            }
+        }
+    }
+
+    private void shutdownAndReconnect(@Untainted String shutdownSql) throws SQLException {
+        if (dbFile == null) {
+            return;
+        }
+        // shutdown closes all connections to the database, including the read connections
+        List<ReadConnection> readConnections = takeAllReadConnections();
+        try {
+            long startTick = System.nanoTime();
+            synchronized (lock) {
+                writeLockWaitStats.record(startTick);
+                if (closed) {
+                    return;
+                }
+                checkConnectionUnderLock();
+                execute(shutdownSql);
+                connection = createConnection(dbFile, !allReadConnections.isEmpty());
+                preparedStatementCache.invalidateAll();
+            }
+        } finally {
+            reconnectAndReleaseReadConnections(readConnections);
+        }
+    }
+
+    // returns null if not using separate read connections, in which case the caller should use the
+    // single connection under the lock
+    private @Nullable ReadConnection acquireReadConnection() throws SQLException {
+        if (availableReadConnections == null || Thread.holdsLock(lock)) {
+            // if already holding the lock, then use the single connection, since maintenance
+            // operations (e.g. defrag) take all of the read connections before taking the lock
+            return null;
+        }
+        ReadConnection readConnection = currentReadConnection.get();
+        if (readConnection != null) {
+            // nested query from inside of a result set callback
+            readConnection.depth++;
+            return readConnection;
+        }
+        long startTick = System.nanoTime();
+        try {
+            readConnection = availableReadConnections.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException(e);
+        }
+        readConnectionWaitStats.record(startTick);
+        readConnection.depth = 1;
+        currentReadConnection.set(readConnection);
+        if (closed) {
+            // caller will check closed and return without using the connection
+            return readConnection;
+        }
+        try {
+            readConnection.checkConnection();
+        } catch (SQLException e) {
+            releaseReadConnection(readConnection);
+            throw e;
+        }
+        return readConnection;
+    }
+
+    private void releaseReadConnection(ReadConnection readConnection) {
+        if (--readConnection.depth == 0) {
+            currentReadConnection.remove();
+            checkNotNull(availableReadConnections).add(readConnection);
+        }
+    }
+
+    private List<ReadConnection> takeAllReadConnections() throws SQLException {
+        if (availableReadConnections == null) {
+            return ImmutableList.of();
+        }
+        List<ReadConnection> readConnections = Lists.newArrayList();
+        try {
+            for (int i = 0; i < allReadConnections.size(); i++) {
+                readConnections.add(availableReadConnections.take());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            availableReadConnections.addAll(readConnections);
+            throw new SQLException(e);
+        }
+        return readConnections;
+    }
+
+    private void reconnectAndReleaseReadConnections(List<ReadConnection> readConnections)
+            throws SQLException {
+        if (readConnections.isEmpty()) {
+            return;
+        }
+        try {
+            if (!closed) {
+                for (ReadConnection readConnection : readConnections) {
+                    readConnection.reconnect();
+                }
+            }
+        } finally {
+            checkNotNull(availableReadConnections).addAll(readConnections);
+        }
+    }
+
+    private <T extends /*@Nullable*/ Object> T query(@Untainted String sql, Object[] args,
+            T valueIfDataSourceClosed, ResultSetExtractor<T> rse) throws SQLException {
+        ReadConnection readConnection = acquireReadConnection();
+        if (readConnection != null) {
+            try {
+                if (closed) {
+                    return valueIfDataSourceClosed;
+                }
+                PreparedStatement preparedStatement =
+                        readConnection.prepareStatement(sql, getQueryTimeout());
+                return executeQuery(preparedStatement, args, rse);
+            } finally {
+                releaseReadConnection(readConnection);
+            }
+        }
+        long startTick = System.nanoTime();
+        synchronized (lock) {
+            writeLockWaitStats.record(startTick);
+            if (closed) {
+                return valueIfDataSourceClosed;
+            }
+            checkConnectionUnderLock();
+            return queryUnderLock(sql, args, rse);
+        }
+    }
+
+    private int getQueryTimeout() {
+        return suppressQueryTimeout.get() ? 0 : QUERY_TIMEOUT_SECONDS;
+    }
+
     @GuardedBy("lock")
     private void checkConnectionUnderLock() throws SQLException {
         if (connection.getPowerOffCount() == -1) {
             // connection was closed internally due to OutOfMemoryError
-            connection = createConnection(dbFile);
+            connection = createConnection(dbFile, !allReadConnections.isEmpty());
             preparedStatementCache.invalidateAll();
         }
     }
@@ -529,34 +771,15 @@ public class DataSource {
     @GuardedBy("lock")
     private PreparedStatement prepareStatementUnderLock(@Untainted String sql,
             int queryTimeoutSeconds) throws SQLException {
-        try {
-            PreparedStatement preparedStatement = preparedStatementCache.get(sql);
-            // setQueryTimeout() affects all statements of this connection (at least with h2)
-            if (suppressQueryTimeout.get()) {
-                preparedStatement.setQueryTimeout(0);
-            } else {
-                preparedStatement.setQueryTimeout(queryTimeoutSeconds);
-            }
-            return preparedStatement;
-        } catch (ExecutionException e) {
-            Throwable cause = e.getCause();
-            Throwables.propagateIfPossible(cause, SQLException.class);
-            // it should not really be possible to get here since the only checked exception that
-            // preparedStatementCache's CacheLoader throws is SQLException
-            logger.error(e.getMessage(), e);
-            throw new SQLException(e);
-        }
+        return prepareStatement(preparedStatementCache, sql,
+                suppressQueryTimeout.get() ? 0 : queryTimeoutSeconds);
     }
 
     @GuardedBy("lock")
     private <T extends /*@Nullable*/ Object> T queryUnderLock(@Untainted String sql, Object[] args,
             ResultSetExtractor<T> rse) throws SQLException {
         PreparedStatement preparedStatement = prepareStatementUnderLock(sql, QUERY_TIMEOUT_SECONDS);
-        for (int i = 0; i < args.length; i++) {
-            preparedStatement.setObject(i + 1, args[i]);
-        }
-        ResultSet resultSet = preparedStatement.executeQuery();
-        return extractAndClose(resultSet, rse);
+        return executeQuery(preparedStatement, args, rse);
         // don't need to close statement since they are all cached and used under lock
     }
 
@@ -580,9 +803,10 @@ public class DataSource {
         return tables;
     }
 
-    @GuardedBy("lock")
     private List</*@Untainted*/ String> getAllTableNames() throws SQLException {
+        long startTick = System.nanoTime();
         synchronized (lock) {
+            writeLockWaitStats.record(startTick);
             if (closed) {
                 return ImmutableList.of();
             }
@@ -607,7 +831,8 @@ public class DataSource {
         }
     }
 
-    private static JdbcConnection createConnection(@Nullable File dbFile) throws SQLException {
+    private static JdbcConnection createConnection(@Nullable File dbFile, boolean mvcc)
+            throws SQLException {
         if (dbFile == null) {
             // db_close_on_exit=false since jvm shutdown hook is handled by DataSource
             return new JdbcConnection("jdbc:h2:mem:;compress=true;db_close_on_exit=false",
@@ -621,10 +846,86 @@ public class DataSource {
             // db_close_on_exit=false since jvm shutdown hook is handled by DataSource
             String url = "jdbc:h2:" + dbPath + ";compress=true;db_close_on_exit=false;cache_size="
                     + CACHE_SIZE;
+            if (mvcc) {
+                // mvcc so that queries on the read connections do not take table locks that would
+                // block the writer connection
+                url += ";mvcc=true";
+            }
             return new JdbcConnection(url, props);
         }
     }
 
+    private static LoadingCache</*@Untainted*/ String, PreparedStatement> createPreparedStatementCache(
+            final JdbcConnection connection) {
+        return CacheBuilder.newBuilder().weakValues()
+                .build(new CacheLoader</*@Untainted*/ String, PreparedStatement>() {
+                    @Override
+                    public PreparedStatement load(@Untainted String sql) throws SQLException {
+                        return connection.prepareStatement(sql);
+                    }
+                });
+    }
+
+    private static PreparedStatement prepareStatement(
+            LoadingCache</*@Untainted*/ String, PreparedStatement> preparedStatementCache,
+            @Untainted String sql, int queryTimeoutSeconds) throws SQLException {
+        try {
+            PreparedStatement preparedStatement = preparedStatementCache.get(sql);
+            // setQueryTimeout() affects all statements of this connection (at least with h2)
+            preparedStatement.setQueryTimeout(queryTimeoutSeconds);
+            return preparedStatement;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            Throwables.propagateIfPossible(cause, SQLException.class);
+            // it should not really be possible to get here since the only checked exception that
+            // preparedStatementCache's CacheLoader throws is SQLException
+            logger.error(e.getMessage(), e);
+            throw new SQLException(e);
+        }
+    }
+
+    private static <T> T executeQuery(PreparedStatement preparedStatement, JdbcQuery<T> jdbcQuery)
+            throws Exception {
+        jdbcQuery.bind(preparedStatement);
+        ResultSet resultSet = preparedStatement.executeQuery();
+        ResultSetCloser closer = new ResultSetCloser(resultSet);
+        try {
+            return jdbcQuery.processResultSet(resultSet);
+        } catch (Throwable t) {
+            throw closer.rethrow(t);
+        } finally {
+            closer.close();
+        }
+    }
+
+    private static <T extends /*@NonNull*/ Object> List<T> executeQuery(
+            PreparedStatement preparedStatement, JdbcRowQuery<T> jdbcQuery) throws SQLException {
+        jdbcQuery.bind(preparedStatement);
+        ResultSet resultSet = preparedStatement.executeQuery();
+        ResultSetCloser closer = new ResultSetCloser(resultSet);
+        try {
+            List<T> mappedRows = Lists.newArrayList();
+            while (resultSet.next()) {
+                mappedRows.add(jdbcQuery.mapRow(resultSet));
+            }
+            return ImmutableList.copyOf(mappedRows);
+        } catch (Throwable t) {
+            throw closer.rethrow(t);
+        } finally {
+            closer.close();
+        }
+    }
+
+    private static <T extends /*@Nullable*/ Object> T executeQuery(
+            PreparedStatement preparedStatement, Object[] args, ResultSetExtractor<T> rse)
+            throws SQLException {
+        for (int i = 0; i < args.length; i++) {
+            preparedStatement.setObject(i + 1, args[i]);
+        }
+        ResultSet resultSet = preparedStatement.executeQuery();
+        return extractAndClose(resultSet, rse);
+    }
+
     private static <T> T extractAndClose(ResultSet resultSet, ResultSetExtractor<T> rse)
             throws SQLException {
         ResultSetCloser closer = new ResultSetCloser(resultSet);
@@ -690,6 +991,77 @@ public class DataSource {
         T extractData(ResultSet resultSet) throws Exception;
     }
 
+    public static class WaitStats {
+
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        private void record(long startTick) {
+            long nanos = System.nanoTime() - startTick;
+            count.getAndIncrement();
+            totalNanos.getAndAdd(nanos);
+            long currMax = maxNanos.get();
+            while (nanos > currMax && !maxNanos.compareAndSet(currMax, nanos)) {
+                currMax = maxNanos.get();
+            }
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public double getTotalMillis() {
+            return totalNanos.get() / (double) MILLISECONDS.toNanos(1);
+        }
+
+        public double getMaxMillis() {
+            return maxNanos.get() / (double) MILLISECONDS.toNanos(1);
+        }
+    }
+
+    // each read connection is only used by one thread at a time
+    private class ReadConnection {
+
+        private JdbcConnection connection;
+        private LoadingCache</*@Untainted*/ String, PreparedStatement> preparedStatementCache;
+
+        // only accessed by the thread that currently holds this read connection
+        private int depth;
+
+        private ReadConnection(JdbcConnection connection) {
+            this.connection = connection;
+            preparedStatementCache = createPreparedStatementCache(connection);
+        }
+
+        private void checkConnection() throws SQLException {
+            if (connection.getPowerOffCount() == -1) {
+                // connection was closed internally due to OutOfMemoryError
+                reconnect();
+            }
+        }
+
+        private void reconnect() throws SQLException {
+            close();
+            connection = createConnection(dbFile, true);
+            preparedStatementCache = createPreparedStatementCache(connection);
+        }
+
+        private PreparedStatement prepareStatement(@Untainted String sql, int queryTimeoutSeconds)
+                throws SQLException {
+            return DataSource.prepareStatement(preparedStatementCache, sql, queryTimeoutSeconds);
+        }
+
+        private void close() {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                // connection may have already been closed by shutdown defrag/compact
+                logger.debug(e.getMessage(), e);
+            }
+        }
+    }
+
     // this replaces H2's default shutdown hook (see jdbc connection db_close_on_exit=false above)
     // in order to prevent exceptions from occurring (and getting logged) during shutdown in the
     // case that there are still traces being written
@@ -701,11 +1073,32 @@ public class DataSource {
                 // waiting on the lock (once the flag is set, any threads in the backlog that
                 // haven't acquired the lock will abort quickly once they do obtain the lock)
                 closed = true;
+                if (availableReadConnections != null) {
+                    // give in-flight queries on the read connections a chance to complete
+                    // not using allReadConnections here to avoid class loading inside of jvm
+                    // shutdown hook
+                    int readConnectionCount = availableReadConnections.remainingCapacity()
+                            + availableReadConnections.size();
+                    for (int i = 0; i < readConnectionCount; i++) {
+                        ReadConnection readConnection =
+                                availableReadConnections.poll(QUERY_TIMEOUT_SECONDS, SECONDS);
+                        if (readConnection == null) {
+                            break;
+                        }
+                        readConnection.close();
+                        // return it so that any later callers see the closed flag instead of
+                        // waiting forever for a read connection
+                        availableReadConnections.add(readConnection);
+                    }
+                }
                 synchronized (lock) {
                     connection.close();
                 }
             } catch (SQLException e) {
                 logger.warn(e.getMessage(), e);
+            } catch (InterruptedException e) {
+                logger.warn(e.getMessage(), e);
+                Thread.currentThread().interrupt();
             }
         }
     }
@@ -1,5 +1,5 @@
 /*
- * Copyright 2015-2018 the original author or authors.
+ * Copyright 2015-2023 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -27,4 +27,39 @@ public class H2DatabaseStats implements H2DatabaseStatsMXBean {
     public long getFileSize() {
         return dataSource.getDbFileSize();
     }
+
+    @Override
+    public int getReadConnectionCount() {
+        return dataSource.getReadConnectionCount();
+    }
+
+    @Override
+    public long getWriteLockAcquisitionCount() {
+        return dataSource.getWriteLockWaitStats().getCount();
+    }
+
+    @Override
+    public double getWriteLockWaitTotalMillis() {
+        return dataSource.getWriteLockWaitStats().getTotalMillis();
+    }
+
+    @Override
+    public double getWriteLockWaitMaxMillis() {
+        return dataSource.getWriteLockWaitStats().getMaxMillis();
+    }
+
+    @Override
+    public long getReadConnectionAcquisitionCount() {
+        return dataSource.getReadConnectionWaitStats().getCount();
+    }
+
+    @Override
+    public double getReadConnectionWaitTotalMillis() {
+        return dataSource.getReadConnectionWaitStats().getTotalMillis();
+    }
+
+    @Override
+    public double getReadConnectionWaitMaxMillis() {
+        return dataSource.getReadConnectionWaitStats().getMaxMillis();
+    }
 }
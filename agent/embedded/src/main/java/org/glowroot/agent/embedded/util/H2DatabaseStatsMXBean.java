@@ -1,5 +1,5 @@
 /*
- * Copyright 2015-2018 the original author or authors.
+ * Copyright 2015-2023 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -18,4 +18,18 @@ package org.glowroot.agent.embedded.util;
 public interface H2DatabaseStatsMXBean {
 
     long getFileSize();
+
+    int getReadConnectionCount();
+
+    long getWriteLockAcquisitionCount();
+
+    double getWriteLockWaitTotalMillis();
+
+    double getWriteLockWaitMaxMillis();
+
+    long getReadConnectionAcquisitionCount();
+
+    double getReadConnectionWaitTotalMillis();
+
+    double getReadConnectionWaitMaxMillis();
 }
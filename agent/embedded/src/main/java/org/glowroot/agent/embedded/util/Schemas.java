@@ -110,6 +110,21 @@ public class Schemas {
         }
     }
 
+    static boolean viewExists(String viewName, Connection connection) throws SQLException {
+        logger.debug("viewExists(): viewName={}", viewName);
+        DatabaseMetaData metaData = connection.getMetaData();
+        ResultSet resultSet = metaData.getTables(null, null, convert(metaData, viewName),
+                new String[] {"VIEW"});
+        ResultSetCloser closer = new ResultSetCloser(resultSet);
+        try {
+            return resultSet.next();
+        } catch (Throwable t) {
+            throw closer.rethrow(t);
+        } finally {
+            closer.close();
+        }
+    }
+
     // useful for upgrades
     static boolean columnExists(String tableName, String columnName, Connection connection)
             throws SQLException {
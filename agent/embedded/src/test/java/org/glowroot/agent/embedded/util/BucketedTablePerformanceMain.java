@@ -0,0 +1,216 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.embedded.util;
+
+import java.io.File;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import org.checkerframework.checker.tainting.qual.Untainted;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.glowroot.agent.embedded.util.BucketedTable.BucketWriter;
+import org.glowroot.agent.embedded.util.DataSource.JdbcUpdate;
+import org.glowroot.agent.embedded.util.Schemas.Column;
+import org.glowroot.agent.embedded.util.Schemas.ColumnType;
+import org.glowroot.agent.embedded.util.Schemas.Index;
+
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.glowroot.agent.util.Checkers.castUntainted;
+
+// compares expiring gauge values using row-by-row deletes from a single table (the schema prior
+// to bucketed tables) against dropping whole bucket tables
+public class BucketedTablePerformanceMain {
+
+    private static final Logger logger =
+            LoggerFactory.getLogger(BucketedTablePerformanceMain.class);
+
+    private static final int GAUGE_COUNT = 20;
+    private static final long GAUGE_INTERVAL_MILLIS = SECONDS.toMillis(5);
+    private static final long EXPIRATION_MILLIS = DAYS.toMillis(3);
+
+    private static final ImmutableList<Column> columns = ImmutableList.<Column>of(
+            ImmutableColumn.of("gauge_id", ColumnType.BIGINT),
+            ImmutableColumn.of("capture_time", ColumnType.BIGINT),
+            ImmutableColumn.of("value", ColumnType.DOUBLE),
+            ImmutableColumn.of("weight", ColumnType.BIGINT));
+
+    private static final ImmutableList<Index> indexes = ImmutableList.<Index>of(
+            ImmutableIndex.of("gauge_value_idx",
+                    ImmutableList.of("gauge_id", "capture_time", "value", "weight")),
+            ImmutableIndex.of("gauge_value_by_capture_time_idx",
+                    ImmutableList.of("capture_time", "gauge_id", "value", "weight")));
+
+    private BucketedTablePerformanceMain() {}
+
+    public static void main(String[] args) throws Exception {
+        run(false);
+        run(true);
+    }
+
+    private static void run(boolean bucketed) throws Exception {
+        File dir = Files.createTempDir();
+        DataSource dataSource = new DataSource(new File(dir, "data.h2.db"));
+        BucketedTable bucketedTable;
+        if (bucketed) {
+            bucketedTable = new BucketedTable(dataSource, "gauge_value", columns, indexes,
+                    HOURS.toMillis(6), 0);
+        } else {
+            bucketedTable = null;
+            dataSource.syncTable("gauge_value", columns);
+            dataSource.syncIndexes("gauge_value", indexes);
+        }
+        // 4 days of data, so that reaping removes 1 day
+        long endTime = DAYS.toMillis(4);
+        insert(dataSource, bucketedTable, 0, endTime);
+        long fileSizeBeforeReaping = dataSource.getH2DataFileSize();
+
+        // measure how long a concurrent writer is blocked while reaping
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicLong maxWriteNanos = new AtomicLong();
+        Thread writer = new Thread(new WriterRunnable(dataSource, bucketedTable, endTime, stop,
+                maxWriteNanos));
+        writer.start();
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        long expirationTime = endTime - EXPIRATION_MILLIS;
+        if (bucketedTable == null) {
+            dataSource.deleteBefore("gauge_value", expirationTime);
+        } else {
+            bucketedTable.deleteBefore(expirationTime);
+        }
+        long reaperMillis = stopwatch.elapsed(MILLISECONDS);
+        stop.set(true);
+        writer.join();
+
+        // insert another day of data to see how much the file grows after reaping
+        insert(dataSource, bucketedTable, endTime, endTime + DAYS.toMillis(1));
+        long fileSizeAfterReinsert = dataSource.getH2DataFileSize();
+
+        logger.info("{}: reaper time: {} ms, max concurrent write time: {} ms, file size before"
+                + " reaping: {} MB, file size after inserting another day: {} MB",
+                bucketed ? "bucketed" : "single table", reaperMillis,
+                NANOSECONDS.toMillis(maxWriteNanos.get()), fileSizeBeforeReaping / 1024 / 1024,
+                fileSizeAfterReinsert / 1024 / 1024);
+
+        dataSource.close();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private static void insert(DataSource dataSource, BucketedTable bucketedTable, long from,
+            long to) throws Exception {
+        for (long captureTime = from + GAUGE_INTERVAL_MILLIS; captureTime <= to;
+                captureTime += GAUGE_INTERVAL_MILLIS) {
+            write(dataSource, bucketedTable, captureTime);
+        }
+    }
+
+    private static void write(final DataSource dataSource, BucketedTable bucketedTable,
+            final long captureTime) throws Exception {
+        if (bucketedTable == null) {
+            dataSource.batchUpdate(new GaugeValuesInsert("gauge_value", captureTime));
+            return;
+        }
+        bucketedTable.write(captureTime, new BucketWriter() {
+            @Override
+            public void write(@Untainted String bucketTableName) throws Exception {
+                dataSource.batchUpdate(new GaugeValuesInsert(bucketTableName, captureTime));
+            }
+        });
+    }
+
+    private static class WriterRunnable implements Runnable {
+
+        private final DataSource dataSource;
+        private final BucketedTable bucketedTable;
+        private final long startTime;
+        private final AtomicBoolean stop;
+        private final AtomicLong maxWriteNanos;
+
+        private WriterRunnable(DataSource dataSource, BucketedTable bucketedTable, long startTime,
+                AtomicBoolean stop, AtomicLong maxWriteNanos) {
+            this.dataSource = dataSource;
+            this.bucketedTable = bucketedTable;
+            this.startTime = startTime;
+            this.stop = stop;
+            this.maxWriteNanos = maxWriteNanos;
+        }
+
+        @Override
+        public void run() {
+            // these rows are written into the future, and end up in the table before the
+            // re-insert, which is ok since it is only measuring the time to write
+            long captureTime = startTime + DAYS.toMillis(2);
+            try {
+                while (!stop.get()) {
+                    captureTime += GAUGE_INTERVAL_MILLIS;
+                    long startTick = System.nanoTime();
+                    write(dataSource, bucketedTable, captureTime);
+                    long nanos = System.nanoTime() - startTick;
+                    if (nanos > maxWriteNanos.get()) {
+                        maxWriteNanos.set(nanos);
+                    }
+                    MILLISECONDS.sleep(10);
+                }
+            } catch (Exception e) {
+                logger.error(e.getMessage(), e);
+            }
+        }
+    }
+
+    private static class GaugeValuesInsert implements JdbcUpdate {
+
+        private final @Untainted String tableName;
+        private final long captureTime;
+
+        private GaugeValuesInsert(@Untainted String tableName, long captureTime) {
+            this.tableName = tableName;
+            this.captureTime = captureTime;
+        }
+
+        @Override
+        public @Untainted String getSql() {
+            return castUntainted("insert into " + tableName
+                    + " (gauge_id, capture_time, value, weight) values (?, ?, ?, ?)");
+        }
+
+        @Override
+        public void bind(PreparedStatement preparedStatement) throws SQLException {
+            for (int i = 0; i < GAUGE_COUNT; i++) {
+                preparedStatement.setLong(1, i);
+                preparedStatement.setLong(2, captureTime);
+                preparedStatement.setDouble(3, Math.random());
+                preparedStatement.setLong(4, GAUGE_INTERVAL_MILLIS);
+                preparedStatement.addBatch();
+            }
+        }
+    }
+}
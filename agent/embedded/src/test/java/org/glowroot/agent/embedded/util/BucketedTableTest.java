@@ -0,0 +1,201 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.embedded.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.collect.ImmutableList;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.checkerframework.checker.tainting.qual.Untainted;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.glowroot.agent.embedded.util.BucketedTable.BucketWriter;
+import org.glowroot.agent.embedded.util.Schemas.Column;
+import org.glowroot.agent.embedded.util.Schemas.ColumnType;
+import org.glowroot.agent.embedded.util.Schemas.Index;
+
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BucketedTableTest {
+
+    private static final ImmutableList<Column> columns = ImmutableList.<Column>of(
+            ImmutableColumn.of("capture_time", ColumnType.BIGINT),
+            ImmutableColumn.of("value", ColumnType.BIGINT));
+
+    private static final ImmutableList<Index> indexes = ImmutableList.<Index>of(
+            ImmutableIndex.of("tbl_idx", ImmutableList.of("capture_time")));
+
+    private DataSource dataSource;
+
+    @BeforeEach
+    public void beforeEach() throws Exception {
+        dataSource = new DataSource();
+    }
+
+    @AfterEach
+    public void afterEach() throws Exception {
+        dataSource.close();
+    }
+
+    @Test
+    public void shouldCreateBucketsAndView() throws Exception {
+        // when
+        BucketedTable bucketedTable =
+                new BucketedTable(dataSource, "tbl", columns, indexes, 100, 0);
+        insert(bucketedTable, 100);
+        insert(bucketedTable, 101);
+        insert(bucketedTable, 250);
+        // then
+        assertThat(bucketedTable.getBucketEnd(100)).isEqualTo(100);
+        assertThat(bucketedTable.getBucketEnd(101)).isEqualTo(200);
+        assertThat(dataSource.viewExists("tbl")).isTrue();
+        assertThat(dataSource.getTableNames("tbl_b")).containsOnly("tbl_b0", "tbl_b1", "tbl_b2");
+        assertThat(dataSource.queryForLong("select count(*) from tbl")).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldDropExpiredBuckets() throws Exception {
+        // given
+        BucketedTable bucketedTable =
+                new BucketedTable(dataSource, "tbl", columns, indexes, 100, 0);
+        insert(bucketedTable, 100);
+        insert(bucketedTable, 150);
+        insert(bucketedTable, 250);
+        // when
+        bucketedTable.deleteBefore(200);
+        // then
+        assertThat(dataSource.getTableNames("tbl_b")).containsOnly("tbl_b1", "tbl_b2");
+        assertThat(dataSource.queryForLong("select count(*) from tbl")).isEqualTo(2);
+        // when
+        bucketedTable.deleteBefore(1000);
+        // then
+        assertThat(dataSource.getTableNames("tbl_b")).containsOnly("tbl_b9");
+        assertThat(dataSource.queryForLong("select count(*) from tbl")).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldMigrateLegacyTable() throws Exception {
+        // given
+        dataSource.syncTable("tbl", columns);
+        dataSource.update("insert into tbl (capture_time, value) values (50, 1)");
+        dataSource.update("insert into tbl (capture_time, value) values (150, 1)");
+        // when
+        BucketedTable bucketedTable =
+                new BucketedTable(dataSource, "tbl", columns, indexes, 100, 150);
+        insert(bucketedTable, 160);
+        // then
+        assertThat(dataSource.tableExists("tbl_legacy")).isTrue();
+        assertThat(dataSource.queryForLong("select count(*) from tbl")).isEqualTo(3);
+        // when
+        bucketedTable.deleteBefore(100);
+        // then
+        assertThat(dataSource.tableExists("tbl_legacy")).isTrue();
+        assertThat(dataSource.queryForLong("select count(*) from tbl")).isEqualTo(2);
+        // when
+        bucketedTable.deleteBefore(155);
+        // then
+        assertThat(dataSource.tableExists("tbl_legacy")).isFalse();
+        assertThat(dataSource.queryForLong("select count(*) from tbl")).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldRefuseWritesToExpiredBuckets() throws Exception {
+        // given
+        BucketedTable bucketedTable =
+                new BucketedTable(dataSource, "tbl", columns, indexes, 100, 0);
+        insert(bucketedTable, 250);
+        bucketedTable.deleteBefore(250);
+        // when
+        boolean written = insert(bucketedTable, 150);
+        // then
+        assertThat(written).isFalse();
+        assertThat(dataSource.getTableNames("tbl_b")).containsOnly("tbl_b2");
+        assertThat(dataSource.queryForLong("select count(*) from tbl")).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldNotDropBucketWhileWriteIsInProgress() throws Exception {
+        // given
+        final BucketedTable bucketedTable =
+                new BucketedTable(dataSource, "tbl", columns, indexes, 100, 0);
+        insert(bucketedTable, 250);
+        final CountDownLatch writeStarted = new CountDownLatch(1);
+        final CountDownLatch finishWrite = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        Future<?> writeFuture = executor.submit(new Callable</*@Nullable*/ Void>() {
+            @Override
+            public @Nullable Void call() throws Exception {
+                bucketedTable.write(150, new BucketWriter() {
+                    @Override
+                    public void write(@Untainted String bucketTableName) throws Exception {
+                        writeStarted.countDown();
+                        finishWrite.await();
+                        dataSource.update("insert into " + bucketTableName
+                                + " (capture_time, value) values (?, 1)", 150);
+                    }
+                });
+                return null;
+            }
+        });
+        writeStarted.await();
+        // when
+        Future<?> deleteFuture = executor.submit(new Callable</*@Nullable*/ Void>() {
+            @Override
+            public @Nullable Void call() throws Exception {
+                bucketedTable.deleteBefore(250);
+                return null;
+            }
+        });
+        // then
+        Thread.sleep(100);
+        assertThat(deleteFuture.isDone()).isFalse();
+        finishWrite.countDown();
+        writeFuture.get(10, SECONDS);
+        deleteFuture.get(10, SECONDS);
+        assertThat(dataSource.getTableNames("tbl_b")).containsOnly("tbl_b2");
+        assertThat(dataSource.queryForLong("select count(*) from tbl")).isEqualTo(1);
+        executor.shutdown();
+    }
+
+    @Test
+    public void shouldCapBucketSize() {
+        assertThat(BucketedTable.getBucketMillis(MINUTES.toMillis(1))).isEqualTo(HOURS.toMillis(6));
+        assertThat(BucketedTable.getBucketMillis(MINUTES.toMillis(30))).isEqualTo(DAYS.toMillis(7));
+        assertThat(BucketedTable.getBucketMillis(HOURS.toMillis(4))).isEqualTo(DAYS.toMillis(7));
+        assertThat(BucketedTable.getBucketMillis(HOURS.toMillis(5))).isEqualTo(HOURS.toMillis(165));
+    }
+
+    private boolean insert(BucketedTable bucketedTable, final long captureTime)
+            throws Exception {
+        return bucketedTable.write(captureTime, new BucketWriter() {
+            @Override
+            public void write(@Untainted String bucketTableName) throws Exception {
+                dataSource.update("insert into " + bucketTableName
+                        + " (capture_time, value) values (?, 1)", captureTime);
+            }
+        });
+    }
+}
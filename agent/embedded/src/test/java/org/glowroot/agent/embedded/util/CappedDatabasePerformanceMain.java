@@ -0,0 +1,173 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.embedded.util;
+
+import java.io.File;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+// measures capped database throughput under a mixed load of trace writes and concurrent reads (e.g.
+// from trace detail views in the UI), including reads of blocks that roll over mid-read
+public class CappedDatabasePerformanceMain {
+
+    private static final Logger logger =
+            LoggerFactory.getLogger(CappedDatabasePerformanceMain.class);
+
+    private static final int WRITER_COUNT = 2;
+    private static final int READER_COUNT = 8;
+    private static final int DURATION_SECONDS = 10;
+    // small enough that the capped database rolls over many times during the run
+    private static final int SIZE_KB = 10 * 1024;
+    private static final int RECENT_ID_COUNT = 1024;
+
+    private CappedDatabasePerformanceMain() {}
+
+    public static void main(String[] args) throws Exception {
+        File file = File.createTempFile("glowroot-perf-", ".capped.db");
+        CappedDatabase cappedDatabase =
+                new CappedDatabase(file, SIZE_KB, null, Ticker.systemTicker());
+        AtomicLongArray recentIds = new AtomicLongArray(RECENT_ID_COUNT);
+        AtomicLong writeCount = new AtomicLong();
+        AtomicLong readCount = new AtomicLong();
+        AtomicLong expiredReadCount = new AtomicLong();
+        AtomicBoolean stop = new AtomicBoolean();
+
+        // prime with some data so readers have something to read from the start
+        ByteSource content = createContent(new Random(0));
+        for (int i = 0; i < RECENT_ID_COUNT; i++) {
+            recentIds.set(i, cappedDatabase.write(content, "trace entries"));
+        }
+
+        List<Thread> threads = Lists.newArrayList();
+        for (int i = 0; i < WRITER_COUNT; i++) {
+            threads.add(new Thread(new WriterRunnable(cappedDatabase, recentIds, writeCount, stop,
+                    new Random(i))));
+        }
+        for (int i = 0; i < READER_COUNT; i++) {
+            threads.add(new Thread(new ReaderRunnable(cappedDatabase, recentIds, readCount,
+                    expiredReadCount, stop, new Random(100 + i))));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        SECONDS.sleep(DURATION_SECONDS);
+        stop.set(true);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        logger.info("writers: {}, readers: {}, writes per second: {}, reads per second: {},"
+                + " expired reads: {}", WRITER_COUNT, READER_COUNT,
+                writeCount.get() / DURATION_SECONDS, readCount.get() / DURATION_SECONDS,
+                expiredReadCount.get());
+        cappedDatabase.close();
+        file.delete();
+    }
+
+    private static ByteSource createContent(Random random) {
+        // roughly the compressibility of trace entries
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 32768) {
+            sb.append("select * from table_");
+            sb.append(random.nextInt(100));
+            sb.append(" where id = ");
+            sb.append(random.nextInt());
+            sb.append('\n');
+        }
+        return ByteSource.wrap(sb.toString().getBytes(UTF_8));
+    }
+
+    private static class WriterRunnable implements Runnable {
+
+        private final CappedDatabase cappedDatabase;
+        private final AtomicLongArray recentIds;
+        private final AtomicLong writeCount;
+        private final AtomicBoolean stop;
+        private final Random random;
+
+        private WriterRunnable(CappedDatabase cappedDatabase, AtomicLongArray recentIds,
+                AtomicLong writeCount, AtomicBoolean stop, Random random) {
+            this.cappedDatabase = cappedDatabase;
+            this.recentIds = recentIds;
+            this.writeCount = writeCount;
+            this.stop = stop;
+            this.random = random;
+        }
+
+        @Override
+        public void run() {
+            try {
+                ByteSource content = createContent(random);
+                while (!stop.get()) {
+                    long cappedId = cappedDatabase.write(content, "trace entries");
+                    recentIds.set(random.nextInt(RECENT_ID_COUNT), cappedId);
+                    writeCount.incrementAndGet();
+                }
+            } catch (Exception e) {
+                logger.error(e.getMessage(), e);
+            }
+        }
+    }
+
+    private static class ReaderRunnable implements Runnable {
+
+        private final CappedDatabase cappedDatabase;
+        private final AtomicLongArray recentIds;
+        private final AtomicLong readCount;
+        private final AtomicLong expiredReadCount;
+        private final AtomicBoolean stop;
+        private final Random random;
+
+        private ReaderRunnable(CappedDatabase cappedDatabase, AtomicLongArray recentIds,
+                AtomicLong readCount, AtomicLong expiredReadCount, AtomicBoolean stop,
+                Random random) {
+            this.cappedDatabase = cappedDatabase;
+            this.recentIds = recentIds;
+            this.readCount = readCount;
+            this.expiredReadCount = expiredReadCount;
+            this.stop = stop;
+            this.random = random;
+        }
+
+        @Override
+        public void run() {
+            while (!stop.get()) {
+                long cappedId = recentIds.get(random.nextInt(RECENT_ID_COUNT));
+                try {
+                    cappedDatabase.read(cappedId).read();
+                    readCount.incrementAndGet();
+                } catch (Exception e) {
+                    if (cappedDatabase.isExpired(cappedId)) {
+                        expiredReadCount.incrementAndGet();
+                    } else {
+                        logger.error(e.getMessage(), e);
+                    }
+                }
+            }
+        }
+    }
+}
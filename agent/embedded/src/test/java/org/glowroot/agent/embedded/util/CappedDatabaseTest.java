@@ -1,5 +1,5 @@
 /*
- * Copyright 2012-2018 the original author or authors.
+ * Copyright 2012-2026 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -21,6 +21,8 @@ import java.io.Reader;
 import java.util.Random;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.google.common.base.Ticker;
 import com.google.common.io.ByteSource;
@@ -152,4 +154,54 @@ public class CappedDatabaseTest {
         assertThat(exceptionClassName).isEqualTo("org.glowroot.agent.embedded.util.CappedDatabase"
                 + "$CappedBlockRolledOverMidReadException");
     }
+
+    @Test
+    public void shouldNeverReadPartiallyOverwrittenBlock() throws Exception {
+        // given
+        // use random text so that the lzf compressed text is also large and forces wrapping
+        Random random = new Random();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 600; i++) {
+            sb.append((char) ('a' + random.nextInt(26)));
+        }
+        final String text = sb.toString();
+        final AtomicLong lastCappedId =
+                new AtomicLong(cappedDatabase.write(ByteSource.wrap(text.getBytes(UTF_8)), "test"));
+        final AtomicBoolean stop = new AtomicBoolean();
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (!stop.get()) {
+                        lastCappedId.set(cappedDatabase
+                                .write(ByteSource.wrap(text.getBytes(UTF_8)), "test"));
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        writer.start();
+
+        // when
+        int successCount = 0;
+        int rolledOverCount = 0;
+        try {
+            for (int i = 0; i < 10000; i++) {
+                long cappedId = lastCappedId.get();
+                try {
+                    // then
+                    assertThat(cappedDatabase.read(cappedId).read()).isEqualTo(text);
+                    successCount++;
+                } catch (IOException e) {
+                    assertThat(cappedDatabase.isExpired(cappedId)).isTrue();
+                    rolledOverCount++;
+                }
+            }
+        } finally {
+            stop.set(true);
+            writer.join();
+        }
+        assertThat(successCount + rolledOverCount).isEqualTo(10000);
+    }
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright 2015-2018 the original author or authors.
+ * Copyright 2015-2023 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -15,11 +15,19 @@
  */
 package org.glowroot.agent.embedded.util;
 
+import java.io.File;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 
+import com.google.common.io.Files;
+import org.checkerframework.checker.tainting.qual.Untainted;
 import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
 
+import org.glowroot.agent.embedded.util.DataSource.JdbcQuery;
+
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -94,4 +102,55 @@ public class DataSourceTest {
                 "'aaa', NULL, 99");
         verifyNoMoreInteractions(logger);
     }
+
+    @Test
+    public void testReadConnections() throws Exception {
+        // given
+        File dbDir = Files.createTempDir();
+        final DataSource dataSource = new DataSource(new File(dbDir, "data.h2.db"), 2);
+        try {
+            dataSource.execute("create table test (x bigint)");
+            dataSource.update("insert into test (x) values (?)", 1);
+            // when
+            long count = dataSource.query(new JdbcQuery<Long>() {
+                @Override
+                public @Untainted String getSql() {
+                    return "select x from test";
+                }
+                @Override
+                public void bind(PreparedStatement preparedStatement) {}
+                @Override
+                public Long processResultSet(ResultSet resultSet) throws Exception {
+                    // write and nested read while holding a read connection
+                    while (resultSet.next()) {
+                        dataSource.update("insert into test (x) values (?)",
+                                resultSet.getLong(1) + 1);
+                    }
+                    return dataSource.queryForLong("select count(*) from test");
+                }
+                @Override
+                public Long valueIfDataSourceClosed() {
+                    return 0L;
+                }
+            });
+            dataSource.compact();
+            long countAfterCompact = dataSource.queryForLong("select count(*) from test");
+            // then
+            assertThat(count).isEqualTo(2);
+            assertThat(countAfterCompact).isEqualTo(2);
+            assertThat(dataSource.getReadConnectionCount()).isEqualTo(2);
+            assertThat(dataSource.getReadConnectionWaitStats().getCount()).isEqualTo(2);
+            assertThat(dataSource.getWriteLockWaitStats().getCount()).isGreaterThan(0);
+        } finally {
+            // cleanup
+            dataSource.close();
+            File[] files = dbDir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            dbDir.delete();
+        }
+    }
 }
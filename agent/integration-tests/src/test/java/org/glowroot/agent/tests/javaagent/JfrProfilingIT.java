@@ -0,0 +1,163 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.tests.javaagent;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import org.glowroot.agent.it.harness.AppUnderTest;
+import org.glowroot.agent.it.harness.Container;
+import org.glowroot.agent.it.harness.TransactionMarker;
+import org.glowroot.agent.it.harness.impl.JavaagentContainer;
+import org.glowroot.agent.tests.ProtoOptional;
+import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig.TransactionConfig;
+import org.glowroot.wire.api.model.ProfileOuterClass.Profile;
+import org.glowroot.wire.api.model.Proto.OptionalInt32;
+import org.glowroot.wire.api.model.TraceOuterClass.Trace;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+// the JFR based profiler is selected at startup, so this only works with javaagent container
+public class JfrProfilingIT {
+
+    private static Container container;
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        Assumptions.assumeTrue(isRecordingStreamSupported());
+        container = JavaagentContainer.createWithExtraJvmArgs(
+                ImmutableList.of("-Dglowroot.internal.profiling.jfr=true"));
+        setProfilingIntervalMillis(10);
+        // capture one trace to warm up the system, since the JFR recording stream can take a while
+        // to start delivering events
+        container.execute(ShouldGenerateTraceWithProfile.class);
+        container.checkAndReset();
+    }
+
+    @AfterAll
+    public static void tearDown() throws Exception {
+        // need null check in case assumption is false in setUp()
+        if (container != null) {
+            container.close();
+        }
+    }
+
+    @AfterEach
+    public void afterEachTest() throws Exception {
+        container.checkAndReset();
+    }
+
+    @Test
+    public void shouldReadProfile() throws Exception {
+        // given
+        setProfilingIntervalMillis(10);
+        // when
+        Trace trace = container.execute(ShouldGenerateTraceWithProfile.class);
+        // then
+        assertThat(trace.getHeader().getMainThreadProfileSampleCount()).isGreaterThan(0);
+        Profile profile = trace.getMainThreadProfile();
+        assertThat(profile.getMethodNameList()).contains("spin");
+    }
+
+    @Test
+    public void shouldReadProfileOfSubSecondTransaction() throws Exception {
+        // given
+        setProfilingIntervalMillis(10);
+        // the JFR sampler only picks up the new sampling period once the prior period (the default
+        // profiling interval of 1 second, restored by checkAndReset()) has elapsed
+        Thread.sleep(1500);
+        // when
+        Trace trace = container.execute(ShouldGenerateSubSecondTraceWithProfile.class);
+        // then
+        // JFR delivers samples in batches (roughly once per second), so the samples taken just
+        // before completion are delivered after the transaction completes
+        assertThat(trace.getHeader().getMainThreadProfileSampleCount()).isGreaterThan(0);
+        Profile profile = trace.getMainThreadProfile();
+        assertThat(profile.getMethodNameList()).contains("spinJustBeforeCompletion");
+    }
+
+    private static void setProfilingIntervalMillis(int millis) throws Exception {
+        container.getConfigService().updateTransactionConfig(
+                TransactionConfig.newBuilder()
+                        .setSlowThresholdMillis(OptionalInt32.newBuilder().setValue(0))
+                        .setProfilingIntervalMillis(ProtoOptional.of(millis))
+                        .build());
+    }
+
+    private static boolean isRecordingStreamSupported() {
+        try {
+            Class.forName("jdk.jfr.consumer.RecordingStream");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    public static class ShouldGenerateTraceWithProfile implements AppUnderTest, TransactionMarker {
+
+        @Override
+        public void executeApp() {
+            transactionMarker();
+        }
+
+        @Override
+        public void transactionMarker() {
+            spinFor(3000);
+        }
+
+        static void spinFor(long millis) {
+            Stopwatch stopwatch = Stopwatch.createStarted();
+            while (stopwatch.elapsed(MILLISECONDS) < millis) {
+                spin();
+            }
+        }
+
+        private static double spin() {
+            // not using a tight arithmetic loop here since JFR can fail to sample those (without
+            // -XX:+DebugNonSafepoints)
+            double value = 0;
+            for (int i = 0; i < 1000; i++) {
+                value += String.valueOf(i * value).hashCode();
+            }
+            return value;
+        }
+    }
+
+    public static class ShouldGenerateSubSecondTraceWithProfile
+            implements AppUnderTest, TransactionMarker {
+
+        @Override
+        public void executeApp() {
+            transactionMarker();
+        }
+
+        @Override
+        public void transactionMarker() {
+            ShouldGenerateTraceWithProfile.spinFor(300);
+            spinJustBeforeCompletion();
+        }
+
+        private static void spinJustBeforeCompletion() {
+            ShouldGenerateTraceWithProfile.spinFor(200);
+        }
+    }
+}
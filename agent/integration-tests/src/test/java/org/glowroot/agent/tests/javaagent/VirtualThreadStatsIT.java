@@ -0,0 +1,118 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.tests.javaagent;
+
+import java.lang.reflect.Method;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import org.glowroot.agent.it.harness.AppUnderTest;
+import org.glowroot.agent.it.harness.Container;
+import org.glowroot.agent.it.harness.TransactionMarker;
+import org.glowroot.agent.it.harness.impl.JavaagentContainer;
+import org.glowroot.wire.api.model.TraceOuterClass.Trace;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+// virtual thread stats are captured from the carrier threads via hooks that are woven into
+// java.lang.VirtualThread, so this only works with javaagent container
+public class VirtualThreadStatsIT {
+
+    private static Container container;
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        Assumptions.assumeTrue(isVirtualThreadSupported());
+        container = JavaagentContainer.create();
+    }
+
+    @AfterAll
+    public static void tearDown() throws Exception {
+        // need null check in case assumption is false in setUp()
+        if (container != null) {
+            container.close();
+        }
+    }
+
+    @AfterEach
+    public void afterEachTest() throws Exception {
+        container.checkAndReset();
+    }
+
+    @Test
+    public void shouldReadVirtualThreadStats() throws Exception {
+        // when
+        Trace trace = container.execute(TransactionOnVirtualThread.class);
+
+        // then
+        Trace.ThreadStats threadStats = trace.getHeader().getMainThreadStats();
+        assertThat(threadStats.getCpuNanos()).isGreaterThan(0);
+        assertThat(threadStats.getBlockedNanos()).isEqualTo(-1);
+        // should be 100ms, but margin of error, esp. in travis builds is high
+        assertThat(threadStats.getWaitedNanos()).isGreaterThanOrEqualTo(MILLISECONDS.toNanos(80));
+        assertThat(threadStats.getAllocatedBytes()).isGreaterThan(1000000);
+    }
+
+    private static boolean isVirtualThreadSupported() {
+        try {
+            Thread.class.getMethod("startVirtualThread", Runnable.class);
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    public static class TransactionOnVirtualThread implements AppUnderTest, TransactionMarker {
+
+        @Override
+        public void executeApp() throws Exception {
+            // accessed via reflection since tests are compiled against java 8
+            Method method = Thread.class.getMethod("startVirtualThread", Runnable.class);
+            Thread thread = (Thread) method.invoke(null, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        transactionMarker();
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            thread.join();
+        }
+
+        @Override
+        public void transactionMarker() throws Exception {
+            List<byte[]> list = Lists.newArrayList();
+            for (int i = 0; i < 100; i++) {
+                list.add(new byte[10000]);
+            }
+            // unmounts the virtual thread
+            MILLISECONDS.sleep(50);
+            for (int i = 0; i < 100; i++) {
+                list.add(new byte[10000]);
+            }
+            MILLISECONDS.sleep(50);
+        }
+    }
+}
@@ -48,10 +48,18 @@ public class Threads {
             // subprocess ends, they show up here when mixing local container and javaagent
             // container tests since javaagent container tests create subprocesses and then local
             // container tests check for rogue threads and find these
+            //
+            // jdk.internal.misc.CarrierThread are JVM threads that run virtual threads, these stay
+            // around in the (shared) virtual thread scheduler for 30 seconds after they go idle
+            //
+            // VirtualThread-unparker is a JVM thread that is created the first time a virtual thread
+            // sleeps (or parks with a timeout), and stays around after that
             if (thread.getState() != State.TERMINATED
                     && !thread.getName().equals("DestroyJavaVM")
                     && !thread.getName().equals("AWT-AppKit")
-                    && !thread.getName().equals("process reaper")) {
+                    && !thread.getName().equals("process reaper")
+                    && !thread.getName().equals("VirtualThread-unparker")
+                    && !thread.getClass().getName().equals("jdk.internal.misc.CarrierThread")) {
                 threads.add(thread);
             }
         }
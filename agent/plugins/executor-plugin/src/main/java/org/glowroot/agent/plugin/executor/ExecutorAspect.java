@@ -24,6 +24,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import org.glowroot.agent.plugin.api.Agent;
 import org.glowroot.agent.plugin.api.AuxThreadContext;
 import org.glowroot.agent.plugin.api.Logger;
+import org.glowroot.agent.plugin.api.MessageSupplier;
 import org.glowroot.agent.plugin.api.ParameterHolder;
 import org.glowroot.agent.plugin.api.ThreadContext;
 import org.glowroot.agent.plugin.api.Timer;
@@ -43,6 +44,8 @@ import org.glowroot.agent.plugin.api.weaving.OnReturn;
 import org.glowroot.agent.plugin.api.weaving.OnThrow;
 import org.glowroot.agent.plugin.api.weaving.Pointcut;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
 public class ExecutorAspect {
 
     private static final Logger logger = Logger.getLogger(ExecutorAspect.class);
@@ -228,6 +231,79 @@ public class ExecutorAspect {
         }
     }
 
+    // virtual threads (Thread.ofVirtual(), Thread.startVirtualThread(), virtual thread factories,
+    // and so also StructuredTaskScope.fork()) do not pass their task to any of the Thread
+    // constructors above, so the task is captured from the VirtualThread constructor instead
+    //
+    // the task is always wrapped here (not only lambdas) since it is not reachable by application
+    // code via the virtual thread, so there is no identity to preserve (and the task is often a jdk
+    // class, e.g. StructuredTaskScope.SubtaskImpl, which may have been loaded before the mixin could
+    // be applied)
+    //
+    // Executors.newVirtualThreadPerTaskExecutor() is already covered by the executor advice, and
+    // the nesting group prevents the task from being wrapped a second time here
+    @Pointcut(className = "java.lang.VirtualThread", methodName = "<init>",
+            methodParameterTypes = {"java.util.concurrent.Executor", "java.lang.String", "int",
+                    "java.lang.Runnable"},
+            nestingGroup = "executor-execute")
+    public static class VirtualThreadInitAdvice {
+        @OnBefore
+        public static void onBefore(ThreadContext context,
+                @SuppressWarnings("unused") @BindParameter @Nullable Object scheduler,
+                @SuppressWarnings("unused") @BindParameter @Nullable String name,
+                @SuppressWarnings("unused") @BindParameter int characteristics,
+                @BindParameter ParameterHolder<Runnable> taskHolder) {
+            Runnable task = taskHolder.get();
+            if (task instanceof SuppressedRunnableMixin) {
+                return;
+            }
+            if (task instanceof RunnableEtcMixin
+                    && ((RunnableEtcMixin) task).glowroot$getAuxContext() != null) {
+                // already captured by other advice, and will be picked up by RunnableAdvice
+                return;
+            }
+            wrapRunnable(taskHolder, context);
+        }
+    }
+
+    // (re-)scheduling the continuation of a virtual thread onto its scheduler (which happens on
+    // start and again after each park) is not new work, so this advice only exists to suppress the
+    // executor advice (via the nesting group) which would otherwise capture the continuation as
+    // another auxiliary thread context each time
+    @Pointcut(className = "java.lang.VirtualThread",
+            methodName = "submitRunContinuation|lazySubmitRunContinuation"
+                    + "|externalSubmitRunContinuation",
+            methodParameterTypes = {".."}, nestingGroup = "executor-execute")
+    public static class VirtualThreadSubmitRunContinuationAdvice {
+        @OnBefore
+        public static void onBefore() {}
+    }
+
+    // a virtual thread that parks while pinned (e.g. while holding a monitor prior to java 24, or
+    // with a native frame on the stack) blocks its carrier thread instead of unmounting, which
+    // limits throughput, so this is captured as a trace entry with the stack trace of where it
+    // occurred
+    @Pointcut(className = "java.lang.VirtualThread", methodName = "parkOnCarrierThread",
+            methodParameterTypes = {"boolean", "long"}, timerName = "virtual thread pinned")
+    public static class VirtualThreadPinnedAdvice {
+        private static final TimerName timerName =
+                Agent.getTimerName(VirtualThreadPinnedAdvice.class);
+        @OnBefore
+        public static TraceEntry onBefore(ThreadContext context) {
+            return context.startTraceEntry(MessageSupplier.create("virtual thread pinned"),
+                    timerName);
+        }
+        @OnReturn
+        public static void onReturn(@BindTraveler TraceEntry traceEntry) {
+            traceEntry.endWithLocationStackTrace(0, MILLISECONDS);
+        }
+        @OnThrow
+        public static void onThrow(@BindThrowable Throwable t,
+                @BindTraveler TraceEntry traceEntry) {
+            traceEntry.endWithError(t);
+        }
+    }
+
     @Pointcut(className = "com.google.common.util.concurrent.ListenableFuture",
             methodName = "addListener",
             methodParameterTypes = {"java.lang.Runnable", "java.util.concurrent.Executor"},
@@ -512,8 +588,7 @@ public class ExecutorAspect {
             return;
         } else if (runnable instanceof RunnableEtcMixin) {
             onBeforeCommon(context, (RunnableEtcMixin) runnable);
-        } else if (runnable != null &&
-                (runnable.getClass().getName().contains("$$Lambda/") /* jdk21+ */ || runnable.getClass().getName().contains("$$Lambda$")) /* jdk8-20 */) {
+        } else if (runnable != null && isLambda(runnable)) {
             wrapRunnable(runnableHolder, context);
         }
     }
@@ -523,7 +598,7 @@ public class ExecutorAspect {
         Callable<T> callable = callableHolder.get();
         if (callable instanceof RunnableEtcMixin) {
             onBeforeCommon(context, (RunnableEtcMixin) callable);
-        } else if (callable != null && callable.getClass().getName().contains("$$Lambda$")) {
+        } else if (callable != null && isLambda(callable)) {
             wrapCallable(callableHolder, context);
         }
     }
@@ -541,7 +616,7 @@ public class ExecutorAspect {
             if (runnable instanceof RunnableEtcMixin) {
                 onBeforeCommon(context, (RunnableEtcMixin) runnable);
                 return true;
-            } else if (runnable != null && runnable.getClass().getName().contains("$$Lambda$")) {
+            } else if (runnable != null && isLambda(runnable)) {
                 wrapRunnable(runnableHolder, context);
                 return true;
             }
@@ -549,6 +624,12 @@ public class ExecutorAspect {
         return false;
     }
 
+    private static boolean isLambda(Object obj) {
+        String className = obj.getClass().getName();
+        // "$$Lambda/" is jdk21+, "$$Lambda$" is jdk8-20
+        return className.contains("$$Lambda/") || className.contains("$$Lambda$");
+    }
+
     private static void onBeforeCommon(ThreadContext context, RunnableEtcMixin runnableEtc) {
         RunnableEtcMixin runnableMixin = runnableEtc;
         AuxThreadContext auxContext = context.createAuxThreadContext();
@@ -0,0 +1,279 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.executor;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import org.glowroot.agent.it.harness.AppUnderTest;
+import org.glowroot.agent.it.harness.Container;
+import org.glowroot.agent.it.harness.TraceEntryMarker;
+import org.glowroot.agent.it.harness.TransactionMarker;
+import org.glowroot.agent.it.harness.impl.JavaagentContainer;
+import org.glowroot.wire.api.model.TraceOuterClass.Trace;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+// virtual thread apis are accessed via reflection since tests are compiled against java 8
+public class VirtualThreadIT {
+
+    private static Container container;
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        Assumptions.assumeTrue(isVirtualThreadSupported());
+        // tests only work with javaagent container because they need to weave
+        // java.lang.VirtualThread
+        container = JavaagentContainer.create();
+    }
+
+    @AfterAll
+    public static void tearDown() throws Exception {
+        if (container != null) {
+            container.close();
+        }
+    }
+
+    @AfterEach
+    public void afterEachTest() throws Exception {
+        container.checkAndReset();
+    }
+
+    @Test
+    public void shouldCaptureStartVirtualThread() throws Exception {
+        // when
+        Trace trace = container.execute(DoStartVirtualThread.class);
+        // then
+        checkTrace(trace);
+    }
+
+    @Test
+    public void shouldCaptureStartVirtualThreadWithLambda() throws Exception {
+        // when
+        Trace trace = container.execute(DoStartVirtualThreadWithLambda.class);
+        // then
+        checkTrace(trace);
+    }
+
+    @Test
+    public void shouldCaptureVirtualThreadPerTaskExecutorWithCallableLambda() throws Exception {
+        // when
+        Trace trace = container.execute(DoSubmitCallableLambdaToVirtualThreadPerTaskExecutor.class);
+        // then
+        checkTrace(trace);
+    }
+
+    @Test
+    public void shouldCaptureVirtualThreadPinned() throws Exception {
+        // when
+        Trace trace = container.execute(DoSleepWhilePinned.class);
+        // then
+        List<Trace.Entry> entries = trace.getEntryList();
+        assertThat(entries).hasSize(3);
+        assertThat(entries.get(0).getDepth()).isEqualTo(0);
+        assertThat(entries.get(0).getMessage()).isEqualTo("auxiliary thread");
+        assertThat(entries.get(1).getDepth()).isEqualTo(1);
+        assertThat(entries.get(1).getMessage())
+                .isEqualTo("trace entry marker / SleepWhilePinned");
+        assertThat(entries.get(2).getDepth()).isEqualTo(2);
+        assertThat(entries.get(2).getMessage()).isEqualTo("virtual thread pinned");
+        assertThat(entries.get(2).getLocationStackTraceElementList()).isNotEmpty();
+    }
+
+    private static void checkTrace(Trace trace) {
+        Trace.Header header = trace.getHeader();
+        assertThat(header.hasAuxThreadRootTimer()).isTrue();
+        assertThat(header.getAsyncTimerCount()).isZero();
+        assertThat(header.getAuxThreadRootTimer().getName()).isEqualTo("auxiliary thread");
+        assertThat(header.getAuxThreadRootTimer().getCount()).isEqualTo(3);
+        // should be 300ms, but margin of error, esp. in travis builds is high
+        assertThat(header.getAuxThreadRootTimer().getTotalNanos())
+                .isGreaterThanOrEqualTo(MILLISECONDS.toNanos(250));
+        assertThat(header.getAuxThreadRootTimer().getChildTimerCount()).isEqualTo(1);
+        assertThat(header.getAuxThreadRootTimer().getChildTimer(0).getName())
+                .isEqualTo("mock trace entry marker");
+        List<Trace.Entry> entries = trace.getEntryList();
+        assertThat(entries).hasSize(6);
+        for (int i = 0; i < entries.size(); i += 2) {
+            assertThat(entries.get(i).getDepth()).isEqualTo(0);
+            assertThat(entries.get(i).getMessage()).isEqualTo("auxiliary thread");
+
+            assertThat(entries.get(i + 1).getDepth()).isEqualTo(1);
+            assertThat(entries.get(i + 1).getMessage())
+                    .isEqualTo("trace entry marker / CreateTraceEntry");
+        }
+    }
+
+    private static boolean isVirtualThreadSupported() {
+        try {
+            Thread.class.getMethod("startVirtualThread", Runnable.class);
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static Thread startVirtualThread(Runnable task) throws Exception {
+        Method method = Thread.class.getMethod("startVirtualThread", Runnable.class);
+        return (Thread) method.invoke(null, task);
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() throws Exception {
+        Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        return (ExecutorService) method.invoke(null);
+    }
+
+    public static class DoStartVirtualThread implements AppUnderTest, TransactionMarker {
+
+        @Override
+        public void executeApp() throws Exception {
+            transactionMarker();
+        }
+
+        @Override
+        public void transactionMarker() throws Exception {
+            Thread thread1 = startVirtualThread(new Runnable() {
+                @Override
+                public void run() {
+                    new CreateTraceEntry().traceEntryMarker();
+                }
+            });
+            Thread thread2 = startVirtualThread(new Runnable() {
+                @Override
+                public void run() {
+                    new CreateTraceEntry().traceEntryMarker();
+                }
+            });
+            Thread thread3 = startVirtualThread(new Runnable() {
+                @Override
+                public void run() {
+                    new CreateTraceEntry().traceEntryMarker();
+                }
+            });
+            thread1.join();
+            thread2.join();
+            thread3.join();
+        }
+    }
+
+    public static class DoStartVirtualThreadWithLambda implements AppUnderTest, TransactionMarker {
+
+        @Override
+        public void executeApp() throws Exception {
+            transactionMarker();
+        }
+
+        @Override
+        public void transactionMarker() throws Exception {
+            Thread thread1 = startVirtualThread(() -> new CreateTraceEntry().traceEntryMarker());
+            Thread thread2 = startVirtualThread(() -> new CreateTraceEntry().traceEntryMarker());
+            Thread thread3 = startVirtualThread(() -> new CreateTraceEntry().traceEntryMarker());
+            thread1.join();
+            thread2.join();
+            thread3.join();
+        }
+    }
+
+    public static class DoSubmitCallableLambdaToVirtualThreadPerTaskExecutor
+            implements AppUnderTest, TransactionMarker {
+
+        @Override
+        public void executeApp() throws Exception {
+            transactionMarker();
+        }
+
+        @Override
+        public void transactionMarker() throws Exception {
+            ExecutorService executor = newVirtualThreadPerTaskExecutor();
+            Callable<Void> callable = () -> {
+                new CreateTraceEntry().traceEntryMarker();
+                return null;
+            };
+            Future<Void> future1 = executor.submit(callable);
+            Future<Void> future2 = executor.submit(callable);
+            Future<Void> future3 = executor.submit(callable);
+            future1.get();
+            future2.get();
+            future3.get();
+            executor.shutdown();
+        }
+    }
+
+    public static class DoSleepWhilePinned implements AppUnderTest, TransactionMarker {
+
+        @Override
+        public void executeApp() throws Exception {
+            transactionMarker();
+        }
+
+        @Override
+        public void transactionMarker() throws Exception {
+            startVirtualThread(new Runnable() {
+                @Override
+                public void run() {
+                    new SleepWhilePinned().traceEntryMarker();
+                }
+            }).join();
+        }
+    }
+
+    private static class CreateTraceEntry implements TraceEntryMarker {
+
+        @Override
+        public void traceEntryMarker() {
+            try {
+                MILLISECONDS.sleep(100);
+            } catch (InterruptedException e) {
+            }
+        }
+    }
+
+    private static class SleepWhilePinned implements TraceEntryMarker {
+
+        @Override
+        public void traceEntryMarker() {
+            // a virtual thread cannot unmount while there is a native frame on its stack, which
+            // is the case while running a class initializer, so sleeping inside a class
+            // initializer pins the virtual thread to its carrier thread (sleeping while holding a
+            // monitor is not used here since it no longer pins as of java 24)
+            SleepInClassInitializer.init();
+        }
+    }
+
+    private static class SleepInClassInitializer {
+
+        static {
+            try {
+                MILLISECONDS.sleep(100);
+            } catch (InterruptedException e) {
+            }
+        }
+
+        // this is only here to trigger the class initializer (which only runs the first time)
+        private static void init() {}
+    }
+}
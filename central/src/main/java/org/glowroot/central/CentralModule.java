@@ -83,6 +83,7 @@ import org.glowroot.common2.repo.util.LockSet;
 import org.glowroot.common2.repo.util.MailService;
 import org.glowroot.ui.CommonHandler;
 import org.glowroot.ui.CreateUiModuleBuilder;
+import org.glowroot.ui.HttpHandlerMetricsMXBean;
 import org.glowroot.ui.SessionMapFactory;
 import org.glowroot.ui.UiModule;
 
@@ -97,6 +98,11 @@ public class CentralModule {
     private static final int TARGET_MAX_ACTIVE_AGENTS_IN_PAST_7_DAYS = 10000;
     private static final int TARGET_MAX_CENTRAL_UI_USERS = 100;
 
+    private static final String HTTP_HANDLER_MBEAN_OBJECT_NAME =
+            "org.glowroot.central:type=HttpHandler";
+    private static final String AGGREGATE_CACHE_MBEAN_OBJECT_NAME =
+            "org.glowroot.central:type=AggregateCache";
+
     // need to wait to init logger until after establishing centralDir
     private static volatile @MonotonicNonNull Logger startupLogger;
 
@@ -112,6 +118,8 @@ public class CentralModule {
     private final RollupService rollupService;
     private final SyntheticMonitorService syntheticMonitorService;
     private final UiModule uiModule;
+    private final boolean httpHandlerMBeanRegistered;
+    private final boolean aggregateCacheMBeanRegistered;
     public CentralConfiguration centralConfig;
 
     public static CentralModule create() throws Exception {
@@ -142,6 +150,8 @@ public class CentralModule {
         RollupService rollupService = null;
         SyntheticMonitorService syntheticMonitorService = null;
         UiModule uiModule = null;
+        boolean httpHandlerMBeanRegistered = false;
+        boolean aggregateCacheMBeanRegistered = false;
         try {
             Directories directories = new Directories(centralDir);
             // init logger as early as possible
@@ -214,8 +224,11 @@ public class CentralModule {
                     directories.getConfDir(), repos.getAgentDisplayDao(), repos.getAgentConfigDao(),
                     repos.getActiveAgentDao(), repos.getEnvironmentDao(), repos.getHeartbeatDao(),
                     repos.getAggregateDao(), repos.getGaugeValueDao(), repos.getTraceDao(),
-                    repos.getV09AgentRollupDao(), centralAlertingService, clusterManager, clock,
-                    version);
+                    repos.getV09AgentRollupDao(), centralAlertingService, clusterManager,
+                    new WriteBudget(centralConfig.collectorMaxConcurrentWrites(),
+                            centralConfig.collectorMaxQueuedWrites(),
+                            session.getCassandraWriteMetrics()),
+                    clock, version);
             DownstreamServiceImpl downstreamService = grpcServer.getDownstreamService();
             updateAgentConfigIfNeededService = new UpdateAgentConfigIfNeededService(
                     repos.getAgentConfigDao(), repos.getActiveAgentDao(), downstreamService, clock);
@@ -230,8 +243,9 @@ public class CentralModule {
                 }
             });
             rollupService = new RollupService(repos.getActiveAgentDao(), repos.getAggregateDao(),
-                    repos.getGaugeValueDao(), repos.getSyntheticResultDao(), centralAlertingService,
-                    clock);
+                    repos.getGaugeValueDao(), repos.getSyntheticResultDao(), repos.getTraceDao(),
+                    centralAlertingService, clusterManager,
+                    centralConfig.rollupMaxConcurrentAgentRollups(), clock);
             syntheticMonitorService = new SyntheticMonitorService(repos.getActiveAgentDao(),
                     repos.getConfigRepository(), repos.getAlertingDisabledDao(),
                     repos.getIncidentDao(), alertingService, repos.getSyntheticResultDao(),
@@ -278,8 +292,17 @@ public class CentralModule {
                     })
                     .httpClient(httpClient)
                     .numWorkerThreads(50)
+                    .numHandlerThreads(50)
+                    .maxConcurrentExpensiveRequests(10)
                     .version(version)
                     .build();
+            HttpHandlerMetricsMXBean httpHandlerMetrics = uiModule.getHttpHandlerMetrics();
+            if (httpHandlerMetrics != null) {
+                httpHandlerMBeanRegistered =
+                        MoreMBeans.register(httpHandlerMetrics, HTTP_HANDLER_MBEAN_OBJECT_NAME);
+            }
+            aggregateCacheMBeanRegistered = MoreMBeans.register(
+                    uiModule.getAggregateCacheMetrics(), AGGREGATE_CACHE_MBEAN_OBJECT_NAME);
             startupLogger.info("startup complete");
         } catch (Throwable t) {
             if (startupLogger == null) {
@@ -335,6 +358,8 @@ public class CentralModule {
         this.rollupService = rollupService;
         this.syntheticMonitorService = syntheticMonitorService;
         this.uiModule = uiModule;
+        this.httpHandlerMBeanRegistered = httpHandlerMBeanRegistered;
+        this.aggregateCacheMBeanRegistered = aggregateCacheMBeanRegistered;
     }
 
     CommonHandler getCommonHandler() {
@@ -350,6 +375,12 @@ public class CentralModule {
             List<CompletableFuture<?>> futures = new ArrayList<>();
             // gracefully close down external inputs first (ui and grpc)
             futures.add(submit(executor, () -> uiModule.close(jvmTermination)));
+            if (httpHandlerMBeanRegistered) {
+                MoreMBeans.unregister(HTTP_HANDLER_MBEAN_OBJECT_NAME);
+            }
+            if (aggregateCacheMBeanRegistered) {
+                MoreMBeans.unregister(AGGREGATE_CACHE_MBEAN_OBJECT_NAME);
+            }
             // updateAgentConfigIfNeededService depends on grpc downstream, so must be shutdown
             // before grpc
             futures.add(submit(executor, updateAgentConfigIfNeededService::close));
@@ -688,6 +719,22 @@ public class CentralModule {
         if (!Strings.isNullOrEmpty(threadPoolMaxSize)) {
             builder.threadPoolMaxSize(Integer.parseInt(threadPoolMaxSize));
         }
+        String collectorMaxConcurrentWrites =
+                properties.get("glowroot.central.collectorMaxConcurrentWrites");
+        if (!Strings.isNullOrEmpty(collectorMaxConcurrentWrites)) {
+            builder.collectorMaxConcurrentWrites(Integer.parseInt(collectorMaxConcurrentWrites));
+        }
+        String collectorMaxQueuedWrites =
+                properties.get("glowroot.central.collectorMaxQueuedWrites");
+        if (!Strings.isNullOrEmpty(collectorMaxQueuedWrites)) {
+            builder.collectorMaxQueuedWrites(Integer.parseInt(collectorMaxQueuedWrites));
+        }
+        String rollupMaxConcurrentAgentRollups =
+                properties.get("glowroot.central.rollupMaxConcurrentAgentRollups");
+        if (!Strings.isNullOrEmpty(rollupMaxConcurrentAgentRollups)) {
+            builder.rollupMaxConcurrentAgentRollups(
+                    Integer.parseInt(rollupMaxConcurrentAgentRollups));
+        }
         for (Map.Entry<String, String> entry : properties.entrySet()) {
             String propertyName = entry.getKey();
             if (propertyName.startsWith("glowroot.jgroups.")) {
@@ -996,6 +1043,21 @@ public class CentralModule {
         	return 50;
         }
 
+        @Value.Default
+        int collectorMaxConcurrentWrites() {
+            return 500;
+        }
+
+        @Value.Default
+        int collectorMaxQueuedWrites() {
+            return 5000;
+        }
+
+        @Value.Default
+        int rollupMaxConcurrentAgentRollups() {
+            return 100;
+        }
+
         @Value.Default
         int cassandraPort() {
         	return 9042;
@@ -24,6 +24,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 import org.checkerframework.checker.nullness.qual.RequiresNonNull;
 import org.glowroot.agent.api.Instrumentation;
 import org.glowroot.central.repo.*;
+import org.glowroot.central.util.WriteBudget;
 import org.glowroot.common.util.Clock;
 import org.glowroot.common2.repo.CassandraProfile;
 import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig;
@@ -50,8 +51,11 @@ import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import javax.annotation.concurrent.GuardedBy;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
@@ -73,18 +77,19 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
     private final V09AgentRollupDao v09AgentRollupDao;
     private final GrpcCommon grpcCommon;
     private final CentralAlertingService centralAlertingService;
+    private final WriteBudget writeBudget;
     private final Clock clock;
     private final String version;
 
     private volatile long currentMinute;
     private final AtomicInteger nextDelay = new AtomicInteger();
 
-    private final LoadingCache<String, Semaphore> throttlePerAgentId = CacheBuilder.newBuilder()
+    private final LoadingCache<String, AgentThrottle> throttlePerAgentId = CacheBuilder.newBuilder()
             .weakValues()
-            .build(new CacheLoader<String, Semaphore>() {
+            .build(new CacheLoader<String, AgentThrottle>() {
                 @Override
-                public Semaphore load(String key) throws Exception {
-                    return new Semaphore(1);
+                public AgentThrottle load(String key) throws Exception {
+                    return new AgentThrottle();
                 }
             });
 
@@ -92,7 +97,8 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
                          ActiveAgentDao activeAgentDao, EnvironmentDao environmentDao, HeartbeatDao heartbeatDao,
                          AggregateDao aggregateDao, GaugeValueDao gaugeValueDao, TraceDao traceDao,
                          V09AgentRollupDao v09AgentRollupDao, GrpcCommon grpcCommon,
-                         CentralAlertingService centralAlertingService, Clock clock, String version) {
+                         CentralAlertingService centralAlertingService, WriteBudget writeBudget,
+                         Clock clock, String version) {
         this.agentDisplayDao = agentDisplayDao;
         this.agentConfigDao = agentConfigDao;
         this.activeAgentDao = activeAgentDao;
@@ -104,6 +110,7 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
         this.v09AgentRollupDao = v09AgentRollupDao;
         this.grpcCommon = grpcCommon;
         this.centralAlertingService = centralAlertingService;
+        this.writeBudget = writeBudget;
         this.clock = clock;
         this.version = version;
     }
@@ -145,6 +152,10 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
                 }
                 responseObserver.onNext(response.build());
                 responseObserver.onCompleted();
+            }).exceptionally(t -> {
+                logger.error("{} - {}", finalAgentId, t.getMessage(), t);
+                responseObserver.onError(t);
+                return null;
             });
 
         } catch (Throwable t) {
@@ -188,7 +199,8 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
     @Override
     public void collectGaugeValues(GaugeValueMessage request,
                                    StreamObserver<GaugeValueResponseMessage> responseObserver) {
-        throttledCollectGaugeValues(request, responseObserver).toCompletableFuture().join();
+        collectWithinWriteBudget(request.getAgentId(), request.getPostV09(), "gauge value",
+                responseObserver, () -> collectGaugeValuesUnderThrottle(request, responseObserver));
     }
 
     @Override
@@ -202,7 +214,7 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
     @Override
     public void collectTrace(OldTraceMessage request,
                              StreamObserver<EmptyMessage> responseObserver) {
-        throttledCollectTrace(request.getAgentId(), false, request.getTrace(), responseObserver).toCompletableFuture().join();
+        throttledCollectTrace(request.getAgentId(), false, request.getTrace(), responseObserver);
     }
 
     @Instrumentation.Transaction(transactionType = "gRPC", transactionName = "Log",
@@ -245,53 +257,54 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
                                            List<Aggregate.SharedQueryText> sharedQueryTexts,
                                            List<OldAggregatesByType> aggregatesByTypeList,
                                            StreamObserver<AggregateResponseMessage> responseObserver) {
-        throttle(agentId, postV09, "aggregate", responseObserver, new Runnable() {
-            @Override
-            public void run() {
-                collectAggregatesUnderThrottle(agentId, postV09, captureTime, sharedQueryTexts,
-                        aggregatesByTypeList, responseObserver);
-            }
+        AgentThrottle throttle = throttlePerAgentId.getUnchecked(agentId);
+        throttle.run(() -> {
+            return writeBudget.submit(() -> {
+                return collectAggregatesUnderThrottle(agentId, postV09, captureTime,
+                        sharedQueryTexts, aggregatesByTypeList, responseObserver);
+            }).exceptionally(t -> {
+                handleWriteBudgetRejection(t, agentId, postV09, "aggregate", responseObserver);
+                return null;
+            });
+        }, () -> {
+            logger.warn("{} - aggregate collection rejected due to backlog",
+                    getAgentIdForLogging(agentId, postV09));
+            responseObserver.onError(Status.RESOURCE_EXHAUSTED
+                    .withDescription("collection rejected due to backlog")
+                    .asRuntimeException());
         });
     }
 
-    private CompletionStage<?> throttledCollectGaugeValues(GaugeValueMessage request,
-                                             StreamObserver<GaugeValueResponseMessage> responseObserver) {
-
-        return collectGaugeValuesUnderThrottle(request, responseObserver);
+    private void throttledCollectTrace(String agentId, boolean postV09, Trace trace,
+                                       StreamObserver<EmptyMessage> responseObserver) {
+        collectWithinWriteBudget(agentId, postV09, "trace", responseObserver,
+                () -> collectTraceUnderThrottle(agentId, postV09, trace, responseObserver));
     }
 
-    private CompletionStage<?> throttledCollectTrace(String agentId, boolean postV09, Trace trace,
-                                       StreamObserver<EmptyMessage> responseObserver) {
-        return collectTraceUnderThrottle(agentId, postV09, trace, responseObserver);
+    // the grpc thread is never blocked waiting on cassandra, the response observer is completed
+    // from the cassandra future instead
+    private <T> void collectWithinWriteBudget(String agentId, boolean postV09,
+                                              String collectionType, StreamObserver<T> responseObserver,
+                                              Supplier<CompletionStage<?>> collector) {
+        writeBudget.submit(collector).exceptionally(t -> {
+            handleWriteBudgetRejection(t, agentId, postV09, collectionType, responseObserver);
+            return null;
+        });
     }
 
-    private <T> void throttle(String agentId, boolean postV09, String collectionType,
-                              StreamObserver<T> responseObserver, Runnable runnable) {
-        Semaphore semaphore = throttlePerAgentId.getUnchecked(agentId);
-        boolean acquired;
-        try {
-            acquired = semaphore.tryAcquire(1, MINUTES);
-        } catch (InterruptedException e) {
-            // probably shutdown requested
-            responseObserver.onError(e);
-            return;
-        }
-        if (!acquired) {
-            logger.warn("{} - {} collection rejected due to backlog",
+    private <T> void handleWriteBudgetRejection(Throwable t, String agentId, boolean postV09,
+                                                String collectionType, StreamObserver<T> responseObserver) {
+        if (t instanceof RejectedExecutionException) {
+            logger.warn("{} - {} collection rejected due to cassandra write backlog",
                     getAgentIdForLogging(agentId, postV09), collectionType);
             responseObserver.onError(Status.RESOURCE_EXHAUSTED
                     .withDescription("collection rejected due to backlog")
                     .asRuntimeException());
-            return;
-        }
-        try {
-            runnable.run();
-        } finally {
-            semaphore.release();
         }
+        // any other exception has already been logged and sent to the response observer
     }
 
-    private void collectAggregatesUnderThrottle(String agentId, boolean postV09, long captureTime,
+    private CompletionStage<?> collectAggregatesUnderThrottle(String agentId, boolean postV09, long captureTime,
                                                 List<Aggregate.SharedQueryText> sharedQueryTexts,
                                                 List<OldAggregatesByType> aggregatesByTypeList,
                                                 StreamObserver<AggregateResponseMessage> responseObserver) {
@@ -301,36 +314,32 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
         } catch (Throwable t) {
             logger.error("{} - {}", getAgentIdForLogging(agentId, postV09), t.getMessage(), t);
             responseObserver.onError(t);
-            return;
+            return CompletableFuture.completedFuture(null);
         }
         try {
-            aggregateDao.store(postV09AgentId, captureTime, aggregatesByTypeList, sharedQueryTexts)
-                    .whenComplete((res, t) -> {
-                        if (t != null) {
-                            logger.error("{} - {}", postV09AgentId, t.getMessage(), t);
-                            responseObserver.onError(t);
-                            return;
-                        }
-                        agentDisplayDao.readFullDisplay(postV09AgentId).thenCompose(agentDisplay -> {
-                            return centralAlertingService.checkForDeletedAlerts(postV09AgentId, CassandraProfile.collector).thenApply(v -> agentDisplay);
-                        }).thenCompose(agentDisplay -> {
-                            return centralAlertingService.checkAggregateAlertsAsync(postV09AgentId, agentDisplay,
-                                    captureTime, CassandraProfile.collector);
-                        }).thenApply(ignored -> {
-                            responseObserver.onNext(AggregateResponseMessage.newBuilder()
-                                    .setNextDelayMillis(getNextDelayMillis())
-                                    .build());
-                            responseObserver.onCompleted();
-                            return null;
-                        }).exceptionally(t2 -> {
-                            logger.error("{} - {}", postV09AgentId, t2.getMessage(), t2);
-                            responseObserver.onError(t2);
-                            return null;
-                        });
+            return aggregateDao.store(postV09AgentId, captureTime, aggregatesByTypeList, sharedQueryTexts)
+                    .thenCompose(ignored -> {
+                        return agentDisplayDao.readFullDisplay(postV09AgentId);
+                    }).thenCompose(agentDisplay -> {
+                        return centralAlertingService.checkForDeletedAlerts(postV09AgentId, CassandraProfile.collector).thenApply(v -> agentDisplay);
+                    }).thenCompose(agentDisplay -> {
+                        return centralAlertingService.checkAggregateAlertsAsync(postV09AgentId, agentDisplay,
+                                captureTime, CassandraProfile.collector);
+                    }).thenApply(ignored -> {
+                        responseObserver.onNext(AggregateResponseMessage.newBuilder()
+                                .setNextDelayMillis(getNextDelayMillis())
+                                .build());
+                        responseObserver.onCompleted();
+                        return null;
+                    }).exceptionally(t -> {
+                        logger.error("{} - {}", postV09AgentId, t.getMessage(), t);
+                        responseObserver.onError(t);
+                        return null;
                     });
         } catch (Throwable t) {
             logger.error("{} - {}", postV09AgentId, t.getMessage(), t);
             responseObserver.onError(t);
+            return CompletableFuture.completedFuture(null);
         }
     }
 
@@ -635,7 +644,7 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
         @Override
         public void onCompleted() {
             try {
-                onCompletedInternal().toCompletableFuture().join();
+                onCompletedInternal();
             } catch (Throwable t) {
                 logError(t);
                 throw t;
@@ -682,7 +691,7 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
             }
         }
 
-        private CompletionStage<?> onCompletedInternal() {
+        private void onCompletedInternal() {
             checkNotNull(streamHeader);
             if (trace == null) {
                 // this is for 0.9.13 and later agents
@@ -692,7 +701,7 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
                     // will just be hit again
                     responseObserver.onNext(EmptyMessage.getDefaultInstance());
                     responseObserver.onCompleted();
-                    return CompletableFuture.completedFuture(null);
+                    return;
                 }
                 Trace.Builder builder = Trace.newBuilder()
                         .setId(streamHeader.getTraceId())
@@ -713,7 +722,7 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
                         .addAllSharedQueryText(sharedQueryTexts)
                         .build();
             }
-            return throttledCollectTrace(streamHeader.getAgentId(), streamHeader.getPostV09(), trace,
+            throttledCollectTrace(streamHeader.getAgentId(), streamHeader.getPostV09(), trace,
                     responseObserver);
         }
 
@@ -758,4 +767,33 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
                     streamHeader.getPostV09());
         }
     }
+
+    // at most one aggregate collection in progress per agent, the others wait (up to one minute,
+    // same as the semaphore that this replaced) for their turn without blocking the grpc thread
+    private static class AgentThrottle {
+
+        private final Object lock = new Object();
+        @GuardedBy("lock")
+        private CompletableFuture<?> tail = CompletableFuture.completedFuture(null);
+
+        private void run(Supplier<CompletableFuture<?>> collector, Runnable rejected) {
+            CompletableFuture<?> prior;
+            CompletableFuture<Void> done = new CompletableFuture<>();
+            synchronized (lock) {
+                prior = tail;
+                tail = done;
+            }
+            // prior never completes exceptionally, copy() so that the timeout only applies to this
+            // waiter
+            prior.copy().orTimeout(1, MINUTES).whenComplete((ignored, t) -> {
+                if (t == null) {
+                    collector.get().whenComplete((result, t2) -> done.complete(null));
+                } else {
+                    rejected.run();
+                    // the next waiter still waits for the collection in progress
+                    prior.whenComplete((result, t2) -> done.complete(null));
+                }
+            });
+        }
+    }
 }
@@ -51,6 +51,7 @@ import org.glowroot.central.repo.TraceDao;
 import org.glowroot.central.repo.V09AgentRollupDao;
 import org.glowroot.central.util.ClusterManager;
 import org.glowroot.central.util.MoreExecutors2;
+import org.glowroot.central.util.WriteBudget;
 import org.glowroot.common.util.Clock;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -79,7 +80,8 @@ class GrpcServer {
             ActiveAgentDao activeAgentDao, EnvironmentDao environmentDao, HeartbeatDao heartbeatDao,
             AggregateDao aggregateDao, GaugeValueDao gaugeValueDao, TraceDao traceDao,
             V09AgentRollupDao v09AgentRollupDao, CentralAlertingService centralAlertingService,
-            ClusterManager clusterManager, Clock clock, String version) throws IOException {
+            ClusterManager clusterManager, WriteBudget writeBudget, Clock clock, String version)
+            throws IOException {
 
         GrpcCommon grpcCommon = new GrpcCommon(v09AgentRollupDao);
         downstreamService = new DownstreamServiceImpl(grpcCommon, clusterManager);
@@ -87,7 +89,7 @@ class GrpcServer {
         CollectorServiceImpl collectorService = new CollectorServiceImpl(agentDisplayDao,
                 agentConfigDao, activeAgentDao, environmentDao, heartbeatDao, aggregateDao,
                 gaugeValueDao, traceDao, v09AgentRollupDao, grpcCommon, centralAlertingService,
-                clock, version);
+                writeBudget, clock, version);
 
         if (httpPort == null) {
             httpServer = null;
@@ -1,5 +1,5 @@
 /*
- * Copyright 2016-2023 the original author or authors.
+ * Copyright 2016-2026 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -17,52 +17,97 @@ package org.glowroot.central;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableMap;
 import com.spotify.futures.CompletableFutures;
 import org.glowroot.agent.api.Instrumentation;
 import org.glowroot.central.repo.ActiveAgentDao;
 import org.glowroot.central.repo.AggregateDao;
 import org.glowroot.central.repo.GaugeValueDao;
 import org.glowroot.central.repo.SyntheticResultDao;
+import org.glowroot.central.repo.TraceDao;
+import org.glowroot.central.util.ClusterManager;
 import org.glowroot.central.util.MoreExecutors2;
+import org.glowroot.central.util.MoreMBeans;
 import org.glowroot.common.util.Clock;
 import org.glowroot.common2.repo.ActiveAgentRepository.AgentRollup;
 import org.glowroot.common2.repo.CassandraProfile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+
+import javax.annotation.concurrent.GuardedBy;
 
 import static java.util.concurrent.TimeUnit.*;
 
-class RollupService implements Runnable {
+class RollupService implements Runnable, RollupServiceMXBean {
 
     private static final Logger logger = LoggerFactory.getLogger(RollupService.class);
 
+    private static final String MBEAN_OBJECT_NAME = "org.glowroot.central:type=RollupService";
+
     private final ActiveAgentDao activeAgentDao;
     private final AggregateDao aggregateDao;
     private final GaugeValueDao gaugeValueDao;
     private final SyntheticResultDao syntheticResultDao;
+    private final TraceDao traceDao;
     private final CentralAlertingService centralAlertingService;
+    private final ClusterManager clusterManager;
     private final Clock clock;
 
+    // max number of top level agent rollups (each including its entire tree of child agent
+    // rollups) that are rolled up concurrently, in order to not flood cassandra with thousands of
+    // concurrent rollups at the top of each minute
+    private final int maxConcurrentAgentRollups;
+
+    private final BoundedScheduler<AgentRollup> scheduler;
+
     private final ExecutorService mainLoopExecutor;
 
+    // time that the last rollup pass completed for each top level agent rollup (owned by this
+    // central node), used to report rollup lag and to prioritize the agent rollups that are falling
+    // behind (a pass that is slow keeps increasing the lag until it completes)
+    private final Map<String, Long> lastRollupTimes = new ConcurrentHashMap<>();
+
+    private volatile int lastAgentRollupCount;
+    private volatile int lastSkippedAgentRollupCount;
+    private volatile long lastLoopDurationMillis;
+
+    private final boolean mbeanRegistered;
+
     private volatile boolean closed;
 
     RollupService(ActiveAgentDao activeAgentDao, AggregateDao aggregateDao,
                   GaugeValueDao gaugeValueDao, SyntheticResultDao syntheticResultDao,
-                  CentralAlertingService centralAlertingService, Clock clock) {
+                  TraceDao traceDao, CentralAlertingService centralAlertingService, ClusterManager clusterManager,
+                  int maxConcurrentAgentRollups, Clock clock) {
         this.activeAgentDao = activeAgentDao;
         this.aggregateDao = aggregateDao;
         this.gaugeValueDao = gaugeValueDao;
         this.syntheticResultDao = syntheticResultDao;
+        this.traceDao = traceDao;
         this.centralAlertingService = centralAlertingService;
+        this.clusterManager = clusterManager;
+        this.maxConcurrentAgentRollups = maxConcurrentAgentRollups;
         this.clock = clock;
+        RollupService initialized = castInitialized(this);
+        scheduler = new BoundedScheduler<>(maxConcurrentAgentRollups, AgentRollup::id,
+                initialized::rollupAgentRollupTreeAndRecordLag);
+        mbeanRegistered = MoreMBeans.register(castInitialized(this), MBEAN_OBJECT_NAME);
         mainLoopExecutor = MoreExecutors2.newSingleThreadExecutor("Rollup-Main-Loop");
         mainLoopExecutor.execute(castInitialized(this));
     }
@@ -79,6 +124,7 @@ class RollupService implements Runnable {
                 List<AgentRollup> agentRollups =
                         activeAgentDao.readRecentlyActiveAgentRollups(lastXMillis, CassandraProfile.rollup).toCompletableFuture().get();
                 runInternal(agentRollups);
+                lastLoopDurationMillis = stopwatch.elapsed(MILLISECONDS);
             } catch (InterruptedException e) {
                 // probably shutdown requested (see close method below)
                 logger.debug(e.getMessage(), e);
@@ -92,6 +138,10 @@ class RollupService implements Runnable {
 
     void close() throws InterruptedException {
         closed = true;
+        scheduler.close();
+        if (mbeanRegistered) {
+            MoreMBeans.unregister(MBEAN_OBJECT_NAME);
+        }
         // shutdownNow() is needed here to send interrupt to main rollup thread
         mainLoopExecutor.shutdownNow();
         if (!mainLoopExecutor.awaitTermination(10, SECONDS)) {
@@ -104,34 +154,66 @@ class RollupService implements Runnable {
             transactionName = "Outer rollup loop", traceHeadline = "Outer rollup loop",
             timer = "outer rollup loop")
     private void runInternal(List<AgentRollup> agentRollups) {
-        List<CompletableFuture<?>> futures = new ArrayList<>();
-        // randomize order so that multiple central collector nodes will be less likely to perform
-        // duplicative work
-        for (AgentRollup agentRollup : shuffle(agentRollups)) {
-            CompletableFuture<?> fut = rollupAggregates(agentRollup)
-                    .thenCompose(ignore -> {
-                        return rollupGauges(agentRollup);
-                    }).thenCompose(ignore -> {
-                        return rollupSyntheticMonitors(agentRollup);
-                    }).thenCompose(ignore -> {
-                        // checking aggregate and gauge alerts after rollup since their calculation can depend
-                        // on rollups depending on time period length (and alerts on rollups are not checked
-                        // anywhere else)
-                        //
-                        // agent (not rollup) alerts are also checked right after receiving the respective data
-                        // (aggregate/gauge/heartbeat) from the agent, but need to also check these once a
-                        // minute in case no data has been received from the agent recently
-                        return checkAggregateAndGaugeAndHeartbeatAlertsAsync(agentRollup);
-                    }).toCompletableFuture();
-            futures.add(fut);
+        // when running multiple central nodes, each top level agent rollup (together with its
+        // entire tree of child agent rollups) is rolled up by a single central node
+        List<AgentRollup> ownedAgentRollups = new ArrayList<>();
+        for (AgentRollup agentRollup : agentRollups) {
+            if (clusterManager.isLocalMemberResponsibleFor(agentRollup.id())) {
+                ownedAgentRollups.add(agentRollup);
+            }
+        }
+        lastAgentRollupCount = ownedAgentRollups.size();
+        lastSkippedAgentRollupCount = agentRollups.size() - ownedAgentRollups.size();
+        // no need to track lag for agent rollups that are no longer active or are now owned by a
+        // different central node
+        Set<String> ownedAgentRollupIds = new HashSet<>();
+        for (AgentRollup agentRollup : ownedAgentRollups) {
+            ownedAgentRollupIds.add(agentRollup.id());
         }
+        lastRollupTimes.keySet().retainAll(ownedAgentRollupIds);
+
+        // this does not wait for the agent rollups to complete, so an agent rollup that takes
+        // longer than a minute (e.g. due to cassandra slowness) does not hold up the next pass of
+        // the other agent rollups, and instead gets its next pass as soon as it completes (see
+        // BoundedScheduler)
+        //
+        // deleted alerts are still checked only after the agent rollups of this pass complete
+        // (none of the futures should fail since they all catch and log exception at the end)
+        scheduler.schedule(prioritizeLagging(ownedAgentRollups, lastRollupTimes))
+                .thenCompose(ignore -> {
+                    return centralAlertingService
+                            .checkForAllDeletedAlerts(CassandraProfile.rollup);
+                }).exceptionally(t -> {
+                    logger.error(t.getMessage(), t);
+                    return null;
+                });
+    }
+
+    private CompletableFuture<?> rollupAgentRollupTreeAndRecordLag(AgentRollup agentRollup) {
         // none of the futures should fail since they all catch and log exception at the end
-        CompletableFutures.allAsList(futures).thenCompose(ignore -> {
-            return centralAlertingService.checkForAllDeletedAlerts(CassandraProfile.rollup);
-        }).exceptionally(t -> {
-            logger.error(t.getMessage(), t);
-            return null;
-        }).toCompletableFuture().join();
+        return rollupAgentRollupTree(agentRollup).whenComplete((result, t) -> {
+            lastRollupTimes.put(agentRollup.id(), clock.currentTimeMillis());
+        });
+    }
+
+    private CompletableFuture<?> rollupAgentRollupTree(AgentRollup agentRollup) {
+        return rollupAggregates(agentRollup)
+                .thenCompose(ignore -> {
+                    return rollupGauges(agentRollup);
+                }).thenCompose(ignore -> {
+                    return rollupSyntheticMonitors(agentRollup);
+                }).thenCompose(ignore -> {
+                    return rollupErrorSummaries(agentRollup);
+                }).thenCompose(ignore -> {
+                    // checking aggregate and gauge alerts after rollup since their calculation can depend
+                    // on rollups depending on time period length (and alerts on rollups are not checked
+                    // anywhere else)
+                    //
+                    // agent (not rollup) alerts are also checked right after receiving the respective data
+                    // (aggregate/gauge/heartbeat) from the agent, but need to also check these once a
+                    // minute in case no data has been received from the agent recently
+                    return checkAggregateAndGaugeAndHeartbeatAlertsAsync(agentRollup);
+                }).toCompletableFuture();
     }
 
     private CompletionStage<?> rollupAggregates(AgentRollup agentRollup) {
@@ -205,6 +287,26 @@ class RollupService implements Runnable {
         });
     }
 
+    private CompletionStage<?> rollupErrorSummaries(AgentRollup agentRollup) {
+        // error summaries of each agent rollup are rolled up from its own error messages (not from
+        // the error summaries of its children), so there is no need to wait for the children
+        List<CompletionStage<?>> futures = new ArrayList<>();
+        for (AgentRollup childAgentRollup : shuffle(agentRollup.children())) {
+            futures.add(rollupErrorSummaries(childAgentRollup));
+        }
+        try {
+            // failure to roll up error summaries only means that the error messages view falls
+            // back to reading the individual error messages, so not failing the rollup tree
+            futures.add(traceDao.rollup(agentRollup.id()).exceptionally(t -> {
+                logger.error("{} - {}", agentRollup.id(), t.getMessage(), t);
+                return null;
+            }));
+        } catch (Throwable t) {
+            logger.error("{} - {}", agentRollup.id(), t.getMessage(), t);
+        }
+        return CompletableFutures.allAsList(futures);
+    }
+
     private CompletionStage<?> checkAggregateAndGaugeAndHeartbeatAlertsAsync(AgentRollup agentRollup) {
         List<CompletionStage<?>> futures = new ArrayList<>();
         for (AgentRollup childAgentRollup : agentRollup.children()) {
@@ -221,6 +323,208 @@ class RollupService implements Runnable {
         });
     }
 
+    @Override
+    public int getAgentRollupCount() {
+        return lastAgentRollupCount;
+    }
+
+    @Override
+    public int getSkippedAgentRollupCount() {
+        return lastSkippedAgentRollupCount;
+    }
+
+    @Override
+    public int getInFlightAgentRollupCount() {
+        return scheduler.getInFlightCount();
+    }
+
+    @Override
+    public int getMaxConcurrentAgentRollups() {
+        return maxConcurrentAgentRollups;
+    }
+
+    @Override
+    public long getLastLoopDurationMillis() {
+        return lastLoopDurationMillis;
+    }
+
+    @Override
+    public long getMaxLagMillis() {
+        long currentTimeMillis = clock.currentTimeMillis();
+        long maxLagMillis = 0;
+        for (long lastRollupTime : lastRollupTimes.values()) {
+            maxLagMillis = Math.max(maxLagMillis, currentTimeMillis - lastRollupTime);
+        }
+        return maxLagMillis;
+    }
+
+    @Override
+    public Map<String, Long> getLagMillis() {
+        long currentTimeMillis = clock.currentTimeMillis();
+        ImmutableMap.Builder<String, Long> lagMillis = ImmutableMap.builder();
+        for (Map.Entry<String, Long> entry : lastRollupTimes.entrySet()) {
+            lagMillis.put(entry.getKey(), currentTimeMillis - entry.getValue());
+        }
+        return lagMillis.build();
+    }
+
+    // agent rollups that have never been rolled up by this central node come first, followed by
+    // the agent rollups whose last completed rollup is the oldest, so that agent rollups that fell
+    // behind (e.g. due to cassandra slowness) are not starved by the ones that are up to date
+    @VisibleForTesting
+    static List<AgentRollup> prioritizeLagging(List<AgentRollup> agentRollups,
+            Map<String, Long> lastRollupTimes) {
+        List<AgentRollup> prioritized = shuffle(agentRollups);
+        prioritized.sort(Comparator.comparingLong(
+                agentRollup -> lastRollupTimes.getOrDefault(agentRollup.id(), Long.MIN_VALUE)));
+        return prioritized;
+    }
+
+    // runs at most maxConcurrency tasks at a time, across calls to schedule(), so the tasks that
+    // were scheduled by one rollup loop don't need to complete before the tasks scheduled by the
+    // next rollup loop can start
+    //
+    // an item whose task is still in flight when it is scheduled again gets its next pass as soon
+    // as its task completes (ahead of everything else that is queued), so an agent rollup that is
+    // lagging takes extra passes to catch up, while never running concurrently with itself
+    @VisibleForTesting
+    static class BoundedScheduler<T> {
+
+        private final int maxConcurrency;
+        private final Function<T, String> idFunction;
+        private final Function<T, CompletableFuture<?>> task;
+
+        private final Object lock = new Object();
+        @GuardedBy("lock")
+        private final Deque<Entry<T>> queued = new ArrayDeque<>();
+        @GuardedBy("lock")
+        private final Map<String, Entry<T>> scheduledWhileInFlight = new HashMap<>();
+        @GuardedBy("lock")
+        private final Map<String, Entry<T>> inFlight = new HashMap<>();
+        @GuardedBy("lock")
+        private boolean closed;
+
+        BoundedScheduler(int maxConcurrency, Function<T, String> idFunction,
+                Function<T, CompletableFuture<?>> task) {
+            this.maxConcurrency = maxConcurrency;
+            this.idFunction = idFunction;
+            this.task = task;
+        }
+
+        // items are in priority order, and replace any items that are still queued from prior
+        // calls, since those are superseded (e.g. by a newer agent rollup tree)
+        //
+        // the returned future completes once the task for each of the items has completed
+        // (a superseded item counts as completed once the item that replaced it has completed)
+        CompletableFuture<?> schedule(List<T> items) {
+            List<CompletableFuture<?>> futures = new ArrayList<>();
+            List<Entry<T>> dropped = new ArrayList<>();
+            synchronized (lock) {
+                Map<String, Entry<T>> superseded = new HashMap<>();
+                for (Entry<T> entry : queued) {
+                    superseded.put(entry.id, entry);
+                }
+                superseded.putAll(scheduledWhileInFlight);
+                queued.clear();
+                scheduledWhileInFlight.clear();
+                for (T item : items) {
+                    Entry<T> entry = new Entry<>(item, idFunction.apply(item));
+                    Entry<T> supersededEntry = superseded.remove(entry.id);
+                    if (supersededEntry != null) {
+                        entry.done.whenComplete(
+                                (result, t) -> supersededEntry.done.complete(null));
+                    }
+                    if (inFlight.containsKey(entry.id)) {
+                        scheduledWhileInFlight.put(entry.id, entry);
+                    } else {
+                        queued.add(entry);
+                    }
+                    futures.add(entry.done);
+                }
+                dropped.addAll(superseded.values());
+            }
+            // completing outside of the lock since dependent actions run synchronously
+            for (Entry<T> entry : dropped) {
+                entry.done.complete(null);
+            }
+            runNext();
+            return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
+        }
+
+        int getInFlightCount() {
+            synchronized (lock) {
+                return inFlight.size();
+            }
+        }
+
+        void close() {
+            List<Entry<T>> dropped;
+            synchronized (lock) {
+                closed = true;
+                dropped = new ArrayList<>(queued);
+                dropped.addAll(scheduledWhileInFlight.values());
+                queued.clear();
+                scheduledWhileInFlight.clear();
+            }
+            for (Entry<T> entry : dropped) {
+                entry.done.complete(null);
+            }
+        }
+
+        // loops (instead of recursing) while tasks complete synchronously, in order to not
+        // overflow the stack when there are lots of tasks that complete immediately
+        private void runNext() {
+            while (true) {
+                Entry<T> entry;
+                synchronized (lock) {
+                    if (closed || inFlight.size() >= maxConcurrency || queued.isEmpty()) {
+                        return;
+                    }
+                    entry = queued.remove();
+                    inFlight.put(entry.id, entry);
+                }
+                CompletableFuture<?> future;
+                try {
+                    future = task.apply(entry.item);
+                } catch (Throwable t) {
+                    logger.error(t.getMessage(), t);
+                    future = CompletableFuture.completedFuture(null);
+                }
+                if (future.isDone()) {
+                    onComplete(entry);
+                } else {
+                    future.whenComplete((result, t) -> {
+                        onComplete(entry);
+                        runNext();
+                    });
+                }
+            }
+        }
+
+        private void onComplete(Entry<T> entry) {
+            synchronized (lock) {
+                inFlight.remove(entry.id);
+                Entry<T> next = scheduledWhileInFlight.remove(entry.id);
+                if (next != null) {
+                    queued.addFirst(next);
+                }
+            }
+            entry.done.complete(null);
+        }
+
+        private static class Entry<T> {
+
+            private final T item;
+            private final String id;
+            private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+            private Entry(T item, String id) {
+                this.item = item;
+                this.id = id;
+            }
+        }
+    }
+
     private static <T> List<T> shuffle(List<T> agentRollups) {
         List<T> mutable = new ArrayList<>(agentRollups);
         Collections.shuffle(mutable);
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.central;
+
+import java.util.Map;
+
+public interface RollupServiceMXBean {
+
+    // number of top level agent rollups rolled up by this central node in the last rollup loop
+    int getAgentRollupCount();
+
+    // number of top level agent rollups skipped in the last rollup loop since they are owned by
+    // other central nodes
+    int getSkippedAgentRollupCount();
+
+    int getInFlightAgentRollupCount();
+
+    int getMaxConcurrentAgentRollups();
+
+    long getLastLoopDurationMillis();
+
+    long getMaxLagMillis();
+
+    // time since the last completed rollup, by top level agent rollup id
+    Map<String, Long> getLagMillis();
+}
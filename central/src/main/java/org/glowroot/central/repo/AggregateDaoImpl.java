@@ -69,6 +69,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.DoubleAccumulator;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -82,6 +83,21 @@ public class AggregateDaoImpl implements AggregateDao {
     @SuppressWarnings("deprecation")
     private static final HashFunction SHA_1 = Hashing.sha1();
 
+    // the legacy root timer blob columns (see overviewTable) are only written when this is set,
+    // which is needed during a rolling upgrade from a central version prior to schema version 92
+    // (so that the older central nodes can read the data), or if central may need to be downgraded
+    // to a version prior to schema version 92
+    //
+    // this property and the legacy writes will be removed in 0.15.0, data written prior to schema
+    // version 92 will still be readable after that
+    private static final boolean WRITE_LEGACY_ROOT_TIMER_COLUMNS =
+            Boolean.getBoolean("glowroot.internal.writeLegacyRootTimerColumns");
+
+    private static final String ROOT_TIMERS_COLUMN = "root_timers";
+    private static final String MAIN_THREAD_ROOT_TIMERS_COLUMN = "main_thread_root_timers";
+    private static final String AUX_THREAD_ROOT_TIMERS_COLUMN = "aux_thread_root_timers";
+    private static final String ASYNC_ROOT_TIMERS_COLUMN = "async_root_timers";
+
     private static final Table summaryTable = ImmutableTable.builder()
             .partialName("summary")
             .addColumns(ImmutableColumn.of("total_duration_nanos", "double"))
@@ -105,23 +121,37 @@ public class AggregateDaoImpl implements AggregateDao {
             .addColumns(ImmutableColumn.of("total_duration_nanos", "double"))
             .addColumns(ImmutableColumn.of("transaction_count", "bigint"))
             .addColumns(ImmutableColumn.of("async_transactions", "boolean"))
-            .addColumns(ImmutableColumn.of("main_thread_root_timers", "blob"))
+            .addColumns(ImmutableColumn.of(MAIN_THREAD_ROOT_TIMERS_COLUMN, "blob"))
             .addColumns(ImmutableColumn.of("main_thread_total_cpu_nanos", "double"))
             .addColumns(ImmutableColumn.of("main_thread_total_blocked_nanos", "double"))
             .addColumns(ImmutableColumn.of("main_thread_total_waited_nanos", "double"))
             .addColumns(ImmutableColumn.of("main_thread_total_allocated_bytes", "double"))
             // ideally this would be named aux_thread_root_timer (as there is a single root)
-            .addColumns(ImmutableColumn.of("aux_thread_root_timers", "blob"))
+            .addColumns(ImmutableColumn.of(AUX_THREAD_ROOT_TIMERS_COLUMN, "blob"))
             .addColumns(ImmutableColumn.of("aux_thread_total_cpu_nanos", "double"))
             .addColumns(ImmutableColumn.of("aux_thread_total_blocked_nanos", "double"))
             .addColumns(ImmutableColumn.of("aux_thread_total_waited_nanos", "double"))
             .addColumns(ImmutableColumn.of("aux_thread_total_allocated_bytes", "double"))
             // ideally this would be named async_timers (as they are all root)
-            .addColumns(ImmutableColumn.of("async_root_timers", "blob"))
+            .addColumns(ImmutableColumn.of(ASYNC_ROOT_TIMERS_COLUMN, "blob"))
+            // since schema version 92, the main thread, aux thread and async root timers are all
+            // stored in this column (see ColumnarRootTimers), and the three blob columns above are
+            // only read for data written prior to that (and are only written when
+            // WRITE_LEGACY_ROOT_TIMER_COLUMNS is set)
+            .addColumns(ImmutableColumn.of(ROOT_TIMERS_COLUMN, "blob"))
             .summary(false)
             .fromInclusive(true)
             .build();
 
+    // this is only used for reading, and rows that do not have root_timers (see
+    // readRootTimers()) are re-read using overviewTable
+    private static final Table overviewColumnarTable = ImmutableTable.copyOf(overviewTable)
+            .withColumns(overviewTable.columns().stream()
+                    .filter(column -> !column.name().equals(MAIN_THREAD_ROOT_TIMERS_COLUMN)
+                            && !column.name().equals(AUX_THREAD_ROOT_TIMERS_COLUMN)
+                            && !column.name().equals(ASYNC_ROOT_TIMERS_COLUMN))
+                    .collect(Collectors.toList()));
+
     private static final Table histogramTable = ImmutableTable.builder()
             .partialName("histogram")
             .addColumns(ImmutableColumn.of("total_duration_nanos", "double"))
@@ -190,6 +220,8 @@ public class AggregateDaoImpl implements AggregateDao {
     private final Executor asyncExecutor;
     private final Clock clock;
 
+    private final ProfileMerger profileMerger = new ProfileMerger();
+
     // list index is rollupLevel
     private final Map<Table, List<PreparedStatement>> insertOverallPS;
     private final Map<Table, List<PreparedStatement>> insertTransactionPS;
@@ -312,6 +344,31 @@ public class AggregateDaoImpl implements AggregateDao {
                         session.prepare(readForRollupFromChildPS(table, true, 0)));
             }
         }
+        List<PreparedStatement> readOverallColumnarList = new ArrayList<>();
+        List<PreparedStatement> readOverallColumnarForRollupList = new ArrayList<>();
+        List<PreparedStatement> readTransactionColumnarList = new ArrayList<>();
+        List<PreparedStatement> readTransactionColumnarForRollupList = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            readOverallColumnarList.add(session.prepare(readPS(overviewColumnarTable, false, i)));
+            readOverallColumnarForRollupList
+                    .add(session.prepare(readForRollupPS(overviewColumnarTable, false, i)));
+            readTransactionColumnarList
+                    .add(session.prepare(readPS(overviewColumnarTable, true, i)));
+            readTransactionColumnarForRollupList
+                    .add(session.prepare(readForRollupPS(overviewColumnarTable, true, i)));
+        }
+        readOverallMap.put(overviewColumnarTable, ImmutableList.copyOf(readOverallColumnarList));
+        readOverallForRollupMap.put(overviewColumnarTable,
+                ImmutableList.copyOf(readOverallColumnarForRollupList));
+        readOverallForRollupFromChildMap.put(overviewColumnarTable,
+                session.prepare(readForRollupFromChildPS(overviewColumnarTable, false, 0)));
+        readTransactionMap.put(overviewColumnarTable,
+                ImmutableList.copyOf(readTransactionColumnarList));
+        readTransactionForRollupMap.put(overviewColumnarTable,
+                ImmutableList.copyOf(readTransactionColumnarForRollupList));
+        readTransactionForRollupFromChildMap.put(overviewColumnarTable,
+                session.prepare(readForRollupFromChildPS(overviewColumnarTable, true, 0)));
+
         this.insertOverallPS = ImmutableMap.copyOf(insertOverallMap);
         this.insertTransactionPS = ImmutableMap.copyOf(insertTransactionMap);
         this.readOverallPS = ImmutableMap.copyOf(readOverallMap);
@@ -381,6 +438,10 @@ public class AggregateDaoImpl implements AggregateDao {
                 + " where agent_rollup = ? and capture_time = ? and uniqueness = ?");
     }
 
+    void close() {
+        profileMerger.close();
+    }
+
     @CheckReturnValue
     @Override
     public CompletionStage<?> store(String agentId, long captureTime,
@@ -620,53 +681,44 @@ public class AggregateDaoImpl implements AggregateDao {
     @Override
     public CompletionStage<List<OverviewAggregate>> readOverviewAggregates(String agentRollupId,
                                                                            AggregateQuery query, CassandraProfile profile) {
+        return readOverviewAggregates(agentRollupId, query, profile, overviewColumnarTable);
+    }
+
+    private CompletionStage<List<OverviewAggregate>> readOverviewAggregates(String agentRollupId,
+            AggregateQuery query, CassandraProfile profile, Table table) {
         List<OverviewAggregate> overviewAggregates = new ArrayList<>();
         Function<AsyncResultSet, CompletableFuture<List<OverviewAggregate>>> compute = new Function<AsyncResultSet, CompletableFuture<List<OverviewAggregate>>>() {
             @Override
             public CompletableFuture<List<OverviewAggregate>> apply(AsyncResultSet results) {
                 for (Row row : results.currentPage()) {
-                    int i = 0;
-                    long captureTime = checkNotNull(row.getInstant(i++)).toEpochMilli();
-                    double totalDurationNanos = row.getDouble(i++);
-                    long transactionCount = row.getLong(i++);
-                    boolean asyncTransactions = row.getBoolean(i++);
-                    List<Aggregate.Timer> mainThreadRootTimers =
-                            Messages.parseDelimitedFrom(row.getByteBuffer(i++), Aggregate.Timer.parser());
-                    Aggregate.ThreadStats mainThreadStats = Aggregate.ThreadStats.newBuilder()
-                            .setTotalCpuNanos(getNextThreadStat(row, i++))
-                            .setTotalBlockedNanos(getNextThreadStat(row, i++))
-                            .setTotalWaitedNanos(getNextThreadStat(row, i++))
-                            .setTotalAllocatedBytes(getNextThreadStat(row, i++))
-                            .build();
-                    // reading delimited singleton list for backwards compatibility with data written
-                    // prior to 0.12.0
-                    List<Aggregate.Timer> list =
-                            Messages.parseDelimitedFrom(row.getByteBuffer(i++), Aggregate.Timer.parser());
-                    Aggregate.Timer auxThreadRootTimer = list.isEmpty() ? null : list.get(0);
+                    ColumnarRootTimers rootTimers = readRootTimers(row);
+                    if (rootTimers == null) {
+                        return readOverviewAggregates(agentRollupId, query, profile, overviewTable)
+                                .toCompletableFuture();
+                    }
+                    long captureTime =
+                            checkNotNull(row.getInstant("capture_time")).toEpochMilli();
+                    double totalDurationNanos = row.getDouble("total_duration_nanos");
+                    long transactionCount = row.getLong("transaction_count");
+                    boolean asyncTransactions = row.getBoolean("async_transactions");
+                    Aggregate.ThreadStats mainThreadStats = readThreadStats(row, "main_thread");
+                    Aggregate.Timer auxThreadRootTimer = rootTimers.getAuxThreadRootTimer();
                     Aggregate.ThreadStats auxThreadStats;
                     if (auxThreadRootTimer == null) {
                         auxThreadStats = null;
-                        i += 4;
                     } else {
-                        auxThreadStats = Aggregate.ThreadStats.newBuilder()
-                                .setTotalCpuNanos(getNextThreadStat(row, i++))
-                                .setTotalBlockedNanos(getNextThreadStat(row, i++))
-                                .setTotalWaitedNanos(getNextThreadStat(row, i++))
-                                .setTotalAllocatedBytes(getNextThreadStat(row, i++))
-                                .build();
+                        auxThreadStats = readThreadStats(row, "aux_thread");
                     }
-                    List<Aggregate.Timer> asyncTimers =
-                            Messages.parseDelimitedFrom(row.getByteBuffer(i++), Aggregate.Timer.parser());
                     ImmutableOverviewAggregate.Builder builder = ImmutableOverviewAggregate.builder()
                             .captureTime(captureTime)
                             .totalDurationNanos(totalDurationNanos)
                             .transactionCount(transactionCount)
                             .asyncTransactions(asyncTransactions)
-                            .addAllMainThreadRootTimers(mainThreadRootTimers)
+                            .addAllMainThreadRootTimers(rootTimers.getMainThreadRootTimers())
                             .mainThreadStats(mainThreadStats)
                             .auxThreadRootTimer(auxThreadRootTimer)
                             .auxThreadStats(auxThreadStats)
-                            .addAllAsyncTimers(asyncTimers);
+                            .addAllAsyncTimers(rootTimers.getAsyncTimers());
                     overviewAggregates.add(builder.build());
                 }
                 if (results.hasMorePages()) {
@@ -675,7 +727,7 @@ public class AggregateDaoImpl implements AggregateDao {
                 return CompletableFuture.completedFuture(overviewAggregates);
             }
         };
-        return executeQuery(agentRollupId, query, overviewTable, profile).thenCompose(compute);
+        return executeQuery(agentRollupId, query, table, profile).thenCompose(compute);
     }
 
     // query.from() is INCLUSIVE
@@ -1398,26 +1450,34 @@ public class AggregateDaoImpl implements AggregateDao {
 
     private CompletableFuture<?> rollupOverview(RollupParams rollup, AggregateQuery query) {
         CompletableFuture<AsyncResultSet> future =
-                executeQueryForRollup(rollup.agentRollupId(), query, overviewTable, true);
+                executeQueryForRollup(rollup.agentRollupId(), query, overviewColumnarTable, true);
         return MoreFutures.rollupAsync(future, asyncExecutor, new MoreFutures.DoRollup() {
             @Override
             public CompletableFuture<?> execute(AsyncResultSet rows) {
-                return rollupOverviewFromRows(rollup, query, Lists.newArrayList(rows));
+                return rollupOverviewFromRows(rollup, query, Lists.newArrayList(rows),
+                        () -> executeQueryForRollup(rollup.agentRollupId(), query, overviewTable,
+                                false).thenApply(ImmutableList::of));
             }
         });
     }
 
     private CompletableFuture<?> rollupOverviewFromChildren(RollupParams rollup,
                                                             AggregateQuery query, Collection<String> childAgentRollupIds) {
-        List<CompletionStage<AsyncResultSet>> futures =
-                getRowsForRollupFromChildren(query, childAgentRollupIds, overviewTable, true);
+        List<CompletionStage<AsyncResultSet>> futures = getRowsForRollupFromChildren(query,
+                childAgentRollupIds, overviewColumnarTable, true);
         return CompletableFutures.allAsList(futures).thenCompose(rows -> {
-            return rollupOverviewFromRows(rollup, query, rows);
+            return rollupOverviewFromRows(rollup, query, rows,
+                    () -> CompletableFutures.allAsList(getRowsForRollupFromChildren(query,
+                            childAgentRollupIds, overviewTable, false)));
         });
     }
 
+    // readWithLegacyColumns is used to re-read the rows if any of them do not have root_timers, and
+    // is null when the rows were already read with the legacy root timer columns
     private CompletableFuture<?> rollupOverviewFromRows(RollupParams rollup, AggregateQuery query,
-                                                        List<AsyncResultSet> results) {
+            List<AsyncResultSet> results,
+            @Nullable Supplier<CompletableFuture<List<AsyncResultSet>>> readWithLegacyColumns) {
+        AtomicBoolean missingRootTimers = new AtomicBoolean();
         DoubleAccumulator totalDurationNanos = new DoubleAccumulator(Double::sum, 0.0);
         AtomicLong transactionCount = new AtomicLong(0);
         AtomicBoolean asyncTransactions = new AtomicBoolean(false);
@@ -1431,45 +1491,51 @@ public class AggregateDaoImpl implements AggregateDao {
             @Override
             public CompletableFuture<?> apply(AsyncResultSet asyncResultSet) {
                 for (Row row : asyncResultSet.currentPage()) {
-                    int i = 0;
-                    totalDurationNanos.accumulate(row.getDouble(i++));
-                    transactionCount.addAndGet(row.getLong(i++));
-                    if (row.getBoolean(i++)) {
+                    ColumnarRootTimers toBeMergedRootTimers = readRootTimers(row);
+                    if (toBeMergedRootTimers == null) {
+                        // the rollup is redone from scratch with the legacy root timer columns
+                        missingRootTimers.set(true);
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    totalDurationNanos.accumulate(row.getDouble("total_duration_nanos"));
+                    transactionCount.addAndGet(row.getLong("transaction_count"));
+                    if (row.getBoolean("async_transactions")) {
                         asyncTransactions.set(true);
                     }
-                    List<Aggregate.Timer> toBeMergedMainThreadRootTimers =
-                            Messages.parseDelimitedFrom(row.getByteBuffer(i++), Aggregate.Timer.parser());
                     synchronized (mainThreadRootTimers) {
-                        MutableAggregate.mergeRootTimers(toBeMergedMainThreadRootTimers, mainThreadRootTimers);
+                        MutableAggregate.mergeRootTimers(
+                                toBeMergedRootTimers.getMainThreadRootTimers(), mainThreadRootTimers);
                     }
                     synchronized (mainThreadStats) {
-                        mainThreadStats.addTotalCpuNanos(getNextThreadStat(row, i++));
-                        mainThreadStats.addTotalBlockedNanos(getNextThreadStat(row, i++));
-                        mainThreadStats.addTotalWaitedNanos(getNextThreadStat(row, i++));
-                        mainThreadStats.addTotalAllocatedBytes(getNextThreadStat(row, i++));
+                        mainThreadStats.addTotalCpuNanos(
+                                getThreadStat(row, "main_thread_total_cpu_nanos"));
+                        mainThreadStats.addTotalBlockedNanos(
+                                getThreadStat(row, "main_thread_total_blocked_nanos"));
+                        mainThreadStats.addTotalWaitedNanos(
+                                getThreadStat(row, "main_thread_total_waited_nanos"));
+                        mainThreadStats.addTotalAllocatedBytes(
+                                getThreadStat(row, "main_thread_total_allocated_bytes"));
                     }
-                    // reading delimited singleton list for backwards compatibility with data written
-                    // prior to 0.12.0
-                    List<Aggregate.Timer> list =
-                            Messages.parseDelimitedFrom(row.getByteBuffer(i++), Aggregate.Timer.parser());
-                    Aggregate.Timer toBeMergedAuxThreadRootTimer = list.isEmpty() ? null : list.get(0);
-                    if (toBeMergedAuxThreadRootTimer == null) {
-                        i += 4;
-                    } else {
+                    Aggregate.Timer toBeMergedAuxThreadRootTimer =
+                            toBeMergedRootTimers.getAuxThreadRootTimer();
+                    if (toBeMergedAuxThreadRootTimer != null) {
                         synchronized (auxThreadRootTimer) {
                             auxThreadRootTimer.merge(toBeMergedAuxThreadRootTimer);
                         }
                         synchronized (auxThreadStats) {
-                            auxThreadStats.addTotalCpuNanos(getNextThreadStat(row, i++));
-                            auxThreadStats.addTotalBlockedNanos(getNextThreadStat(row, i++));
-                            auxThreadStats.addTotalWaitedNanos(getNextThreadStat(row, i++));
-                            auxThreadStats.addTotalAllocatedBytes(getNextThreadStat(row, i++));
+                            auxThreadStats.addTotalCpuNanos(
+                                    getThreadStat(row, "aux_thread_total_cpu_nanos"));
+                            auxThreadStats.addTotalBlockedNanos(
+                                    getThreadStat(row, "aux_thread_total_blocked_nanos"));
+                            auxThreadStats.addTotalWaitedNanos(
+                                    getThreadStat(row, "aux_thread_total_waited_nanos"));
+                            auxThreadStats.addTotalAllocatedBytes(
+                                    getThreadStat(row, "aux_thread_total_allocated_bytes"));
                         }
                     }
-                    List<Aggregate.Timer> toBeMergedAsyncTimers =
-                            Messages.parseDelimitedFrom(row.getByteBuffer(i++), Aggregate.Timer.parser());
                     synchronized (asyncTimers) {
-                        MutableAggregate.mergeRootTimers(toBeMergedAsyncTimers, asyncTimers);
+                        MutableAggregate.mergeRootTimers(toBeMergedRootTimers.getAsyncTimers(),
+                                asyncTimers);
                     }
                 }
                 if (asyncResultSet.hasMorePages()) {
@@ -1481,7 +1547,16 @@ public class AggregateDaoImpl implements AggregateDao {
         return CompletableFutures.allAsList(results.stream()
                         .map(compute::apply).collect(Collectors.toList()))
                 .thenCompose(ignored -> {
+                    if (missingRootTimers.get()) {
+                        return checkNotNull(readWithLegacyColumns).get()
+                                .thenCompose(
+                                        rows -> rollupOverviewFromRows(rollup, query, rows, null))
+                                .thenApply(rolledUp -> (AsyncResultSet) null);
+                    }
 
+                    List<Aggregate.Timer> mainThreadRootTimerProtos =
+                            MutableAggregate.toProto(mainThreadRootTimers);
+                    List<Aggregate.Timer> asyncTimerProtos = MutableAggregate.toProto(asyncTimers);
                     BoundStatement boundStatement;
                     if (query.transactionName() == null) {
                         boundStatement = getInsertOverallPS(overviewTable, rollup.rollupLevel()).bind();
@@ -1497,36 +1572,53 @@ public class AggregateDaoImpl implements AggregateDao {
                     boundStatement = boundStatement.setInstant(i++, Instant.ofEpochMilli(query.to()))
                             .setDouble(i++, totalDurationNanos.doubleValue())
                             .setLong(i++, transactionCount.get())
-                            .setBoolean(i++, asyncTransactions.get())
-                            .setByteBuffer(i++,
-                                    Messages.toByteBuffer(MutableAggregate.toProto(mainThreadRootTimers)))
+                            .setBoolean(i++, asyncTransactions.get());
+                    if (WRITE_LEGACY_ROOT_TIMER_COLUMNS) {
+                        boundStatement = boundStatement.setByteBuffer(i++,
+                                Messages.toByteBuffer(mainThreadRootTimerProtos));
+                    } else {
+                        boundStatement = boundStatement.setToNull(i++);
+                    }
+                    boundStatement = boundStatement
                             .setDouble(i++, mainThreadStats.getTotalCpuNanos())
                             .setDouble(i++, mainThreadStats.getTotalBlockedNanos())
                             .setDouble(i++, mainThreadStats.getTotalWaitedNanos())
                             .setDouble(i++, mainThreadStats.getTotalAllocatedBytes());
+                    Aggregate.Timer auxThreadRootTimerProto;
                     if (auxThreadRootTimer.getCount() == 0) {
+                        auxThreadRootTimerProto = null;
                         boundStatement = boundStatement.setToNull(i++)
                                 .setToNull(i++)
                                 .setToNull(i++)
                                 .setToNull(i++)
                                 .setToNull(i++);
                     } else {
-                        // writing as delimited singleton list for backwards compatibility with data written
-                        // prior to 0.12.0
-                        boundStatement = boundStatement.setByteBuffer(i++, Messages
-                                        .toByteBuffer(MutableAggregate.toProto(ImmutableList.of(auxThreadRootTimer))))
+                        auxThreadRootTimerProto = MutableAggregate
+                                .toProto(ImmutableList.of(auxThreadRootTimer)).get(0);
+                        if (WRITE_LEGACY_ROOT_TIMER_COLUMNS) {
+                            // writing as delimited singleton list for backwards compatibility with
+                            // data written prior to 0.12.0
+                            boundStatement = boundStatement.setByteBuffer(i++, Messages
+                                    .toByteBuffer(ImmutableList.of(auxThreadRootTimerProto)));
+                        } else {
+                            boundStatement = boundStatement.setToNull(i++);
+                        }
+                        boundStatement = boundStatement
                                 .setDouble(i++, auxThreadStats.getTotalCpuNanos())
                                 .setDouble(i++, auxThreadStats.getTotalBlockedNanos())
                                 .setDouble(i++, auxThreadStats.getTotalWaitedNanos())
                                 .setDouble(i++, auxThreadStats.getTotalAllocatedBytes());
                     }
-                    if (asyncTimers.isEmpty()) {
+                    if (!WRITE_LEGACY_ROOT_TIMER_COLUMNS || asyncTimerProtos.isEmpty()) {
                         boundStatement = boundStatement.setToNull(i++);
                     } else {
                         boundStatement = boundStatement.setByteBuffer(i++,
-                                Messages.toByteBuffer(MutableAggregate.toProto(asyncTimers)));
+                                Messages.toByteBuffer(asyncTimerProtos));
                     }
-                    boundStatement = boundStatement.setInt(i++, rollup.adjustedTTL().generalTTL());
+                    boundStatement = boundStatement
+                            .setByteBuffer(i++, ColumnarRootTimers.encode(mainThreadRootTimerProtos,
+                                    auxThreadRootTimerProto, asyncTimerProtos))
+                            .setInt(i++, rollup.adjustedTTL().generalTTL());
                     return session.writeAsync(boundStatement, CassandraProfile.rollup).toCompletableFuture();
                 });
     }
@@ -1803,19 +1895,13 @@ public class AggregateDaoImpl implements AggregateDao {
 
     private CompletableFuture<?> rollupThreadProfileFromRows(RollupParams rollup,
                                                              AggregateQuery query, List<AsyncResultSet> results, Table table) {
-        MutableProfile profile = new MutableProfile();
+        // only collecting the blobs here, decoding and merging is done by the profile merger
+        List<ByteBuffer> profiles = Collections.synchronizedList(new ArrayList<>());
         Function<AsyncResultSet, CompletableFuture<?>> compute = new Function<AsyncResultSet, CompletableFuture<?>>() {
             @Override
             public CompletableFuture<?> apply(AsyncResultSet asyncResultSet) {
                 for (Row row : asyncResultSet.currentPage()) {
-                    ByteBuffer bytes = checkNotNull(row.getByteBuffer(0));
-                    synchronized (profile) {
-                        try {
-                            profile.merge(Profile.parseFrom(bytes));
-                        } catch (InvalidProtocolBufferException e) {
-                            throw new RuntimeException(e);
-                        }
-                    }
+                    profiles.add(checkNotNull(row.getByteBuffer(0)));
                 }
                 if (asyncResultSet.hasMorePages()) {
                     return asyncResultSet.fetchNextPage().thenCompose(this::apply).toCompletableFuture();
@@ -1825,7 +1911,8 @@ public class AggregateDaoImpl implements AggregateDao {
         };
         return CompletableFutures.allAsList(results.stream()
                         .map(compute::apply).collect(Collectors.toList()))
-                .thenCompose(ignored -> {
+                .thenCompose(ignored -> profileMerger.merge(profiles, rollup.rollupLevel(), true))
+                .thenCompose(profile -> {
 
                     BoundStatement boundStatement;
                     if (query.transactionName() == null) {
@@ -2269,22 +2356,14 @@ public class AggregateDaoImpl implements AggregateDao {
 
     private CompletionStage<?> mergeProfilesInto(String agentRollupId, AggregateQuery query, Table profileTable,
                                                  ProfileCollector collector, CassandraProfile cprofile) {
+        // only collecting the blobs here, decoding and merging is done by the profile merger
+        List<ByteBuffer> profiles = new ArrayList<>();
         Function<AsyncResultSet, CompletableFuture<Void>> compute = new Function<AsyncResultSet, CompletableFuture<Void>>() {
             @Override
             public CompletableFuture<Void> apply(AsyncResultSet results) {
-                long captureTime = Long.MIN_VALUE;
                 for (Row row : results.currentPage()) {
-                    captureTime = Math.max(captureTime, checkNotNull(row.getInstant(0)).toEpochMilli());
-                    ByteBuffer bytes = checkNotNull(row.getByteBuffer(1));
-                    // TODO optimize this byte copying
-                    Profile profile = null;
-                    try {
-                        profile = Profile.parseFrom(bytes);
-                    } catch (InvalidProtocolBufferException e) {
-                        throw new RuntimeException(e);
-                    }
-                    collector.mergeProfile(profile);
-                    collector.updateLastCaptureTime(captureTime);
+                    collector.updateLastCaptureTime(checkNotNull(row.getInstant(0)).toEpochMilli());
+                    profiles.add(checkNotNull(row.getByteBuffer(1)));
                 }
                 if (results.hasMorePages()) {
                     return results.fetchNextPage().thenCompose(this::apply).toCompletableFuture();
@@ -2292,7 +2371,9 @@ public class AggregateDaoImpl implements AggregateDao {
                 return CompletableFuture.completedFuture(null);
             }
         };
-        return executeQuery(agentRollupId, query, profileTable, cprofile).thenCompose(compute);
+        return executeQuery(agentRollupId, query, profileTable, cprofile).thenCompose(compute)
+                .thenCompose(ignored -> profileMerger.merge(profiles, query.rollupLevel(), false))
+                .thenAccept(collector::mergeProfile);
     }
 
     private CompletionStage<List<TTL>> getTTLs() {
@@ -2393,8 +2474,13 @@ public class AggregateDaoImpl implements AggregateDao {
         int i = startIndex;
         boundStatement = boundStatement.setDouble(i++, aggregate.getTotalDurationNanos())
                 .setLong(i++, aggregate.getTransactionCount())
-                .setBoolean(i++, aggregate.getAsyncTransactions())
-                .setByteBuffer(i++, Messages.toByteBuffer(aggregate.getMainThreadRootTimerList()));
+                .setBoolean(i++, aggregate.getAsyncTransactions());
+        if (WRITE_LEGACY_ROOT_TIMER_COLUMNS) {
+            boundStatement = boundStatement.setByteBuffer(i++,
+                    Messages.toByteBuffer(aggregate.getMainThreadRootTimerList()));
+        } else {
+            boundStatement = boundStatement.setToNull(i++);
+        }
         if (aggregate.hasOldMainThreadStats()) {
             // data from agent prior to 0.10.9
             Aggregate.OldThreadStats mainThreadStats = aggregate.getOldMainThreadStats();
@@ -2410,10 +2496,14 @@ public class AggregateDaoImpl implements AggregateDao {
                     .setDouble(i++, mainThreadStats.getTotalAllocatedBytes());
         }
         if (aggregate.hasAuxThreadRootTimer()) {
-            // writing as delimited singleton list for backwards compatibility with data written
-            // prior to 0.12.0
-            boundStatement = boundStatement.setByteBuffer(i++,
-                    Messages.toByteBuffer(ImmutableList.of(aggregate.getAuxThreadRootTimer())));
+            if (WRITE_LEGACY_ROOT_TIMER_COLUMNS) {
+                // writing as delimited singleton list for backwards compatibility with data written
+                // prior to 0.12.0
+                boundStatement = boundStatement.setByteBuffer(i++,
+                        Messages.toByteBuffer(ImmutableList.of(aggregate.getAuxThreadRootTimer())));
+            } else {
+                boundStatement = boundStatement.setToNull(i++);
+            }
             if (aggregate.hasOldAuxThreadStats()) {
                 Aggregate.OldThreadStats auxThreadStats = aggregate.getOldAuxThreadStats();
                 boundStatement = boundStatement.setDouble(i++, auxThreadStats.getTotalCpuNanos().getValue())
@@ -2435,12 +2525,17 @@ public class AggregateDaoImpl implements AggregateDao {
                     .setToNull(i++);
         }
         List<Aggregate.Timer> asyncTimers = aggregate.getAsyncTimerList();
-        if (asyncTimers.isEmpty()) {
+        if (!WRITE_LEGACY_ROOT_TIMER_COLUMNS || asyncTimers.isEmpty()) {
             boundStatement = boundStatement.setToNull(i++);
         } else {
             boundStatement = boundStatement.setByteBuffer(i++, Messages.toByteBuffer(asyncTimers));
         }
-        return boundStatement.setInt(i++, adjustedTTL.generalTTL());
+        return boundStatement.setByteBuffer(i++, ColumnarRootTimers.encode(
+                        aggregate.getMainThreadRootTimerList(),
+                        aggregate.hasAuxThreadRootTimer() ? aggregate.getAuxThreadRootTimer()
+                                : null,
+                        asyncTimers))
+                .setInt(i++, adjustedTTL.generalTTL());
     }
 
     @CheckReturnValue
@@ -2520,8 +2615,17 @@ public class AggregateDaoImpl implements AggregateDao {
         return serviceCalls;
     }
 
-    private static double getNextThreadStat(Row row, int columnIndex) {
-        Double threadStat = row.get(columnIndex, Double.class);
+    private static Aggregate.ThreadStats readThreadStats(Row row, String prefix) {
+        return Aggregate.ThreadStats.newBuilder()
+                .setTotalCpuNanos(getThreadStat(row, prefix + "_total_cpu_nanos"))
+                .setTotalBlockedNanos(getThreadStat(row, prefix + "_total_blocked_nanos"))
+                .setTotalWaitedNanos(getThreadStat(row, prefix + "_total_waited_nanos"))
+                .setTotalAllocatedBytes(getThreadStat(row, prefix + "_total_allocated_bytes"))
+                .build();
+    }
+
+    private static double getThreadStat(Row row, String columnName) {
+        Double threadStat = row.get(columnName, Double.class);
         if (threadStat == null) {
             // old data stored prior to 0.10.9
             return NotAvailableAware.NA;
@@ -2530,6 +2634,30 @@ public class AggregateDaoImpl implements AggregateDao {
         }
     }
 
+    // returns null if the row does not have root_timers and was read without the legacy root timer
+    // columns (see overviewColumnarTable), in which case it needs to be re-read with them
+    private static @Nullable ColumnarRootTimers readRootTimers(Row row) {
+        ByteBuffer rootTimers = row.getByteBuffer(ROOT_TIMERS_COLUMN);
+        if (rootTimers != null) {
+            return ColumnarRootTimers.decode(rootTimers);
+        }
+        // data written prior to schema version 92 (or by a central node running a version prior
+        // to that during a rolling upgrade)
+        if (!row.getColumnDefinitions().contains(MAIN_THREAD_ROOT_TIMERS_COLUMN)) {
+            return null;
+        }
+        List<Aggregate.Timer> mainThreadRootTimers = Messages.parseDelimitedFrom(
+                row.getByteBuffer(MAIN_THREAD_ROOT_TIMERS_COLUMN), Aggregate.Timer.parser());
+        // reading delimited singleton list for backwards compatibility with data written prior to
+        // 0.12.0
+        List<Aggregate.Timer> list = Messages.parseDelimitedFrom(
+                row.getByteBuffer(AUX_THREAD_ROOT_TIMERS_COLUMN), Aggregate.Timer.parser());
+        Aggregate.Timer auxThreadRootTimer = list.isEmpty() ? null : list.get(0);
+        List<Aggregate.Timer> asyncTimers = Messages.parseDelimitedFrom(
+                row.getByteBuffer(ASYNC_ROOT_TIMERS_COLUMN), Aggregate.Timer.parser());
+        return ColumnarRootTimers.of(mainThreadRootTimers, auxThreadRootTimer, asyncTimers);
+    }
+
     private static String createTableQuery(Table table, boolean transaction, int i) {
         StringBuilder sb = new StringBuilder();
         sb.append("create table if not exists ");
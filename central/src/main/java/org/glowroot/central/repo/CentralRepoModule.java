@@ -62,6 +62,7 @@ public class CentralRepoModule {
     private final TransactionTypeDao transactionTypeDao;
     private final TraceAttributeNameDao traceAttributeNameDao;
     private final FullQueryTextDao fullQueryTextDao;
+    private final AggregateDaoImpl aggregateDaoImpl;
     private final AggregateDao aggregateDao;
     private final TraceDao traceDao;
     private final GaugeValueDao gaugeValueDao;
@@ -147,7 +148,7 @@ public class CentralRepoModule {
             v09AggregateLastExpirationTime = checkNotNull(row.getInstant(i++)).toEpochMilli();
         }
         fullQueryTextDao = new FullQueryTextDao(session, configRepository);
-        AggregateDaoImpl aggregateDaoImpl = new AggregateDaoImpl(session, activeAgentDao,
+        aggregateDaoImpl = new AggregateDaoImpl(session, activeAgentDao,
                 transactionTypeDao, fullQueryTextDao, configRepository, asyncExecutor, cassandraGcGraceSeconds, clock);
         GaugeValueDaoImpl gaugeValueDaoImpl = new GaugeValueDaoImpl(session, configRepository,
                 clusterManager, asyncExecutor, cassandraGcGraceSeconds, clock);
@@ -251,6 +252,7 @@ public class CentralRepoModule {
 
     public void close() throws Exception {
         fullQueryTextDao.close();
+        aggregateDaoImpl.close();
     }
 
     private static void populateFromAdminDefault(File file, ConfigRepositoryImpl configRepository)
@@ -0,0 +1,304 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.central.repo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
+
+// storage format for the root timers of an overview row (main thread, aux thread and async), which
+// replaces the three delimited protobuf blobs that were stored prior to schema version 92
+//
+// the timer names are interned into a single name table per row (timer names repeat heavily across
+// the main thread, aux thread and async timer trees), and the timer trees are flattened in
+// pre-order into one column per field:
+//
+//   version
+//   name count, names
+//   main thread root count, aux thread root count (0 or 1), async root count
+//   node count
+//   (name index << 1 | extended) for each node
+//   child count for each node
+//   integral nanos flag
+//   total nanos for each node, delta from the parent node (zigzag varint if integral, else double)
+//   count for each node, delta from the parent node (zigzag varint)
+//
+// child timers are typically only slightly smaller than their parent timer, so the deltas from the
+// parent node are typically small
+class ColumnarRootTimers {
+
+    private static final int VERSION = 1;
+
+    // doubles above this cannot represent all integers exactly
+    private static final double MAX_INTEGRAL_NANOS = 1L << 53;
+
+    private final List<Aggregate.Timer> mainThreadRootTimers;
+    private final Aggregate.@Nullable Timer auxThreadRootTimer;
+    private final List<Aggregate.Timer> asyncTimers;
+
+    private ColumnarRootTimers(List<Aggregate.Timer> mainThreadRootTimers,
+            Aggregate.@Nullable Timer auxThreadRootTimer, List<Aggregate.Timer> asyncTimers) {
+        this.mainThreadRootTimers = mainThreadRootTimers;
+        this.auxThreadRootTimer = auxThreadRootTimer;
+        this.asyncTimers = asyncTimers;
+    }
+
+    static ColumnarRootTimers of(List<Aggregate.Timer> mainThreadRootTimers,
+            Aggregate.@Nullable Timer auxThreadRootTimer, List<Aggregate.Timer> asyncTimers) {
+        return new ColumnarRootTimers(mainThreadRootTimers, auxThreadRootTimer, asyncTimers);
+    }
+
+    List<Aggregate.Timer> getMainThreadRootTimers() {
+        return mainThreadRootTimers;
+    }
+
+    Aggregate.@Nullable Timer getAuxThreadRootTimer() {
+        return auxThreadRootTimer;
+    }
+
+    List<Aggregate.Timer> getAsyncTimers() {
+        return asyncTimers;
+    }
+
+    static ByteBuffer encode(List<Aggregate.Timer> mainThreadRootTimers,
+            Aggregate.@Nullable Timer auxThreadRootTimer,
+            List<Aggregate.Timer> asyncTimers) {
+        Flattener flattener = new Flattener();
+        for (Aggregate.Timer rootTimer : mainThreadRootTimers) {
+            flattener.add(rootTimer, -1);
+        }
+        if (auxThreadRootTimer != null) {
+            flattener.add(auxThreadRootTimer, -1);
+        }
+        for (Aggregate.Timer rootTimer : asyncTimers) {
+            flattener.add(rootTimer, -1);
+        }
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            CodedOutputStream output = CodedOutputStream.newInstance(baos);
+            output.writeUInt32NoTag(VERSION);
+            output.writeUInt32NoTag(flattener.names.size());
+            for (String name : flattener.names) {
+                output.writeStringNoTag(name);
+            }
+            output.writeUInt32NoTag(mainThreadRootTimers.size());
+            output.writeUInt32NoTag(auxThreadRootTimer == null ? 0 : 1);
+            output.writeUInt32NoTag(asyncTimers.size());
+            int nodeCount = flattener.nodes.size();
+            output.writeUInt32NoTag(nodeCount);
+            for (Node node : flattener.nodes) {
+                output.writeUInt32NoTag(node.nameIndex << 1 | (node.timer.getExtended() ? 1 : 0));
+            }
+            for (Node node : flattener.nodes) {
+                output.writeUInt32NoTag(node.timer.getChildTimerCount());
+            }
+            boolean integralNanos = flattener.integralNanos;
+            output.writeBoolNoTag(integralNanos);
+            for (Node node : flattener.nodes) {
+                double parentNanos = node.parentIndex == -1 ? 0
+                        : flattener.nodes.get(node.parentIndex).timer.getTotalNanos();
+                double totalNanos = node.timer.getTotalNanos();
+                if (integralNanos) {
+                    output.writeSInt64NoTag((long) parentNanos - (long) totalNanos);
+                } else {
+                    output.writeDoubleNoTag(totalNanos);
+                }
+            }
+            for (Node node : flattener.nodes) {
+                long parentCount = node.parentIndex == -1 ? 0
+                        : flattener.nodes.get(node.parentIndex).timer.getCount();
+                output.writeSInt64NoTag(parentCount - node.timer.getCount());
+            }
+            output.flush();
+            return ByteBuffer.wrap(baos.toByteArray());
+        } catch (IOException e) {
+            // wrap checked exception in an unchecked because checked exceptions are
+            // not compatible with completionstage
+            throw new RuntimeException(e);
+        }
+    }
+
+    static ColumnarRootTimers decode(ByteBuffer byteBuf) {
+        try {
+            CodedInputStream input = CodedInputStream.newInstance(byteBuf);
+            int version = input.readUInt32();
+            if (version != VERSION) {
+                throw new IllegalStateException("Unexpected root timers version: " + version);
+            }
+            String[] names = new String[input.readUInt32()];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = input.readString();
+            }
+            int mainThreadRootCount = input.readUInt32();
+            int auxThreadRootCount = input.readUInt32();
+            int asyncRootCount = input.readUInt32();
+            int nodeCount = input.readUInt32();
+            int[] nameIndexAndExtended = new int[nodeCount];
+            for (int i = 0; i < nodeCount; i++) {
+                nameIndexAndExtended[i] = input.readUInt32();
+            }
+            int[] childCounts = new int[nodeCount];
+            for (int i = 0; i < nodeCount; i++) {
+                childCounts[i] = input.readUInt32();
+            }
+            int[] parentIndexes = getParentIndexes(childCounts);
+            boolean integralNanos = input.readBool();
+            double[] totalNanos = new double[nodeCount];
+            for (int i = 0; i < nodeCount; i++) {
+                if (integralNanos) {
+                    long parentNanos =
+                            parentIndexes[i] == -1 ? 0 : (long) totalNanos[parentIndexes[i]];
+                    totalNanos[i] = parentNanos - input.readSInt64();
+                } else {
+                    totalNanos[i] = input.readDouble();
+                }
+            }
+            long[] counts = new long[nodeCount];
+            for (int i = 0; i < nodeCount; i++) {
+                long parentCount = parentIndexes[i] == -1 ? 0 : counts[parentIndexes[i]];
+                counts[i] = parentCount - input.readSInt64();
+            }
+            Builder builder =
+                    new Builder(names, nameIndexAndExtended, childCounts, totalNanos, counts);
+            List<Aggregate.Timer> mainThreadRootTimers = builder.build(mainThreadRootCount);
+            Aggregate.Timer auxThreadRootTimer =
+                    auxThreadRootCount == 0 ? null : builder.build(1).get(0);
+            List<Aggregate.Timer> asyncTimers = builder.build(asyncRootCount);
+            return new ColumnarRootTimers(mainThreadRootTimers, auxThreadRootTimer, asyncTimers);
+        } catch (IOException e) {
+            // wrap checked exception in an unchecked because checked exceptions are
+            // not compatible with completionstage
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static int[] getParentIndexes(int[] childCounts) {
+        int[] parentIndexes = new int[childCounts.length];
+        // stack of the ancestors that still have remaining children
+        int[] stack = new int[childCounts.length];
+        int[] remaining = new int[childCounts.length];
+        int depth = 0;
+        for (int i = 0; i < childCounts.length; i++) {
+            while (depth > 0 && remaining[depth - 1] == 0) {
+                depth--;
+            }
+            if (depth == 0) {
+                parentIndexes[i] = -1;
+            } else {
+                parentIndexes[i] = stack[depth - 1];
+                remaining[depth - 1]--;
+            }
+            if (childCounts[i] > 0) {
+                stack[depth] = i;
+                remaining[depth] = childCounts[i];
+                depth++;
+            }
+        }
+        return parentIndexes;
+    }
+
+    private static class Flattener {
+
+        private final List<Node> nodes = new ArrayList<>();
+        private final List<String> names = new ArrayList<>();
+        private final Map<String, Integer> nameIndexes = new HashMap<>();
+        private boolean integralNanos = true;
+
+        private void add(Aggregate.Timer timer, int parentIndex) {
+            String name = timer.getName();
+            Integer nameIndex = nameIndexes.get(name);
+            if (nameIndex == null) {
+                nameIndex = names.size();
+                names.add(name);
+                nameIndexes.put(name, nameIndex);
+            }
+            double totalNanos = timer.getTotalNanos();
+            if (totalNanos < 0 || totalNanos >= MAX_INTEGRAL_NANOS
+                    || totalNanos != Math.rint(totalNanos)) {
+                integralNanos = false;
+            }
+            int index = nodes.size();
+            nodes.add(new Node(timer, nameIndex, parentIndex));
+            for (Aggregate.Timer childTimer : timer.getChildTimerList()) {
+                add(childTimer, index);
+            }
+        }
+    }
+
+    private static class Node {
+
+        private final Aggregate.Timer timer;
+        private final int nameIndex;
+        private final int parentIndex;
+
+        private Node(Aggregate.Timer timer, int nameIndex, int parentIndex) {
+            this.timer = timer;
+            this.nameIndex = nameIndex;
+            this.parentIndex = parentIndex;
+        }
+    }
+
+    private static class Builder {
+
+        private final String[] names;
+        private final int[] nameIndexAndExtended;
+        private final int[] childCounts;
+        private final double[] totalNanos;
+        private final long[] counts;
+
+        private int nextIndex;
+
+        private Builder(String[] names, int[] nameIndexAndExtended, int[] childCounts,
+                double[] totalNanos, long[] counts) {
+            this.names = names;
+            this.nameIndexAndExtended = nameIndexAndExtended;
+            this.childCounts = childCounts;
+            this.totalNanos = totalNanos;
+            this.counts = counts;
+        }
+
+        private List<Aggregate.Timer> build(int rootCount) {
+            List<Aggregate.Timer> rootTimers = new ArrayList<>(rootCount);
+            for (int i = 0; i < rootCount; i++) {
+                rootTimers.add(buildNext());
+            }
+            return rootTimers;
+        }
+
+        private Aggregate.Timer buildNext() {
+            int index = nextIndex++;
+            Aggregate.Timer.Builder builder = Aggregate.Timer.newBuilder()
+                    .setName(names[nameIndexAndExtended[index] >>> 1])
+                    .setExtended((nameIndexAndExtended[index] & 1) != 0)
+                    .setTotalNanos(totalNanos[index])
+                    .setCount(counts[index]);
+            for (int i = 0; i < childCounts[index]; i++) {
+                builder.addChildTimer(buildNext());
+            }
+            return builder.build();
+        }
+    }
+}
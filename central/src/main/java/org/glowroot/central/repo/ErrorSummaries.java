@@ -0,0 +1,122 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.central.repo;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+
+import org.glowroot.common2.repo.ImmutableTraceQuery;
+import org.glowroot.common2.repo.TraceRepository.TraceQuery;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+// helpers for the pre-aggregated error message summaries (trace_tt_error_summary and
+// trace_tn_error_summary), which hold the total error count, the top error messages and the other
+// error count (the errors whose message is not in the top error messages) for each 1 minute bucket
+class ErrorSummaries {
+
+    // 1 minute evenly divides all of the rollup intervals, so that each bucket falls entirely
+    // within a single data point of the error messages chart
+    static final long INTERVAL_MILLIS = MINUTES.toMillis(1);
+
+    // the error messages view starts with a limit of 25 and then doubles it each time that more
+    // error messages are requested, so the summaries serve the first few requests and anything
+    // beyond this falls back to reading the individual error messages
+    static final int TOP_ERROR_MESSAGES = 100;
+
+    private ErrorSummaries() {}
+
+    // capture time of the first bucket that is entirely within the query (query.from() is
+    // non-inclusive)
+    static long getFirstBucket(TraceQuery query) {
+        return (long) Math.ceil(query.from() / (double) INTERVAL_MILLIS) * INTERVAL_MILLIS
+                + INTERVAL_MILLIS;
+    }
+
+    // capture time of the last bucket that is entirely within the query (query.to() is inclusive)
+    static long getLastBucket(TraceQuery query) {
+        return (long) Math.floor(query.to() / (double) INTERVAL_MILLIS) * INTERVAL_MILLIS;
+    }
+
+    // returns the (contiguous) parts of the query that cannot be served from the error summaries,
+    // which are the partial buckets at either end of the query and the buckets that still need to
+    // be rolled up
+    static List<TraceQuery> getNonSummarizedQueries(TraceQuery query,
+            NavigableSet<Long> needsRollupBuckets) {
+        long firstBucket = getFirstBucket(query);
+        long lastBucket = getLastBucket(query);
+        List<TraceQuery> queries = new ArrayList<>();
+        if (firstBucket > lastBucket) {
+            queries.add(query);
+            return queries;
+        }
+        long from = query.from();
+        long to = firstBucket - INTERVAL_MILLIS;
+        for (long bucket : needsRollupBuckets.subSet(firstBucket, true, lastBucket, true)) {
+            if (bucket - INTERVAL_MILLIS > to) {
+                addIfNonEmpty(queries, query, from, to);
+                from = bucket - INTERVAL_MILLIS;
+            }
+            to = bucket;
+        }
+        if (lastBucket < query.to()) {
+            if (lastBucket > to) {
+                addIfNonEmpty(queries, query, from, to);
+                from = lastBucket;
+            }
+            to = query.to();
+        }
+        addIfNonEmpty(queries, query, from, to);
+        return queries;
+    }
+
+    static Map<String, Long> getTopErrorMessages(Map<String, Long> errorMessageCounts) {
+        if (errorMessageCounts.size() <= TOP_ERROR_MESSAGES) {
+            return errorMessageCounts;
+        }
+        Map<String, Long> topErrorMessageCounts = new LinkedHashMap<>();
+        errorMessageCounts.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue(Comparator.reverseOrder()))
+                .limit(TOP_ERROR_MESSAGES)
+                .forEach(entry -> topErrorMessageCounts.put(entry.getKey(), entry.getValue()));
+        return topErrorMessageCounts;
+    }
+
+    // the other error count is kept with each bucket so that when buckets are merged, the merged
+    // error message counts plus the merged other error count still add up to the total error count
+    static long getOtherErrorCount(long errorCount, Map<String, Long> topErrorMessageCounts) {
+        long topErrorCount = 0;
+        for (long count : topErrorMessageCounts.values()) {
+            topErrorCount += count;
+        }
+        return errorCount - topErrorCount;
+    }
+
+    private static void addIfNonEmpty(List<TraceQuery> queries, TraceQuery query, long from,
+            long to) {
+        if (to > from) {
+            queries.add(ImmutableTraceQuery.builder()
+                    .copyFrom(query)
+                    .from(from)
+                    .to(to)
+                    .build());
+        }
+    }
+}
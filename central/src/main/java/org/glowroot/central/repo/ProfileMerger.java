@@ -0,0 +1,217 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.central.repo;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Stopwatch;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import org.glowroot.central.util.MoreMBeans;
+import org.glowroot.common.model.MutableProfile;
+import org.glowroot.wire.api.model.ProfileOuterClass.Profile;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+// merges stored profile blobs on a dedicated fork join pool instead of one by one on the cassandra
+// driver callback thread, each leaf task decodes and merges a few blobs into its own MutableProfile
+// and the partial profiles are then combined pairwise (remapping string table indexes, see
+// MutableProfile.merge(MutableProfile))
+//
+// rolled up profiles are capped at a max node count by truncating branches, since otherwise the
+// profiles (and so the time to merge them) keep growing with each rollup level
+class ProfileMerger implements ProfileMergerMXBean {
+
+    private static final String MBEAN_OBJECT_NAME = "org.glowroot.central:type=ProfileMerger";
+
+    // number of profile blobs decoded and merged sequentially by a single leaf task
+    private static final int LEAF_SIZE = 4;
+
+    private final int parallelism;
+    private final int maxNodeCount;
+
+    private final ForkJoinPool pool;
+
+    private final Map<Integer, LevelStats> levelStats = new ConcurrentHashMap<>();
+
+    private final boolean mbeanRegistered;
+
+    ProfileMerger() {
+        this(Integer.getInteger("glowroot.internal.profileMergeParallelism",
+                Runtime.getRuntime().availableProcessors()),
+                Integer.getInteger("glowroot.internal.profileRollupMaxNodeCount", 100000), true);
+    }
+
+    @VisibleForTesting
+    ProfileMerger(int parallelism, int maxNodeCount, boolean registerMBean) {
+        this.parallelism = parallelism;
+        this.maxNodeCount = maxNodeCount;
+        pool = new ForkJoinPool(parallelism);
+        mbeanRegistered = registerMBean && MoreMBeans.register(this, MBEAN_OBJECT_NAME);
+    }
+
+    // profiles that are stored as part of a rollup are truncated to the max node count, while
+    // profiles that are read for display are truncated later by the UI
+    CompletableFuture<MutableProfile> merge(List<ByteBuffer> profiles, int rollupLevel,
+            boolean truncate) {
+        return CompletableFuture.supplyAsync(() -> {
+            Stopwatch stopwatch = Stopwatch.createStarted();
+            MutableProfile profile = new MergeTask(profiles, 0, profiles.size()).invoke();
+            boolean truncated = truncate && truncate(profile, maxNodeCount);
+            getLevelStats(rollupLevel).record(profiles.size(), stopwatch.elapsed(MILLISECONDS),
+                    truncated);
+            return profile;
+        }, pool);
+    }
+
+    void close() {
+        if (mbeanRegistered) {
+            MoreMBeans.unregister(MBEAN_OBJECT_NAME);
+        }
+        pool.shutdown();
+    }
+
+    @Override
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    @Override
+    public int getMaxNodeCount() {
+        return maxNodeCount;
+    }
+
+    @Override
+    public Map<Integer, Long> getMergeCount() {
+        return getByLevel(stats -> stats.mergeCount.get());
+    }
+
+    @Override
+    public Map<Integer, Long> getMergedProfileCount() {
+        return getByLevel(stats -> stats.mergedProfileCount.get());
+    }
+
+    @Override
+    public Map<Integer, Long> getTotalMergeMillis() {
+        return getByLevel(stats -> stats.totalMergeMillis.get());
+    }
+
+    @Override
+    public Map<Integer, Long> getMaxMergeMillis() {
+        return getByLevel(stats -> stats.maxMergeMillis.get());
+    }
+
+    @Override
+    public Map<Integer, Long> getTruncatedCount() {
+        return getByLevel(stats -> stats.truncatedCount.get());
+    }
+
+    private LevelStats getLevelStats(int rollupLevel) {
+        return levelStats.computeIfAbsent(rollupLevel, k -> new LevelStats());
+    }
+
+    private Map<Integer, Long> getByLevel(Function<LevelStats, Long> function) {
+        Map<Integer, Long> values = new TreeMap<>();
+        for (Map.Entry<Integer, LevelStats> entry : levelStats.entrySet()) {
+            values.put(entry.getKey(), function.apply(entry.getValue()));
+        }
+        return values;
+    }
+
+    // returns true if the profile had to be truncated
+    @VisibleForTesting
+    static boolean truncate(MutableProfile profile, int maxNodeCount) {
+        if (profile.getNodeCount() <= maxNodeCount) {
+            return false;
+        }
+        // start by truncating the smallest branches, and keep doubling until under the cap
+        double truncateBranchPercentage = 0.01;
+        do {
+            profile.truncateBranches(truncateBranchPercentage);
+            truncateBranchPercentage *= 2;
+        } while (profile.getNodeCount() > maxNodeCount && truncateBranchPercentage <= 100);
+        return true;
+    }
+
+    private static MutableProfile decodeAndMerge(List<ByteBuffer> profiles, int from, int to) {
+        MutableProfile profile = new MutableProfile();
+        for (int i = from; i < to; i++) {
+            try {
+                profile.merge(Profile.parseFrom(profiles.get(i)));
+            } catch (InvalidProtocolBufferException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return profile;
+    }
+
+    @SuppressWarnings("serial")
+    private static class MergeTask extends RecursiveTask<MutableProfile> {
+
+        private final List<ByteBuffer> profiles;
+        private final int from;
+        private final int to;
+
+        private MergeTask(List<ByteBuffer> profiles, int from, int to) {
+            this.profiles = profiles;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected MutableProfile compute() {
+            if (to - from <= LEAF_SIZE) {
+                return decodeAndMerge(profiles, from, to);
+            }
+            int middle = (from + to) >>> 1;
+            MergeTask left = new MergeTask(profiles, from, middle);
+            left.fork();
+            MutableProfile rightProfile = new MergeTask(profiles, middle, to).compute();
+            MutableProfile profile = left.join();
+            profile.merge(rightProfile);
+            return profile;
+        }
+    }
+
+    private static class LevelStats {
+
+        private final AtomicLong mergeCount = new AtomicLong();
+        private final AtomicLong mergedProfileCount = new AtomicLong();
+        private final AtomicLong totalMergeMillis = new AtomicLong();
+        private final AtomicLong maxMergeMillis = new AtomicLong();
+        private final AtomicLong truncatedCount = new AtomicLong();
+
+        private void record(int profileCount, long millis, boolean truncated) {
+            mergeCount.incrementAndGet();
+            mergedProfileCount.addAndGet(profileCount);
+            totalMergeMillis.addAndGet(millis);
+            maxMergeMillis.accumulateAndGet(millis, Math::max);
+            if (truncated) {
+                truncatedCount.incrementAndGet();
+            }
+        }
+    }
+}
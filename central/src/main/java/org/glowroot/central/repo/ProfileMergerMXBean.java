@@ -0,0 +1,38 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.central.repo;
+
+import java.util.Map;
+
+public interface ProfileMergerMXBean {
+
+    int getParallelism();
+
+    int getMaxNodeCount();
+
+    // the following are keyed by the rollup level of the merged profile
+
+    Map<Integer, Long> getMergeCount();
+
+    Map<Integer, Long> getMergedProfileCount();
+
+    Map<Integer, Long> getTotalMergeMillis();
+
+    Map<Integer, Long> getMaxMergeMillis();
+
+    // number of merged profiles that exceeded the max node count and had to be truncated
+    Map<Integer, Long> getTruncatedCount();
+}
@@ -97,7 +97,7 @@ public class SchemaUpgrade {
 
     private static final ObjectMapper mapper = ObjectMappers.create();
 
-    private static final int CURR_SCHEMA_VERSION = 91;
+    private static final int CURR_SCHEMA_VERSION = 92;
 
     private final Session session;
     private final int cassandraGcGraceSeconds;
@@ -531,6 +531,10 @@ public class SchemaUpgrade {
             addAggregateSummaryColumns();
             updateSchemaVersion(91);
         }
+        if (initialSchemaVersion < 92) {
+            addAggregateRootTimersColumn();
+            updateSchemaVersion(92);
+        }
 
         // when adding new schema upgrade, make sure to update CURR_SCHEMA_VERSION above
         startupLogger.info("upgraded glowroot central schema from version {} to version {}",
@@ -2855,6 +2859,19 @@ public class SchemaUpgrade {
         addColumnIfNotExists("aggregate_tn_summary_rollup_3", "total_allocated_bytes", "double");
     }
 
+    // existing rows keep their protobuf root timer blobs (which are still read) until they expire,
+    // while new rows are written using the columnar format (see ColumnarRootTimers)
+    private void addAggregateRootTimersColumn() throws Exception {
+        addColumnIfNotExists("aggregate_tt_overview_rollup_0", "root_timers", "blob");
+        addColumnIfNotExists("aggregate_tt_overview_rollup_1", "root_timers", "blob");
+        addColumnIfNotExists("aggregate_tt_overview_rollup_2", "root_timers", "blob");
+        addColumnIfNotExists("aggregate_tt_overview_rollup_3", "root_timers", "blob");
+        addColumnIfNotExists("aggregate_tn_overview_rollup_0", "root_timers", "blob");
+        addColumnIfNotExists("aggregate_tn_overview_rollup_1", "root_timers", "blob");
+        addColumnIfNotExists("aggregate_tn_overview_rollup_2", "root_timers", "blob");
+        addColumnIfNotExists("aggregate_tn_overview_rollup_3", "root_timers", "blob");
+    }
+
     private void addColumnIfNotExists(String tableName, String columnName, String cqlType)
             throws Exception {
         try {
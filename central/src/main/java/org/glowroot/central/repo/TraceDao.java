@@ -27,6 +27,9 @@ public interface TraceDao extends TraceRepository {
     @CheckReturnValue
     CompletionStage<?> store(String agentId, Trace trace) throws Exception;
 
+    @CheckReturnValue
+    CompletionStage<?> rollup(String agentRollupId);
+
     @OnlyUsedByTests
     void truncateAll() throws Exception;
 }
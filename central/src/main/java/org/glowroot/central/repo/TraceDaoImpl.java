@@ -20,6 +20,7 @@ import com.datastax.oss.driver.api.core.cql.BoundStatement;
 import com.datastax.oss.driver.api.core.cql.PreparedStatement;
 import com.datastax.oss.driver.api.core.cql.Row;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Ordering;
 import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hashing;
@@ -58,6 +59,7 @@ import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
+import java.util.function.ObjLongConsumer;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -98,6 +100,10 @@ public class TraceDaoImpl implements TraceDao {
     private final PreparedStatement insertOverallErrorMessage;
     private final PreparedStatement insertTransactionErrorMessage;
 
+    private final PreparedStatement insertOverallErrorSummary;
+    private final PreparedStatement insertTransactionErrorSummary;
+    private final PreparedStatement insertErrorSummaryNeedsRollup;
+
     private final PreparedStatement insertHeaderV2;
     private final PreparedStatement insertEntryV2;
     private final PreparedStatement insertQueryV2;
@@ -124,6 +130,10 @@ public class TraceDaoImpl implements TraceDao {
     private final PreparedStatement readOverallErrorMessage;
     private final PreparedStatement readTransactionErrorMessage;
 
+    private final PreparedStatement readOverallErrorSummary;
+    private final PreparedStatement readTransactionErrorSummary;
+    private final PreparedStatement readErrorSummaryNeedsRollup;
+
     private final PreparedStatement readHeaderV1;
     private final PreparedStatement readEntriesV1;
     private final PreparedStatement readSharedQueryTextsV1;
@@ -143,6 +153,8 @@ public class TraceDaoImpl implements TraceDao {
     private final PreparedStatement deleteOverallSlowPointPartial;
     private final PreparedStatement deleteTransactionSlowPointPartial;
 
+    private final PreparedStatement deleteErrorSummaryNeedsRollup;
+
     TraceDaoImpl(Session session, TransactionTypeDao transactionTypeDao,
                  FullQueryTextDao fullQueryTextDao, TraceAttributeNameDao traceAttributeNameDao,
                  ConfigRepositoryImpl configRepository, Clock clock) throws Exception {
@@ -260,6 +272,29 @@ public class TraceDaoImpl implements TraceDao {
                 + " varchar, primary key ((agent_rollup, transaction_type, transaction_name),"
                 + " capture_time, agent_id, trace_id))", expirationHours);
 
+        // total error count and top error messages per 1 minute bucket, rolled up from the error
+        // messages above so that the error messages view reads O(buckets) instead of O(errors)
+        session.createTableWithTWCS("create table if not exists trace_tt_error_summary"
+                + " (agent_rollup varchar, transaction_type varchar, capture_time timestamp,"
+                + " error_count bigint, error_messages frozen<map<varchar, bigint>>,"
+                + " other_error_count bigint, primary key ((agent_rollup, transaction_type),"
+                + " capture_time))", expirationHours);
+
+        session.createTableWithTWCS("create table if not exists trace_tn_error_summary"
+                + " (agent_rollup varchar, transaction_type varchar, transaction_name varchar,"
+                + " capture_time timestamp, error_count bigint, error_messages"
+                + " frozen<map<varchar, bigint>>, other_error_count bigint, primary key"
+                + " ((agent_rollup, transaction_type, transaction_name), capture_time))",
+                expirationHours);
+
+        // keyed by transaction name (instead of a unique key per error trace) so that the number
+        // of rows is bounded by the number of distinct transaction names with errors per minute,
+        // regardless of the number of errors
+        session.createTableWithLCS("create table if not exists trace_error_summary_needs_rollup"
+                + " (agent_rollup varchar, capture_time timestamp, transaction_type varchar,"
+                + " transaction_name varchar, last_capture_time timestamp, primary key"
+                + " (agent_rollup, capture_time, transaction_type, transaction_name))");
+
         // ===== trace components v1 =====
 
         session.createTableWithTWCS("create table if not exists trace_header (agent_id varchar,"
@@ -385,6 +420,20 @@ public class TraceDaoImpl implements TraceDao {
                 + " (agent_rollup, transaction_type, transaction_name, capture_time, agent_id,"
                 + " trace_id, error_message) values (?, ?, ?, ?, ?, ?, ?) using ttl ?");
 
+        insertOverallErrorSummary = session.prepare("insert into trace_tt_error_summary"
+                + " (agent_rollup, transaction_type, capture_time, error_count, error_messages,"
+                + " other_error_count) values (?, ?, ?, ?, ?, ?) using ttl ?");
+
+        insertTransactionErrorSummary = session.prepare("insert into trace_tn_error_summary"
+                + " (agent_rollup, transaction_type, transaction_name, capture_time, error_count,"
+                + " error_messages, other_error_count) values (?, ?, ?, ?, ?, ?, ?) using ttl ?");
+
+        // TTL is used to prevent non-idempotent rolling up of partially expired error messages
+        // (e.g. "needs rollup" record resurrecting due to small gc_grace_seconds)
+        insertErrorSummaryNeedsRollup = session.prepare("insert into"
+                + " trace_error_summary_needs_rollup (agent_rollup, capture_time, transaction_type,"
+                + " transaction_name, last_capture_time) values (?, ?, ?, ?, ?) using ttl ?");
+
         insertHeaderV2 = session.prepare("insert into trace_header_v2 (agent_id, trace_id, header)"
                 + " values (?, ?, ?) using ttl ?");
 
@@ -506,6 +555,21 @@ public class TraceDaoImpl implements TraceDao {
                 + " trace_tn_error_message where agent_rollup = ? and transaction_type = ? and"
                 + " transaction_name = ? and capture_time > ? and capture_time <= ?");
 
+        readOverallErrorSummary = session.prepare("select capture_time, error_count,"
+                + " error_messages, other_error_count from trace_tt_error_summary where agent_rollup = ? and"
+                + " transaction_type = ? and capture_time > ? and capture_time <= ?");
+
+        readTransactionErrorSummary = session.prepare("select capture_time, error_count,"
+                + " error_messages, other_error_count from trace_tn_error_summary where agent_rollup = ? and"
+                + " transaction_type = ? and transaction_name = ? and capture_time > ? and"
+                + " capture_time <= ?");
+
+        // the write time is used when deleting, see rollupErrorSummaries()
+        readErrorSummaryNeedsRollup = session.prepare("select capture_time, transaction_type,"
+                + " transaction_name, writetime(last_capture_time) from"
+                + " trace_error_summary_needs_rollup where agent_rollup = ? and capture_time > ?"
+                + " and capture_time <= ?");
+
         readHeaderV1 = session
                 .prepare("select header from trace_header where agent_id = ? and trace_id = ?");
 
@@ -561,6 +625,10 @@ public class TraceDaoImpl implements TraceDao {
         deleteTransactionSlowPointPartial = session.prepare("delete from"
                 + " trace_tn_slow_point_partial where agent_rollup = ? and transaction_type = ? and"
                 + " transaction_name = ? and capture_time = ? and agent_id = ? and trace_id = ?");
+
+        deleteErrorSummaryNeedsRollup = session.prepare("delete from"
+                + " trace_error_summary_needs_rollup using timestamp ? where agent_rollup = ? and"
+                + " capture_time = ? and transaction_type = ? and transaction_name = ?");
     }
 
     @CheckReturnValue
@@ -633,6 +701,8 @@ public class TraceDaoImpl implements TraceDao {
                         int adjustedTTL =
                                 Common.getAdjustedTTL(centralStorageConfig.getTraceTTL(),
                                         header.getCaptureTime(), clock);
+                        int needsRollupAdjustedTTL = Common.getNeedsRollupAdjustedTTL(adjustedTTL,
+                                configRepository.getRollupConfigs());
                         for (String agentRollupId : agentRollupIds) {
                             if (header.getSlow()) {
                                 BoundStatement boundStatement;
@@ -731,6 +801,18 @@ public class TraceDaoImpl implements TraceDao {
                                 boundStatement = bindCount(boundStatement, agentRollupId, agentId, traceId, header, adjustedTTL,
                                         false, false, cassandra2x);
                                 futures.add(session.writeAsync(boundStatement, CassandraProfile.collector));
+
+                                int i = 0;
+                                boundStatement = insertErrorSummaryNeedsRollup.bind()
+                                        .setString(i++, agentRollupId)
+                                        .setInstant(i++, Instant.ofEpochMilli(CaptureTimes.getRollup(
+                                                header.getCaptureTime(), ErrorSummaries.INTERVAL_MILLIS)))
+                                        .setString(i++, header.getTransactionType())
+                                        .setString(i++, header.getTransactionName())
+                                        .setInstant(i++, Instant.ofEpochMilli(
+                                                header.getCaptureTime()))
+                                        .setInt(i++, needsRollupAdjustedTTL);
+                                futures.add(session.writeAsync(boundStatement, CassandraProfile.collector));
                             }
                         }
                         for (String agentRollupIdForMeta : agentRollupIdsForMeta) {
@@ -941,6 +1023,63 @@ public class TraceDaoImpl implements TraceDao {
     @Override
     public CompletionStage<ErrorMessageResult> readErrorMessages(String agentRollupId, TraceQuery query,
                                                 ErrorMessageFilter filter, long resolutionMillis, int limit) {
+        if (!filter.includes().isEmpty() || !filter.excludes().isEmpty()
+                || limit > ErrorSummaries.TOP_ERROR_MESSAGES
+                || resolutionMillis % ErrorSummaries.INTERVAL_MILLIS != 0) {
+            // the error summaries only hold the top error messages, which is not enough to apply
+            // filters or to return more than the top error messages
+            //
+            // rows are already in order by captureTime, so saving sort step by using linked hash map
+            Map<Long, MutableLong> pointCounts = new LinkedHashMap<>();
+            Map<String, MutableLong> messageCounts = new HashMap<>();
+            return readErrorMessagesInto(agentRollupId, query, filter, resolutionMillis,
+                    pointCounts, messageCounts)
+                    .thenApply(ignored -> createErrorMessageResult(pointCounts, messageCounts,
+                            0, limit));
+        }
+        Map<Long, MutableLong> pointCounts = new TreeMap<>();
+        Map<String, MutableLong> messageCounts = new HashMap<>();
+        AtomicLong otherErrorCount = new AtomicLong();
+        return readErrorSummaryNeedsRollup(agentRollupId,
+                ErrorSummaries.getFirstBucket(query) - ErrorSummaries.INTERVAL_MILLIS,
+                ErrorSummaries.getLastBucket(query), CassandraProfile.web).thenCompose(needsRollupList -> {
+            NavigableSet<Long> needsRollupBuckets = new TreeSet<>();
+            for (ErrorSummaryNeedsRollup needsRollup : needsRollupList) {
+                if (needsRollup.matches(query)) {
+                    needsRollupBuckets.add(needsRollup.captureTime);
+                }
+            }
+            CompletionStage<?> future = readErrorSummariesInto(agentRollupId, query,
+                    needsRollupBuckets, resolutionMillis, pointCounts, messageCounts,
+                    otherErrorCount);
+            // reading sequentially since the counts are not thread safe
+            for (TraceQuery nonSummarizedQuery : ErrorSummaries.getNonSummarizedQueries(query,
+                    needsRollupBuckets)) {
+                future = future.thenCompose(ignored -> readErrorMessagesInto(agentRollupId,
+                        nonSummarizedQuery, filter, resolutionMillis, pointCounts, messageCounts));
+            }
+            return future;
+        }).thenApply(ignored -> createErrorMessageResult(pointCounts, messageCounts,
+                otherErrorCount.get(), limit));
+    }
+
+    private CompletionStage<?> readErrorMessagesInto(String agentRollupId, TraceQuery query,
+            ErrorMessageFilter filter, long resolutionMillis, Map<Long, MutableLong> pointCounts,
+            Map<String, MutableLong> messageCounts) {
+        return readErrorMessages(agentRollupId, query, CassandraProfile.web,
+                (errorMessage, captureTime) -> {
+                    if (!matches(filter, errorMessage)) {
+                        return;
+                    }
+                    long rollupCaptureTime = CaptureTimes.getRollup(captureTime, resolutionMillis);
+                    pointCounts.computeIfAbsent(rollupCaptureTime, k -> new MutableLong())
+                            .increment();
+                    messageCounts.computeIfAbsent(errorMessage, k -> new MutableLong()).increment();
+                });
+    }
+
+    private CompletionStage<?> readErrorMessages(String agentRollupId, TraceQuery query,
+            CassandraProfile profile, ObjLongConsumer<String> errorMessageConsumer) {
         BoundStatement boundStatement;
         String transactionName = query.transactionName();
         if (transactionName == null) {
@@ -950,21 +1089,68 @@ public class TraceDaoImpl implements TraceDao {
             boundStatement = readTransactionErrorMessage.bind();
             boundStatement = bindTraceQuery(boundStatement, agentRollupId, query, false);
         }
-        // rows are already in order by captureTime, so saving sort step by using linked hash map
-        Map<Long, MutableLong> pointCounts = new LinkedHashMap<>();
-        Map<String, MutableLong> messageCounts = new HashMap<>();
         Function<AsyncResultSet, CompletableFuture<Void>> compute = new com.google.common.base.Function<AsyncResultSet, CompletableFuture<Void>>() {
             @Override
             public CompletableFuture<Void> apply(AsyncResultSet results) {
                 for (Row row : results.currentPage()) {
                     long captureTime = checkNotNull(row.getInstant(0)).toEpochMilli();
                     String errorMessage = checkNotNull(row.getString(1));
-                    if (!matches(filter, errorMessage)) {
+                    errorMessageConsumer.accept(errorMessage, captureTime);
+                }
+                if (results.hasMorePages()) {
+                    return results.fetchNextPage().thenCompose(this::apply).toCompletableFuture();
+                }
+                return CompletableFuture.completedFuture(null);
+            }
+        };
+        return session.readAsync(boundStatement, profile).thenCompose(compute);
+    }
+
+    // the summary buckets that still need to be rolled up are skipped, since they are read from
+    // the individual error messages instead
+    private CompletionStage<?> readErrorSummariesInto(String agentRollupId, TraceQuery query,
+            Set<Long> needsRollupBuckets, long resolutionMillis,
+            Map<Long, MutableLong> pointCounts, Map<String, MutableLong> messageCounts,
+            AtomicLong otherErrorCount) {
+        long firstBucket = ErrorSummaries.getFirstBucket(query);
+        long lastBucket = ErrorSummaries.getLastBucket(query);
+        if (firstBucket > lastBucket) {
+            return CompletableFuture.completedFuture(null);
+        }
+        TraceQuery summaryQuery = ImmutableTraceQuery.builder()
+                .copyFrom(query)
+                .from(firstBucket - ErrorSummaries.INTERVAL_MILLIS)
+                .to(lastBucket)
+                .build();
+        BoundStatement boundStatement;
+        if (query.transactionName() == null) {
+            boundStatement = readOverallErrorSummary.bind();
+            boundStatement = bindTraceQuery(boundStatement, agentRollupId, summaryQuery, true);
+        } else {
+            boundStatement = readTransactionErrorSummary.bind();
+            boundStatement = bindTraceQuery(boundStatement, agentRollupId, summaryQuery, false);
+        }
+        Function<AsyncResultSet, CompletableFuture<Void>> compute = new com.google.common.base.Function<AsyncResultSet, CompletableFuture<Void>>() {
+            @Override
+            public CompletableFuture<Void> apply(AsyncResultSet results) {
+                for (Row row : results.currentPage()) {
+                    int i = 0;
+                    long captureTime = checkNotNull(row.getInstant(i++)).toEpochMilli();
+                    if (needsRollupBuckets.contains(captureTime)) {
                         continue;
                     }
+                    long errorCount = row.getLong(i++);
+                    Map<String, Long> errorMessages =
+                            checkNotNull(row.getMap(i++, String.class, Long.class));
                     long rollupCaptureTime = CaptureTimes.getRollup(captureTime, resolutionMillis);
-                    pointCounts.computeIfAbsent(rollupCaptureTime, k -> new MutableLong()).increment();
-                    messageCounts.computeIfAbsent(errorMessage, k -> new MutableLong()).increment();
+                    pointCounts.computeIfAbsent(rollupCaptureTime, k -> new MutableLong())
+                            .add(errorCount);
+                    for (Map.Entry<String, Long> entry : errorMessages.entrySet()) {
+                        messageCounts.computeIfAbsent(entry.getKey(), k -> new MutableLong())
+                                .add(entry.getValue());
+                    }
+                    // the errors whose message is not in the top error messages of the bucket
+                    otherErrorCount.addAndGet(row.getLong(i++));
                 }
                 if (results.hasMorePages()) {
                     return results.fetchNextPage().thenCompose(this::apply).toCompletableFuture();
@@ -972,34 +1158,189 @@ public class TraceDaoImpl implements TraceDao {
                 return CompletableFuture.completedFuture(null);
             }
         };
-        return session.readAsync(boundStatement, CassandraProfile.web).thenCompose(compute).thenApply((ignored) -> {
-            // pointCounts is linked hash map and is already sorted by capture time
-            List<ErrorMessagePoint> points = pointCounts.entrySet().stream()
-                    .map(e -> ImmutableErrorMessagePoint.of(e.getKey(), e.getValue().value))
-                    // explicit type on this line is needed for Checker Framework
-                    // see https://github.com/typetools/checker-framework/issues/531
-                    .collect(Collectors.<ErrorMessagePoint>toList());
-            List<ErrorMessageCount> counts = messageCounts.entrySet().stream()
-                    .map(e1 -> ImmutableErrorMessageCount.of(e1.getKey(), e1.getValue().value))
-                    .sorted(Comparator.comparing(ErrorMessageCount::count).reversed())
-                    // explicit type on this line is needed for Checker Framework
-                    // see https://github.com/typetools/checker-framework/issues/531
-                    .collect(Collectors.<ErrorMessageCount>toList());
-
-            if (counts.size() > limit) {
-                return ImmutableErrorMessageResult.builder()
-                        .addAllPoints(points)
-                        .counts(new Result<>(counts.subList(0, limit), true))
-                        .build();
-            } else {
-                return ImmutableErrorMessageResult.builder()
-                        .addAllPoints(points)
-                        .counts(new Result<>(counts, false))
-                        .build();
+        return session.readAsync(boundStatement, CassandraProfile.web).thenCompose(compute);
+    }
+
+    private static ErrorMessageResult createErrorMessageResult(Map<Long, MutableLong> pointCounts,
+            Map<String, MutableLong> messageCounts, long otherErrorMessageCount, int limit) {
+        // pointCounts is already sorted by capture time
+        List<ErrorMessagePoint> points = pointCounts.entrySet().stream()
+                .map(e -> ImmutableErrorMessagePoint.of(e.getKey(), e.getValue().value))
+                // explicit type on this line is needed for Checker Framework
+                // see https://github.com/typetools/checker-framework/issues/531
+                .collect(Collectors.<ErrorMessagePoint>toList());
+        List<ErrorMessageCount> counts = messageCounts.entrySet().stream()
+                .map(e1 -> ImmutableErrorMessageCount.of(e1.getKey(), e1.getValue().value))
+                .sorted(Comparator.comparing(ErrorMessageCount::count).reversed())
+                // explicit type on this line is needed for Checker Framework
+                // see https://github.com/typetools/checker-framework/issues/531
+                .collect(Collectors.<ErrorMessageCount>toList());
+
+        if (counts.size() > limit) {
+            return ImmutableErrorMessageResult.builder()
+                    .addAllPoints(points)
+                    .counts(new Result<>(counts.subList(0, limit), true))
+                    .otherErrorMessageCount(otherErrorMessageCount)
+                    .build();
+        } else {
+            // when the top error messages of any summary bucket were truncated, there may be more
+            // error messages available
+            return ImmutableErrorMessageResult.builder()
+                    .addAllPoints(points)
+                    .counts(new Result<>(counts, otherErrorMessageCount > 0))
+                    .otherErrorMessageCount(otherErrorMessageCount)
+                    .build();
+        }
+    }
+
+    // rolls up the individual error messages of each 1 minute bucket that has received errors
+    // into the error summaries
+    @CheckReturnValue
+    @Override
+    public CompletionStage<?> rollup(String agentRollupId) {
+        // capture current time before reading needs rollup data, see Common.getNeedsRollupList()
+        long currentTimeMillis = clock.currentTimeMillis();
+        // only reading the buckets that are old enough to roll up (see
+        // Common.isOldEnoughToRollup()), since the more recent buckets are likely still being
+        // added to
+        return readErrorSummaryNeedsRollup(agentRollupId, 0,
+                currentTimeMillis - ErrorSummaries.INTERVAL_MILLIS - 1, CassandraProfile.rollup).thenCompose(needsRollupList -> {
+            Map<Long, List<ErrorSummaryNeedsRollup>> needsRollupByBucket = new TreeMap<>();
+            for (ErrorSummaryNeedsRollup needsRollup : needsRollupList) {
+                needsRollupByBucket
+                        .computeIfAbsent(needsRollup.captureTime, k -> new ArrayList<>())
+                        .add(needsRollup);
+            }
+            // rolling up one bucket at a time in order to not flood cassandra after a backlog
+            CompletionStage<?> future = CompletableFuture.completedFuture(null);
+            for (Map.Entry<Long, List<ErrorSummaryNeedsRollup>> entry : needsRollupByBucket
+                    .entrySet()) {
+                future = future.thenCompose(ignored -> rollupErrorSummaries(agentRollupId,
+                        entry.getKey(), entry.getValue()));
+            }
+            return future;
+        });
+    }
+
+    private CompletionStage<?> rollupErrorSummaries(String agentRollupId, long captureTime,
+            List<ErrorSummaryNeedsRollup> needsRollupList) {
+        Set<String> transactionTypes = new HashSet<>();
+        Set<List<String>> transactionNames = new HashSet<>();
+        for (ErrorSummaryNeedsRollup needsRollup : needsRollupList) {
+            transactionTypes.add(needsRollup.transactionType);
+            transactionNames.add(
+                    ImmutableList.of(needsRollup.transactionType, needsRollup.transactionName));
+        }
+        return configRepository.getCentralStorageConfig().thenCompose(centralStorageConfig -> {
+            int adjustedTTL = Common.getAdjustedTTL(centralStorageConfig.getTraceTTL(),
+                    captureTime, clock);
+            List<CompletionStage<?>> futures = new ArrayList<>();
+            for (String transactionType : transactionTypes) {
+                futures.add(rollupErrorSummary(agentRollupId, ImmutableTraceQuery.builder()
+                        .transactionType(transactionType)
+                        .from(captureTime - ErrorSummaries.INTERVAL_MILLIS)
+                        .to(captureTime)
+                        .build(), adjustedTTL));
+            }
+            for (List<String> transactionName : transactionNames) {
+                futures.add(rollupErrorSummary(agentRollupId, ImmutableTraceQuery.builder()
+                        .transactionType(transactionName.get(0))
+                        .transactionName(transactionName.get(1))
+                        .from(captureTime - ErrorSummaries.INTERVAL_MILLIS)
+                        .to(captureTime)
+                        .build(), adjustedTTL));
+            }
+            return CompletableFutures.allAsList(futures);
+        }).thenCompose(ignored -> {
+            // the rows are deleted using the write time that was read, so that a row that was
+            // re-written after it was read (by another error trace for the same bucket and
+            // transaction name, e.g. a late arriving trace) is not deleted before it is rolled up
+            List<CompletionStage<?>> futures = new ArrayList<>();
+            for (ErrorSummaryNeedsRollup needsRollup : needsRollupList) {
+                int i = 0;
+                BoundStatement boundStatement = deleteErrorSummaryNeedsRollup.bind()
+                        .setLong(i++, needsRollup.writeTime)
+                        .setString(i++, agentRollupId)
+                        .setInstant(i++, Instant.ofEpochMilli(captureTime))
+                        .setString(i++, needsRollup.transactionType)
+                        .setString(i++, needsRollup.transactionName);
+                futures.add(session.writeAsync(boundStatement, CassandraProfile.rollup));
             }
+            return CompletableFutures.allAsList(futures);
         });
     }
 
+    private CompletionStage<?> rollupErrorSummary(String agentRollupId, TraceQuery query,
+            int adjustedTTL) {
+        Map<String, Long> errorMessageCounts = new HashMap<>();
+        AtomicLong errorCount = new AtomicLong();
+        return readErrorMessages(agentRollupId, query, CassandraProfile.rollup,
+                (errorMessage, captureTime) -> {
+                    errorMessageCounts.merge(errorMessage, 1L, Long::sum);
+                    errorCount.incrementAndGet();
+                }).thenCompose(ignored -> {
+                    if (errorCount.get() == 0) {
+                        // the error messages have already expired
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    int i = 0;
+                    BoundStatement boundStatement;
+                    if (query.transactionName() == null) {
+                        boundStatement = insertOverallErrorSummary.bind()
+                                .setString(i++, agentRollupId)
+                                .setString(i++, query.transactionType());
+                    } else {
+                        boundStatement = insertTransactionErrorSummary.bind()
+                                .setString(i++, agentRollupId)
+                                .setString(i++, query.transactionType())
+                                .setString(i++, query.transactionName());
+                    }
+                    Map<String, Long> topErrorMessageCounts =
+                            ErrorSummaries.getTopErrorMessages(errorMessageCounts);
+                    boundStatement = boundStatement
+                            .setInstant(i++, Instant.ofEpochMilli(query.to()))
+                            .setLong(i++, errorCount.get())
+                            .setMap(i++, topErrorMessageCounts, String.class, Long.class)
+                            .setLong(i++, ErrorSummaries.getOtherErrorCount(errorCount.get(),
+                                    topErrorMessageCounts))
+                            .setInt(i++, adjustedTTL);
+                    return session.writeAsync(boundStatement, CassandraProfile.rollup);
+                });
+    }
+
+    // reads the buckets with capture time in (from, to]
+    private CompletionStage<List<ErrorSummaryNeedsRollup>> readErrorSummaryNeedsRollup(
+            String agentRollupId, long from, long to, CassandraProfile profile) {
+        if (from >= to) {
+            return CompletableFuture.completedFuture(ImmutableList.of());
+        }
+        int i = 0;
+        BoundStatement boundStatement = readErrorSummaryNeedsRollup.bind()
+                .setString(i++, agentRollupId)
+                .setInstant(i++, Instant.ofEpochMilli(from))
+                .setInstant(i++, Instant.ofEpochMilli(to));
+        List<ErrorSummaryNeedsRollup> needsRollupList = new ArrayList<>();
+        Function<AsyncResultSet, CompletableFuture<List<ErrorSummaryNeedsRollup>>> compute = new com.google.common.base.Function<AsyncResultSet, CompletableFuture<List<ErrorSummaryNeedsRollup>>>() {
+            @Override
+            public CompletableFuture<List<ErrorSummaryNeedsRollup>> apply(AsyncResultSet results) {
+                for (Row row : results.currentPage()) {
+                    int i = 0;
+                    long captureTime = checkNotNull(row.getInstant(i++)).toEpochMilli();
+                    String transactionType = checkNotNull(row.getString(i++));
+                    String transactionName = checkNotNull(row.getString(i++));
+                    long writeTime = row.getLong(i++);
+                    needsRollupList.add(new ErrorSummaryNeedsRollup(captureTime, transactionType,
+                            transactionName, writeTime));
+                }
+                if (results.hasMorePages()) {
+                    return results.fetchNextPage().thenCompose(this::apply).toCompletableFuture();
+                }
+                return CompletableFuture.completedFuture(needsRollupList);
+            }
+        };
+        return session.readAsync(boundStatement, profile).thenCompose(compute);
+    }
+
     @Override
     public CompletionStage<Long> readErrorMessageCount(String agentRollupId, TraceQuery query,
                                                        String errorMessageFilter, CassandraProfile profile) {
@@ -1372,6 +1713,9 @@ public class TraceDaoImpl implements TraceDao {
         session.updateSchemaWithRetry("truncate table trace_tn_error_point");
         session.updateSchemaWithRetry("truncate table trace_tt_error_message");
         session.updateSchemaWithRetry("truncate table trace_tn_error_message");
+        session.updateSchemaWithRetry("truncate table trace_tt_error_summary");
+        session.updateSchemaWithRetry("truncate table trace_tn_error_summary");
+        session.updateSchemaWithRetry("truncate table trace_error_summary_needs_rollup");
         session.updateSchemaWithRetry("truncate table trace_header");
         session.updateSchemaWithRetry("truncate table trace_entry");
         session.updateSchemaWithRetry("truncate table trace_shared_query_text");
@@ -1677,5 +2021,33 @@ public class TraceDaoImpl implements TraceDao {
         private void increment() {
             value++;
         }
+
+        private void add(long delta) {
+            value += delta;
+        }
+    }
+
+    private static class ErrorSummaryNeedsRollup {
+
+        private final long captureTime;
+        private final String transactionType;
+        private final String transactionName;
+        // microseconds since epoch
+        private final long writeTime;
+
+        private ErrorSummaryNeedsRollup(long captureTime, String transactionType,
+                String transactionName, long writeTime) {
+            this.captureTime = captureTime;
+            this.transactionType = transactionType;
+            this.transactionName = transactionName;
+            this.writeTime = writeTime;
+        }
+
+        private boolean matches(TraceQuery query) {
+            String queryTransactionName = query.transactionName();
+            return transactionType.equals(query.transactionType())
+                    && (queryTransactionName == null
+                            || transactionName.equals(queryTransactionName));
+        }
     }
 }
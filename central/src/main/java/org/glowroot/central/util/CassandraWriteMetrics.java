@@ -19,6 +19,7 @@ import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
@@ -44,10 +45,13 @@ import static java.util.concurrent.TimeUnit.DAYS;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
-public class CassandraWriteMetrics {
+public class CassandraWriteMetrics implements CassandraWriteMetricsMXBean {
 
     private static final Logger logger = LoggerFactory.getLogger(CassandraWriteMetrics.class);
 
+    private static final String MBEAN_OBJECT_NAME =
+            "org.glowroot.central:type=CassandraWriteMetrics";
+
     private static final int TRANSACTION_NAME_LIMIT = 100;
     private static final String TRANSACTION_NAME_OTHER = "Other";
 
@@ -59,6 +63,13 @@ public class CassandraWriteMetrics {
     private final ThreadLocal</*@Nullable*/ String> currTransactionType = new ThreadLocal<>();
     private final ThreadLocal</*@Nullable*/ String> currTransactionName = new ThreadLocal<>();
 
+    // agent requests that are writing to cassandra, see WriteBudget
+    private final AtomicInteger ingestionInFlight = new AtomicInteger();
+    private final AtomicInteger ingestionQueueDepth = new AtomicInteger();
+    private final AtomicLong ingestionRejectedCount = new AtomicLong();
+
+    private final boolean mbeanRegistered;
+
     private final ScheduledExecutorService scheduledExecutor =
             MoreExecutors2.newSingleThreadScheduledExecutor("Cassandra-Write-Metrics");
 
@@ -80,6 +91,7 @@ public class CassandraWriteMetrics {
         // reaches limit
         scheduledExecutor.scheduleAtFixedRate(writeMetrics::clear, millisUntilNextMidnightUTC,
                 DAYS.toMillis(1), MILLISECONDS);
+        mbeanRegistered = MoreMBeans.register(this, MBEAN_OBJECT_NAME);
     }
 
     public void setCurrTransactionType(@Nullable String transactionType) {
@@ -137,6 +149,33 @@ public class CassandraWriteMetrics {
         return getCassandraDataWritten(perTableMetrics.nestedWriteMetricsMap, limit);
     }
 
+    @Override
+    public int getIngestionInFlightCount() {
+        return ingestionInFlight.get();
+    }
+
+    @Override
+    public int getIngestionQueueDepth() {
+        return ingestionQueueDepth.get();
+    }
+
+    @Override
+    public long getIngestionRejectedCount() {
+        return ingestionRejectedCount.get();
+    }
+
+    void setIngestionInFlight(int count) {
+        ingestionInFlight.set(count);
+    }
+
+    void setIngestionQueueDepth(int depth) {
+        ingestionQueueDepth.set(depth);
+    }
+
+    void recordIngestionRejected() {
+        ingestionRejectedCount.incrementAndGet();
+    }
+
     void recordMetrics(Statement statement) {
         try {
             recordMetricsInternal(statement);
@@ -146,6 +185,9 @@ public class CassandraWriteMetrics {
     }
 
     void close() throws InterruptedException {
+        if (mbeanRegistered) {
+            MoreMBeans.unregister(MBEAN_OBJECT_NAME);
+        }
         // this shouldn't require shutdownNow()
         scheduledExecutor.shutdown();
         if (!scheduledExecutor.awaitTermination(10, SECONDS)) {
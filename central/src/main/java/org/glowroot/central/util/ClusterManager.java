@@ -1,5 +1,5 @@
 /*
- * Copyright 2017-2023 the original author or authors.
+ * Copyright 2017-2026 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -18,6 +18,7 @@ package org.glowroot.central.util;
 import java.io.File;
 import java.io.Serializable;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Queue;
@@ -32,6 +33,7 @@ import java.util.regex.Pattern;
 
 import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.infinispan.commons.marshall.JavaSerializationMarshaller;
 import org.infinispan.configuration.cache.CacheMode;
@@ -53,6 +55,7 @@ import org.glowroot.central.util.Cache.CacheLoader;
 import org.glowroot.common2.repo.util.LockSet;
 import org.glowroot.common2.repo.util.LockSet.LockSetImpl;
 
+import static com.google.common.base.Charsets.UTF_8;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.MINUTES;
@@ -103,6 +106,10 @@ public abstract class ClusterManager implements AutoCloseable {
     public abstract <K extends /*@NonNull*/ Serializable, V extends /*@NonNull*/ Object> DistributedExecutionMap<K, V> createDistributedExecutionMap(
             String cacheName);
 
+    // used to split up background work (e.g. rollups) between the central nodes, returns true if
+    // the local central node is responsible for the given key
+    public abstract boolean isLocalMemberResponsibleFor(String key);
+
     @Override
     public abstract void close() throws InterruptedException;
 
@@ -202,6 +209,31 @@ public abstract class ClusterManager implements AutoCloseable {
             return new DistributedExecutionMapImpl<K, V>(cacheManager.getCache(cacheName));
         }
 
+        @Override
+        public boolean isLocalMemberResponsibleFor(String key) {
+            List<Address> members = cacheManager.getMembers();
+            Address localAddress = cacheManager.getAddress();
+            if (members == null || members.size() <= 1 || localAddress == null) {
+                return true;
+            }
+            // using rendezvous hashing so that when a central node joins or leaves the cluster,
+            // only the keys owned by that central node are reassigned
+            Address owner = null;
+            long ownerHash = 0;
+            for (Address member : members) {
+                long hash = Hashing.murmur3_128().newHasher()
+                        .putString(key, UTF_8)
+                        .putString(member.toString(), UTF_8)
+                        .hash()
+                        .asLong();
+                if (owner == null || hash > ownerHash) {
+                    owner = member;
+                    ownerHash = hash;
+                }
+            }
+            return localAddress.equals(owner);
+        }
+
         @Override
         public void close() throws InterruptedException {
             cacheManager.stop();
@@ -317,6 +349,11 @@ public abstract class ClusterManager implements AutoCloseable {
                     .asMap();
         }
 
+        @Override
+        public boolean isLocalMemberResponsibleFor(String key) {
+            return true;
+        }
+
         @Override
         public void close() {}
     }
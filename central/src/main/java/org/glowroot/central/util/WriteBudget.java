@@ -0,0 +1,128 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.central.util;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+import javax.annotation.concurrent.GuardedBy;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+// limits the number of agent requests (across all agents) that are concurrently writing to
+// cassandra, without blocking any threads while waiting, so that a burst of agent requests (e.g.
+// after many agents reconnect at the same time) cannot exhaust the grpc thread pool, and instead
+// queues up (to a limit) and then is rejected so that the agents will re-try later
+public class WriteBudget {
+
+    private final int maxInFlight;
+    private final int maxQueued;
+    private final CassandraWriteMetrics cassandraWriteMetrics;
+
+    private final Object lock = new Object();
+    @GuardedBy("lock")
+    private int inFlight;
+    @GuardedBy("lock")
+    private final Queue<Task> queue = new ArrayDeque<>();
+
+    public WriteBudget(int maxInFlight, int maxQueued,
+            CassandraWriteMetrics cassandraWriteMetrics) {
+        this.maxInFlight = maxInFlight;
+        this.maxQueued = maxQueued;
+        this.cassandraWriteMetrics = cassandraWriteMetrics;
+    }
+
+    // the returned future fails with RejectedExecutionException if the queue is full
+    public CompletableFuture<?> submit(Supplier<? extends CompletionStage<?>> supplier) {
+        Task task = new Task(supplier);
+        synchronized (lock) {
+            if (inFlight == maxInFlight) {
+                if (queue.size() == maxQueued) {
+                    cassandraWriteMetrics.recordIngestionRejected();
+                    task.result.completeExceptionally(
+                            new RejectedExecutionException("Cassandra write budget exhausted"));
+                    return task.result;
+                }
+                queue.add(task);
+                cassandraWriteMetrics.setIngestionQueueDepth(queue.size());
+                return task.result;
+            }
+            inFlight++;
+            cassandraWriteMetrics.setIngestionInFlight(inFlight);
+        }
+        runAndThenRunQueued(task);
+        return task.result;
+    }
+
+    // loops (instead of recursing) while tasks complete synchronously, in order to not overflow the
+    // stack when lots of queued tasks complete immediately
+    private void runAndThenRunQueued(@Nullable Task task) {
+        Task curr = task;
+        while (curr != null) {
+            CompletableFuture<?> future = curr.run();
+            if (!future.isDone()) {
+                future.whenComplete((result, t) -> runAndThenRunQueued(pollOrRelease()));
+                return;
+            }
+            curr = pollOrRelease();
+        }
+    }
+
+    private @Nullable Task pollOrRelease() {
+        synchronized (lock) {
+            Task task = queue.poll();
+            if (task == null) {
+                inFlight--;
+                cassandraWriteMetrics.setIngestionInFlight(inFlight);
+            } else {
+                cassandraWriteMetrics.setIngestionQueueDepth(queue.size());
+            }
+            return task;
+        }
+    }
+
+    private static class Task {
+
+        private final Supplier<? extends CompletionStage<?>> supplier;
+        private final CompletableFuture<@Nullable Object> result = new CompletableFuture<>();
+
+        private Task(Supplier<? extends CompletionStage<?>> supplier) {
+            this.supplier = supplier;
+        }
+
+        // the returned future completes after the result future has been completed
+        private CompletableFuture<?> run() {
+            CompletionStage<?> stage;
+            try {
+                stage = supplier.get();
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+                return result;
+            }
+            return stage.toCompletableFuture().whenComplete((value, t) -> {
+                if (t == null) {
+                    result.complete(value);
+                } else {
+                    result.completeExceptionally(t);
+                }
+            });
+        }
+    }
+}
@@ -80,6 +80,12 @@ public class TraceDaoWithV09Support implements TraceDao {
         return delegate.store(agentId, trace);
     }
 
+    @CheckReturnValue
+    @Override
+    public CompletionStage<?> rollup(String agentRollupId) {
+        return delegate.rollup(agentRollupId);
+    }
+
     @Override
     public CompletionStage<Long> readSlowCount(String agentRollupId, TraceQuery query) {
         return splitCountIfNeeded(agentRollupId, query, (id, q) -> delegate.readSlowCount(id, q));
@@ -309,12 +315,16 @@ public class TraceDaoWithV09Support implements TraceDao {
                             return ImmutableErrorMessageResult.builder()
                                     .addAllPoints(points)
                                     .counts(new Result<>(counts.subList(0, limit), true))
+                                    .otherErrorMessageCount(resultV09.otherErrorMessageCount()
+                                            + resultPostV09.otherErrorMessageCount())
                                     .build();
                         } else {
                             return ImmutableErrorMessageResult.builder()
                                     .addAllPoints(points)
                                     .counts(new Result<>(counts,
                                             countsV09.moreAvailable() || countsPostV09.moreAvailable()))
+                                    .otherErrorMessageCount(resultV09.otherErrorMessageCount()
+                                            + resultPostV09.otherErrorMessageCount())
                                     .build();
                         }
 
@@ -1,5 +1,5 @@
 /*
- * Copyright 2016 the original author or authors.
+ * Copyright 2016-2026 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -15,8 +15,20 @@
  */
 package org.glowroot.central;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import org.junit.jupiter.api.Test;
 
+import org.glowroot.common2.repo.ActiveAgentRepository.AgentRollup;
+import org.glowroot.common2.repo.ImmutableAgentRollup;
+
 import static org.assertj.core.api.Assertions.assertThat;
 
 public class RollupServiceTest {
@@ -28,4 +40,161 @@ public class RollupServiceTest {
         assertThat(RollupService.millisUntilNextRollup(45000)).isEqualTo(25000);
         assertThat(RollupService.millisUntilNextRollup(60000)).isEqualTo(10000);
     }
+
+    @Test
+    public void shouldPrioritizeLaggingAgentRollups() {
+        // given
+        List<AgentRollup> agentRollups = ImmutableList.of(agentRollup("a"), agentRollup("b"),
+                agentRollup("c"), agentRollup("d"));
+        Map<String, Long> lastRollupTimes = ImmutableMap.of("a", 180000L, "b", 60000L,
+                "d", 120000L);
+
+        // when
+        List<AgentRollup> prioritized =
+                RollupService.prioritizeLagging(agentRollups, lastRollupTimes);
+
+        // then
+        assertThat(prioritized).extracting("id").containsExactly("c", "b", "d", "a");
+    }
+
+    @Test
+    public void shouldBoundConcurrency() {
+        // given
+        List<Integer> items = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            items.add(i);
+        }
+        List<CompletableFuture<?>> pending = new ArrayList<>();
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        AtomicInteger completed = new AtomicInteger();
+        RollupService.BoundedScheduler<Integer> scheduler =
+                new RollupService.BoundedScheduler<>(10, String::valueOf, item -> {
+                    maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                    CompletableFuture<?> f = new CompletableFuture<>();
+                    pending.add(f);
+                    return f.whenComplete((result, t) -> {
+                        inFlight.decrementAndGet();
+                        completed.incrementAndGet();
+                    });
+                });
+
+        // when
+        scheduler.schedule(items);
+        while (!pending.isEmpty()) {
+            // completing a task starts the next one (which adds to pending)
+            pending.remove(0).complete(null);
+        }
+
+        // then
+        assertThat(scheduler.getInFlightCount()).isZero();
+        assertThat(completed.get()).isEqualTo(100);
+        assertThat(maxInFlight.get()).isEqualTo(10);
+    }
+
+    @Test
+    public void shouldNotOverflowStackWhenTasksCompleteImmediately() {
+        // given
+        List<Integer> items = new ArrayList<>();
+        for (int i = 0; i < 100000; i++) {
+            items.add(i);
+        }
+        AtomicInteger completed = new AtomicInteger();
+        RollupService.BoundedScheduler<Integer> scheduler =
+                new RollupService.BoundedScheduler<>(2, String::valueOf, item -> {
+                    completed.incrementAndGet();
+                    return CompletableFuture.completedFuture(null);
+                });
+
+        // when
+        scheduler.schedule(items);
+
+        // then
+        assertThat(scheduler.getInFlightCount()).isZero();
+        assertThat(completed.get()).isEqualTo(100000);
+    }
+
+    @Test
+    public void shouldNotWaitForLaggingItemBeforeNextPass() {
+        // given
+        Map<String, CompletableFuture<?>> pending = new HashMap<>();
+        List<String> started = new ArrayList<>();
+        RollupService.BoundedScheduler<String> scheduler =
+                new RollupService.BoundedScheduler<>(2, item -> item, item -> {
+                    started.add(item);
+                    CompletableFuture<?> f = new CompletableFuture<>();
+                    pending.put(item, f);
+                    return f;
+                });
+        scheduler.schedule(ImmutableList.of("a", "b"));
+        pending.remove("b").complete(null);
+
+        // when
+        // "a" is still in flight from the prior pass
+        scheduler.schedule(ImmutableList.of("a", "b"));
+
+        // then
+        assertThat(started).containsExactly("a", "b", "b");
+        assertThat(scheduler.getInFlightCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldGiveLaggingItemExtraPassAheadOfQueuedItems() {
+        // given
+        Map<String, CompletableFuture<?>> pending = new HashMap<>();
+        List<String> started = new ArrayList<>();
+        RollupService.BoundedScheduler<String> scheduler =
+                new RollupService.BoundedScheduler<>(1, item -> item, item -> {
+                    started.add(item);
+                    CompletableFuture<?> f = new CompletableFuture<>();
+                    pending.put(item, f);
+                    return f;
+                });
+        scheduler.schedule(ImmutableList.of("a"));
+
+        // when
+        // "a" is still in flight from the prior pass, so it doesn't run concurrently with itself
+        scheduler.schedule(ImmutableList.of("b", "a", "c"));
+        pending.remove("a").complete(null);
+
+        // then
+        assertThat(started).containsExactly("a", "a");
+        pending.remove("a").complete(null);
+        pending.remove("b").complete(null);
+        pending.remove("c").complete(null);
+        assertThat(started).containsExactly("a", "a", "b", "c");
+        assertThat(scheduler.getInFlightCount()).isZero();
+    }
+
+    @Test
+    public void shouldCompletePassOnlyAfterSupersedingItemsComplete() {
+        // given
+        Map<String, CompletableFuture<?>> pending = new HashMap<>();
+        RollupService.BoundedScheduler<String> scheduler =
+                new RollupService.BoundedScheduler<>(1, item -> item, item -> {
+                    CompletableFuture<?> f = new CompletableFuture<>();
+                    pending.put(item, f);
+                    return f;
+                });
+        CompletableFuture<?> firstPass = scheduler.schedule(ImmutableList.of("a", "b"));
+
+        // when
+        // "b" is still queued from the first pass, and is superseded by the second pass
+        CompletableFuture<?> secondPass = scheduler.schedule(ImmutableList.of("b"));
+        pending.remove("a").complete(null);
+
+        // then
+        assertThat(firstPass).isNotDone();
+        pending.remove("b").complete(null);
+        assertThat(firstPass).isDone();
+        assertThat(secondPass).isDone();
+    }
+
+    private static AgentRollup agentRollup(String id) {
+        return ImmutableAgentRollup.builder()
+                .id(id)
+                .display(id)
+                .lastDisplayPart(id)
+                .build();
+    }
 }
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.central.repo;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.google.common.collect.ImmutableList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.glowroot.central.util.Messages;
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+// compares bytes on disk and decode time per 1,000 overview rows of the columnar root timers format
+// against the delimited protobuf blobs stored prior to schema version 92
+public class ColumnarRootTimersPerformanceMain {
+
+    private static final Logger logger =
+            LoggerFactory.getLogger(ColumnarRootTimersPerformanceMain.class);
+
+    private static final int ROW_COUNT = 1000;
+    private static final int ITERATIONS = 50;
+
+    private static final ImmutableList<String> TIMER_NAMES = ImmutableList.of("http request",
+            "jdbc query", "jdbc get connection", "jdbc commit", "jdbc prepare",
+            "http client request", "hibernate query", "hibernate flush", "spring controller",
+            "jsp render", "cassandra query", "redis command", "elasticsearch query",
+            "jms send message", "ejb call");
+
+    private ColumnarRootTimersPerformanceMain() {}
+
+    public static void main(String[] args) {
+        Random random = new Random(0);
+        List<Row> rows = new ArrayList<>();
+        for (int i = 0; i < ROW_COUNT; i++) {
+            rows.add(createRow(random));
+        }
+        List<ByteBuffer[]> protobufRows = new ArrayList<>();
+        List<ByteBuffer> columnarRows = new ArrayList<>();
+        long protobufBytes = 0;
+        long columnarBytes = 0;
+        for (Row row : rows) {
+            ByteBuffer[] protobufRow = new ByteBuffer[] {
+                    Messages.toByteBuffer(row.mainThreadRootTimers),
+                    Messages.toByteBuffer(ImmutableList.of(row.auxThreadRootTimer)),
+                    Messages.toByteBuffer(row.asyncTimers)};
+            for (ByteBuffer byteBuf : protobufRow) {
+                protobufBytes += byteBuf.remaining();
+            }
+            protobufRows.add(protobufRow);
+            ByteBuffer columnarRow = ColumnarRootTimers.encode(row.mainThreadRootTimers,
+                    row.auxThreadRootTimer, row.asyncTimers);
+            columnarBytes += columnarRow.remaining();
+            columnarRows.add(columnarRow);
+        }
+        long protobufNanos = Long.MAX_VALUE;
+        long columnarNanos = Long.MAX_VALUE;
+        for (int i = 0; i < ITERATIONS; i++) {
+            protobufNanos = Math.min(protobufNanos, decodeProtobuf(protobufRows));
+            columnarNanos = Math.min(columnarNanos, decodeColumnar(columnarRows));
+        }
+        logger.info("protobuf blobs: {} KB and {} ms to decode per {} rows",
+                protobufBytes / 1024, NANOSECONDS.toMillis(protobufNanos), ROW_COUNT);
+        logger.info("columnar root timers: {} KB and {} ms to decode per {} rows",
+                columnarBytes / 1024, NANOSECONDS.toMillis(columnarNanos), ROW_COUNT);
+    }
+
+    private static long decodeProtobuf(List<ByteBuffer[]> protobufRows) {
+        long startTick = System.nanoTime();
+        int timerCount = 0;
+        for (ByteBuffer[] protobufRow : protobufRows) {
+            for (ByteBuffer byteBuf : protobufRow) {
+                timerCount += Messages
+                        .parseDelimitedFrom(byteBuf.duplicate(), Aggregate.Timer.parser()).size();
+            }
+        }
+        if (timerCount == 0) {
+            throw new IllegalStateException();
+        }
+        return System.nanoTime() - startTick;
+    }
+
+    private static long decodeColumnar(List<ByteBuffer> columnarRows) {
+        long startTick = System.nanoTime();
+        int timerCount = 0;
+        for (ByteBuffer columnarRow : columnarRows) {
+            ColumnarRootTimers rootTimers = ColumnarRootTimers.decode(columnarRow.duplicate());
+            timerCount += rootTimers.getMainThreadRootTimers().size()
+                    + rootTimers.getAsyncTimers().size();
+        }
+        if (timerCount == 0) {
+            throw new IllegalStateException();
+        }
+        return System.nanoTime() - startTick;
+    }
+
+    // similar in shape to a typical web transaction overview row
+    private static Row createRow(Random random) {
+        Row row = new Row();
+        row.mainThreadRootTimers = ImmutableList.of(createTimer(random, "http request",
+                random.nextInt(1000) + 100, 1 + random.nextInt(100) * 1000000L, 0));
+        row.auxThreadRootTimer = createTimer(random, "auxiliary thread",
+                random.nextInt(100) + 1, 1 + random.nextInt(10) * 1000000L, 1);
+        row.asyncTimers = ImmutableList.of(createTimer(random, "http client request",
+                random.nextInt(100) + 1, 1 + random.nextInt(10) * 1000000L, 2));
+        return row;
+    }
+
+    private static Aggregate.Timer createTimer(Random random, String name, long count,
+            long totalNanos, int depth) {
+        Aggregate.Timer.Builder builder = Aggregate.Timer.newBuilder()
+                .setName(name)
+                .setCount(count)
+                .setTotalNanos(totalNanos);
+        if (depth < 3) {
+            int childCount = random.nextInt(4);
+            long remainingNanos = totalNanos;
+            for (int i = 0; i < childCount; i++) {
+                long childNanos = (long) (remainingNanos * random.nextDouble());
+                remainingNanos -= childNanos;
+                builder.addChildTimer(createTimer(random,
+                        TIMER_NAMES.get(random.nextInt(TIMER_NAMES.size())),
+                        count * (1 + random.nextInt(5)), childNanos, depth + 1));
+            }
+        }
+        return builder.build();
+    }
+
+    private static class Row {
+
+        private List<Aggregate.Timer> mainThreadRootTimers = ImmutableList.of();
+        private Aggregate.Timer auxThreadRootTimer = Aggregate.Timer.getDefaultInstance();
+        private List<Aggregate.Timer> asyncTimers = ImmutableList.of();
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.central.repo;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.jupiter.api.Test;
+
+import org.glowroot.central.util.Messages;
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ColumnarRootTimersTest {
+
+    @Test
+    public void shouldRoundTrip() {
+        // given
+        List<Aggregate.Timer> mainThreadRootTimers = ImmutableList.of(
+                timer("http request", 1000000, 10,
+                        timer("jdbc query", 600000, 30),
+                        timer("jdbc commit", 10000, 10,
+                                timer("jdbc query", 5000, 1))),
+                timer("background job", 5000, 1));
+        Aggregate.Timer auxThreadRootTimer = timer("auxiliary thread", 2000, 2,
+                timer("jdbc query", 1500, 2));
+        List<Aggregate.Timer> asyncTimers = ImmutableList.of(timer("http client request", 300, 1));
+        // when
+        ColumnarRootTimers rootTimers = ColumnarRootTimers.decode(ColumnarRootTimers
+                .encode(mainThreadRootTimers, auxThreadRootTimer, asyncTimers));
+        // then
+        assertThat(rootTimers.getMainThreadRootTimers()).isEqualTo(mainThreadRootTimers);
+        assertThat(rootTimers.getAuxThreadRootTimer()).isEqualTo(auxThreadRootTimer);
+        assertThat(rootTimers.getAsyncTimers()).isEqualTo(asyncTimers);
+    }
+
+    @Test
+    public void shouldRoundTripWithoutAuxThreadRootTimer() {
+        // given
+        List<Aggregate.Timer> mainThreadRootTimers = ImmutableList.of(timer("http request", 10, 1));
+        // when
+        ColumnarRootTimers rootTimers = ColumnarRootTimers.decode(ColumnarRootTimers
+                .encode(mainThreadRootTimers, null, ImmutableList.of()));
+        // then
+        assertThat(rootTimers.getMainThreadRootTimers()).isEqualTo(mainThreadRootTimers);
+        assertThat(rootTimers.getAuxThreadRootTimer()).isNull();
+        assertThat(rootTimers.getAsyncTimers()).isEmpty();
+    }
+
+    @Test
+    public void shouldRoundTripNonIntegralNanos() {
+        // given
+        List<Aggregate.Timer> mainThreadRootTimers = ImmutableList.of(
+                timer("http request", 1000.5, 3,
+                        timer("jdbc query", 1e20, 2)));
+        // when
+        ColumnarRootTimers rootTimers = ColumnarRootTimers.decode(ColumnarRootTimers
+                .encode(mainThreadRootTimers, null, ImmutableList.of()));
+        // then
+        assertThat(rootTimers.getMainThreadRootTimers()).isEqualTo(mainThreadRootTimers);
+    }
+
+    @Test
+    public void shouldBeSmallerThanProtobuf() {
+        // given
+        List<Aggregate.Timer> mainThreadRootTimers = ImmutableList.of(
+                timer("http request", 1000000, 10,
+                        timer("jdbc query", 600000, 30),
+                        timer("jdbc commit", 10000, 10,
+                                timer("jdbc query", 5000, 1))));
+        // when
+        ByteBuffer columnar =
+                ColumnarRootTimers.encode(mainThreadRootTimers, null, ImmutableList.of());
+        ByteBuffer protobuf = Messages.toByteBuffer(mainThreadRootTimers);
+        // then
+        assertThat(columnar.remaining()).isLessThan(protobuf.remaining());
+    }
+
+    private static Aggregate.Timer timer(String name, double totalNanos, long count,
+            Aggregate.Timer... childTimers) {
+        return Aggregate.Timer.newBuilder()
+                .setName(name)
+                .setTotalNanos(totalNanos)
+                .setCount(count)
+                .addAllChildTimer(ImmutableList.copyOf(childTimers))
+                .build();
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.central.repo;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import org.junit.jupiter.api.Test;
+
+import org.glowroot.common2.repo.ImmutableTraceQuery;
+import org.glowroot.common2.repo.TraceRepository.TraceQuery;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ErrorSummariesTest {
+
+    private static final long MINUTE = 60000;
+
+    @Test
+    public void shouldReadAlignedQueryFromSummaries() {
+        List<TraceQuery> queries =
+                ErrorSummaries.getNonSummarizedQueries(query(0, 10 * MINUTE), new TreeSet<>());
+        assertThat(queries).isEmpty();
+    }
+
+    @Test
+    public void shouldReadPartialBucketsAtEitherEnd() {
+        List<TraceQuery> queries = ErrorSummaries.getNonSummarizedQueries(
+                query(MINUTE + 1000, 10 * MINUTE + 1000), new TreeSet<>());
+        assertRanges(queries, MINUTE + 1000, 2 * MINUTE, 10 * MINUTE, 10 * MINUTE + 1000);
+    }
+
+    @Test
+    public void shouldReadQueryWithinSingleBucket() {
+        List<TraceQuery> queries = ErrorSummaries.getNonSummarizedQueries(
+                query(MINUTE + 1000, MINUTE + 2000), new TreeSet<>());
+        assertRanges(queries, MINUTE + 1000, MINUTE + 2000);
+    }
+
+    @Test
+    public void shouldReadBucketsThatNeedRollup() {
+        List<TraceQuery> queries = ErrorSummaries.getNonSummarizedQueries(query(0, 10 * MINUTE),
+                ImmutableSortedSet.of(3 * MINUTE, 4 * MINUTE, 7 * MINUTE, 10 * MINUTE,
+                        11 * MINUTE));
+        assertRanges(queries, 2 * MINUTE, 4 * MINUTE, 6 * MINUTE, 7 * MINUTE, 9 * MINUTE,
+                10 * MINUTE);
+    }
+
+    @Test
+    public void shouldMergeBucketsThatNeedRollupWithPartialBuckets() {
+        List<TraceQuery> queries = ErrorSummaries.getNonSummarizedQueries(
+                query(1000, 10 * MINUTE + 1000), ImmutableSortedSet.of(2 * MINUTE, 10 * MINUTE));
+        assertRanges(queries, 1000, 2 * MINUTE, 9 * MINUTE, 10 * MINUTE + 1000);
+    }
+
+    @Test
+    public void shouldGetTopErrorMessages() {
+        Map<String, Long> errorMessageCounts = new HashMap<>();
+        for (int i = 0; i < ErrorSummaries.TOP_ERROR_MESSAGES + 10; i++) {
+            errorMessageCounts.put("error " + i, (long) i);
+        }
+        Map<String, Long> topErrorMessageCounts =
+                ErrorSummaries.getTopErrorMessages(errorMessageCounts);
+        assertThat(topErrorMessageCounts).hasSize(ErrorSummaries.TOP_ERROR_MESSAGES);
+        assertThat(topErrorMessageCounts).containsKey("error 10");
+        assertThat(topErrorMessageCounts).doesNotContainKey("error 9");
+    }
+
+    @Test
+    public void shouldKeepTotalsExactWhenMergingTruncatedBuckets() {
+        // given
+        // "error 0" is only in the top error messages of the second bucket
+        Map<String, Long> bucket1 = new HashMap<>();
+        Map<String, Long> bucket2 = new HashMap<>();
+        for (int i = 0; i < ErrorSummaries.TOP_ERROR_MESSAGES + 10; i++) {
+            bucket1.put("error " + i, i + 1L);
+            bucket2.put("error " + i, i == 0 ? 1000 : 1L);
+        }
+        long totalErrorCount = sum(bucket1) + sum(bucket2);
+
+        // when
+        Map<String, Long> mergedCounts = new HashMap<>();
+        long mergedOtherErrorCount = 0;
+        for (Map<String, Long> bucket : ImmutableList.of(bucket1, bucket2)) {
+            Map<String, Long> topErrorMessageCounts = ErrorSummaries.getTopErrorMessages(bucket);
+            topErrorMessageCounts.forEach((message, count) -> mergedCounts.merge(message, count,
+                    Long::sum));
+            mergedOtherErrorCount +=
+                    ErrorSummaries.getOtherErrorCount(sum(bucket), topErrorMessageCounts);
+        }
+
+        // then
+        assertThat(mergedCounts.get("error 0")).isEqualTo(1000);
+        assertThat(mergedOtherErrorCount).isGreaterThan(0);
+        assertThat(sum(mergedCounts) + mergedOtherErrorCount).isEqualTo(totalErrorCount);
+    }
+
+    private static long sum(Map<String, Long> errorMessageCounts) {
+        long sum = 0;
+        for (long count : errorMessageCounts.values()) {
+            sum += count;
+        }
+        return sum;
+    }
+
+    private static TraceQuery query(long from, long to) {
+        return ImmutableTraceQuery.builder()
+                .transactionType("Web")
+                .from(from)
+                .to(to)
+                .build();
+    }
+
+    private static void assertRanges(List<TraceQuery> queries, long... fromAndTos) {
+        assertThat(queries).hasSize(fromAndTos.length / 2);
+        for (int i = 0; i < queries.size(); i++) {
+            assertThat(queries.get(i).from()).isEqualTo(fromAndTos[2 * i]);
+            assertThat(queries.get(i).to()).isEqualTo(fromAndTos[2 * i + 1]);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.central.repo;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.glowroot.common.model.MutableProfile;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ProfileMergerTest {
+
+    private ProfileMerger profileMerger;
+
+    @BeforeEach
+    public void beforeEach() {
+        profileMerger = new ProfileMerger(4, 1000, false);
+    }
+
+    @AfterEach
+    public void afterEach() {
+        profileMerger.close();
+    }
+
+    @Test
+    public void shouldMergeSameAsSequential() throws Exception {
+        // given
+        List<ByteBuffer> profiles = new ArrayList<>();
+        MutableProfile expected = new MutableProfile();
+        for (int i = 0; i < 50; i++) {
+            MutableProfile profile = createProfile(i, 10);
+            profiles.add(ByteBuffer.wrap(profile.toProto().toByteArray()));
+            expected.merge(profile.toProto());
+        }
+        // when
+        MutableProfile profile = profileMerger.merge(profiles, 1, false).get();
+        // then
+        assertThat(profile.toJson()).isEqualTo(expected.toJson());
+        assertThat(profileMerger.getMergeCount()).containsEntry(1, 1L);
+        assertThat(profileMerger.getMergedProfileCount()).containsEntry(1, 50L);
+        assertThat(profileMerger.getTruncatedCount()).containsEntry(1, 0L);
+    }
+
+    @Test
+    public void shouldTruncateToMaxNodeCount() throws Exception {
+        // given
+        List<ByteBuffer> profiles = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            profiles.add(ByteBuffer.wrap(createProfile(i, 100).toProto().toByteArray()));
+        }
+        // when
+        MutableProfile profile = profileMerger.merge(profiles, 2, true).get();
+        // then
+        assertThat(profile.getNodeCount()).isLessThanOrEqualTo(1000);
+        assertThat(profile.getSampleCount()).isEqualTo(50 * 100);
+        assertThat(profileMerger.getTruncatedCount()).containsEntry(2, 1L);
+    }
+
+    @Test
+    public void shouldMergeNoProfiles() throws Exception {
+        // when
+        MutableProfile profile = profileMerger.merge(new ArrayList<>(), 0, true).get();
+        // then
+        assertThat(profile.isEmpty()).isTrue();
+    }
+
+    private static MutableProfile createProfile(int seed, int sampleCount) {
+        MutableProfile profile = new MutableProfile();
+        for (int i = 0; i < sampleCount; i++) {
+            List<StackTraceElement> stackTraceElements = new ArrayList<>();
+            stackTraceElements.add(new StackTraceElement("aa.bb.cc.Def" + (seed + i) % 7, "ghi",
+                    "Def.java", seed * sampleCount + i));
+            stackTraceElements.add(new StackTraceElement("aa.bb.cc.Def", "ghi", "Def.java", i % 3));
+            stackTraceElements.add(
+                    new StackTraceElement("xx.yy.zz.Main", "main", "Main.java", 789));
+            profile.merge(stackTraceElements, Thread.State.RUNNABLE);
+        }
+        return profile;
+    }
+}
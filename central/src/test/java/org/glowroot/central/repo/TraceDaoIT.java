@@ -28,7 +28,9 @@ import org.glowroot.common.live.StringComparator;
 import org.glowroot.common.util.Clock;
 import org.glowroot.common2.config.ImmutableCentralStorageConfig;
 import org.glowroot.common2.repo.CassandraProfile;
+import org.glowroot.common2.repo.ImmutableErrorMessageFilter;
 import org.glowroot.common2.repo.ImmutableTraceQuery;
+import org.glowroot.common2.repo.TraceRepository.ErrorMessageResult;
 import org.glowroot.common2.repo.TraceRepository.TraceQuery;
 import org.glowroot.wire.api.model.TraceOuterClass.Trace;
 import org.junit.jupiter.api.*;
@@ -40,6 +42,7 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import org.testcontainers.containers.CassandraContainer;
 
 import java.time.Duration;
+import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 
@@ -453,4 +456,43 @@ public class TraceDaoIT {
         });
         assertThat(cf).succeedsWithin(Duration.ofMillis(60_000));
     }
+
+    @Test
+    public void shouldRollUpErrorSummaryFromOneNeedsRollupRowPerTransactionName()
+            throws Exception {
+        // given
+        for (String errorMessage : new String[] {"abc", "abc", "xyz"}) {
+            Trace trace = TraceTestData.createTrace(false);
+            trace = trace.toBuilder()
+                    .setId(UUID.randomUUID().toString())
+                    .setHeader(trace.getHeader().toBuilder()
+                            .setError(Trace.Error.newBuilder()
+                                    .setMessage(errorMessage)))
+                    .build();
+            traceDao.store(AGENT_ID, trace).toCompletableFuture().get();
+        }
+        assertThat(session.read("select * from trace_error_summary_needs_rollup",
+                CassandraProfile.web).all()).hasSize(1);
+        when(clock.currentTimeMillis()).thenReturn(200000L);
+
+        // when
+        traceDao.rollup(AGENT_ID).toCompletableFuture().get();
+
+        // then
+        assertThat(session.read("select * from trace_error_summary_needs_rollup",
+                CassandraProfile.web).all()).isEmpty();
+        TraceQuery query = ImmutableTraceQuery.builder()
+                .transactionType("unit test")
+                .from(0)
+                .to(60000)
+                .build();
+        ErrorMessageResult result = traceDao.readErrorMessages(AGENT_ID, query,
+                ImmutableErrorMessageFilter.builder().build(), 60000, 10)
+                .toCompletableFuture().get();
+        assertThat(result.points()).hasSize(1);
+        assertThat(result.points().get(0).errorCount()).isEqualTo(3);
+        assertThat(result.counts().records()).extracting("message").containsExactly("abc",
+                "xyz");
+        assertThat(result.counts().records()).extracting("count").containsExactly(2L, 1L);
+    }
 }
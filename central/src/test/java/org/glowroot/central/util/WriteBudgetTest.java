@@ -0,0 +1,102 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.central.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.datastax.oss.driver.api.core.CqlSession;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class WriteBudgetTest {
+
+    private CassandraWriteMetrics cassandraWriteMetrics;
+
+    @BeforeEach
+    public void beforeEach() {
+        cassandraWriteMetrics = new CassandraWriteMetrics(mock(CqlSession.class), "test");
+    }
+
+    @AfterEach
+    public void afterEach() throws Exception {
+        cassandraWriteMetrics.close();
+    }
+
+    @Test
+    public void shouldQueueAndThenReject() {
+        // given
+        WriteBudget writeBudget = new WriteBudget(2, 3, cassandraWriteMetrics);
+        List<CompletableFuture<?>> writes = new ArrayList<>();
+        AtomicInteger started = new AtomicInteger();
+
+        // when
+        List<CompletableFuture<?>> results = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            results.add(writeBudget.submit(() -> {
+                started.incrementAndGet();
+                CompletableFuture<?> write = new CompletableFuture<>();
+                writes.add(write);
+                return write;
+            }));
+        }
+
+        // then
+        assertThat(started.get()).isEqualTo(2);
+        assertThat(cassandraWriteMetrics.getIngestionInFlightCount()).isEqualTo(2);
+        assertThat(cassandraWriteMetrics.getIngestionQueueDepth()).isEqualTo(3);
+        assertThat(cassandraWriteMetrics.getIngestionRejectedCount()).isEqualTo(1);
+        assertThat(results.get(5)).isCompletedExceptionally();
+        assertThat(results.get(5).handle((v, t) -> t).join())
+                .isInstanceOf(RejectedExecutionException.class);
+
+        // when
+        while (!writes.isEmpty()) {
+            writes.remove(0).complete(null);
+        }
+
+        // then
+        assertThat(started.get()).isEqualTo(5);
+        for (int i = 0; i < 5; i++) {
+            assertThat(results.get(i)).isCompleted();
+        }
+        assertThat(cassandraWriteMetrics.getIngestionInFlightCount()).isEqualTo(0);
+        assertThat(cassandraWriteMetrics.getIngestionQueueDepth()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldReleaseOnFailure() {
+        // given
+        WriteBudget writeBudget = new WriteBudget(1, 0, cassandraWriteMetrics);
+
+        // when
+        CompletableFuture<?> result = writeBudget.submit(() -> {
+            throw new IllegalStateException();
+        });
+
+        // then
+        assertThat(result).isCompletedExceptionally();
+        assertThat(writeBudget.submit(() -> CompletableFuture.completedFuture(null))).isCompleted();
+        assertThat(cassandraWriteMetrics.getIngestionInFlightCount()).isEqualTo(0);
+    }
+}
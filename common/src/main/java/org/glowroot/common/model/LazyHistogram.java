@@ -1,5 +1,5 @@
 /*
- * Copyright 2015-2018 the original author or authors.
+ * Copyright 2015-2026 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -28,23 +28,51 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 
 import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 public class LazyHistogram {
 
     private static final int HISTOGRAM_SIGNIFICANT_DIGITS = 5;
     private static final int MAX_VALUES = 1024;
 
+    // when set, larger histograms are tracked using compact log-linear buckets (see
+    // LogLinearHistogram) with relative error less than 1/2^precisionBits, instead of HdrHistogram
+    private static final int DEFAULT_BUCKET_PRECISION_BITS =
+            Integer.getInteger("glowroot.histogram.bucketPrecisionBits", 0);
+
+    // 0 means use HdrHistogram
+    private final int bucketPrecisionBits;
+
     private long[] values = new long[8];
     private int size;
     private boolean sorted;
 
     private @MonotonicNonNull Histogram histogram;
+    private @MonotonicNonNull LogLinearHistogram buckets;
 
-    public LazyHistogram() {}
+    public LazyHistogram() {
+        this(DEFAULT_BUCKET_PRECISION_BITS);
+    }
+
+    // precision above the max is capped at the max
+    public LazyHistogram(int bucketPrecisionBits) {
+        checkArgument(bucketPrecisionBits == 0
+                || bucketPrecisionBits >= LogLinearHistogram.MIN_PRECISION_BITS,
+                "bucketPrecisionBits must be 0 (disabled) or at least %s",
+                LogLinearHistogram.MIN_PRECISION_BITS);
+        this.bucketPrecisionBits = getSupportedPrecisionBits(bucketPrecisionBits);
+    }
 
     // special constructor, histogram created this way cannot be further mutated
     public LazyHistogram(Aggregate.Histogram hist) {
         ByteString encodedBytes = hist.getEncodedBytes();
-        if (encodedBytes.isEmpty()) {
+        if (hist.getBucketCountCount() > 0) {
+            bucketPrecisionBits = getSupportedPrecisionBits(hist.getBucketPrecisionBits());
+            buckets = new LogLinearHistogram(bucketPrecisionBits);
+            buckets.add(hist);
+            values = new long[0];
+        } else if (encodedBytes.isEmpty()) {
+            bucketPrecisionBits = 0;
             List<Long> orderedRawValues = hist.getOrderedRawValueList();
             values = new long[orderedRawValues.size()];
             for (int i = 0; i < values.length; i++) {
@@ -52,13 +80,17 @@ public class LazyHistogram {
             }
             size = values.length;
         } else {
+            bucketPrecisionBits = 0;
             histogram = Histogram.decodeFromByteBuffer(encodedBytes.asReadOnlyByteBuffer(), 0);
         }
     }
 
     public Aggregate.Histogram toProto(ScratchBuffer scratchBuffer) {
         final Aggregate.Histogram.Builder builder = Aggregate.Histogram.newBuilder();
-        if (histogram == null) {
+        if (buckets != null) {
+            // bucket counts are written directly, no intermediate encoding is needed
+            buckets.writeTo(builder);
+        } else if (histogram == null) {
             if (!sorted) {
                 // sort values before storing so don't have to sort each time later when calculating
                 // percentiles
@@ -90,23 +122,55 @@ public class LazyHistogram {
 
     public void merge(Aggregate.Histogram toBeMergedHistogram) {
         ByteString encodedBytes = toBeMergedHistogram.getEncodedBytes();
-        if (encodedBytes.isEmpty()) {
+        if (toBeMergedHistogram.getBucketCountCount() > 0) {
+            if (histogram != null) {
+                // this only happens when merging data recorded under different settings, and the
+                // merged result stays in HdrHistogram form
+                LogLinearHistogram toBeMergedBuckets = new LogLinearHistogram(
+                        getSupportedPrecisionBits(toBeMergedHistogram.getBucketPrecisionBits()));
+                toBeMergedBuckets.add(toBeMergedHistogram);
+                toBeMergedBuckets.copyInto(histogram);
+                return;
+            }
+            if (buckets == null) {
+                convertValuesToBuckets(
+                        getSupportedPrecisionBits(toBeMergedHistogram.getBucketPrecisionBits()));
+            }
+            buckets.add(toBeMergedHistogram);
+        } else if (encodedBytes.isEmpty()) {
             for (long rawValue : toBeMergedHistogram.getOrderedRawValueList()) {
                 add(rawValue);
             }
         } else {
+            Histogram toBeMergedHdrHistogram =
+                    Histogram.decodeFromByteBuffer(encodedBytes.asReadOnlyByteBuffer(), 0);
+            if (buckets != null) {
+                buckets.add(toBeMergedHdrHistogram);
+                return;
+            }
             if (histogram == null) {
                 convertValuesToHistogram();
             }
-            histogram.add(Histogram.decodeFromByteBuffer(encodedBytes.asReadOnlyByteBuffer(), 0));
+            histogram.add(toBeMergedHdrHistogram);
         }
     }
 
     public void merge(LazyHistogram toBeMergedHistogram) {
-        if (toBeMergedHistogram.histogram == null) {
+        if (toBeMergedHistogram.buckets != null) {
+            if (histogram != null) {
+                toBeMergedHistogram.buckets.copyInto(histogram);
+                return;
+            }
+            if (buckets == null) {
+                convertValuesToBuckets(toBeMergedHistogram.buckets.getPrecisionBits());
+            }
+            buckets.add(toBeMergedHistogram.buckets);
+        } else if (toBeMergedHistogram.histogram == null) {
             for (int i = 0; i < toBeMergedHistogram.size; i++) {
                 add(toBeMergedHistogram.values[i]);
             }
+        } else if (buckets != null) {
+            buckets.add(toBeMergedHistogram.histogram);
         } else {
             if (histogram == null) {
                 convertValuesToHistogram();
@@ -116,6 +180,9 @@ public class LazyHistogram {
     }
 
     public long getValueAtPercentile(double percentile) {
+        if (buckets != null) {
+            return buckets.getValueAtPercentile(percentile);
+        }
         if (histogram == null) {
             if (size == 0) {
                 // this is consistent with HdrHistogram behavior
@@ -136,7 +203,9 @@ public class LazyHistogram {
     @VisibleForTesting
     public void add(long value) {
         ensureCapacity(size + 1);
-        if (histogram != null) {
+        if (buckets != null) {
+            buckets.recordValue(value);
+        } else if (histogram != null) {
             histogram.recordValue(value);
         } else {
             values[size++] = value;
@@ -145,11 +214,15 @@ public class LazyHistogram {
     }
 
     private void ensureCapacity(int capacity) {
-        if (histogram != null) {
+        if (histogram != null || buckets != null) {
             return;
         }
         if (capacity > MAX_VALUES) {
-            convertValuesToHistogram();
+            if (bucketPrecisionBits == 0) {
+                convertValuesToHistogram();
+            } else {
+                convertValuesToBuckets(bucketPrecisionBits);
+            }
             return;
         }
         if (capacity > values.length) {
@@ -171,6 +244,21 @@ public class LazyHistogram {
         values = new long[0];
     }
 
+    @EnsuresNonNull("buckets")
+    private void convertValuesToBuckets(int precisionBits) {
+        buckets = new LogLinearHistogram(precisionBits);
+        for (int i = 0; i < size; i++) {
+            buckets.recordValue(values[i]);
+        }
+        values = new long[0];
+    }
+
+    // histograms that were stored with higher precision (prior to the precision being capped) are
+    // re-bucketed at the max precision
+    private static int getSupportedPrecisionBits(int precisionBits) {
+        return Math.min(precisionBits, LogLinearHistogram.MAX_PRECISION_BITS);
+    }
+
     private void sortValues() {
         Arrays.sort(values, 0, size);
         sorted = true;
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.common.model;
+
+import java.util.List;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramIterationValue;
+
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+// fixed bucket histogram where each power of 2 is divided into 2^precisionBits linear buckets, so
+// the relative error of any recorded value is less than 1/2^precisionBits
+//
+// bucket counts are stored in a single primitive array covering only the range of buckets that
+// have been recorded, which is typically small since durations tend to cluster within a few powers
+// of 2, and two histograms with the same precision are merged by simply adding the bucket counts
+//
+// since the array is dense over the recorded range, each power of 2 in that range retains
+// 2^precisionBits counts, so precision is capped at 7 bits (relative error less than 0.8%, which is
+// better than 2 significant digits and plenty for percentiles), which is 1 KB per power of 2, e.g.
+// at most 26 KB for durations spanning 1 microsecond to 1 minute
+class LogLinearHistogram {
+
+    static final int MIN_PRECISION_BITS = 1;
+    static final int MAX_PRECISION_BITS = 7;
+
+    private final int precisionBits;
+
+    private long[] counts = new long[0];
+    // bucket index of counts[0]
+    private int firstIndex;
+    private long totalCount;
+
+    LogLinearHistogram(int precisionBits) {
+        checkArgument(precisionBits >= MIN_PRECISION_BITS && precisionBits <= MAX_PRECISION_BITS,
+                "precisionBits must be between %s and %s", MIN_PRECISION_BITS,
+                MAX_PRECISION_BITS);
+        this.precisionBits = precisionBits;
+    }
+
+    int getPrecisionBits() {
+        return precisionBits;
+    }
+
+    long getTotalCount() {
+        return totalCount;
+    }
+
+    void recordValue(long value) {
+        recordValueWithCount(value, 1);
+    }
+
+    void recordValueWithCount(long value, long count) {
+        addToBucket(getBucketIndex(Math.max(value, 0), precisionBits), count);
+    }
+
+    void add(LogLinearHistogram histogram) {
+        if (histogram.precisionBits == precisionBits) {
+            addCounts(histogram.firstIndex, histogram.counts, histogram.counts.length);
+            return;
+        }
+        for (int i = 0; i < histogram.counts.length; i++) {
+            long count = histogram.counts[i];
+            if (count != 0) {
+                recordValueWithCount(histogram.getHighestEquivalentValue(histogram.firstIndex + i),
+                        count);
+            }
+        }
+    }
+
+    void add(Aggregate.Histogram histogram) {
+        List<Long> bucketCounts = histogram.getBucketCountList();
+        int firstBucketIndex = histogram.getFirstBucketIndex();
+        if (histogram.getBucketPrecisionBits() == precisionBits) {
+            ensureRange(firstBucketIndex, firstBucketIndex + bucketCounts.size() - 1);
+            int offset = firstBucketIndex - firstIndex;
+            for (int i = 0; i < bucketCounts.size(); i++) {
+                long count = bucketCounts.get(i);
+                counts[offset + i] += count;
+                totalCount += count;
+            }
+            return;
+        }
+        for (int i = 0; i < bucketCounts.size(); i++) {
+            long count = bucketCounts.get(i);
+            if (count != 0) {
+                recordValueWithCount(getHighestEquivalentValue(firstBucketIndex + i,
+                        histogram.getBucketPrecisionBits()), count);
+            }
+        }
+    }
+
+    void add(Histogram histogram) {
+        for (HistogramIterationValue value : histogram.recordedValues()) {
+            recordValueWithCount(value.getValueIteratedTo(), value.getCountAtValueIteratedTo());
+        }
+    }
+
+    void copyInto(Histogram histogram) {
+        for (int i = 0; i < counts.length; i++) {
+            long count = counts[i];
+            if (count != 0) {
+                histogram.recordValueWithCount(getHighestEquivalentValue(firstIndex + i), count);
+            }
+        }
+    }
+
+    long getValueAtPercentile(double percentile) {
+        if (totalCount == 0) {
+            // this is consistent with HdrHistogram behavior
+            return 0;
+        }
+        // percentile 0 means the smallest recorded value
+        long rank = Math.max(1, (long) Math.ceil(totalCount * Math.min(percentile, 100) / 100));
+        long cumulativeCount = 0;
+        for (int i = 0; i < counts.length; i++) {
+            cumulativeCount += counts[i];
+            if (cumulativeCount >= rank) {
+                return getHighestEquivalentValue(firstIndex + i);
+            }
+        }
+        // unreachable since rank <= totalCount
+        return getHighestEquivalentValue(firstIndex + counts.length - 1);
+    }
+
+    void writeTo(Aggregate.Histogram.Builder builder) {
+        int from = 0;
+        while (from < counts.length && counts[from] == 0) {
+            from++;
+        }
+        int to = counts.length;
+        while (to > from && counts[to - 1] == 0) {
+            to--;
+        }
+        builder.setBucketPrecisionBits(precisionBits)
+                .setFirstBucketIndex(firstIndex + from);
+        for (int i = from; i < to; i++) {
+            builder.addBucketCount(counts[i]);
+        }
+    }
+
+    private long getHighestEquivalentValue(int index) {
+        return getHighestEquivalentValue(index, precisionBits);
+    }
+
+    private void addToBucket(int index, long count) {
+        if (index < firstIndex || index >= firstIndex + counts.length) {
+            ensureRange(index, index);
+        }
+        counts[index - firstIndex] += count;
+        totalCount += count;
+    }
+
+    private void addCounts(int fromIndex, long[] fromCounts, int length) {
+        if (length == 0) {
+            return;
+        }
+        ensureRange(fromIndex, fromIndex + length - 1);
+        int offset = fromIndex - firstIndex;
+        for (int i = 0; i < length; i++) {
+            counts[offset + i] += fromCounts[i];
+            totalCount += fromCounts[i];
+        }
+    }
+
+    private void ensureRange(int minIndex, int maxIndex) {
+        if (maxIndex < minIndex) {
+            return;
+        }
+        if (counts.length == 0) {
+            counts = new long[maxIndex - minIndex + 1];
+            firstIndex = minIndex;
+            return;
+        }
+        int lastIndex = firstIndex + counts.length - 1;
+        if (minIndex >= firstIndex && maxIndex <= lastIndex) {
+            return;
+        }
+        int newFirstIndex = Math.min(firstIndex, minIndex);
+        int newLastIndex = Math.max(lastIndex, maxIndex);
+        long[] temp = new long[newLastIndex - newFirstIndex + 1];
+        System.arraycopy(counts, 0, temp, firstIndex - newFirstIndex, counts.length);
+        counts = temp;
+        firstIndex = newFirstIndex;
+    }
+
+    // values less than 2^(precisionBits + 1) each get their own bucket, and above that, each power
+    // of 2 is split into 2^precisionBits buckets
+    static int getBucketIndex(long value, int precisionBits) {
+        int shift = 63 - Long.numberOfLeadingZeros(value) - precisionBits;
+        if (shift <= 0) {
+            return (int) value;
+        }
+        return (shift << precisionBits) + (int) (value >>> shift);
+    }
+
+    static long getHighestEquivalentValue(int index, int precisionBits) {
+        int shift = (index >>> precisionBits) - 1;
+        if (shift <= 0) {
+            return index;
+        }
+        long lowestEquivalentValue = (long) (index - (shift << precisionBits)) << shift;
+        return lowestEquivalentValue + (1L << shift) - 1;
+    }
+}
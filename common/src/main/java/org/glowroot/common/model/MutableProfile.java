@@ -1,5 +1,5 @@
 /*
- * Copyright 2015-2023 the original author or authors.
+ * Copyright 2015-2026 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -17,11 +17,11 @@ package org.glowroot.common.model;
 
 import java.io.IOException;
 import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
-import java.util.Map;
 
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -30,7 +30,6 @@ import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import com.google.common.collect.PeekingIterator;
 import com.google.common.collect.Queues;
 import com.google.common.io.CharStreams;
@@ -47,88 +46,111 @@ public class MutableProfile {
     private static final Logger logger = LoggerFactory.getLogger(MutableProfile.class);
     private static final ObjectMapper mapper = ObjectMappers.create();
 
-    // TODO use primitive maps, e.g. from GS collections
-    private final Map<String, Integer> packageNameIndexes = Maps.newHashMap();
-    private final Map<String, Integer> classNameIndexes = Maps.newHashMap();
-    private final Map<String, Integer> methodNameIndexes = Maps.newHashMap();
-    private final Map<String, Integer> fileNameIndexes = Maps.newHashMap();
+    // nodes with at least this many children get a hashed child index, below this a linear scan is
+    // faster (and most nodes only have a single child)
+    private static final int CHILD_INDEX_THRESHOLD = 8;
 
-    private final List<String> packageNames = Lists.newArrayList();
-    private final List<String> classNames = Lists.newArrayList();
-    private final List<String> methodNames = Lists.newArrayList();
-    private final List<String> fileNames = Lists.newArrayList();
+    private final StringTable packageNames = new StringTable();
+    private final StringTable classNames = new StringTable();
+    private final StringTable methodNames = new StringTable();
+    private final StringTable fileNames = new StringTable();
 
-    private final List<ProfileNode> rootNodes = Lists.newArrayList();
+    // stack trace elements hold the full class name, so this caches the split of each full class
+    // name into package name and class name indexes
+    private final StringTable fullClassNames = new StringTable();
+    private int[] fullClassNamePackageNameIndexes = new int[16];
+    private int[] fullClassNameClassNameIndexes = new int[16];
+
+    // synthetic node whose children are the root nodes, so that root nodes are indexed the same as
+    // any other child nodes
+    private final ProfileNode syntheticRootNode =
+            new ProfileNode(-1, -1, -1, -1, -1, Profile.LeafThreadState.NONE);
+    private final List<ProfileNode> rootNodes = syntheticRootNode.childNodes;
 
     // retain original sample count for in case of filtered profile
     private long unfilteredSampleCount = -1;
 
-    // this method is not used that often (only for traces with > 20 stack trace samples) so ok
-    // that it does not have most optimal implementation (converts unnecessarily to profile tree)
+    // merges directly node to node, only remapping the string table indexes, so that combining
+    // partially merged profiles (see central profile rollups) doesn't round trip through protobuf
     public void merge(MutableProfile profile) {
-        merge(profile.toProto());
+        int[] packageNameIndexMapping =
+                makeIndexMapping(profile.packageNames.asList(), packageNames);
+        int[] classNameIndexMapping = makeIndexMapping(profile.classNames.asList(), classNames);
+        int[] methodNameIndexMapping =
+                makeIndexMapping(profile.methodNames.asList(), methodNames);
+        int[] fileNameIndexMapping = makeIndexMapping(profile.fileNames.asList(), fileNames);
+        // using explicit stacks to avoid StackOverflowError caused by a recursive algorithm
+        Deque<ProfileNode> toBeMergedStack = new ArrayDeque<ProfileNode>();
+        Deque<ProfileNode> destinationStack = new ArrayDeque<ProfileNode>();
+        toBeMergedStack.push(profile.syntheticRootNode);
+        destinationStack.push(syntheticRootNode);
+        while (!toBeMergedStack.isEmpty()) {
+            ProfileNode toBeMergedParentNode = toBeMergedStack.pop();
+            ProfileNode destinationParentNode = destinationStack.pop();
+            for (ProfileNode toBeMergedNode : toBeMergedParentNode.childNodes) {
+                int packageNameIndex = packageNameIndexMapping[toBeMergedNode.packageNameIndex];
+                int classNameIndex = classNameIndexMapping[toBeMergedNode.classNameIndex];
+                int methodNameIndex = methodNameIndexMapping[toBeMergedNode.methodNameIndex];
+                int fileNameIndex = fileNameIndexMapping[toBeMergedNode.fileNameIndex];
+                ProfileNode destinationNode = destinationParentNode.findChildNode(
+                        packageNameIndex, classNameIndex, methodNameIndex, fileNameIndex,
+                        toBeMergedNode.lineNumber, toBeMergedNode.leafThreadState);
+                if (destinationNode == null) {
+                    destinationNode = new ProfileNode(packageNameIndex, classNameIndex,
+                            methodNameIndex, fileNameIndex, toBeMergedNode.lineNumber,
+                            toBeMergedNode.leafThreadState);
+                    destinationParentNode.addChildNode(destinationNode);
+                }
+                destinationNode.sampleCount += toBeMergedNode.sampleCount;
+                if (!toBeMergedNode.childNodes.isEmpty()) {
+                    toBeMergedStack.push(toBeMergedNode);
+                    destinationStack.push(destinationNode);
+                }
+            }
+        }
     }
 
     public void merge(Profile profile) {
         Merger merger = new Merger(profile);
-        merger.merge(profile.getNodeList(), rootNodes);
+        merger.merge(profile.getNodeList());
     }
 
     public void merge(List<StackTraceElement> stackTraceElements, Thread.State threadState) {
-        PeekingIterator<StackTraceElement> i =
-                Iterators.peekingIterator(Lists.reverse(stackTraceElements).iterator());
-        ProfileNode lastMatchedNode = null;
-        List<ProfileNode> mergeIntoNodes = rootNodes;
-
+        ProfileNode parentNode = syntheticRootNode;
         boolean lookingForMatch = true;
-        while (i.hasNext()) {
-            StackTraceElement stackTraceElement = i.next();
-            String fullClassName = stackTraceElement.getClassName();
-            int index = fullClassName.lastIndexOf('.');
-            String packageName;
-            String className;
-            if (index == -1) {
-                packageName = "";
-                className = fullClassName;
-            } else {
-                packageName = fullClassName.substring(0, index);
-                className = fullClassName.substring(index + 1);
-            }
-            int packageNameIndex = getNameIndex(packageName, packageNameIndexes, packageNames);
-            int classNameIndex = getNameIndex(className, classNameIndexes, classNames);
-            int methodNameIndex =
-                    getNameIndex(MoreObjects.firstNonNull(stackTraceElement.getMethodName(),
-                            "<null method name>"), methodNameIndexes, methodNames);
-            int fileNameIndex = getNameIndex(Strings.nullToEmpty(stackTraceElement.getFileName()),
-                    fileNameIndexes, fileNames);
+        // stack trace elements are ordered from leaf to root
+        for (int i = stackTraceElements.size() - 1; i >= 0; i--) {
+            StackTraceElement stackTraceElement = stackTraceElements.get(i);
+            int fullClassNameIndex = getFullClassNameIndex(stackTraceElement.getClassName());
+            int packageNameIndex = fullClassNamePackageNameIndexes[fullClassNameIndex];
+            int classNameIndex = fullClassNameClassNameIndexes[fullClassNameIndex];
+            int methodNameIndex = methodNames.getIndex(MoreObjects
+                    .firstNonNull(stackTraceElement.getMethodName(), "<null method name>"));
+            int fileNameIndex =
+                    fileNames.getIndex(Strings.nullToEmpty(stackTraceElement.getFileName()));
             int lineNumber = stackTraceElement.getLineNumber();
             Profile.LeafThreadState leafThreadState =
-                    i.hasNext() ? Profile.LeafThreadState.NONE : getThreadState(threadState);
+                    i > 0 ? Profile.LeafThreadState.NONE : getThreadState(threadState);
 
             ProfileNode node = null;
             if (lookingForMatch) {
-                for (ProfileNode childNode : mergeIntoNodes) {
-                    if (isMatch(childNode, packageNameIndex, classNameIndex, methodNameIndex,
-                            fileNameIndex, lineNumber, leafThreadState)) {
-                        node = childNode;
-                        break;
-                    }
-                }
+                node = parentNode.findChildNode(packageNameIndex, classNameIndex, methodNameIndex,
+                        fileNameIndex, lineNumber, leafThreadState);
             }
             if (node == null) {
                 lookingForMatch = false;
                 node = new ProfileNode(packageNameIndex, classNameIndex, methodNameIndex,
                         fileNameIndex, lineNumber, leafThreadState);
-                mergeIntoNodes.add(node);
+                parentNode.addChildNode(node);
             }
             node.sampleCount++;
-            lastMatchedNode = node;
-            mergeIntoNodes = lastMatchedNode.childNodes;
+            parentNode = node;
         }
     }
 
     public void filter(List<String> includes, List<String> excludes) {
         unfilteredSampleCount = getSampleCount();
+        syntheticRootNode.childNodeIndex = null;
         for (String include : includes) {
             for (Iterator<ProfileNode> i = rootNodes.iterator(); i.hasNext();) {
                 ProfileNode rootNode = i.next();
@@ -162,6 +184,7 @@ public class MutableProfile {
         }
         ProfileNode node;
         while ((node = toBeVisited.poll()) != null) {
+            node.childNodeIndex = null;
             for (Iterator<ProfileNode> i = node.childNodes.iterator(); i.hasNext();) {
                 ProfileNode childNode = i.next();
                 if (childNode.sampleCount < minSamples) {
@@ -189,6 +212,17 @@ public class MutableProfile {
         return sampleCount;
     }
 
+    public int getNodeCount() {
+        int nodeCount = 0;
+        Deque<ProfileNode> toBeVisited = new ArrayDeque<ProfileNode>(rootNodes);
+        ProfileNode node;
+        while ((node = toBeVisited.poll()) != null) {
+            nodeCount++;
+            toBeVisited.addAll(node.childNodes);
+        }
+        return nodeCount;
+    }
+
     public long getUnfilteredSampleCount() {
         if (unfilteredSampleCount == -1) {
             return getSampleCount();
@@ -203,10 +237,10 @@ public class MutableProfile {
             new ProfileNodeCollector(rootNode, nodes).traverse();
         }
         return Profile.newBuilder()
-                .addAllPackageName(packageNames)
-                .addAllClassName(classNames)
-                .addAllMethodName(methodNames)
-                .addAllFileName(fileNames)
+                .addAllPackageName(packageNames.asList())
+                .addAllClassName(classNames.asList())
+                .addAllMethodName(methodNames.asList())
+                .addAllFileName(fileNames.asList())
                 .addAllNode(nodes)
                 .build();
     }
@@ -254,15 +288,32 @@ public class MutableProfile {
         return sb.toString();
     }
 
-    private static int getNameIndex(String name, Map<String, Integer> nameIndexes,
-            List<String> names) {
-        Integer index = nameIndexes.get(name);
-        if (index == null) {
-            index = names.size();
-            names.add(name);
-            nameIndexes.put(name, index);
+    private int getFullClassNameIndex(String fullClassName) {
+        int size = fullClassNames.size();
+        int fullClassNameIndex = fullClassNames.getIndex(fullClassName);
+        if (fullClassNameIndex < size) {
+            // already split
+            return fullClassNameIndex;
+        }
+        if (fullClassNameIndex == fullClassNamePackageNameIndexes.length) {
+            fullClassNamePackageNameIndexes =
+                    Arrays.copyOf(fullClassNamePackageNameIndexes, fullClassNameIndex * 2);
+            fullClassNameClassNameIndexes =
+                    Arrays.copyOf(fullClassNameClassNameIndexes, fullClassNameIndex * 2);
+        }
+        int index = fullClassName.lastIndexOf('.');
+        String packageName;
+        String className;
+        if (index == -1) {
+            packageName = "";
+            className = fullClassName;
+        } else {
+            packageName = fullClassName.substring(0, index);
+            className = fullClassName.substring(index + 1);
         }
-        return index;
+        fullClassNamePackageNameIndexes[fullClassNameIndex] = packageNames.getIndex(packageName);
+        fullClassNameClassNameIndexes[fullClassNameIndex] = classNames.getIndex(className);
+        return fullClassNameIndex;
     }
 
     private static Profile.LeafThreadState getThreadState(Thread. /*@Nullable*/ State state) {
@@ -301,23 +352,25 @@ public class MutableProfile {
     }
 
     private static int[] makeIndexMapping(List<String> toBeMergedNames,
-            Map<String, Integer> existingIndexes, List<String> existingNames) {
+            StringTable existingNames) {
         int[] indexMapping = new int[toBeMergedNames.size()];
         for (int i = 0; i < toBeMergedNames.size(); i++) {
-            String toBeMergedName = toBeMergedNames.get(i);
-            Integer existingIndex = existingIndexes.get(toBeMergedName);
-            if (existingIndex == null) {
-                int newIndex = existingNames.size();
-                existingNames.add(toBeMergedName);
-                existingIndexes.put(toBeMergedName, newIndex);
-                indexMapping[i] = newIndex;
-            } else {
-                indexMapping[i] = existingIndex;
-            }
+            indexMapping[i] = existingNames.getIndex(toBeMergedNames.get(i));
         }
         return indexMapping;
     }
 
+    private static int hash(int packageNameIndex, int classNameIndex, int methodNameIndex,
+            int fileNameIndex, int lineNumber, Profile.LeafThreadState leafThreadState) {
+        int h = lineNumber;
+        h = 31 * h + methodNameIndex;
+        h = 31 * h + classNameIndex;
+        h = 31 * h + packageNameIndex;
+        h = 31 * h + fileNameIndex;
+        h = 31 * h + leafThreadState.ordinal();
+        return h ^ (h >>> 16);
+    }
+
     private class ProfileNode {
 
         private final int packageNameIndex;
@@ -326,10 +379,15 @@ public class MutableProfile {
         private final int fileNameIndex;
         private final int lineNumber;
         private final Profile.LeafThreadState leafThreadState;
+        private final int hash;
 
         private long sampleCount;
 
-        private List<ProfileNode> childNodes = Lists.newArrayListWithCapacity(2);
+        private final List<ProfileNode> childNodes = Lists.newArrayListWithCapacity(2);
+
+        // open addressing hash table over childNodes, only built once there are enough children,
+        // and discarded (to be rebuilt lazily) whenever child nodes are removed
+        private @Nullable ProfileNode /*@Nullable*/ [] childNodeIndex;
 
         // these fields are only used for filtering
         private @Nullable String text;
@@ -345,6 +403,63 @@ public class MutableProfile {
             this.fileNameIndex = fileNameIndex;
             this.lineNumber = lineNumber;
             this.leafThreadState = leafThreadState;
+            hash = hash(packageNameIndex, classNameIndex, methodNameIndex, fileNameIndex,
+                    lineNumber, leafThreadState);
+        }
+
+        private @Nullable ProfileNode findChildNode(int packageNameIndex, int classNameIndex,
+                int methodNameIndex, int fileNameIndex, int lineNumber,
+                Profile.LeafThreadState leafThreadState) {
+            if (childNodes.size() < CHILD_INDEX_THRESHOLD) {
+                for (ProfileNode childNode : childNodes) {
+                    if (isMatch(childNode, packageNameIndex, classNameIndex, methodNameIndex,
+                            fileNameIndex, lineNumber, leafThreadState)) {
+                        return childNode;
+                    }
+                }
+                return null;
+            }
+            ProfileNode[] childNodeIndex = this.childNodeIndex;
+            if (childNodeIndex == null) {
+                childNodeIndex = buildChildNodeIndex();
+            }
+            int mask = childNodeIndex.length - 1;
+            int slot = hash(packageNameIndex, classNameIndex, methodNameIndex, fileNameIndex,
+                    lineNumber, leafThreadState) & mask;
+            ProfileNode childNode;
+            while ((childNode = childNodeIndex[slot]) != null) {
+                if (isMatch(childNode, packageNameIndex, classNameIndex, methodNameIndex,
+                        fileNameIndex, lineNumber, leafThreadState)) {
+                    return childNode;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return null;
+        }
+
+        private void addChildNode(ProfileNode childNode) {
+            childNodes.add(childNode);
+            ProfileNode[] childNodeIndex = this.childNodeIndex;
+            if (childNodeIndex == null) {
+                // will be built lazily by findChildNode() once there are enough children
+                return;
+            }
+            if (childNodes.size() * 2 > childNodeIndex.length) {
+                buildChildNodeIndex();
+            } else {
+                insert(childNodeIndex, childNode);
+            }
+        }
+
+        private ProfileNode[] buildChildNodeIndex() {
+            // keep load factor at or below 0.5 to keep probe sequences short
+            int capacity = Integer.highestOneBit(childNodes.size() * 4 - 1);
+            ProfileNode[] childNodeIndex = new ProfileNode[capacity];
+            for (ProfileNode childNode : childNodes) {
+                insert(childNodeIndex, childNode);
+            }
+            this.childNodeIndex = childNodeIndex;
+            return childNodeIndex;
         }
 
         private String getText() {
@@ -371,6 +486,15 @@ public class MutableProfile {
         }
     }
 
+    private static void insert(@Nullable ProfileNode[] childNodeIndex, ProfileNode childNode) {
+        int mask = childNodeIndex.length - 1;
+        int slot = childNode.hash & mask;
+        while (childNodeIndex[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        childNodeIndex[slot] = childNode;
+    }
+
     private class Merger {
 
         private final int[] packageNameIndexMapping;
@@ -378,22 +502,21 @@ public class MutableProfile {
         private final int[] methodNameIndexMapping;
         private final int[] fileNameIndexMapping;
 
-        private final Deque<List<ProfileNode>> destinationStack = Queues.newArrayDeque();
+        private final Deque<ProfileNode> destinationStack = Queues.newArrayDeque();
 
         private Merger(Profile toBeMergedProfile) {
-            packageNameIndexMapping = makeIndexMapping(toBeMergedProfile.getPackageNameList(),
-                    packageNameIndexes, packageNames);
-            classNameIndexMapping = makeIndexMapping(toBeMergedProfile.getClassNameList(),
-                    classNameIndexes, classNames);
-            methodNameIndexMapping = makeIndexMapping(toBeMergedProfile.getMethodNameList(),
-                    methodNameIndexes, methodNames);
-            fileNameIndexMapping = makeIndexMapping(toBeMergedProfile.getFileNameList(),
-                    fileNameIndexes, fileNames);
-        }
-
-        private void merge(List<Profile.ProfileNode> flatNodes,
-                List<ProfileNode> destinationRootNodes) {
-            destinationStack.push(destinationRootNodes);
+            packageNameIndexMapping =
+                    makeIndexMapping(toBeMergedProfile.getPackageNameList(), packageNames);
+            classNameIndexMapping =
+                    makeIndexMapping(toBeMergedProfile.getClassNameList(), classNames);
+            methodNameIndexMapping =
+                    makeIndexMapping(toBeMergedProfile.getMethodNameList(), methodNames);
+            fileNameIndexMapping =
+                    makeIndexMapping(toBeMergedProfile.getFileNameList(), fileNames);
+        }
+
+        private void merge(List<Profile.ProfileNode> flatNodes) {
+            destinationStack.push(syntheticRootNode);
             PeekingIterator<Profile.ProfileNode> i =
                     Iterators.peekingIterator(flatNodes.iterator());
             while (i.hasNext()) {
@@ -405,13 +528,13 @@ public class MutableProfile {
                 }
                 ProfileNode destinationNode = mergeOne(flatNode, destinationStack.getFirst());
                 if (i.hasNext() && i.peek().getDepth() > flatNode.getDepth()) {
-                    destinationStack.push(destinationNode.childNodes);
+                    destinationStack.push(destinationNode);
                 }
             }
         }
 
         private ProfileNode mergeOne(Profile.ProfileNode toBeMergedNode,
-                List<ProfileNode> destinationNodes) {
+                ProfileNode destinationParentNode) {
             int toBeMergedPackageNameIndex =
                     packageNameIndexMapping[toBeMergedNode.getPackageNameIndex()];
             int toBeMergedClassNameIndex =
@@ -421,19 +544,19 @@ public class MutableProfile {
             int toBeMergedFileNameIndex = fileNameIndexMapping[toBeMergedNode.getFileNameIndex()];
             int toBeMergedLineNumber = toBeMergedNode.getLineNumber();
             Profile.LeafThreadState toBeMergedLeafThreadState = toBeMergedNode.getLeafThreadState();
-            for (ProfileNode destinationNode : destinationNodes) {
-                if (isMatch(destinationNode, toBeMergedPackageNameIndex, toBeMergedClassNameIndex,
-                        toBeMergedMethodNameIndex, toBeMergedFileNameIndex, toBeMergedLineNumber,
-                        toBeMergedLeafThreadState)) {
-                    merge(toBeMergedNode, destinationNode);
-                    return destinationNode;
-                }
+            ProfileNode destinationNode = destinationParentNode.findChildNode(
+                    toBeMergedPackageNameIndex, toBeMergedClassNameIndex,
+                    toBeMergedMethodNameIndex, toBeMergedFileNameIndex, toBeMergedLineNumber,
+                    toBeMergedLeafThreadState);
+            if (destinationNode != null) {
+                merge(toBeMergedNode, destinationNode);
+                return destinationNode;
             }
             // no match found
-            ProfileNode destinationNode = new ProfileNode(toBeMergedPackageNameIndex,
+            destinationNode = new ProfileNode(toBeMergedPackageNameIndex,
                     toBeMergedClassNameIndex, toBeMergedMethodNameIndex, toBeMergedFileNameIndex,
                     toBeMergedLineNumber, toBeMergedLeafThreadState);
-            destinationNodes.add(destinationNode);
+            destinationParentNode.addChildNode(destinationNode);
             merge(toBeMergedNode, destinationNode);
             return destinationNode;
         }
@@ -511,6 +634,7 @@ public class MutableProfile {
                 node.matched = true;
             }
             // node is a partial match, need to filter it out
+            node.childNodeIndex = null;
             long filteredSampleCount = 0;
             for (Iterator<ProfileNode> i = node.childNodes.iterator(); i.hasNext();) {
                 ProfileNode childNode = i.next();
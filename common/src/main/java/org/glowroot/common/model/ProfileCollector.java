@@ -26,6 +26,10 @@ public class ProfileCollector {
         this.profile.merge(profile);
     }
 
+    public void mergeProfile(MutableProfile profile) {
+        this.profile.merge(profile);
+    }
+
     public void updateLastCaptureTime(long captureTime) {
         lastCaptureTime = Math.max(lastCaptureTime, captureTime);
     }
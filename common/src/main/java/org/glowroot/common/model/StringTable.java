@@ -0,0 +1,87 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.common.model;
+
+import java.util.Arrays;
+import java.util.List;
+
+// assigns sequential indexes to strings
+//
+// this is an open addressing table of primitive ints, which avoids the Integer boxing and the entry
+// allocation of HashMap<String, Integer> on the profile merging hot path
+class StringTable {
+
+    private String[] strings = new String[16];
+    private int size;
+
+    // holds (index + 1), so that 0 can be used to mark an empty slot
+    private int[] slots = new int[32];
+
+    int getIndex(String string) {
+        int mask = slots.length - 1;
+        int slot = hash(string) & mask;
+        while (true) {
+            int index = slots[slot] - 1;
+            if (index == -1) {
+                break;
+            }
+            if (strings[index].equals(string)) {
+                return index;
+            }
+            slot = (slot + 1) & mask;
+        }
+        int index = size++;
+        if (index == strings.length) {
+            strings = Arrays.copyOf(strings, index * 2);
+        }
+        strings[index] = string;
+        slots[slot] = index + 1;
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return index;
+    }
+
+    String get(int index) {
+        return strings[index];
+    }
+
+    int size() {
+        return size;
+    }
+
+    List<String> asList() {
+        return Arrays.asList(strings).subList(0, size);
+    }
+
+    private void rehash() {
+        int[] newSlots = new int[slots.length * 2];
+        int mask = newSlots.length - 1;
+        for (int index = 0; index < size; index++) {
+            int slot = hash(strings[index]) & mask;
+            while (newSlots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            newSlots[slot] = index + 1;
+        }
+        slots = newSlots;
+    }
+
+    private static int hash(String string) {
+        int h = string.hashCode();
+        return h ^ (h >>> 16);
+    }
+}
@@ -78,6 +78,99 @@ public class LazyHistogramTest {
         shouldDecodeOnTopOfExisting(100000000, 200000000);
     }
 
+    @Test
+    public void shouldTestBucketPercentiles() {
+        // test smaller numbers in more detail since that is where laziness occurs
+        for (int i = 0; i < 2000000; i += 10000) {
+            shouldTestBucketPercentiles(i);
+        }
+        shouldTestBucketPercentiles(10000000);
+        shouldTestBucketPercentiles(100000000);
+    }
+
+    @Test
+    public void shouldTestBucketEncodeDecodeAndAddMore() throws Exception {
+        // test smaller numbers in more detail since that is where laziness occurs
+        for (int i = 0; i < 2000000; i += 10000) {
+            shouldTestBucketEncodeDecodeAndAddMore(i);
+        }
+        shouldTestBucketEncodeDecodeAndAddMore(10000000);
+        shouldTestBucketEncodeDecodeAndAddMore(100000000);
+    }
+
+    @Test
+    public void shouldMergeBucketsWithHdrHistogram() throws Exception {
+        shouldMergeBucketsWithHdrHistogram(10000000, 7, 0);
+        shouldMergeBucketsWithHdrHistogram(10000000, 0, 7);
+        shouldMergeBucketsWithHdrHistogram(10000000, 7, 10);
+        shouldMergeBucketsWithHdrHistogram(10000000, 10, 7);
+    }
+
+    @Test
+    public void shouldMergeBucketsWithoutEncoding() {
+        // given
+        LazyHistogram lazyHistogram = new LazyHistogram(7);
+        LazyHistogram toBeMergedHistogram = new LazyHistogram(7);
+        for (int i = 10000000; i > 0; i -= 1000) {
+            lazyHistogram.add(i);
+            toBeMergedHistogram.add(i + 10000000);
+        }
+        // when
+        lazyHistogram.merge(toBeMergedHistogram);
+        // then
+        assertPercentile(lazyHistogram, 20000000, 50);
+        assertPercentile(lazyHistogram, 20000000, 95);
+        assertPercentile(lazyHistogram, 20000000, 99);
+        assertThat(lazyHistogram.toProto(new ScratchBuffer()).getEncodedBytes().isEmpty())
+                .isTrue();
+    }
+
+    @Test
+    public void shouldReadBucketsWithHigherThanMaxPrecision() {
+        // given
+        int precisionBits = 10;
+        int firstBucketIndex = LogLinearHistogram.getBucketIndex(1000, precisionBits);
+        int lastBucketIndex = LogLinearHistogram.getBucketIndex(10000000, precisionBits);
+        Aggregate.Histogram.Builder builder = Aggregate.Histogram.newBuilder()
+                .setBucketPrecisionBits(precisionBits)
+                .setFirstBucketIndex(firstBucketIndex);
+        for (int i = firstBucketIndex; i <= lastBucketIndex; i++) {
+            builder.addBucketCount(1);
+        }
+        Aggregate.Histogram histogram = builder.build();
+        // when
+        LazyHistogram lazyHistogram = new LazyHistogram(histogram);
+        LazyHistogram mergedHistogram = new LazyHistogram(7);
+        mergedHistogram.merge(histogram);
+        // then
+        Aggregate.Histogram proto = lazyHistogram.toProto(new ScratchBuffer());
+        assertThat(proto.getBucketPrecisionBits()).isEqualTo(LogLinearHistogram.MAX_PRECISION_BITS);
+        assertThat(proto.getBucketCountCount()).isLessThan(lastBucketIndex - firstBucketIndex);
+        assertThat(lazyHistogram.getValueAtPercentile(100)).isBetween(10000000L, 10100000L);
+        assertThat(mergedHistogram.getValueAtPercentile(100)).isBetween(10000000L, 10100000L);
+    }
+
+    @Test
+    public void shouldTestBucketIndexes() {
+        for (int precisionBits = LogLinearHistogram.MIN_PRECISION_BITS;
+                precisionBits <= LogLinearHistogram.MAX_PRECISION_BITS; precisionBits++) {
+            int lastIndex = -1;
+            for (long value = 0; value < 1000000; value += 7) {
+                int index = LogLinearHistogram.getBucketIndex(value, precisionBits);
+                assertThat(index).isGreaterThanOrEqualTo(lastIndex);
+                long highestEquivalentValue =
+                        LogLinearHistogram.getHighestEquivalentValue(index, precisionBits);
+                assertThat(highestEquivalentValue).isGreaterThanOrEqualTo(value);
+                assertThat(highestEquivalentValue - value)
+                        .isLessThanOrEqualTo(value >> precisionBits);
+                lastIndex = index;
+            }
+            int maxIndex = LogLinearHistogram.getBucketIndex(Long.MAX_VALUE, precisionBits);
+            assertThat(LogLinearHistogram.getHighestEquivalentValue(maxIndex, precisionBits))
+                    .isEqualTo(Long.MAX_VALUE);
+        }
+    }
+
     private void shouldTestPercentiles(int num) {
         // given
         LazyHistogram lazyHistogram = new LazyHistogram();
@@ -153,6 +246,65 @@ public class LazyHistogramTest {
         assertPercentile(lazyHistogram, encodedSize + nonEncodedSize, 99.99);
     }
 
+    private void shouldTestBucketPercentiles(int num) {
+        // given
+        LazyHistogram lazyHistogram = new LazyHistogram(7);
+        // when
+        for (int i = num; i > 0; i -= 1000) {
+            lazyHistogram.add(i);
+        }
+        // then
+        assertPercentile(lazyHistogram, num, 50);
+        assertPercentile(lazyHistogram, num, 95);
+        assertPercentile(lazyHistogram, num, 99);
+        assertPercentile(lazyHistogram, num, 99.9);
+        assertPercentile(lazyHistogram, num, 99.99);
+    }
+
+    private void shouldTestBucketEncodeDecodeAndAddMore(int num) throws Exception {
+        // given
+        LazyHistogram lazyHistogram = new LazyHistogram(7);
+        for (int i = num; i > 0; i -= 1000) {
+            lazyHistogram.add(i);
+        }
+        Aggregate.Histogram histogram = lazyHistogram.toProto(new ScratchBuffer());
+        lazyHistogram = new LazyHistogram(7);
+        // when
+        lazyHistogram.merge(histogram);
+        for (int i = 2 * num; i > num; i -= 1000) {
+            lazyHistogram.add(i);
+        }
+        // then
+        assertPercentile(lazyHistogram, num * 2, 50);
+        assertPercentile(lazyHistogram, num * 2, 95);
+        assertPercentile(lazyHistogram, num * 2, 99);
+        assertPercentile(lazyHistogram, num * 2, 99.9);
+        assertPercentile(lazyHistogram, num * 2, 99.99);
+        assertPercentile(new LazyHistogram(lazyHistogram.toProto(new ScratchBuffer())), num * 2,
+                99);
+    }
+
+    private void shouldMergeBucketsWithHdrHistogram(int num, int encodedPrecisionBits,
+            int precisionBits) throws Exception {
+        // given
+        LazyHistogram lazyHistogram = new LazyHistogram(encodedPrecisionBits);
+        for (int i = num; i > 0; i -= 1000) {
+            lazyHistogram.add(i);
+        }
+        Aggregate.Histogram histogram = lazyHistogram.toProto(new ScratchBuffer());
+        lazyHistogram = new LazyHistogram(precisionBits);
+        // when
+        for (int i = 2 * num; i > num; i -= 1000) {
+            lazyHistogram.add(i);
+        }
+        lazyHistogram.merge(histogram);
+        // then
+        assertPercentile(lazyHistogram, num * 2, 50);
+        assertPercentile(lazyHistogram, num * 2, 95);
+        assertPercentile(lazyHistogram, num * 2, 99);
+        assertPercentile(lazyHistogram, num * 2, 99.9);
+    }
+
     private void assertPercentile(LazyHistogram lazyHistogram, int num, double percentile) {
         long low = (long) Math.floor(num * percentile * 0.99 / (100 * 1000)) * 1000;
         long high = (long) Math.ceil(num * percentile * 1.01 / (100 * 1000)) * 1000;
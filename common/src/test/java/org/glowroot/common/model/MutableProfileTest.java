@@ -27,6 +27,8 @@ import com.google.common.collect.Lists;
 import com.google.common.io.CharStreams;
 import org.junit.jupiter.api.Test;
 
+import org.glowroot.wire.api.model.ProfileOuterClass.Profile;
+
 import static org.assertj.core.api.Assertions.assertThat;
 
 public class MutableProfileTest {
@@ -164,6 +166,88 @@ public class MutableProfileTest {
                 + "}").replace(" ", ""));
     }
 
+    @Test
+    public void testMergingWideFanOut() throws IOException {
+        // given
+        MutableProfile profile = new MutableProfile();
+        // when
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 50; j++) {
+                profile.merge(createStackTrace(j), Thread.State.RUNNABLE);
+            }
+        }
+        // then
+        Profile proto = profile.toProto();
+        // main, then 50 distinct children, each with a single leaf
+        assertThat(proto.getNodeCount()).isEqualTo(101);
+        assertThat(proto.getNode(0).getSampleCount()).isEqualTo(150);
+        for (int i = 0; i < 50; i++) {
+            Profile.ProfileNode childNode = proto.getNode(1 + 2 * i);
+            // children retain the order in which they were first seen
+            assertThat(childNode.getLineNumber()).isEqualTo(i);
+            assertThat(childNode.getSampleCount()).isEqualTo(3);
+        }
+        MutableProfile roundTripProfile = new MutableProfile();
+        roundTripProfile.merge(proto);
+        assertThat(roundTripProfile.toJson()).isEqualTo(profile.toJson());
+    }
+
+    @Test
+    public void testMergingWideFanOutAfterTruncating() throws IOException {
+        // given
+        MutableProfile profile = new MutableProfile();
+        for (int i = 0; i < 50; i++) {
+            profile.merge(createStackTrace(i), Thread.State.RUNNABLE);
+        }
+        profile.merge(createStackTrace(0), Thread.State.RUNNABLE);
+        profile.truncateBranches(3);
+        // when
+        for (int i = 0; i < 50; i++) {
+            profile.merge(createStackTrace(i), Thread.State.RUNNABLE);
+        }
+        // then
+        Profile proto = profile.toProto();
+        assertThat(proto.getNodeCount()).isEqualTo(101);
+        assertThat(proto.getNode(1).getLineNumber()).isEqualTo(0);
+        assertThat(proto.getNode(1).getSampleCount()).isEqualTo(3);
+        assertThat(proto.getNode(3).getLineNumber()).isEqualTo(1);
+        assertThat(proto.getNode(3).getSampleCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testMergingMutableProfiles() throws IOException {
+        // given
+        MutableProfile profile1 = new MutableProfile();
+        MutableProfile profile2 = new MutableProfile();
+        List<StackTraceElement> stackTraceElements = Lists.newArrayList();
+        stackTraceElements.add(new StackTraceElement("pp.qq.Rst", "uvw", "Rst.java", 12));
+        stackTraceElements.add(new StackTraceElement("xx.yy.zz.Main", "main", "Main.java", 789));
+        // different order so that the string tables are different
+        profile2.merge(stackTraceElements, Thread.State.WAITING);
+        for (int i = 0; i < 20; i++) {
+            profile1.merge(createStackTrace(i), Thread.State.RUNNABLE);
+            profile2.merge(createStackTrace(i * 2), Thread.State.RUNNABLE);
+        }
+        MutableProfile expected = new MutableProfile();
+        expected.merge(profile1.toProto());
+        expected.merge(profile2.toProto());
+        // when
+        profile1.merge(profile2);
+        // then
+        assertThat(profile1.toJson()).isEqualTo(expected.toJson());
+        assertThat(profile1.getSampleCount()).isEqualTo(41);
+        assertThat(profile1.getNodeCount()).isEqualTo(expected.toProto().getNodeCount());
+    }
+
+    private static List<StackTraceElement> createStackTrace(int lineNumber) {
+        List<StackTraceElement> stackTraceElements = Lists.newArrayList();
+        stackTraceElements.add(new StackTraceElement("aa.bb.cc.Def", "ghi", "Def.java", 123));
+        stackTraceElements.add(
+                new StackTraceElement("aa.bb.cc.Def", "ghi", "Def.java", lineNumber));
+        stackTraceElements.add(new StackTraceElement("xx.yy.zz.Main", "main", "Main.java", 789));
+        return stackTraceElements;
+    }
+
     // this is helpful when building tests
     @SuppressWarnings("unused")
     private static void prettyPrint(String json) throws IOException {
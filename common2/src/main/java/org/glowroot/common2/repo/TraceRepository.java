@@ -97,6 +97,12 @@ public interface TraceRepository {
     interface ErrorMessageResult {
         List<ErrorMessagePoint> points();
         Result<ErrorMessageCount> counts();
+        // errors that are included in the points, but whose message is not included in the counts
+        // (e.g. since it was not one of the top error messages of a pre-aggregated summary)
+        @Value.Default
+        default long otherErrorMessageCount() {
+            return 0;
+        }
     }
 
     @Value.Immutable
@@ -75,6 +75,14 @@ public class Gauges {
                 "bytes"));
         patterns.add(
                 new UnitPattern("org.glowroot:type=FileSystem,name=.*:PercentFull", "percent"));
+        patterns.add(new UnitPattern(
+                "org.glowroot:type=StackTraceCollector:(LastTick)?CaptureTime", "nanoseconds"));
+        patterns.add(new UnitPattern("org.glowroot:type=StackTraceCollector:(Sampled|Dropped"
+                + "|LastTick)ThreadCount", GROUPING_PREFIX + "thread-count"));
+        patterns.add(new UnitPattern("org.glowroot:type=StackTraceCollector:CaptureCount",
+                GROUPING_PREFIX + "safepoint-count"));
+        patterns.add(new UnitPattern("org.glowroot:type=JfrStackTraceCollector:ProcessingTime",
+                "nanoseconds"));
         patterns.add(new UnitPattern("org.apache.cassandra.metrics:type=ColumnFamily,"
                 + "keyspace=[^,]+,scope=[^,]+,name=LiveDiskSpaceUsed:Count", "bytes"));
         patterns.add(new UnitPattern("org.apache.cassandra.metrics:type=ColumnFamily,"
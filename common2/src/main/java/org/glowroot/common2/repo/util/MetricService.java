@@ -19,11 +19,14 @@ import com.google.common.base.MoreObjects;
 import com.google.common.base.Strings;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.glowroot.common.live.ImmutableAggregateQuery;
+import org.glowroot.common.live.LiveAggregateRepository.AggregateQuery;
 import org.glowroot.common.live.LiveAggregateRepository.OverviewAggregate;
 import org.glowroot.common.live.LiveAggregateRepository.PercentileAggregate;
 import org.glowroot.common.live.LiveAggregateRepository.ThroughputAggregate;
 import org.glowroot.common.model.LazyHistogram;
 import org.glowroot.common2.repo.*;
+import org.glowroot.common2.repo.util.MetricWindows.WindowKey;
+import org.glowroot.common2.repo.util.MetricWindows.WindowKind;
 import org.glowroot.common2.repo.util.RollupLevelService.DataKind;
 import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig.AlertConfig.AlertCondition.MetricCondition;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.GaugeValueMessage.GaugeValue;
@@ -43,6 +46,8 @@ class MetricService {
     private final TraceRepository traceRepository;
     private final RollupLevelService rollupLevelService;
 
+    private final MetricWindows metricWindows = new MetricWindows();
+
     public MetricService(AggregateRepository aggregateRepository,
                          GaugeValueRepository gaugeValueRepository, TraceRepository traceRepository,
                          RollupLevelService rollupLevelService) {
@@ -87,16 +92,14 @@ class MetricService {
                                                                      long startTime, long endTime, CassandraProfile profile) {
         int rollupLevel =
                 rollupLevelService.getRollupLevelForView(startTime, endTime, DataKind.GENERAL);
-        // startTime + 1 in order to not include the aggregate value at startTime
-        return aggregateRepository.readPercentileAggregates(agentRollupId,
-                ImmutableAggregateQuery.builder()
-                        .transactionType(transactionType)
-                        .transactionName(transactionName)
-                        .from(startTime + 1)
-                        .to(endTime)
-                        .rollupLevel(rollupLevel)
-                        .build(), profile).thenApply(aggregates -> {
-
+        WindowKey key = getWindowKey(agentRollupId, WindowKind.PERCENTILE, transactionType,
+                transactionName, startTime, endTime);
+        return metricWindows.read(key, startTime, endTime, rollupLevel,
+                rollupLevelService.getLateDataMarginMillis(rollupLevel), PercentileAggregate::captureTime,
+                (from, to) -> aggregateRepository.readPercentileAggregates(agentRollupId,
+                        getAggregateQuery(transactionType, transactionName, from, to,
+                                rollupLevel),
+                        profile)).thenApply(aggregates -> {
 
             if (aggregates.isEmpty()) {
                 return null;
@@ -193,9 +196,13 @@ class MetricService {
                                                   long startTime, long endTime, CassandraProfile profile) {
         int rollupLevel = rollupLevelService.getGaugeRollupLevelForView(startTime, endTime,
                 agentRollupId.endsWith("::"));
-        // startTime + 1 in order to not include the gauge value at startTime
-        return gaugeValueRepository.readGaugeValues(agentRollupId,
-                gaugeName, startTime + 1, endTime, rollupLevel, profile).thenApply(gaugeValues -> {
+        WindowKey key = getWindowKey(agentRollupId, WindowKind.GAUGE, gaugeName, null, startTime,
+                endTime);
+        return metricWindows.read(key, startTime, endTime, rollupLevel,
+                rollupLevelService.getGaugeLateDataMarginMillis(rollupLevel),
+                GaugeValue::getCaptureTime,
+                (from, to) -> gaugeValueRepository.readGaugeValues(agentRollupId, gaugeName, from,
+                        to, rollupLevel, profile)).thenApply(gaugeValues -> {
 
             if (gaugeValues.isEmpty()) {
                 return null;
@@ -217,16 +224,14 @@ class MetricService {
                                                                                String transactionType, @Nullable String transactionName, long startTime, long endTime, CassandraProfile profile) {
         int rollupLevel =
                 rollupLevelService.getRollupLevelForView(startTime, endTime, DataKind.GENERAL);
-        // startTime + 1 in order to not include the aggregate at startTime
-        return aggregateRepository.readThroughputAggregates(agentRollupId,
-                ImmutableAggregateQuery.builder()
-                        .transactionType(transactionType)
-                        .transactionName(transactionName)
-                        .from(startTime + 1)
-                        .to(endTime)
-                        .rollupLevel(rollupLevel)
-                        .build(),
-                profile);
+        WindowKey key = getWindowKey(agentRollupId, WindowKind.THROUGHPUT, transactionType,
+                transactionName, startTime, endTime);
+        return metricWindows.read(key, startTime, endTime, rollupLevel,
+                rollupLevelService.getLateDataMarginMillis(rollupLevel), ThroughputAggregate::captureTime,
+                (from, to) -> aggregateRepository.readThroughputAggregates(agentRollupId,
+                        getAggregateQuery(transactionType, transactionName, from, to,
+                                rollupLevel),
+                        profile));
     }
 
     private CompletionStage<List<OverviewAggregate>> getOverviewAggregates(String agentRollupId,
@@ -234,14 +239,35 @@ class MetricService {
                                                                            @Nullable String transactionName, long startTime, long endTime, CassandraProfile profile) {
         int rollupLevel =
                 rollupLevelService.getRollupLevelForView(startTime, endTime, DataKind.GENERAL);
-        // startTime + 1 in order to not include the aggregate at startTime
-        return aggregateRepository.readOverviewAggregates(agentRollupId,
-                ImmutableAggregateQuery.builder()
-                        .transactionType(transactionType)
-                        .transactionName(transactionName)
-                        .from(startTime + 1)
-                        .to(endTime)
-                        .rollupLevel(rollupLevel)
-                        .build(), profile);
+        WindowKey key = getWindowKey(agentRollupId, WindowKind.OVERVIEW, transactionType,
+                transactionName, startTime, endTime);
+        return metricWindows.read(key, startTime, endTime, rollupLevel,
+                rollupLevelService.getLateDataMarginMillis(rollupLevel), OverviewAggregate::captureTime,
+                (from, to) -> aggregateRepository.readOverviewAggregates(agentRollupId,
+                        getAggregateQuery(transactionType, transactionName, from, to,
+                                rollupLevel),
+                        profile));
+    }
+
+    private static WindowKey getWindowKey(String agentRollupId, WindowKind kind, String name,
+                                          @Nullable String transactionName, long startTime, long endTime) {
+        return ImmutableWindowKey.builder()
+                .agentRollupId(agentRollupId)
+                .kind(kind)
+                .name(name)
+                .transactionName(transactionName)
+                .timePeriodMillis(endTime - startTime)
+                .build();
+    }
+
+    private static AggregateQuery getAggregateQuery(String transactionType,
+                                                    @Nullable String transactionName, long from, long to, int rollupLevel) {
+        return ImmutableAggregateQuery.builder()
+                .transactionType(transactionType)
+                .transactionName(transactionName)
+                .from(from)
+                .to(to)
+                .rollupLevel(rollupLevel)
+                .build();
     }
 }
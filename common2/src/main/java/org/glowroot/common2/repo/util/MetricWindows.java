@@ -0,0 +1,159 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.common2.repo.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.ToLongFunction;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.immutables.value.Value;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+// in-memory sliding windows over the data read for metric alerts, so that each alert check only
+// reads the intervals that are new since the prior check (and evicts the intervals that have
+// fallen out of the alert time period) instead of re-reading the whole alert time period
+//
+// windows are keyed by what determines the data that is read (not by the alert condition itself),
+// so e.g. transaction:count, error:rate and the min transaction count check share the same window,
+// and a changed alert condition just starts a new window (unused windows expire)
+//
+// each incremental read also re-reads a trailing margin before the prior check's end time, since
+// data for an interval can still be written after the interval has ended (see
+// RollupLevelService.getLateDataMarginMillis())
+//
+// the whole time period is still re-read when there is no window yet (e.g. after restart), when the
+// rollup level changes, when checks arrive out of order, and at least once per time period so that
+// data which arrives even later (e.g. from agents that were temporarily disconnected) is picked up
+class MetricWindows {
+
+    // windows that are not checked for this long are stale anyway
+    private static final long EXPIRE_AFTER_ACCESS_MINUTES = 10;
+
+    private final Cache<WindowKey, Window<?>> windows = CacheBuilder.newBuilder()
+            .expireAfterAccess(EXPIRE_AFTER_ACCESS_MINUTES, MINUTES)
+            .maximumSize(Integer.getInteger("glowroot.internal.alertWindowCacheMaxSize", 10000))
+            .build();
+
+    // returns the items with capture time in (startTime, endTime]
+    <T> CompletionStage<List<T>> read(WindowKey key, long startTime, long endTime, int rollupLevel,
+            long lateDataMarginMillis, ToLongFunction<T> captureTimeFunction, Reader<T> reader) {
+        @SuppressWarnings("unchecked")
+        Window<T> window = (Window<T>) windows.getIfPresent(key);
+        if (window != null) {
+            long from;
+            synchronized (window) {
+                from = window.isIncrementalReadPossible(startTime, endTime, rollupLevel)
+                        ? Math.max(window.endTime - lateDataMarginMillis, startTime) + 1 : -1;
+            }
+            if (from != -1) {
+                CompletionStage<List<T>> future = from > endTime
+                        ? CompletableFuture.completedFuture(new ArrayList<T>())
+                        : reader.read(from, endTime);
+                return future.thenApply(items -> {
+                    synchronized (window) {
+                        window.add(items, endTime, captureTimeFunction);
+                        window.evict(startTime);
+                        return window.get(startTime, endTime);
+                    }
+                });
+            }
+        }
+        // startTime + 1 in order to not include the item at startTime
+        return reader.read(startTime + 1, endTime).thenApply(items -> {
+            Window<T> newWindow = new Window<T>(rollupLevel, key.timePeriodMillis(), endTime);
+            newWindow.add(items, endTime, captureTimeFunction);
+            Window<?> existingWindow = windows.getIfPresent(key);
+            if (existingWindow == null || existingWindow.endTime <= endTime) {
+                windows.put(key, newWindow);
+            }
+            return items;
+        });
+    }
+
+    @VisibleForTesting
+    long size() {
+        return windows.size();
+    }
+
+    interface Reader<T> {
+        // from and to are both inclusive
+        CompletionStage<List<T>> read(long from, long to);
+    }
+
+    @Value.Immutable
+    interface WindowKey {
+        String agentRollupId();
+        WindowKind kind();
+        // gauge name for gauge windows
+        String name();
+        @Nullable
+        String transactionName();
+        long timePeriodMillis();
+    }
+
+    enum WindowKind {
+        THROUGHPUT, OVERVIEW, PERCENTILE, GAUGE
+    }
+
+    private static class Window<T> {
+
+        private final int rollupLevel;
+        private final long timePeriodMillis;
+        // end time of the last full read
+        private final long fullReadEndTime;
+
+        private final NavigableMap<Long, T> items = new TreeMap<>();
+        private long endTime;
+
+        private Window(int rollupLevel, long timePeriodMillis, long fullReadEndTime) {
+            this.rollupLevel = rollupLevel;
+            this.timePeriodMillis = timePeriodMillis;
+            this.fullReadEndTime = fullReadEndTime;
+            endTime = fullReadEndTime;
+        }
+
+        private boolean isIncrementalReadPossible(long startTime, long endTime, int rollupLevel) {
+            return rollupLevel == this.rollupLevel
+                    && endTime >= this.endTime
+                    && startTime <= this.endTime
+                    && endTime - fullReadEndTime < timePeriodMillis;
+        }
+
+        private void add(List<T> newItems, long endTime, ToLongFunction<T> captureTimeFunction) {
+            for (T item : newItems) {
+                items.put(captureTimeFunction.applyAsLong(item), item);
+            }
+            this.endTime = Math.max(this.endTime, endTime);
+        }
+
+        private void evict(long startTime) {
+            items.headMap(startTime, true).clear();
+        }
+
+        private List<T> get(long startTime, long endTime) {
+            return new ArrayList<>(items.subMap(startTime, false, endTime, true).values());
+        }
+    }
+}
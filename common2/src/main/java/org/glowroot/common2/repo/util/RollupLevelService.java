@@ -23,9 +23,13 @@ import org.glowroot.common2.repo.ConfigRepository;
 import org.glowroot.common2.repo.ConfigRepository.RollupConfig;
 
 import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MINUTES;
 
 public class RollupLevelService {
 
+    // the central rollup loop runs once a minute, plus time for the rollup itself
+    private static final long ROLLUP_DELAY_MILLIS = MINUTES.toMillis(2);
+
     private final ConfigRepository configRepository;
     private final Clock clock;
 
@@ -107,6 +111,22 @@ public class RollupLevelService {
         return rollupConfigs.size();
     }
 
+    // how long after the end of an interval its data can still be written (or re-written), since
+    // rolled up data (including the level 0 data of agent rollups) is written by the rollup loop,
+    // which only rolls up an interval once it is one rollup interval old
+    public long getLateDataMarginMillis(int rollupLevel) {
+        return configRepository.getRollupConfigs().get(rollupLevel).intervalMillis()
+                + ROLLUP_DELAY_MILLIS;
+    }
+
+    public long getGaugeLateDataMarginMillis(int rollupLevel) {
+        // gauge point rollup level 0 is written directly by the agent, but still using the first
+        // rollup interval since the agent sends gauge values in batches (and retries)
+        List<RollupConfig> rollupConfigs = configRepository.getRollupConfigs();
+        return rollupConfigs.get(Math.max(rollupLevel - 1, 0)).intervalMillis()
+                + ROLLUP_DELAY_MILLIS;
+    }
+
     private List<Integer> getRollupExpirationHours(DataKind dataKind) {
         StorageConfig storageConfig = configRepository.getStorageConfig();
         switch (dataKind) {
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.common2.repo.util;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.glowroot.common2.repo.util.MetricWindows.Reader;
+import org.glowroot.common2.repo.util.MetricWindows.WindowKey;
+import org.glowroot.common2.repo.util.MetricWindows.WindowKind;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MetricWindowsTest {
+
+    private static final long MINUTE = 60000;
+
+    private static final WindowKey KEY = ImmutableWindowKey.builder()
+            .agentRollupId("a")
+            .kind(WindowKind.THROUGHPUT)
+            .name("Web")
+            .timePeriodMillis(5 * MINUTE)
+            .build();
+
+    private MetricWindows metricWindows;
+    private RecordingReader reader;
+
+    @BeforeEach
+    public void beforeEach() {
+        metricWindows = new MetricWindows();
+        reader = new RecordingReader();
+    }
+
+    @Test
+    public void shouldOnlyReadNewIntervals() throws Exception {
+        // given
+        read(10 * MINUTE, 0);
+        // when
+        List<Long> items = read(11 * MINUTE, 0);
+        // then
+        assertThat(items).containsExactly(7 * MINUTE, 8 * MINUTE, 9 * MINUTE, 10 * MINUTE,
+                11 * MINUTE);
+        assertThat(reader.reads).containsExactly(5 * MINUTE + 1, 10 * MINUTE + 1);
+    }
+
+    @Test
+    public void shouldNotReadWhenCheckedTwice() throws Exception {
+        // given
+        read(10 * MINUTE, 0);
+        // when
+        List<Long> items = read(10 * MINUTE, 0);
+        // then
+        assertThat(items).containsExactly(6 * MINUTE, 7 * MINUTE, 8 * MINUTE, 9 * MINUTE,
+                10 * MINUTE);
+        assertThat(reader.reads).containsExactly(5 * MINUTE + 1);
+    }
+
+    @Test
+    public void shouldReadFullTimePeriodOncePerTimePeriod() throws Exception {
+        // when
+        for (long endTime = 10 * MINUTE; endTime <= 16 * MINUTE; endTime += MINUTE) {
+            read(endTime, 0);
+        }
+        // then
+        assertThat(reader.reads).containsExactly(5 * MINUTE + 1, 10 * MINUTE + 1,
+                11 * MINUTE + 1, 12 * MINUTE + 1, 13 * MINUTE + 1, 10 * MINUTE + 1,
+                15 * MINUTE + 1);
+    }
+
+    @Test
+    public void shouldRereadLateDataMargin() throws Exception {
+        // given
+        read(10 * MINUTE, 0, 3 * MINUTE);
+        // when
+        List<Long> items = read(11 * MINUTE, 0, 3 * MINUTE);
+        // then
+        assertThat(items).containsExactly(7 * MINUTE, 8 * MINUTE, 9 * MINUTE, 10 * MINUTE,
+                11 * MINUTE);
+        assertThat(reader.reads).containsExactly(5 * MINUTE + 1, 7 * MINUTE + 1);
+    }
+
+    @Test
+    public void shouldPickUpRowThatLandsLateForIntervalAlreadyRead() throws Exception {
+        // given
+        // e.g. the row for 9 minutes is not rolled up yet from a child agent
+        reader.missing.add(9 * MINUTE);
+        List<Long> items = read(10 * MINUTE, 0, 3 * MINUTE);
+        assertThat(items).containsExactly(6 * MINUTE, 7 * MINUTE, 8 * MINUTE, 10 * MINUTE);
+        // when
+        reader.missing.clear();
+        items = read(11 * MINUTE, 0, 3 * MINUTE);
+        // then
+        assertThat(items).containsExactly(7 * MINUTE, 8 * MINUTE, 9 * MINUTE, 10 * MINUTE,
+                11 * MINUTE);
+        assertThat(reader.reads).containsExactly(5 * MINUTE + 1, 7 * MINUTE + 1);
+    }
+
+    @Test
+    public void shouldReadFullTimePeriodWhenRollupLevelChanges() throws Exception {
+        // given
+        read(10 * MINUTE, 0);
+        // when
+        read(11 * MINUTE, 1);
+        // then
+        assertThat(reader.reads).containsExactly(5 * MINUTE + 1, 6 * MINUTE + 1);
+    }
+
+    @Test
+    public void shouldReadFullTimePeriodWhenOutOfOrder() throws Exception {
+        // given
+        read(10 * MINUTE, 0);
+        // when
+        List<Long> items = read(9 * MINUTE, 0);
+        // then
+        assertThat(items).containsExactly(5 * MINUTE, 6 * MINUTE, 7 * MINUTE, 8 * MINUTE,
+                9 * MINUTE);
+        assertThat(reader.reads).containsExactly(5 * MINUTE + 1, 4 * MINUTE + 1);
+    }
+
+    private List<Long> read(long endTime, int rollupLevel) throws Exception {
+        return read(endTime, rollupLevel, 0);
+    }
+
+    private List<Long> read(long endTime, int rollupLevel, long lateDataMarginMillis)
+            throws Exception {
+        return metricWindows.read(KEY, endTime - 5 * MINUTE, endTime, rollupLevel,
+                lateDataMarginMillis, Long::longValue, reader).toCompletableFuture().get();
+    }
+
+    // returns one item per minute (other than the missing ones), each item is its own capture time
+    private static class RecordingReader implements Reader<Long> {
+
+        private final List<Long> reads = new ArrayList<>();
+        private final Set<Long> missing = new HashSet<>();
+
+        @Override
+        public CompletionStage<List<Long>> read(long from, long to) {
+            reads.add(from);
+            List<Long> items = new ArrayList<>();
+            for (long captureTime = (from + MINUTE - 1) / MINUTE * MINUTE; captureTime <= to;
+                    captureTime += MINUTE) {
+                if (!missing.contains(captureTime)) {
+                    items.add(captureTime);
+                }
+            }
+            return CompletableFuture.completedFuture(items);
+        }
+    }
+}
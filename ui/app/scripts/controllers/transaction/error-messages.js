@@ -105,6 +105,7 @@ glowroot.controller('ErrorMessagesCtrl', [
 
             $scope.moreErrorMessagesAvailable = data.moreErrorMessagesAvailable;
             $scope.errorMessages = data.errorMessages;
+            $scope.otherErrorMessageCount = data.otherErrorMessageCount;
             if (deferred) {
               deferred.resolve();
             }
@@ -0,0 +1,308 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.ui;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Ints;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.immutables.value.Value;
+
+import org.glowroot.common.live.ImmutableAggregateQuery;
+import org.glowroot.common.live.LiveAggregateRepository.AggregateQuery;
+import org.glowroot.common.live.LiveAggregateRepository.OverviewAggregate;
+import org.glowroot.common.live.LiveAggregateRepository.PercentileAggregate;
+import org.glowroot.common.live.LiveAggregateRepository.ThroughputAggregate;
+import org.glowroot.common.util.Clock;
+import org.glowroot.common2.repo.util.RollupLevelService;
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+// caches the aggregates that are read from the repository for the transaction charts, so that
+// repeated loads and auto refreshes of the same chart only need to read the open tail of the
+// chart from the repository
+//
+// only "closed" intervals are cached, which are the intervals that are not expected to change
+// anymore, which is everything up to the last row that was read, as long as it is older than the
+// late data margin (see RollupLevelService.getLateDataMarginMillis())
+//
+// the last row that was read is not enough on its own, since rows are not always written in order,
+// e.g. level 0 rows of an agent rollup are rolled up from its child agents, and rolled up rows are
+// written by a rollup loop that runs once a minute (and rolls up an interval once it is one
+// interval old), so a row can be written after the row that follows it, and caching everything up
+// to the last row would cache the gap
+class AggregateCache implements AggregateCacheMXBean {
+
+    // rough per aggregate and per entry heap overhead (object headers, references, etc)
+    private static final int AGGREGATE_OVERHEAD_BYTES = 64;
+    private static final int ENTRY_OVERHEAD_BYTES = 256;
+
+    // aggregates that arrive late (e.g. from an agent that was disconnected from the central
+    // collector) cause the interval to be rolled up again, so entries are periodically re-read in
+    // full in order to pick up those changes
+    private static final long MAX_ENTRY_AGE_MILLIS = MINUTES.toMillis(15);
+
+    private final Cache<CacheKey, Entry<?>> cache;
+    private final RollupLevelService rollupLevelService;
+    private final Clock clock;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong partialHitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong cachedAggregateCount = new AtomicLong();
+    private final AtomicLong readAggregateCount = new AtomicLong();
+
+    // maxBytes bounds the total estimated heap size of the cached aggregates across all entries
+    // (percentile aggregates with large histograms can be orders of magnitude larger than
+    // throughput aggregates, so the number of aggregates is not a useful bound)
+    AggregateCache(long maxBytes, RollupLevelService rollupLevelService, Clock clock) {
+        cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher(new Weigher<CacheKey, Entry<?>>() {
+                    @Override
+                    public int weigh(CacheKey key, Entry<?> entry) {
+                        return Ints.saturatedCast(entry.estimatedBytes + ENTRY_OVERHEAD_BYTES);
+                    }
+                })
+                .expireAfterAccess(MAX_ENTRY_AGE_MILLIS, MILLISECONDS)
+                .recordStats()
+                .build();
+        this.rollupLevelService = rollupLevelService;
+        this.clock = clock;
+    }
+
+    // query.from() is INCLUSIVE
+    //
+    // the reader must return the aggregates ordered by capture time
+    <T> CompletionStage<List<T>> read(String agentRollupId, AggregateQuery query, DataKind dataKind,
+            Function<AggregateQuery, CompletionStage<List<T>>> reader,
+            ToLongFunction<T> captureTimeFn, ToLongFunction<T> estimatedBytesFn) {
+        CacheKey key = ImmutableCacheKey.builder()
+                .agentRollupId(agentRollupId)
+                .transactionType(query.transactionType())
+                .transactionName(query.transactionName())
+                .rollupLevel(query.rollupLevel())
+                .dataKind(dataKind)
+                .build();
+        long currentTime = clock.currentTimeMillis();
+        long closedCutoff =
+                currentTime - rollupLevelService.getLateDataMarginMillis(query.rollupLevel());
+        @SuppressWarnings("unchecked")
+        Entry<T> entry = (Entry<T>) cache.getIfPresent(key);
+        // the cached range and the query need to overlap (or be adjacent), since the tail query
+        // starts right after the cached range
+        if (entry != null && (query.from() < entry.from || query.from() > entry.to + 1
+                || currentTime - entry.createdTime > MAX_ENTRY_AGE_MILLIS)) {
+            entry = null;
+        }
+        if (entry == null) {
+            missCount.getAndIncrement();
+            return reader.apply(query).thenApply(aggregates -> {
+                readAggregateCount.getAndAdd(aggregates.size());
+                Entry<T> newEntry = new Entry<T>(query.from(), query.from() - 1,
+                        ImmutableList.<T>of(), 0, currentTime).extend(aggregates, closedCutoff,
+                                captureTimeFn, estimatedBytesFn);
+                cache.put(key, newEntry);
+                return aggregates;
+            });
+        }
+        List<T> cachedAggregates = entry.get(query.from(), query.to(), captureTimeFn);
+        cachedAggregateCount.getAndAdd(cachedAggregates.size());
+        if (query.to() <= entry.to) {
+            hitCount.getAndIncrement();
+            return CompletableFuture.completedFuture(cachedAggregates);
+        }
+        partialHitCount.getAndIncrement();
+        AggregateQuery tailQuery = ImmutableAggregateQuery.builder()
+                .copyFrom(query)
+                .from(entry.to + 1)
+                .build();
+        Entry<T> finalEntry = entry;
+        return reader.apply(tailQuery).thenApply(tailAggregates -> {
+            readAggregateCount.getAndAdd(tailAggregates.size());
+            Entry<T> newEntry = finalEntry.extend(tailAggregates, closedCutoff, captureTimeFn,
+                    estimatedBytesFn);
+            if (newEntry != finalEntry) {
+                // if another request has already replaced the entry, then just leave that one
+                cache.asMap().replace(key, finalEntry, newEntry);
+            }
+            List<T> aggregates =
+                    new ArrayList<>(cachedAggregates.size() + tailAggregates.size());
+            aggregates.addAll(cachedAggregates);
+            aggregates.addAll(tailAggregates);
+            return aggregates;
+        });
+    }
+
+    @Override
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    @Override
+    public long getPartialHitCount() {
+        return partialHitCount.get();
+    }
+
+    @Override
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    // fraction of the aggregates that were served from the cache
+    @Override
+    public double getHitRate() {
+        long cached = cachedAggregateCount.get();
+        long total = cached + readAggregateCount.get();
+        return total == 0 ? 0 : cached / (double) total;
+    }
+
+    @Override
+    public long getCachedAggregateCount() {
+        return cachedAggregateCount.get();
+    }
+
+    @Override
+    public long getReadAggregateCount() {
+        return readAggregateCount.get();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return cache.stats().evictionCount();
+    }
+
+    @Override
+    public long getSize() {
+        return cache.size();
+    }
+
+    static long estimateBytes(OverviewAggregate aggregate) {
+        // protobuf messages take roughly twice their serialized size on the heap
+        long bytes = AGGREGATE_OVERHEAD_BYTES
+                + 2L * aggregate.mainThreadStats().getSerializedSize();
+        for (Aggregate.Timer timer : aggregate.mainThreadRootTimers()) {
+            bytes += 2L * timer.getSerializedSize();
+        }
+        Aggregate.Timer auxThreadRootTimer = aggregate.auxThreadRootTimer();
+        if (auxThreadRootTimer != null) {
+            bytes += 2L * auxThreadRootTimer.getSerializedSize();
+        }
+        Aggregate.ThreadStats auxThreadStats = aggregate.auxThreadStats();
+        if (auxThreadStats != null) {
+            bytes += 2L * auxThreadStats.getSerializedSize();
+        }
+        for (Aggregate.Timer timer : aggregate.asyncTimers()) {
+            bytes += 2L * timer.getSerializedSize();
+        }
+        return bytes;
+    }
+
+    static long estimateBytes(PercentileAggregate aggregate) {
+        // raw values and bucket counts are held as 8 byte longs on the heap, regardless of their
+        // (varint) serialized size
+        Aggregate.Histogram histogram = aggregate.durationNanosHistogram();
+        return AGGREGATE_OVERHEAD_BYTES + histogram.getEncodedBytes().size()
+                + 8L * (histogram.getOrderedRawValueCount() + histogram.getBucketCountCount());
+    }
+
+    static long estimateBytes(@SuppressWarnings("unused") ThroughputAggregate aggregate) {
+        return AGGREGATE_OVERHEAD_BYTES;
+    }
+
+    enum DataKind {
+        OVERVIEW, PERCENTILE, THROUGHPUT
+    }
+
+    @Value.Immutable
+    interface CacheKey {
+        String agentRollupId();
+        String transactionType();
+        @Nullable
+        String transactionName();
+        int rollupLevel();
+        DataKind dataKind();
+    }
+
+    private static class Entry<T> {
+
+        // from and to are both inclusive, and every aggregate in this range is in aggregates
+        private final long from;
+        private final long to;
+        private final ImmutableList<T> aggregates;
+        private final long estimatedBytes;
+        private final long createdTime;
+
+        private Entry(long from, long to, ImmutableList<T> aggregates, long estimatedBytes,
+                long createdTime) {
+            this.from = from;
+            this.to = to;
+            this.aggregates = aggregates;
+            this.estimatedBytes = estimatedBytes;
+            this.createdTime = createdTime;
+        }
+
+        private List<T> get(long from, long to, ToLongFunction<T> captureTimeFn) {
+            List<T> list = new ArrayList<>();
+            for (T aggregate : aggregates) {
+                long captureTime = captureTimeFn.applyAsLong(aggregate);
+                if (captureTime > to) {
+                    break;
+                }
+                if (captureTime >= from) {
+                    list.add(aggregate);
+                }
+            }
+            return list;
+        }
+
+        // queryAggregates must be the result of a query starting at to + 1
+        private Entry<T> extend(List<T> queryAggregates, long closedCutoff,
+                ToLongFunction<T> captureTimeFn, ToLongFunction<T> estimatedBytesFn) {
+            if (queryAggregates.isEmpty()) {
+                return this;
+            }
+            long closedTo = Math.min(closedCutoff,
+                    captureTimeFn.applyAsLong(queryAggregates.get(queryAggregates.size() - 1)));
+            if (closedTo <= to) {
+                return this;
+            }
+            ImmutableList.Builder<T> builder = ImmutableList.builder();
+            builder.addAll(aggregates);
+            long estimatedBytes = this.estimatedBytes;
+            for (T aggregate : queryAggregates) {
+                if (captureTimeFn.applyAsLong(aggregate) > closedTo) {
+                    break;
+                }
+                builder.add(aggregate);
+                estimatedBytes += estimatedBytesFn.applyAsLong(aggregate);
+            }
+            return new Entry<T>(from, closedTo, builder.build(), estimatedBytes, createdTime);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.ui;
+
+public interface AggregateCacheMXBean {
+
+    // number of requests that were served entirely from the cache
+    long getHitCount();
+
+    // number of requests where only the open tail was read from the repository
+    long getPartialHitCount();
+
+    long getMissCount();
+
+    double getHitRate();
+
+    // number of aggregates served from the cache vs read from the repository
+    long getCachedAggregateCount();
+
+    long getReadAggregateCount();
+
+    long getEvictionCount();
+
+    long getSize();
+}
@@ -131,6 +131,7 @@ class ErrorJsonService {
         }
         List<ErrorMessageCount> records = Lists.newArrayList();
         boolean moreAvailable = false;
+        long otherErrorMessageCount = 0;
         if (!throughputAggregates.isEmpty()) {
             long maxCaptureTime = Iterables.getLast(throughputAggregates).captureTime();
             ErrorMessageResult result = traceRepository.readErrorMessages(agentRollupId,
@@ -155,6 +156,7 @@ class ErrorJsonService {
                     dataPointIntervalMillis, liveCaptureTime);
             records = result.counts().records();
             moreAvailable = result.counts().moreAvailable();
+            otherErrorMessageCount = result.otherErrorMessageCount();
         }
         StringBuilder sb = new StringBuilder();
         JsonGenerator jg = mapper.getFactory().createGenerator(CharStreams.asWriter(sb));
@@ -165,6 +167,7 @@ class ErrorJsonService {
             jg.writeObjectField("dataSeriesExtra", dataSeriesExtra);
             jg.writeObjectField("errorMessages", records);
             jg.writeBooleanField("moreErrorMessagesAvailable", moreAvailable);
+            jg.writeNumberField("otherErrorMessageCount", otherErrorMessageCount);
             jg.writeEndObject();
         } finally {
             jg.close();
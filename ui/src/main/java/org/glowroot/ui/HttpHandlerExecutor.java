@@ -0,0 +1,226 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.ui;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+// runs the handling of UI requests (which can block on the repository, e.g. slow H2 queries) off
+// of the netty event loop, so that a slow request cannot stall the other connections that are
+// served by the same event loop
+//
+// exports and reports are run on a separate smaller thread pool, so that they cannot use up all of
+// the handler threads
+//
+// health checks are run on their own dedicated thread, so that a load balancer or orchestrator
+// probing /health gets a timely answer (and does not restart the process) when the handler
+// threads are saturated by slow requests (the health check itself still queries the repository,
+// which is why it is not run inline on the netty event loop)
+class HttpHandlerExecutor implements HttpHandlerMetricsMXBean {
+
+    private static final int QUEUE_SIZE_PER_THREAD = 100;
+
+    // this is just to bound the metrics map in case of lots of requests to non-existent paths
+    private static final int MAX_ENDPOINTS = 500;
+
+    private final ThreadPoolExecutor executor;
+    private final ThreadPoolExecutor expensiveExecutor;
+    private final ThreadPoolExecutor healthCheckExecutor;
+    private final Ticker ticker;
+
+    private final ConcurrentMap<String, EndpointMetrics> endpointMetrics =
+            Maps.newConcurrentMap();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    HttpHandlerExecutor(int numThreads, int maxConcurrentExpensiveRequests, Ticker ticker) {
+        executor = newExecutor(numThreads, "Glowroot-Http-Handler-%d");
+        expensiveExecutor =
+                newExecutor(maxConcurrentExpensiveRequests, "Glowroot-Http-Expensive-Handler-%d");
+        healthCheckExecutor = newExecutor(1, "Glowroot-Http-Health-Check-Handler-%d");
+        this.ticker = ticker;
+    }
+
+    // returns false if the request was rejected because too many requests are already queued
+    boolean execute(String path, final Runnable handler) {
+        final EndpointMetrics metrics = getEndpointMetrics(path);
+        final long startTick = ticker.read();
+        Runnable command = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    handler.run();
+                } finally {
+                    metrics.record(ticker.read() - startTick);
+                }
+            }
+        };
+        try {
+            if (isHealthCheck(path)) {
+                healthCheckExecutor.execute(command);
+            } else if (isExpensive(path)) {
+                expensiveExecutor.execute(command);
+            } else {
+                executor.execute(command);
+            }
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejectedCount.getAndIncrement();
+            return false;
+        }
+    }
+
+    void close() throws InterruptedException {
+        executor.shutdown();
+        expensiveExecutor.shutdown();
+        healthCheckExecutor.shutdown();
+        executor.awaitTermination(5, SECONDS);
+        expensiveExecutor.awaitTermination(5, SECONDS);
+        healthCheckExecutor.awaitTermination(5, SECONDS);
+    }
+
+    @Override
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    @Override
+    public int getExpensiveActiveCount() {
+        return expensiveExecutor.getActiveCount();
+    }
+
+    @Override
+    public int getExpensiveQueueDepth() {
+        return expensiveExecutor.getQueue().size();
+    }
+
+    @Override
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    @Override
+    public Map<String, Long> getRequestCounts() {
+        ImmutableMap.Builder<String, Long> requestCounts = ImmutableMap.builder();
+        for (Map.Entry<String, EndpointMetrics> entry : endpointMetrics.entrySet()) {
+            requestCounts.put(entry.getKey(), entry.getValue().count.get());
+        }
+        return requestCounts.build();
+    }
+
+    @Override
+    public Map<String, Long> getAverageLatencyMillis() {
+        ImmutableMap.Builder<String, Long> averageLatencies = ImmutableMap.builder();
+        for (Map.Entry<String, EndpointMetrics> entry : endpointMetrics.entrySet()) {
+            EndpointMetrics metrics = entry.getValue();
+            long count = metrics.count.get();
+            if (count > 0) {
+                averageLatencies.put(entry.getKey(),
+                        NANOSECONDS.toMillis(metrics.totalNanos.get() / count));
+            }
+        }
+        return averageLatencies.build();
+    }
+
+    @Override
+    public Map<String, Long> getMaxLatencyMillis() {
+        ImmutableMap.Builder<String, Long> maxLatencies = ImmutableMap.builder();
+        for (Map.Entry<String, EndpointMetrics> entry : endpointMetrics.entrySet()) {
+            maxLatencies.put(entry.getKey(),
+                    NANOSECONDS.toMillis(entry.getValue().maxNanos.get()));
+        }
+        return maxLatencies.build();
+    }
+
+    private EndpointMetrics getEndpointMetrics(String path) {
+        String endpoint = getEndpoint(path);
+        EndpointMetrics metrics = endpointMetrics.get(endpoint);
+        if (metrics != null) {
+            return metrics;
+        }
+        if (endpointMetrics.size() >= MAX_ENDPOINTS) {
+            endpoint = "other";
+        }
+        metrics = new EndpointMetrics();
+        EndpointMetrics existing = endpointMetrics.putIfAbsent(endpoint, metrics);
+        return existing == null ? metrics : existing;
+    }
+
+    @VisibleForTesting
+    static String getEndpoint(String path) {
+        if (path.startsWith("/backend/") || path.startsWith("/export/") || path.equals("/health")
+                || path.equals("/log")) {
+            return path;
+        }
+        // static resources and index.html
+        return "static";
+    }
+
+    @VisibleForTesting
+    static boolean isHealthCheck(String path) {
+        return path.equals("/health");
+    }
+
+    @VisibleForTesting
+    static boolean isExpensive(String path) {
+        return path.startsWith("/export/") || path.startsWith("/backend/report");
+    }
+
+    private static ThreadPoolExecutor newExecutor(int numThreads, String nameFormat) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(numThreads, numThreads, 60, SECONDS,
+                new ArrayBlockingQueue<Runnable>(numThreads * QUEUE_SIZE_PER_THREAD),
+                new ThreadFactoryBuilder()
+                        .setDaemon(true)
+                        .setNameFormat(nameFormat)
+                        .build());
+        // no need to keep idle threads around since the UI is typically idle
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static class EndpointMetrics {
+
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        private void record(long nanos) {
+            count.getAndIncrement();
+            totalNanos.getAndAdd(nanos);
+            long currMax = maxNanos.get();
+            while (nanos > currMax && !maxNanos.compareAndSet(currMax, nanos)) {
+                currMax = maxNanos.get();
+            }
+        }
+    }
+}
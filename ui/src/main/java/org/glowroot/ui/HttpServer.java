@@ -24,6 +24,7 @@ import java.util.concurrent.ThreadFactory;
 
 import com.google.common.base.Stopwatch;
 import com.google.common.base.Supplier;
+import com.google.common.base.Ticker;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.Channel;
@@ -60,6 +61,7 @@ class HttpServer {
 
     private final ServerBootstrap bootstrap;
     private final HttpServerHandler handler;
+    private final HttpHandlerExecutor handlerExecutor;
     private final EventLoopGroup bossGroup;
     private final EventLoopGroup workerGroup;
 
@@ -73,7 +75,8 @@ class HttpServer {
     private volatile @MonotonicNonNull Integer port;
 
     HttpServer(String bindAddress, boolean https, Supplier<String> contextPathSupplier,
-            int numWorkerThreads, CommonHandler commonHandler, List<File> confDirs, boolean central,
+            int numWorkerThreads, int numHandlerThreads, int maxConcurrentExpensiveRequests,
+            CommonHandler commonHandler, List<File> confDirs, boolean central,
             boolean offlineViewer) throws Exception {
 
         InternalLoggerFactory.setDefaultFactory(Slf4JLoggerFactory.INSTANCE);
@@ -89,7 +92,12 @@ class HttpServer {
         bossGroup = new NioEventLoopGroup(1, bossThreadFactory);
         workerGroup = new NioEventLoopGroup(numWorkerThreads, workerThreadFactory);
 
-        final HttpServerHandler handler = new HttpServerHandler(contextPathSupplier, commonHandler);
+        // the netty worker threads only do the encoding and writing, while the request handling
+        // (which can block on the repository) is done by the handler executor
+        handlerExecutor = new HttpHandlerExecutor(numHandlerThreads,
+                maxConcurrentExpensiveRequests, Ticker.systemTicker());
+        final HttpServerHandler handler =
+                new HttpServerHandler(contextPathSupplier, commonHandler, handlerExecutor);
 
         if (https) {
             // upgrade from 0.9.26 to 0.9.27
@@ -185,6 +193,10 @@ class HttpServer {
         return sslContext != null;
     }
 
+    HttpHandlerMetricsMXBean getHandlerMetrics() {
+        return handlerExecutor;
+    }
+
     void changePort(int newPort) throws Exception {
         checkNotNull(serverChannel);
         Channel previousServerChannel = serverChannel;
@@ -221,6 +233,7 @@ class HttpServer {
         workerShutdownFuture.get(10, SECONDS);
         long remainingMillis = Math.max(0, 10000 - stopwatch.elapsed(MILLISECONDS));
         bossShutdownFuture.get(remainingMillis, MILLISECONDS);
+        handlerExecutor.close();
         logger.debug("close(): http server stopped");
     }
 
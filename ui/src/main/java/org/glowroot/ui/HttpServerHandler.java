@@ -59,6 +59,7 @@ import static io.netty.handler.codec.http.HttpResponseStatus.BAD_REQUEST;
 import static io.netty.handler.codec.http.HttpResponseStatus.FOUND;
 import static io.netty.handler.codec.http.HttpResponseStatus.INTERNAL_SERVER_ERROR;
 import static io.netty.handler.codec.http.HttpResponseStatus.OK;
+import static io.netty.handler.codec.http.HttpResponseStatus.SERVICE_UNAVAILABLE;
 import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
 
 @Sharable
@@ -75,9 +76,13 @@ class HttpServerHandler extends ChannelInboundHandlerAdapter {
 
     private final CommonHandler commonHandler;
 
-    HttpServerHandler(Supplier<String> contextPathSupplier, CommonHandler commonHandler) {
+    private final HttpHandlerExecutor handlerExecutor;
+
+    HttpServerHandler(Supplier<String> contextPathSupplier, CommonHandler commonHandler,
+            HttpHandlerExecutor handlerExecutor) {
         this.contextPathSupplier = contextPathSupplier;
         this.commonHandler = commonHandler;
+        this.handlerExecutor = handlerExecutor;
         allChannels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
     }
 
@@ -102,28 +107,61 @@ class HttpServerHandler extends ChannelInboundHandlerAdapter {
     }
 
     @Override
-    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
-        FullHttpRequest request = (FullHttpRequest) msg;
+    public void channelRead(final ChannelHandlerContext ctx, Object msg) throws Exception {
+        final FullHttpRequest request = (FullHttpRequest) msg;
         if (request.decoderResult().isFailure()) {
             CommonResponse response = new CommonResponse(BAD_REQUEST, MediaType.PLAIN_TEXT_UTF_8,
                     Strings.nullToEmpty(request.decoderResult().cause().getMessage()));
             sendResponse(ctx, request, response, false);
+            request.release();
             return;
         }
-        String uri = request.uri();
+        final String uri = request.uri();
         logger.debug("channelRead(): request.uri={}", uri);
-        Channel channel = ctx.channel();
-        currentChannel.set(channel);
+        final String contextPath = contextPathSupplier.get();
+        if (!uri.startsWith(contextPath)) {
+            DefaultFullHttpResponse response = new DefaultFullHttpResponse(HTTP_1_1, FOUND);
+            response.headers().set(HttpHeaderNames.LOCATION, contextPath);
+            sendFullResponse(ctx, request, response, HttpUtil.isKeepAlive(request));
+            request.release();
+            return;
+        }
+        final QueryStringDecoder decoder =
+                new QueryStringDecoder(stripContextPath(uri, contextPath));
+        // stop reading further (pipelined) requests from this connection until the response has
+        // been written, so that responses are written in the same order as the requests
+        ctx.channel().config().setAutoRead(false);
+        boolean accepted = handlerExecutor.execute(decoder.path(), new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    handle(ctx, request, uri, contextPath, decoder);
+                } finally {
+                    request.release();
+                    ctx.flush();
+                    ctx.channel().config().setAutoRead(true);
+                }
+            }
+        });
+        if (!accepted) {
+            try {
+                CommonResponse response = new CommonResponse(SERVICE_UNAVAILABLE,
+                        MediaType.PLAIN_TEXT_UTF_8, "Too many concurrent requests");
+                sendResponse(ctx, request, response, HttpUtil.isKeepAlive(request));
+            } finally {
+                request.release();
+                ctx.channel().config().setAutoRead(true);
+            }
+        }
+    }
+
+    // this is run on the handler executor (not on the netty event loop) since the json services
+    // can block on the repository
+    private void handle(ChannelHandlerContext ctx, FullHttpRequest request, String uri,
+            String contextPath, QueryStringDecoder decoder) {
+        currentChannel.set(ctx.channel());
         try {
-            String contextPath = contextPathSupplier.get();
             boolean keepAlive = HttpUtil.isKeepAlive(request);
-            if (!uri.startsWith(contextPath)) {
-                DefaultFullHttpResponse response = new DefaultFullHttpResponse(HTTP_1_1, FOUND);
-                response.headers().set(HttpHeaderNames.LOCATION, contextPath);
-                sendFullResponse(ctx, request, response, keepAlive);
-                return;
-            }
-            QueryStringDecoder decoder = new QueryStringDecoder(stripContextPath(uri, contextPath));
             CommonRequest commonRequest = new NettyRequest(request, contextPath, decoder);
             CommonResponse response = commonHandler.handle(commonRequest);
             if (response.isCloseConnectionAfterPortChange()) {
@@ -133,12 +171,16 @@ class HttpServerHandler extends ChannelInboundHandlerAdapter {
             sendResponse(ctx, request, response, keepAlive);
         } catch (Exception e) {
             logger.error("error handling request {}: {}", uri, e.getMessage(), e);
-            CommonResponse response =
-                    CommonHandler.newHttpResponseWithStackTrace(e, INTERNAL_SERVER_ERROR, null);
-            sendResponse(ctx, request, response, false);
+            try {
+                CommonResponse response =
+                        CommonHandler.newHttpResponseWithStackTrace(e, INTERNAL_SERVER_ERROR, null);
+                sendResponse(ctx, request, response, false);
+            } catch (IOException f) {
+                logger.error(f.getMessage(), f);
+                ctx.close();
+            }
         } finally {
             currentChannel.remove();
-            request.release();
         }
     }
 
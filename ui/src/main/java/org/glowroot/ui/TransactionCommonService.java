@@ -29,6 +29,7 @@ import org.glowroot.common.model.TransactionNameSummaryCollector.SummarySortOrde
 import org.glowroot.common.model.TransactionNameSummaryCollector.TransactionNameSummary;
 import org.glowroot.common.util.CaptureTimes;
 import org.glowroot.common.util.Clock;
+import org.glowroot.ui.AggregateCache.DataKind;
 import org.glowroot.common2.repo.AggregateRepository;
 import org.glowroot.common2.repo.CassandraProfile;
 import org.glowroot.common2.repo.ConfigRepository;
@@ -47,14 +48,16 @@ class TransactionCommonService {
     private final AggregateRepository aggregateRepository;
     private final LiveAggregateRepository liveAggregateRepository;
     private final ConfigRepository configRepository;
+    private final AggregateCache aggregateCache;
     private final Clock clock;
 
     TransactionCommonService(AggregateRepository aggregateRepository,
                              LiveAggregateRepository liveAggregateRepository, ConfigRepository configRepository,
-                             Clock clock) {
+                             AggregateCache aggregateCache, Clock clock) {
         this.aggregateRepository = aggregateRepository;
         this.liveAggregateRepository = liveAggregateRepository;
         this.configRepository = configRepository;
+        this.aggregateCache = aggregateCache;
         this.clock = clock;
     }
 
@@ -137,7 +140,9 @@ class TransactionCommonService {
                 .copyFrom(query)
                 .to(revisedTo)
                 .build();
-        return aggregateRepository.readOverviewAggregates(agentRollupId, revisedQuery, CassandraProfile.web).thenCompose(aggregates -> {
+        return aggregateCache.read(agentRollupId, revisedQuery, DataKind.OVERVIEW,
+                q -> aggregateRepository.readOverviewAggregates(agentRollupId, q, CassandraProfile.web),
+                OverviewAggregate::captureTime, AggregateCache::estimateBytes).thenCompose(aggregates -> {
             if (revisedQuery.rollupLevel() == 0) {
                 if (liveResult != null) {
                     aggregates = Lists.newArrayList(aggregates);
@@ -200,7 +205,9 @@ class TransactionCommonService {
                 .copyFrom(query)
                 .to(revisedTo)
                 .build();
-        return aggregateRepository.readPercentileAggregates(agentRollupId, revisedQuery, CassandraProfile.web).thenCompose(aggregates -> {
+        return aggregateCache.read(agentRollupId, revisedQuery, DataKind.PERCENTILE,
+                q -> aggregateRepository.readPercentileAggregates(agentRollupId, q, CassandraProfile.web),
+                PercentileAggregate::captureTime, AggregateCache::estimateBytes).thenCompose(aggregates -> {
             if (revisedQuery.rollupLevel() == 0) {
                 if (liveResult != null) {
                     aggregates = Lists.newArrayList(aggregates);
@@ -262,7 +269,9 @@ class TransactionCommonService {
                 .copyFrom(query)
                 .to(revisedTo)
                 .build();
-        return aggregateRepository.readThroughputAggregates(agentRollupId, revisedQuery, CassandraProfile.web).thenCompose(aggregates -> {
+        return aggregateCache.read(agentRollupId, revisedQuery, DataKind.THROUGHPUT,
+                q -> aggregateRepository.readThroughputAggregates(agentRollupId, q, CassandraProfile.web),
+                ThroughputAggregate::captureTime, AggregateCache::estimateBytes).thenCompose(aggregates -> {
             if (revisedQuery.rollupLevel() == 0) {
                 if (liveResult != null) {
                     aggregates = Lists.newArrayList(aggregates);
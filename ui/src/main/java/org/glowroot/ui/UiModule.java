@@ -66,6 +66,11 @@ public class UiModule {
 
     private static final Logger logger = LoggerFactory.getLogger(UiModule.class);
 
+    // bounds on the estimated heap size of the transaction chart cache (the embedded agent runs
+    // inside the monitored jvm so is kept much smaller)
+    private static final long MAX_CACHED_BYTES_EMBEDDED = 4 * 1024 * 1024;
+    private static final long MAX_CACHED_BYTES_CENTRAL = 64 * 1024 * 1024;
+
     // non-null when using netty
     private final @Nullable HttpServer httpServer;
 
@@ -74,6 +79,8 @@ public class UiModule {
 
     private final ExecutorService reportingExecutor;
 
+    private final AggregateCache aggregateCache;
+
     @Builder.Factory
     public static UiModule createUiModule(
             boolean central,
@@ -110,10 +117,16 @@ public class UiModule {
             SessionMapFactory sessionMapFactory,
             HttpClient httpClient,
             int numWorkerThreads,
+            int numHandlerThreads,
+            int maxConcurrentExpensiveRequests,
             String version) throws Exception {
 
+        AggregateCache aggregateCache = new AggregateCache(
+                central ? MAX_CACHED_BYTES_CENTRAL : MAX_CACHED_BYTES_EMBEDDED,
+                rollupLevelService, clock);
         TransactionCommonService transactionCommonService = new TransactionCommonService(
-                aggregateRepository, liveAggregateRepository, configRepository, clock);
+                aggregateRepository, liveAggregateRepository, configRepository, aggregateCache,
+                clock);
         TraceCommonService traceCommonService = new TraceCommonService(traceRepository,
                 liveTraceRepository, agentDisplayRepository);
         ErrorCommonService errorCommonService =
@@ -221,14 +234,15 @@ public class UiModule {
                 httpSessionManager, jsonServices, clock);
 
         if (servlet) {
-            return new UiModule(commonHandler, reportingExecutor);
+            return new UiModule(commonHandler, reportingExecutor, aggregateCache);
         } else {
             HttpServer httpServer;
             int initialPort;
             if (central) {
                 httpServer = new HttpServer(checkNotNull(bindAddress), checkNotNull(https),
                         Suppliers.ofInstance(checkNotNull(contextPath)), numWorkerThreads,
-                        commonHandler, confDirs, central, offlineViewer);
+                        numHandlerThreads, maxConcurrentExpensiveRequests, commonHandler, confDirs,
+                        central, offlineViewer);
                 initialPort = checkNotNull(port);
             } else {
                 final EmbeddedWebConfig initialWebConfig = configRepository.getEmbeddedWebConfig();
@@ -245,25 +259,39 @@ public class UiModule {
                 };
                 httpServer = new HttpServer(initialWebConfig.bindAddress(),
                         initialWebConfig.https(), contextPathSupplier, numWorkerThreads,
-                        commonHandler, confDirs, central, offlineViewer);
+                        numHandlerThreads, maxConcurrentExpensiveRequests, commonHandler, confDirs,
+                        central, offlineViewer);
                 initialPort = initialWebConfig.port();
             }
             adminJsonService.setHttpServer(httpServer);
             httpServer.bindEventually(initialPort);
-            return new UiModule(httpServer, reportingExecutor);
+            return new UiModule(httpServer, reportingExecutor, aggregateCache);
         }
     }
 
-    private UiModule(HttpServer httpServer, ExecutorService reportingExecutor) {
+    private UiModule(HttpServer httpServer, ExecutorService reportingExecutor,
+            AggregateCache aggregateCache) {
         this.httpServer = httpServer;
         commonHandler = null;
         this.reportingExecutor = reportingExecutor;
+        this.aggregateCache = aggregateCache;
     }
 
-    private UiModule(CommonHandler commonHandler, ExecutorService reportingExecutor) {
+    private UiModule(CommonHandler commonHandler, ExecutorService reportingExecutor,
+            AggregateCache aggregateCache) {
         this.commonHandler = commonHandler;
         httpServer = null;
         this.reportingExecutor = reportingExecutor;
+        this.aggregateCache = aggregateCache;
+    }
+
+    // null when using servlet container
+    public @Nullable HttpHandlerMetricsMXBean getHttpHandlerMetrics() {
+        return httpServer == null ? null : httpServer.getHandlerMetrics();
+    }
+
+    public AggregateCacheMXBean getAggregateCacheMetrics() {
+        return aggregateCache;
     }
 
     public CommonHandler getCommonHandler() {
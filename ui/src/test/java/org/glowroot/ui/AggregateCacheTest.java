@@ -0,0 +1,215 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.ui;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.glowroot.common.live.ImmutableAggregateQuery;
+import org.glowroot.common.live.ImmutableThroughputAggregate;
+import org.glowroot.common.live.LiveAggregateRepository.AggregateQuery;
+import org.glowroot.common.live.LiveAggregateRepository.ThroughputAggregate;
+import org.glowroot.common.util.Clock;
+import org.glowroot.common2.repo.ConfigRepository;
+import org.glowroot.common2.repo.ConfigRepository.RollupConfig;
+import org.glowroot.common2.repo.util.RollupLevelService;
+import org.glowroot.ui.AggregateCache.DataKind;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class AggregateCacheTest {
+
+    private static final long MINUTE = 60000;
+    private static final long HOUR = 60 * MINUTE;
+
+    private Clock clock;
+    private RollupLevelService rollupLevelService;
+    private AggregateCache aggregateCache;
+    private List<AggregateQuery> repositoryQueries;
+
+    @BeforeEach
+    public void beforeEach() {
+        clock = mock(Clock.class);
+        ConfigRepository configRepository = mock(ConfigRepository.class);
+        when(configRepository.getRollupConfigs()).thenReturn(RollupConfig.buildRollupConfigs());
+        rollupLevelService = new RollupLevelService(configRepository, clock);
+        aggregateCache = new AggregateCache(1024 * 1024, rollupLevelService, clock);
+        repositoryQueries = new ArrayList<>();
+    }
+
+    @Test
+    public void shouldOnlyReadOpenTailOnRepeatedQuery() throws Exception {
+        // rollup level 1 (5 minute intervals), rolled up through 50 minutes
+        when(clock.currentTimeMillis()).thenReturn(HOUR);
+        List<ThroughputAggregate> aggregates = read(query(0, HOUR, 1), 5 * MINUTE, 50 * MINUTE);
+        assertThat(aggregates).hasSize(10);
+        assertThat(aggregateCache.getMissCount()).isEqualTo(1);
+
+        aggregates = read(query(10 * MINUTE, HOUR, 1), 5 * MINUTE, 55 * MINUTE);
+        assertThat(aggregates).hasSize(10);
+        assertThat(aggregates.get(0).captureTime()).isEqualTo(10 * MINUTE);
+        assertThat(aggregates.get(9).captureTime()).isEqualTo(55 * MINUTE);
+        assertThat(aggregateCache.getPartialHitCount()).isEqualTo(1);
+        assertThat(repositoryQueries.get(1).from()).isEqualTo(50 * MINUTE + 1);
+    }
+
+    @Test
+    public void shouldServeClosedRangeEntirelyFromCache() throws Exception {
+        when(clock.currentTimeMillis()).thenReturn(HOUR);
+        read(query(0, HOUR, 1), 5 * MINUTE, 50 * MINUTE);
+
+        List<ThroughputAggregate> aggregates =
+                read(query(20 * MINUTE, 40 * MINUTE, 1), 5 * MINUTE, 50 * MINUTE);
+        assertThat(aggregates).hasSize(5);
+        assertThat(aggregateCache.getHitCount()).isEqualTo(1);
+        assertThat(repositoryQueries).hasSize(1);
+    }
+
+    @Test
+    public void shouldNotCacheRecentLevel0Aggregates() throws Exception {
+        when(clock.currentTimeMillis()).thenReturn(10 * MINUTE);
+        read(query(0, 10 * MINUTE, 0), MINUTE, 10 * MINUTE);
+
+        read(query(0, 10 * MINUTE, 0), MINUTE, 10 * MINUTE);
+        // one minute interval plus two minute rollup delay
+        assertThat(repositoryQueries.get(1).from()).isEqualTo(7 * MINUTE + 1);
+    }
+
+    @Test
+    public void shouldNotCacheGapBeforeLateRow() throws Exception {
+        // level 0 row for 8 minutes is missing (e.g. not yet rolled up from a child agent), while
+        // the row for 9 minutes is already there
+        when(clock.currentTimeMillis()).thenReturn(10 * MINUTE);
+        List<ThroughputAggregate> aggregates =
+                read(query(0, 10 * MINUTE, 0), MINUTE, 10 * MINUTE, 8 * MINUTE);
+        assertThat(aggregates).hasSize(9);
+
+        // the row for 8 minutes arrives late
+        when(clock.currentTimeMillis()).thenReturn(11 * MINUTE);
+        aggregates = read(query(0, 11 * MINUTE, 0), MINUTE, 11 * MINUTE);
+        assertThat(aggregates).hasSize(11);
+        assertThat(aggregates.get(7).captureTime()).isEqualTo(8 * MINUTE);
+        assertThat(aggregateCache.getPartialHitCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldWeighEntriesByEstimatedBytes() throws Exception {
+        aggregateCache = new AggregateCache(4096, rollupLevelService, clock);
+        when(clock.currentTimeMillis()).thenReturn(HOUR);
+        // 60 level 0 throughput aggregates at 64 bytes each exceed the 4096 byte budget
+        read(query(0, HOUR, 0), MINUTE, HOUR);
+        read(query(0, HOUR, 0), MINUTE, HOUR);
+        assertThat(aggregateCache.getMissCount()).isEqualTo(2);
+        assertThat(aggregateCache.getSize()).isEqualTo(0);
+
+        // 10 level 1 throughput aggregates fit
+        read(query(0, HOUR, 1), 5 * MINUTE, 50 * MINUTE);
+        assertThat(aggregateCache.getSize()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldReadFullRangeWhenQueryStartsBeforeEntry() throws Exception {
+        when(clock.currentTimeMillis()).thenReturn(HOUR);
+        read(query(30 * MINUTE, HOUR, 1), 5 * MINUTE, 50 * MINUTE);
+
+        read(query(0, HOUR, 1), 5 * MINUTE, 50 * MINUTE);
+        assertThat(aggregateCache.getMissCount()).isEqualTo(2);
+        assertThat(repositoryQueries.get(1).from()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldReadFullRangeWhenQueryStartsAfterEntry() throws Exception {
+        when(clock.currentTimeMillis()).thenReturn(HOUR);
+        read(query(0, HOUR, 1), 5 * MINUTE, 50 * MINUTE);
+
+        when(clock.currentTimeMillis()).thenReturn(HOUR + 10 * MINUTE);
+        List<ThroughputAggregate> aggregates =
+                read(query(65 * MINUTE, 70 * MINUTE, 1), 5 * MINUTE, 65 * MINUTE);
+        assertThat(aggregates).hasSize(1);
+        assertThat(aggregates.get(0).captureTime()).isEqualTo(65 * MINUTE);
+        assertThat(aggregateCache.getMissCount()).isEqualTo(2);
+        assertThat(repositoryQueries.get(1).from()).isEqualTo(65 * MINUTE);
+    }
+
+    @Test
+    public void shouldReadFullRangeWhenEntryIsTooOld() throws Exception {
+        when(clock.currentTimeMillis()).thenReturn(HOUR);
+        read(query(0, HOUR, 1), 5 * MINUTE, 50 * MINUTE);
+
+        when(clock.currentTimeMillis()).thenReturn(2 * HOUR);
+        read(query(0, HOUR, 1), 5 * MINUTE, 50 * MINUTE);
+        assertThat(aggregateCache.getMissCount()).isEqualTo(2);
+    }
+
+    private List<ThroughputAggregate> read(AggregateQuery query, long intervalMillis,
+            long lastCaptureTime) throws Exception {
+        return read(query, intervalMillis, lastCaptureTime, -1);
+    }
+
+    private List<ThroughputAggregate> read(AggregateQuery query, final long intervalMillis,
+            final long lastCaptureTime, final long missingCaptureTime) throws Exception {
+        return aggregateCache.read("agent", query, DataKind.THROUGHPUT,
+                new Function<AggregateQuery, CompletionStage<List<ThroughputAggregate>>>() {
+                    @Override
+                    public CompletionStage<List<ThroughputAggregate>> apply(
+                            AggregateQuery repositoryQuery) {
+                        repositoryQueries.add(repositoryQuery);
+                        return CompletableFuture.completedFuture(readFromRepository(
+                                repositoryQuery, intervalMillis, lastCaptureTime,
+                                missingCaptureTime));
+                    }
+                }, ThroughputAggregate::captureTime, AggregateCache::estimateBytes)
+                .toCompletableFuture().get();
+    }
+
+    private static List<ThroughputAggregate> readFromRepository(AggregateQuery query,
+            long intervalMillis, long lastCaptureTime, long missingCaptureTime) {
+        List<ThroughputAggregate> aggregates = new ArrayList<>();
+        long captureTime =
+                (long) Math.ceil(query.from() / (double) intervalMillis) * intervalMillis;
+        if (captureTime == 0) {
+            captureTime = intervalMillis;
+        }
+        for (; captureTime <= Math.min(query.to(), lastCaptureTime); captureTime +=
+                intervalMillis) {
+            if (captureTime == missingCaptureTime) {
+                continue;
+            }
+            aggregates.add(ImmutableThroughputAggregate.builder()
+                    .captureTime(captureTime)
+                    .transactionCount(1)
+                    .build());
+        }
+        return aggregates;
+    }
+
+    private static AggregateQuery query(long from, long to, int rollupLevel) {
+        return ImmutableAggregateQuery.builder()
+                .transactionType("Web")
+                .from(from)
+                .to(to)
+                .rollupLevel(rollupLevel)
+                .build();
+    }
+}
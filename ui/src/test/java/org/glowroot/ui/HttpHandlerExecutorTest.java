@@ -0,0 +1,148 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.ui;
+
+import java.util.concurrent.CountDownLatch;
+
+import com.google.common.base.Ticker;
+import org.junit.jupiter.api.Test;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HttpHandlerExecutorTest {
+
+    @Test
+    public void shouldGetEndpoint() {
+        assertThat(HttpHandlerExecutor.getEndpoint("/backend/transaction/average"))
+                .isEqualTo("/backend/transaction/average");
+        assertThat(HttpHandlerExecutor.getEndpoint("/export/trace")).isEqualTo("/export/trace");
+        assertThat(HttpHandlerExecutor.getEndpoint("/health")).isEqualTo("/health");
+        assertThat(HttpHandlerExecutor.getEndpoint("/transaction/average")).isEqualTo("static");
+        assertThat(HttpHandlerExecutor.getEndpoint("/app-dist/scripts/app.js"))
+                .isEqualTo("static");
+    }
+
+    @Test
+    public void shouldIdentifyExpensiveRequests() {
+        assertThat(HttpHandlerExecutor.isExpensive("/export/trace")).isTrue();
+        assertThat(HttpHandlerExecutor.isExpensive("/backend/report")).isTrue();
+        assertThat(HttpHandlerExecutor.isExpensive("/backend/transaction/average")).isFalse();
+        assertThat(HttpHandlerExecutor.isExpensive("/health")).isFalse();
+    }
+
+    @Test
+    public void shouldRecordLatency() throws Exception {
+        HttpHandlerExecutor executor = new HttpHandlerExecutor(1, 1, Ticker.systemTicker());
+        final CountDownLatch latch = new CountDownLatch(2);
+        Runnable handler = new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        };
+        assertThat(executor.execute("/backend/trace/entries", handler)).isTrue();
+        assertThat(executor.execute("/backend/trace/entries", handler)).isTrue();
+        assertThat(latch.await(10, SECONDS)).isTrue();
+        executor.close();
+        assertThat(executor.getRequestCounts()).containsEntry("/backend/trace/entries", 2L);
+        assertThat(executor.getMaxLatencyMillis()).containsKey("/backend/trace/entries");
+    }
+
+    @Test
+    public void shouldNotLetExpensiveRequestsBlockOtherRequests() throws Exception {
+        HttpHandlerExecutor executor = new HttpHandlerExecutor(1, 1, Ticker.systemTicker());
+        final CountDownLatch blockExpensive = new CountDownLatch(1);
+        final CountDownLatch handled = new CountDownLatch(1);
+        executor.execute("/export/trace", new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    blockExpensive.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        executor.execute("/backend/trace/entries", new Runnable() {
+            @Override
+            public void run() {
+                handled.countDown();
+            }
+        });
+        assertThat(handled.await(10, SECONDS)).isTrue();
+        blockExpensive.countDown();
+        executor.close();
+    }
+
+    @Test
+    public void shouldServeHealthCheckWhenHandlerThreadsAreSaturated() throws Exception {
+        HttpHandlerExecutor executor = new HttpHandlerExecutor(1, 1, Ticker.systemTicker());
+        final CountDownLatch block = new CountDownLatch(1);
+        final CountDownLatch handled = new CountDownLatch(1);
+        Runnable blockingHandler = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    block.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        // 1 running plus 100 queued
+        for (int i = 0; i < 101; i++) {
+            assertThat(executor.execute("/backend/trace/entries", blockingHandler)).isTrue();
+        }
+        assertThat(executor.execute("/backend/trace/entries", blockingHandler)).isFalse();
+        assertThat(executor.execute("/health", new Runnable() {
+            @Override
+            public void run() {
+                handled.countDown();
+            }
+        })).isTrue();
+        assertThat(handled.await(10, SECONDS)).isTrue();
+        block.countDown();
+        executor.close();
+    }
+
+    @Test
+    public void shouldRejectWhenQueueIsFull() throws Exception {
+        HttpHandlerExecutor executor = new HttpHandlerExecutor(1, 1, Ticker.systemTicker());
+        final CountDownLatch block = new CountDownLatch(1);
+        Runnable handler = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    block.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        boolean rejected = false;
+        // 1 running plus 100 queued
+        for (int i = 0; i < 102; i++) {
+            if (!executor.execute("/export/trace", handler)) {
+                rejected = true;
+            }
+        }
+        assertThat(rejected).isTrue();
+        assertThat(executor.getRejectedCount()).isEqualTo(1);
+        block.countDown();
+        executor.close();
+    }
+}